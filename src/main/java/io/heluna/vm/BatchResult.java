@@ -0,0 +1,54 @@
+package io.heluna.vm;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Outputs of a batch execution, in input order.
+ * Each index holds either an output record or the error that record raised.
+ */
+public class BatchResult {
+
+    private final HVal.HRecord[] outputs;
+    private final HelunaException[] errors;
+    private final int errorCount;
+
+    BatchResult(HVal.HRecord[] outputs, HelunaException[] errors) {
+        this.outputs = outputs;
+        this.errors = errors;
+        int count = 0;
+        for (HelunaException e : errors) {
+            if (e != null) count++;
+        }
+        this.errorCount = count;
+    }
+
+    public int size() { return outputs.length; }
+
+    public int errorCount() { return errorCount; }
+
+    public boolean isError(int index) {
+        return errors[index] != null;
+    }
+
+    /**
+     * Output record for the input at the given index, or null if it failed.
+     */
+    public HVal.HRecord output(int index) {
+        return outputs[index];
+    }
+
+    /**
+     * Error raised by the input at the given index, or null if it succeeded.
+     */
+    public HelunaException error(int index) {
+        return errors[index];
+    }
+
+    /**
+     * All outputs in input order, with null entries for failed inputs.
+     */
+    public List<HVal.HRecord> outputs() {
+        return Arrays.asList(outputs);
+    }
+}
@@ -1,6 +1,8 @@
 package io.heluna.vm;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -9,8 +11,12 @@ import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Cross-VM benchmark runner for the Heluna VM.
@@ -30,6 +36,20 @@ public class BenchmarkRunner {
         String benchmarkDir = null;
         String filter = null;
         boolean skipNative = false;
+        boolean skipSession = false;
+        boolean skipCompiled = false;
+        int threads = 0;
+        boolean parallel = false;
+        boolean parse = false;
+        boolean serialize = false;
+        boolean nodes = false;
+        boolean bind = false;
+        int opcodePairs = 0;
+        boolean profile = false;
+        int dispatchSize = 0;
+        int recordOpsSize = 0;
+        int arithLoopCount = 0;
+        int dateCount = 0;
 
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
@@ -45,6 +65,48 @@ public class BenchmarkRunner {
                 case "--skip-native":
                     skipNative = true;
                     break;
+                case "--skip-session":
+                    skipSession = true;
+                    break;
+                case "--skip-compiled":
+                    skipCompiled = true;
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--parallel":
+                    parallel = true;
+                    break;
+                case "--parse":
+                    parse = true;
+                    break;
+                case "--serialize":
+                    serialize = true;
+                    break;
+                case "--nodes":
+                    nodes = true;
+                    break;
+                case "--bind":
+                    bind = true;
+                    break;
+                case "--opcode-pairs":
+                    opcodePairs = Integer.parseInt(args[++i]);
+                    break;
+                case "--profile":
+                    profile = true;
+                    break;
+                case "--dispatch":
+                    dispatchSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--record-ops":
+                    recordOpsSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--arith-loop":
+                    arithLoopCount = Integer.parseInt(args[++i]);
+                    break;
+                case "--dates":
+                    dateCount = Integer.parseInt(args[++i]);
+                    break;
                 default:
                     System.err.println("Unknown argument: " + args[i]);
                     printUsage();
@@ -52,6 +114,27 @@ public class BenchmarkRunner {
             }
         }
 
+        List<String> resultEntries = new ArrayList<>();
+
+        if (dispatchSize > 0 || recordOpsSize > 0 || arithLoopCount > 0 || dateCount > 0) {
+            if (dispatchSize > 0) {
+                resultEntries.add(runDispatchBenchmark(dispatchSize, 2000, 2000));
+            }
+            if (recordOpsSize > 0) {
+                resultEntries.add(runRecordBenchmark(recordOpsSize, 2000, 2000));
+            }
+            if (arithLoopCount > 0) {
+                resultEntries.add(runArithmeticBenchmark(arithLoopCount, 2000, 2000));
+            }
+            if (dateCount > 0) {
+                resultEntries.add(runDateBenchmark(dateCount, 200, 200));
+            }
+            if (specPath == null && benchmarkDir == null) {
+                printResults(resultEntries);
+                return;
+            }
+        }
+
         if (specPath == null || benchmarkDir == null) {
             printUsage();
             System.exit(1);
@@ -60,8 +143,7 @@ public class BenchmarkRunner {
         Path specFile = Paths.get(specPath);
         Path baseDir = Paths.get(benchmarkDir);
 
-        String specJson = new String(Files.readAllBytes(specFile));
-        HVal specVal = StdLib.parseJsonValue(specJson, new int[]{0});
+        HVal specVal = JsonReader.parse(Files.readAllBytes(specFile));
         if (!(specVal instanceof HVal.HRecord)) {
             System.err.println("benchmark-spec.json must be a JSON object");
             System.exit(1);
@@ -76,7 +158,6 @@ public class BenchmarkRunner {
         HVal.HList benchmarks = (HVal.HList) benchmarksVal;
 
         String timestamp = "2024-01-15T10:30:00Z";
-        List<String> resultEntries = new ArrayList<>();
 
         for (int i = 0; i < benchmarks.size(); i++) {
             HVal.HRecord bench = (HVal.HRecord) benchmarks.elements().get(i);
@@ -98,26 +179,270 @@ public class BenchmarkRunner {
             Packet pkt = HelunaVM.load(packetBytes);
 
             // Load and parse data once
-            String dataJson = new String(Files.readAllBytes(baseDir.resolve(dataPath)));
-            HVal dataVal = StdLib.parseJsonValue(dataJson, new int[]{0});
+            byte[] dataBytes = Files.readAllBytes(baseDir.resolve(dataPath));
+            String dataJson = new String(dataBytes, java.nio.charset.StandardCharsets.UTF_8);
+            HVal dataVal = JsonReader.parse(dataBytes);
             HVal.HRecord inputRecord = (HVal.HRecord) dataVal;
 
+            // --- JSON Parsing ---
+            if (parse) {
+                System.err.println("Running parse: " + name + " (" + dataBytes.length + " bytes)");
+
+                Runnable stringTask = () -> StdLib.parseJsonValue(dataJson, new int[]{0});
+                doWarmup(stringTask, warmupCount);
+                double[] stringStats = computeStats(doMeasure(stringTask, iterations));
+
+                Runnable bytesTask = () -> JsonReader.parse(dataBytes);
+                doWarmup(bytesTask, warmupCount);
+                double[] bytesStats = computeStats(doMeasure(bytesTask, iterations));
+
+                String parseSha256 = sha256(dataVal);
+                if (!parseSha256.equals(sha256(StdLib.parseJsonValue(dataJson, new int[]{0})))) {
+                    System.err.println("  WARNING: parser output mismatch!");
+                }
+
+                System.err.printf("  %s-parse: string=%.3fms bytes=%.3fms speedup=%.2fx (%.1f MB/s)%n",
+                        name, stringStats[2], bytesStats[2], stringStats[2] / bytesStats[2],
+                        dataBytes.length / (1024.0 * 1024.0) / (bytesStats[2] / 1000.0));
+
+                resultEntries.add(formatResult(name + "-parse-string", iterations, stringStats[0], stringStats[1], stringStats[2], stringStats[3], stringStats[4], stringStats[5], parseSha256));
+                resultEntries.add(formatResult(name + "-parse-bytes", iterations, bytesStats[0], bytesStats[1], bytesStats[2], bytesStats[3], bytesStats[4], bytesStats[5], parseSha256));
+            }
+
             // --- VM Benchmark ---
             Runnable vmTask = () -> HelunaVM.execute(pkt, inputRecord, timestamp);
             doWarmup(vmTask, warmupCount);
 
             HVal.HRecord firstOutput = HelunaVM.execute(pkt, inputRecord, timestamp);
-            String firstOutputJson = StdLib.toJson(firstOutput);
-            String outputSha256 = sha256(firstOutputJson);
+            String outputSha256 = sha256(firstOutput);
 
             long[] times = doMeasure(vmTask, iterations);
             double[] stats = computeStats(times);
 
             System.err.printf("  %s: mean=%.2fms median=%.2fms p99=%.2fms min=%.2fms max=%.2fms%n",
                     name, stats[1], stats[2], stats[3], stats[4], stats[5]);
+            System.err.println("  tier: " + pkt.profile);
+            if (pkt.optimization != null) {
+                System.err.println("  optimizer: " + pkt.optimization);
+            }
+            if (!pkt.patterns.isEmpty() || PatternCache.shared().size() > 0) {
+                System.err.println("  regex: " + pkt.patterns.size() + " precompiled, shared cache "
+                        + PatternCache.shared());
+            }
+            for (StdLibExtension.Metrics m : StdLib.extensionMetrics()) {
+                if (m.calls() > 0 && pkt.stdlibDeps.contains(m.id())) {
+                    System.err.println("  extension " + m);
+                }
+            }
+
+            // --- Opcode Pairs (fusion candidates) ---
+            if (opcodePairs > 0) {
+                OpcodePairs pairs = new OpcodePairs(pkt);
+                pairs.execute(inputRecord, timestamp);
+                System.err.println("  opcode pairs (top " + opcodePairs + " of " + pairs.total() + " per run):");
+                System.err.print(pairs.report(opcodePairs).replaceAll("(?m)^", "    "));
+            }
+
+            // --- Instruction Profile ---
+            if (profile) {
+                ExecutionProfiler profiler = new ExecutionProfiler(pkt);
+                doWarmup(() -> profiler.execute(inputRecord, timestamp), warmupCount);
+                profiler.reset();
+                for (int run = 0; run < iterations; run++) {
+                    profiler.execute(inputRecord, timestamp);
+                }
+                System.err.println("  profile:");
+                System.err.print(profiler.report(20).replaceAll("(?m)^", "    "));
+            }
 
             resultEntries.add(formatResult(name, iterations, stats[0], stats[1], stats[2], stats[3], stats[4], stats[5], outputSha256));
 
+            // --- JSON Serialization ---
+            if (serialize) {
+                System.err.println("Running serialize: " + name);
+
+                Runnable stringTask = () -> StdLib.toJsonConcat(firstOutput)
+                        .getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                doWarmup(stringTask, warmupCount);
+                double[] stringStats = computeStats(doMeasure(stringTask, iterations));
+
+                HValJsonWriter writer = new HValJsonWriter();
+                Runnable bytesTask = () -> writer.reset().write(firstOutput);
+                doWarmup(bytesTask, warmupCount);
+                double[] bytesStats = computeStats(doMeasure(bytesTask, iterations));
+
+                if (!sha256(StdLib.toJsonConcat(firstOutput)).equals(outputSha256)) {
+                    System.err.println("  WARNING: serializer output mismatch!");
+                }
+
+                System.err.printf("  %s-serialize: string=%.3fms bytes=%.3fms speedup=%.2fx (%d bytes)%n",
+                        name, stringStats[2], bytesStats[2], stringStats[2] / bytesStats[2], writer.size());
+
+                resultEntries.add(formatResult(name + "-serialize-string", iterations, stringStats[0], stringStats[1], stringStats[2], stringStats[3], stringStats[4], stringStats[5], outputSha256));
+                resultEntries.add(formatResult(name + "-serialize-bytes", iterations, bytesStats[0], bytesStats[1], bytesStats[2], bytesStats[3], bytesStats[4], bytesStats[5], outputSha256));
+            }
+
+            // --- Reused Session ---
+            if (!skipSession) {
+                System.err.println("Running session: " + name);
+
+                HelunaSession session = new HelunaSession(pkt);
+                Runnable sessionTask = () -> session.execute(inputRecord, timestamp);
+                doWarmup(sessionTask, warmupCount);
+
+                String sessionSha256 = sha256(session.execute(inputRecord, timestamp));
+                if (!sessionSha256.equals(outputSha256)) {
+                    System.err.println("  WARNING: session SHA-256 mismatch!");
+                }
+
+                long[] sessionTimes = doMeasure(sessionTask, iterations);
+                double[] sessionStats = computeStats(sessionTimes);
+
+                System.err.printf("  %s-session: mean=%.3fms median=%.3fms p99=%.3fms min=%.3fms max=%.3fms%n",
+                        name, sessionStats[1], sessionStats[2], sessionStats[3], sessionStats[4], sessionStats[5]);
+                System.err.printf("  session speedup: %.2fx%n", stats[2] / sessionStats[2]);
+
+                resultEntries.add(formatResult(name + "-session", iterations, sessionStats[0], sessionStats[1], sessionStats[2], sessionStats[3], sessionStats[4], sessionStats[5], sessionSha256));
+            }
+
+            // --- Compiled to JVM bytecode ---
+            double[] compiledStats = null;
+            if (!skipCompiled) {
+                // Separate packet instance so the interpreted runs above stay interpreted
+                Packet compiledPkt = HelunaVM.load(packetBytes);
+                if (!HelunaVM.compile(compiledPkt)) {
+                    System.err.println("  " + name + ": packet not compilable, skipping compiled run");
+                } else {
+                    System.err.println("Running compiled: " + name);
+
+                    Runnable compiledTask = () -> HelunaVM.execute(compiledPkt, inputRecord, timestamp);
+                    doWarmup(compiledTask, warmupCount);
+
+                    String compiledSha256 = sha256(HelunaVM.execute(compiledPkt, inputRecord, timestamp));
+                    if (!compiledSha256.equals(outputSha256)) {
+                        System.err.println("  WARNING: compiled SHA-256 mismatch!");
+                    }
+
+                    compiledStats = computeStats(doMeasure(compiledTask, iterations));
+
+                    System.err.printf("  %s-compiled: mean=%.3fms median=%.3fms p99=%.3fms min=%.3fms max=%.3fms%n",
+                            name, compiledStats[1], compiledStats[2], compiledStats[3], compiledStats[4], compiledStats[5]);
+                    System.err.printf("  compiled speedup: %.2fx%n", stats[2] / compiledStats[2]);
+
+                    resultEntries.add(formatResult(name + "-compiled", iterations, compiledStats[0], compiledStats[1], compiledStats[2], compiledStats[3], compiledStats[4], compiledStats[5], compiledSha256));
+                }
+            }
+
+            // --- Switch Loop vs Pre-decoded Nodes ---
+            if (nodes) {
+                System.err.println("Running switch/nodes: " + name);
+
+                HelunaSession switchSession = new HelunaSession(pkt);
+                switchSession.setMode(Executor.Mode.INTERPRETER);
+                Runnable switchTask = () -> switchSession.execute(inputRecord, timestamp);
+                doWarmup(switchTask, warmupCount);
+                double[] switchStats = computeStats(doMeasure(switchTask, iterations));
+
+                HelunaSession nodeSession = new HelunaSession(pkt);
+                nodeSession.setMode(Executor.Mode.NODES);
+                Runnable nodeTask = () -> nodeSession.execute(inputRecord, timestamp);
+                doWarmup(nodeTask, warmupCount);
+                String nodesSha256 = sha256(nodeSession.execute(inputRecord, timestamp));
+                if (!nodesSha256.equals(outputSha256)) {
+                    System.err.println("  WARNING: nodes SHA-256 mismatch!");
+                }
+                double[] nodeStats = computeStats(doMeasure(nodeTask, iterations));
+
+                System.err.printf("  %s-nodes: switch=%.3fms nodes=%.3fms speedup=%.2fx%n",
+                        name, switchStats[2], nodeStats[2], switchStats[2] / nodeStats[2]);
+
+                resultEntries.add(formatResult(name + "-switch", iterations, switchStats[0], switchStats[1], switchStats[2], switchStats[3], switchStats[4], switchStats[5], outputSha256));
+                resultEntries.add(formatResult(name + "-nodes", iterations, nodeStats[0], nodeStats[1], nodeStats[2], nodeStats[3], nodeStats[4], nodeStats[5], nodesSha256));
+            }
+
+            // --- JSON Input: Parsed Record vs Bound Fields ---
+            if (bind) {
+                System.err.println("Running bind: " + name + " (" + dataBytes.length + " bytes)");
+
+                HelunaSession recordSession = new HelunaSession(pkt);
+                Runnable recordTask = () -> recordSession.execute((HVal.HRecord) JsonReader.parse(dataBytes), timestamp);
+                doWarmup(recordTask, warmupCount);
+                double[] recordStats = computeStats(doMeasure(recordTask, iterations));
+
+                HelunaSession bindSession = new HelunaSession(pkt);
+                Runnable bindTask = () -> bindSession.execute(dataBytes, timestamp);
+                doWarmup(bindTask, warmupCount);
+                String bindSha256 = sha256(bindSession.execute(dataBytes, timestamp));
+                if (!bindSha256.equals(outputSha256)) {
+                    System.err.println("  WARNING: bound input SHA-256 mismatch!");
+                }
+                double[] bindStats = computeStats(doMeasure(bindTask, iterations));
+
+                System.err.printf("  %s-bind: record=%.3fms bind=%.3fms speedup=%.2fx%n",
+                        name, recordStats[2], bindStats[2], recordStats[2] / bindStats[2]);
+
+                resultEntries.add(formatResult(name + "-json-record", iterations, recordStats[0], recordStats[1], recordStats[2], recordStats[3], recordStats[4], recordStats[5], outputSha256));
+                resultEntries.add(formatResult(name + "-json-bind", iterations, bindStats[0], bindStats[1], bindStats[2], bindStats[3], bindStats[4], bindStats[5], bindSha256));
+            }
+
+            // --- Multi-threaded Throughput ---
+            if (threads > 0) {
+                long records = bench.get("records") instanceof HVal.HInteger
+                        ? ((HVal.HInteger) bench.get("records")).value() : 1;
+                ExecutorPool pool = new ExecutorPool();
+
+                System.err.println("Running throughput: " + name + " (1 and " + threads + " threads)");
+                double singleRate = measureThroughput(pool, pkt, inputRecord, timestamp, 1, warmupCount, iterations);
+                double multiRate = measureThroughput(pool, pkt, inputRecord, timestamp, threads, warmupCount, iterations);
+                double scaling = multiRate / singleRate;
+
+                System.err.printf("  %s-threads-%d: %.0f exec/s (%.0f records/s), 1 thread: %.0f exec/s, scaling %.2fx%n",
+                        name, threads, multiRate, multiRate * records, singleRate, scaling);
+
+                resultEntries.add(String.format(
+                        "{\"name\":\"%s\",\"threads\":%d,\"iterations_per_thread\":%d," +
+                        "\"executions_per_sec\":%.1f,\"records_per_sec\":%.1f,\"scaling\":%.2f}",
+                        escapeJson(name + "-threads-" + threads), threads, iterations,
+                        multiRate, multiRate * records, scaling));
+            }
+
+            // --- Parallel Batch ---
+            if (parallel) {
+                // One batch of `iterations` copies of the input, sequential vs fork/join
+                List<HVal.HRecord> batch = new ArrayList<>(Collections.nCopies(iterations, inputRecord));
+                ForkJoinPool fjPool = ForkJoinPool.commonPool();
+                int parallelism = fjPool.getParallelism();
+                System.err.println("Running parallel batch: " + name + " (" + iterations
+                        + " records, parallelism " + parallelism + ")");
+
+                HelunaVM.executeBatch(pkt, batch.subList(0, Math.min(warmupCount, batch.size())), timestamp);
+                long seqStart = System.nanoTime();
+                BatchResult seqResult = HelunaVM.executeBatch(pkt, batch, timestamp);
+                long seqNs = System.nanoTime() - seqStart;
+
+                HelunaVM.executeBatchParallel(pkt, batch.subList(0, Math.min(warmupCount, batch.size())), timestamp);
+                long parStart = System.nanoTime();
+                BatchResult parResult = HelunaVM.executeBatchParallel(pkt, batch, timestamp, fjPool);
+                long parNs = System.nanoTime() - parStart;
+
+                String parSha256 = sha256(parResult.output(parResult.size() - 1));
+                if (parResult.errorCount() != seqResult.errorCount() || !parSha256.equals(outputSha256)) {
+                    System.err.println("  WARNING: parallel batch output mismatch!");
+                }
+
+                double seqMs = seqNs / 1_000_000.0;
+                double parMs = parNs / 1_000_000.0;
+                System.err.printf("  %s-parallel: sequential=%.2fms parallel=%.2fms speedup=%.2fx%n",
+                        name, seqMs, parMs, seqMs / parMs);
+
+                resultEntries.add(String.format(
+                        "{\"name\":\"%s\",\"records\":%d,\"parallelism\":%d," +
+                        "\"sequential_ms\":%.2f,\"parallel_ms\":%.2f,\"speedup\":%.2f," +
+                        "\"output_sha256\":\"%s\"}",
+                        escapeJson(name + "-parallel"), iterations, parallelism,
+                        seqMs, parMs, seqMs / parMs, escapeJson(parSha256)));
+            }
+
             // --- Native Baseline ---
             if (!skipNative && NativeBenchmarks.hasNative(packetPath)) {
                 System.err.println("Running native: " + name);
@@ -145,13 +470,22 @@ public class BenchmarkRunner {
 
                 double overhead = stats[2] / nativeStats[2];
                 System.err.printf("  overhead: %.1fx%n", overhead);
+                if (compiledStats != null) {
+                    System.err.printf("  compiled overhead: %.1fx%n", compiledStats[2] / nativeStats[2]);
+                }
 
                 String nativeName = name + "-native";
                 resultEntries.add(formatResult(nativeName, iterations, nativeStats[0], nativeStats[1], nativeStats[2], nativeStats[3], nativeStats[4], nativeStats[5], nativeSha256));
             }
         }
 
-        // Output JSON results to stdout
+        printResults(resultEntries);
+    }
+
+    /**
+     * Output JSON results to stdout.
+     */
+    private static void printResults(List<String> resultEntries) {
         String javaVersion = System.getProperty("java.version");
         String timestampNow = Instant.now().toString();
 
@@ -168,6 +502,209 @@ public class BenchmarkRunner {
         System.out.println(sb.toString());
     }
 
+    /**
+     * Loader and interpreter dispatch benchmark on a synthetic straight-line
+     * packet of the given size: constant loads, then integer adds, copies,
+     * comparisons and compare-jumps to the next instruction spread over 64
+     * slots.
+     */
+    private static String runDispatchBenchmark(int instructionCount, int warmupCount, int iterations) {
+        ByteBuffer bytecode = allocateBytecode(instructionCount);
+        putInstruction(bytecode, Executor.LOAD_CONST, 0, 0, 0);
+        putInstruction(bytecode, Executor.LOAD_CONST, 1, 1, 0);
+        for (int pc = 2; pc < instructionCount; pc++) {
+            int slot = 2 + pc % 62;
+            switch (pc % 4) {
+                case 0: putInstruction(bytecode, Executor.ADD, slot, 0, 1); break;
+                case 1: putInstruction(bytecode, Executor.COPY, slot, 0, 0); break;
+                case 2: putInstruction(bytecode, Executor.LT, slot, 0, 1); break;
+                default: putInstruction(bytecode, Executor.CMP_JUMP_GT, pc + 1, 0, 1); break;
+            }
+        }
+
+        Packet pkt = new Packet();
+        pkt.scratchpadSize = 64;
+        pkt.constants.add(new HVal.HInteger(1));
+        pkt.constants.add(new HVal.HInteger(2));
+        return runSynthetic("dispatch-" + instructionCount, bytecode, pkt, warmupCount, iterations);
+    }
+
+    /**
+     * Record-heavy variant of the dispatch benchmark: repeated groups of
+     * RECORD_NEW_SET_C, RECORD_SET_C and RECORD_GET_C over 16 constant keys,
+     * followed by TAG_SET and TAG_CHECK with a constant mask.
+     */
+    private static String runRecordBenchmark(int instructionCount, int warmupCount, int iterations) {
+        ByteBuffer bytecode = allocateBytecode(instructionCount);
+        int value = 16, mask = 17;
+        putInstruction(bytecode, Executor.LOAD_CONST, 0, value, 0);
+        putInstruction(bytecode, Executor.RECORD_NEW, 1, 0, 0);
+        for (int pc = 2; pc < instructionCount; pc++) {
+            int key = (pc / 5) % 16;
+            switch (pc % 5) {
+                case 0: putInstruction(bytecode, Executor.RECORD_NEW_SET_C, 1, key, 0); break;
+                case 1: putInstruction(bytecode, Executor.RECORD_SET_C, 1, (key + 1) % 16, 0); break;
+                case 2: putInstruction(bytecode, Executor.RECORD_GET_C, 2, 1, key); break;
+                case 3: putInstruction(bytecode, Executor.TAG_SET, 2, mask, 0); break;
+                default: putInstruction(bytecode, Executor.TAG_CHECK, 3, 2, mask); break;
+            }
+        }
+
+        Packet pkt = new Packet();
+        pkt.scratchpadSize = 4;
+        for (int k = 0; k < 16; k++) {
+            pkt.constants.add(new HVal.HString("field-" + k));
+        }
+        pkt.constants.add(new HVal.HInteger(1));
+        pkt.constants.add(new HVal.HInteger(3));
+        return runSynthetic("record-ops-" + instructionCount, bytecode, pkt, warmupCount, iterations);
+    }
+
+    /**
+     * Arithmetic loop of the given number of iterations: an integer counter
+     * and sum and a float sum of the counter scaled by 0.7, with the loop
+     * test as a compare-jump. Reports instructions executed per second.
+     */
+    private static String runArithmeticBenchmark(int loopCount, int warmupCount, int iterations) {
+        ByteBuffer bytecode = allocateBytecode(12);
+        putInstruction(bytecode, Executor.LOAD_CONST, 0, 0, 0);      // i = 0
+        putInstruction(bytecode, Executor.LOAD_CONST, 1, 0, 0);      // sum = 0
+        putInstruction(bytecode, Executor.LOAD_CONST, 2, 2, 0);      // total = 0.0
+        putInstruction(bytecode, Executor.LOAD_CONST, 3, 4, 0);      // n
+        putInstruction(bytecode, Executor.LOAD_CONST, 4, 1, 0);      // 1
+        putInstruction(bytecode, Executor.LOAD_CONST, 5, 3, 0);      // 0.7
+        putInstruction(bytecode, Executor.CMP_JUMP_LT, 12, 0, 3);    // 6: while i < n
+        putInstruction(bytecode, Executor.MUL, 6, 0, 5);
+        putInstruction(bytecode, Executor.ADD, 2, 2, 6);
+        putInstruction(bytecode, Executor.ADD, 1, 1, 0);
+        putInstruction(bytecode, Executor.ADD, 0, 0, 4);
+        putInstruction(bytecode, Executor.JUMP, 6, 0, 0);
+
+        Packet pkt = new Packet();
+        pkt.scratchpadSize = 7;
+        pkt.constants.add(new HVal.HInteger(0));
+        pkt.constants.add(new HVal.HInteger(1));
+        pkt.constants.add(new HVal.HFloat(0.0));
+        pkt.constants.add(new HVal.HFloat(0.7));
+        pkt.constants.add(new HVal.HInteger(loopCount));
+        long executed = 7 + 6L * loopCount;
+        return runSynthetic("arith-loop-" + loopCount, bytecode, pkt, executed, warmupCount, iterations);
+    }
+
+    /**
+     * Date-heavy benchmark over a generated data set of the given number of
+     * dates, 1990 to 2030, half of them datetimes: each is moved 30 days
+     * with dateAdd, measured against the result in hours with dateDiff, and
+     * its timestamp read with parseDate and written back with formatDate in
+     * another format. Four stdlib calls and their argument records per date.
+     */
+    private static String runDateBenchmark(int dateCount, int warmupCount, int iterations) {
+        int perDate = 16;
+        if (dateCount > (0xFFFF - 5) / perDate) {
+            throw new IllegalArgumentException("the date benchmark takes at most " + (0xFFFF - 5) / perDate + " dates");
+        }
+        Packet pkt = new Packet();
+        pkt.scratchpadSize = 12;
+        for (String c : new String[]{"date", "amount", "unit", "from", "to", "value", "format", "days", "hours"}) {
+            pkt.constants.add(new HVal.HString(c));
+        }
+        int date = 0, amount = 1, unit = 2, from = 3, to = 4, value = 5, format = 6, days = 7, hours = 8;
+        int thirty = 9, parseFormat = 10, outputFormat = 11;
+        pkt.constants.add(new HVal.HInteger(30));
+        pkt.constants.add(new HVal.HString("%Y-%m-%d %H:%M:%S"));
+        pkt.constants.add(new HVal.HString("%d/%m/%Y %H:%M"));
+        int firstDate = pkt.constants.size();
+        Random random = new Random(2024);
+        for (int i = 0; i < dateCount; i++) {
+            String day = String.format("%04d-%02d-%02d",
+                    1990 + random.nextInt(41), 1 + random.nextInt(12), 1 + random.nextInt(28));
+            String time = String.format("%02d:%02d:%02d", random.nextInt(24), random.nextInt(60), random.nextInt(60));
+            pkt.constants.add(new HVal.HString(i % 2 == 0 ? day : day + "T" + time + "Z"));
+            pkt.constants.add(new HVal.HString(day + " " + time));
+        }
+        pkt.stdlibDeps.addAll(Arrays.asList(0x0050, 0x0051, 0x0052, 0x0053));
+
+        ByteBuffer bytecode = allocateBytecode(5 + perDate * dateCount);
+        putInstruction(bytecode, Executor.LOAD_CONST, 0, thirty, 0);
+        putInstruction(bytecode, Executor.LOAD_CONST, 1, days, 0);
+        putInstruction(bytecode, Executor.LOAD_CONST, 2, hours, 0);
+        putInstruction(bytecode, Executor.LOAD_CONST, 3, parseFormat, 0);
+        putInstruction(bytecode, Executor.LOAD_CONST, 4, outputFormat, 0);
+        for (int i = 0; i < dateCount; i++) {
+            putInstruction(bytecode, Executor.LOAD_CONST, 5, firstDate + 2 * i, 0);
+            putInstruction(bytecode, Executor.RECORD_NEW_SET_C, 6, date, 5);
+            putInstruction(bytecode, Executor.RECORD_SET_C, 6, amount, 0);
+            putInstruction(bytecode, Executor.RECORD_SET_C, 6, unit, 1);
+            putInstruction(bytecode, Executor.STDLIB_CALL, 7, 0x0053, 6);     // dateAdd
+            putInstruction(bytecode, Executor.RECORD_NEW_SET_C, 6, from, 5);
+            putInstruction(bytecode, Executor.RECORD_SET_C, 6, to, 7);
+            putInstruction(bytecode, Executor.RECORD_SET_C, 6, unit, 2);
+            putInstruction(bytecode, Executor.STDLIB_CALL, 8, 0x0052, 6);     // dateDiff
+            putInstruction(bytecode, Executor.LOAD_CONST, 9, firstDate + 2 * i + 1, 0);
+            putInstruction(bytecode, Executor.RECORD_NEW_SET_C, 6, value, 9);
+            putInstruction(bytecode, Executor.RECORD_SET_C, 6, format, 3);
+            putInstruction(bytecode, Executor.STDLIB_CALL, 10, 0x0050, 6);    // parseDate
+            putInstruction(bytecode, Executor.RECORD_NEW_SET_C, 6, date, 10);
+            putInstruction(bytecode, Executor.RECORD_SET_C, 6, format, 4);
+            putInstruction(bytecode, Executor.STDLIB_CALL, 11, 0x0051, 6);    // formatDate
+        }
+        return runSynthetic("dates-" + dateCount, bytecode, pkt, warmupCount, iterations);
+    }
+
+    private static ByteBuffer allocateBytecode(int instructionCount) {
+        if (instructionCount < 2 || instructionCount > 0xFFFF) {
+            throw new IllegalArgumentException("synthetic packets take 2 to 65535 instructions");
+        }
+        return ByteBuffer.allocate(instructionCount * 8).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String runSynthetic(String name, ByteBuffer bytecode, Packet pkt,
+                                       int warmupCount, int iterations) {
+        return runSynthetic(name, bytecode, pkt, bytecode.capacity() / 8, warmupCount, iterations);
+    }
+
+    /**
+     * Measure parsing the bytecode section into the packet, then interpreted
+     * executions of it, and report load time per instruction and the
+     * executed instruction rate.
+     */
+    private static String runSynthetic(String name, ByteBuffer bytecode, Packet pkt, long executed,
+                                       int warmupCount, int iterations) {
+        int instructionCount = bytecode.capacity() / 8;
+        int[] section = {0, bytecode.capacity()};
+        System.err.println("Running synthetic: " + name + " (" + warmupCount + " warmup, " + iterations + " iterations)");
+
+        Runnable loadTask = () -> PacketLoader.parseBytecode(bytecode, section, pkt);
+        doWarmup(loadTask, warmupCount);
+        double[] loadStats = computeStats(doMeasure(loadTask, iterations));
+        pkt.functions = StdLib.resolve(pkt);
+
+        Executor ex = new Executor(pkt);
+        ex.setStdLib(new StdLib());
+        ex.setMode(Executor.Mode.INTERPRETER);
+        Runnable runTask = () -> {
+            ex.reset();
+            ex.execute();
+        };
+        doWarmup(runTask, warmupCount);
+        double[] runStats = computeStats(doMeasure(runTask, iterations));
+
+        double loadNsPerInstr = loadStats[2] * 1_000_000.0 / instructionCount;
+        double instrPerSec = executed / (runStats[2] / 1000.0);
+        System.err.printf("  %s: load=%.3fms (%.1f ns/instr) execute=%.3fms (%.1f M instr/s)%n",
+                name, loadStats[2], loadNsPerInstr, runStats[2], instrPerSec / 1_000_000.0);
+
+        return String.format(
+                "{\"name\":\"%s\",\"instructions\":%d,\"iterations\":%d," +
+                "\"load_median_ms\":%.4f,\"execute_median_ms\":%.4f,\"instructions_per_sec\":%.1f}",
+                escapeJson(name), instructionCount, iterations, loadStats[2], runStats[2], instrPerSec);
+    }
+
+    private static void putInstruction(ByteBuffer buf, int opcode, int dest, int op1, int op2) {
+        buf.put((byte) opcode).put((byte) 0)
+           .putShort((short) dest).putShort((short) op1).putShort((short) op2);
+    }
+
     private static void doWarmup(Runnable task, int count) {
         for (int i = 0; i < count; i++) {
             task.run();
@@ -184,6 +721,44 @@ public class BenchmarkRunner {
         return times;
     }
 
+    /**
+     * Run the packet on the given number of threads, each drawing its session
+     * from the shared pool, and return aggregate executions per second.
+     */
+    private static double measureThroughput(ExecutorPool pool, Packet pkt, HVal.HRecord input,
+                                            String timestamp, int threadCount,
+                                            int warmupCount, int iterations) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(threadCount);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < warmupCount; i++) {
+                    pool.execute(pkt, input, timestamp);
+                }
+                ready.countDown();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < iterations; i++) {
+                    pool.execute(pkt, input, timestamp);
+                }
+            });
+            workers[t].start();
+        }
+        ready.await();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread w : workers) {
+            w.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        return (double) threadCount * iterations / (elapsed / 1_000_000_000.0);
+    }
+
     private static double[] computeStats(long[] times) {
         Arrays.sort(times);
         int n = times.length;
@@ -214,10 +789,23 @@ public class BenchmarkRunner {
         return sorted[idx];
     }
 
+    private static final HValJsonWriter SHA_WRITER = new HValJsonWriter();
+
+    private static String sha256(HVal value) {
+        SHA_WRITER.reset().write(value);
+        return sha256(SHA_WRITER.buffer(), SHA_WRITER.size());
+    }
+
     private static String sha256(String input) {
+        byte[] bytes = input.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        return sha256(bytes, bytes.length);
+    }
+
+    private static String sha256(byte[] input, int length) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(input.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            md.update(input, 0, length);
+            byte[] hash = md.digest();
             StringBuilder hex = new StringBuilder();
             for (byte b : hash) {
                 hex.append(String.format("%02x", b));
@@ -244,6 +832,6 @@ public class BenchmarkRunner {
     }
 
     private static void printUsage() {
-        System.err.println("Usage: java io.heluna.vm.BenchmarkRunner --spec <path> --benchmark-dir <path> [--filter <name>] [--skip-native]");
+        System.err.println("Usage: java io.heluna.vm.BenchmarkRunner --spec <path> --benchmark-dir <path> [--filter <name>] [--skip-native] [--skip-session] [--skip-compiled] [--threads <n>] [--parallel] [--parse] [--serialize] [--nodes] [--bind] [--opcode-pairs <n>] [--profile] [--dispatch <instructions>] [--record-ops <instructions>] [--arith-loop <iterations>] [--dates <dates>]");
     }
 }
@@ -0,0 +1,20 @@
+package io.heluna.vm;
+
+/**
+ * Base class of the JVM classes generated by {@link PacketCompiler}.
+ *
+ * A compiled packet runs the same instructions as the interpreter against an
+ * Executor's scratchpad, so slot access, tags, reset and the stdlib behave
+ * exactly as they do when interpreting. Instances are immutable and may be
+ * shared by every Executor running the packet.
+ */
+public abstract class CompiledPacket {
+
+    final HVal[] constants;
+
+    protected CompiledPacket(HVal[] constants) {
+        this.constants = constants;
+    }
+
+    abstract void run(Executor ex, HVal[] values, long[] tags);
+}
@@ -0,0 +1,120 @@
+package io.heluna.vm;
+
+import java.util.Arrays;
+
+/**
+ * The control-flow graph of a packet's flat code, for the load-time passes
+ * ({@link TypeAnalyzer}, {@link PacketOptimizer}).
+ *
+ * Edges come from jumps, compare-jumps and iterations: ITER_SETUP goes to
+ * the first body instruction or, for an empty list, past its ITER_COLLECT,
+ * and ITER_COLLECT goes back to the body or on. Iterations are paired the
+ * way PacketCompiler pairs them: properly nested, and no jump may enter or
+ * leave an iteration body. Code that breaks these rules has no graph.
+ */
+final class ControlFlow {
+
+    final int count;
+    final int[] setupOf;      // the ITER_SETUP of each ITER_COLLECT, else -1
+    final int[] loopAt;       // the innermost ITER_SETUP whose body holds pc, else -1
+    final boolean[] leaders;  // first instruction of each basic block
+    private final int[] code;
+
+    private ControlFlow(int[] code, int count, int[] setupOf, int[] loopAt) {
+        this.code = code;
+        this.count = count;
+        this.setupOf = setupOf;
+        this.loopAt = loopAt;
+        this.leaders = new boolean[count + 1];
+    }
+
+    /**
+     * The graph of the code, or null if its iterations do not pair up or a
+     * jump crosses an iteration body.
+     */
+    static ControlFlow of(int[] code) {
+        int count = code.length / Packet.INSTRUCTION_WIDTH;
+        int[] setupOf = new int[count];
+        int[] loopAt = new int[count];
+        Arrays.fill(setupOf, -1);
+        int[] stack = new int[count];
+        int depth = 0;
+        for (int pc = 0; pc < count; pc++) {
+            int base = pc * Packet.INSTRUCTION_WIDTH;
+            while (depth > 0 && collectOf(code, stack[depth - 1]) < pc) depth--;
+            loopAt[pc] = depth > 0 ? stack[depth - 1] : -1;
+            if (code[base] == Executor.ITER_SETUP) {
+                int collect = collectOf(code, pc);
+                if (code[base + 4] < 0 || collect >= count
+                        || code[collect * Packet.INSTRUCTION_WIDTH] != Executor.ITER_COLLECT
+                        || setupOf[collect] >= 0
+                        || depth > 0 && collect >= collectOf(code, stack[depth - 1])) {
+                    return null;
+                }
+                setupOf[collect] = pc;
+                stack[depth++] = pc;
+            } else if (code[base] == Executor.ITER_COLLECT && setupOf[pc] < 0) {
+                return null;
+            }
+        }
+
+        ControlFlow cfg = new ControlFlow(code, count, setupOf, loopAt);
+        boolean[] leaders = cfg.leaders;
+        leaders[0] = true;
+        leaders[count] = true;
+        int[] next = new int[2];
+        for (int pc = 0; pc < count; pc++) {
+            int opcode = code[pc * Packet.INSTRUCTION_WIDTH];
+            int n = cfg.successors(pc, next);
+            if (n == 1 && next[0] == pc + 1) continue; // falls through
+            leaders[pc + 1] = true;
+            for (int i = 0; i < n; i++) {
+                int target = next[i];
+                if (opcode != Executor.ITER_SETUP && opcode != Executor.ITER_COLLECT) {
+                    if (target < 0) return null;
+                    if (target >= count ? loopAt[pc] != -1 : loopAt[target] != loopAt[pc]) return null;
+                }
+                leaders[Math.min(target, count)] = true;
+            }
+        }
+        return cfg;
+    }
+
+    /** The ITER_COLLECT closing the iteration that starts at setupPc. */
+    static int collectOf(int[] code, int setupPc) {
+        return setupPc + 1 + code[setupPc * Packet.INSTRUCTION_WIDTH + 4];
+    }
+
+    /**
+     * Store the instructions that may run after pc in next, returning how
+     * many there are. Targets at or past the end leave the code.
+     */
+    int successors(int pc, int[] next) {
+        int base = pc * Packet.INSTRUCTION_WIDTH;
+        int dest = code[base + 2];
+        switch (code[base]) {
+            case Executor.JUMP:
+                next[0] = dest;
+                return 1;
+            case Executor.JUMP_IF: case Executor.JUMP_IF_NOT:
+            case Executor.CMP_JUMP_EQ: case Executor.CMP_JUMP_NEQ:
+            case Executor.CMP_JUMP_LT: case Executor.CMP_JUMP_GT:
+            case Executor.CMP_JUMP_LTE: case Executor.CMP_JUMP_GTE:
+            case Executor.IS_NOTHING_JUMP:
+                next[0] = dest;
+                next[1] = pc + 1;
+                return 2;
+            case Executor.ITER_SETUP:
+                next[0] = pc + 1;                     // first element
+                next[1] = collectOf(code, pc) + 1;    // empty list: past ITER_COLLECT
+                return 2;
+            case Executor.ITER_COLLECT:
+                next[0] = setupOf[pc] + 1;            // next element
+                next[1] = pc + 1;
+                return 2;
+            default:
+                next[0] = pc + 1;
+                return 1;
+        }
+    }
+}
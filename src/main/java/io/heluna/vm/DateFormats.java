@@ -0,0 +1,310 @@
+package io.heluna.vm;
+
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Date parsing and formatting for the stdlib date functions.
+ *
+ * ISO-8601 dates ("2024-01-15") and datetimes ("2024-01-15T10:30:00"),
+ * either with a trailing Z, are read and written by hand through six int
+ * fields (year, month, day, hour, minute, second) and epoch seconds, with
+ * no java.time objects. strftime formats (%Y %m %d %H %M %S) are converted
+ * to a DateTimeFormatter once and cached; a format made only of those
+ * fields and punctuation is also read and written by hand.
+ *
+ * The fast paths take only input they handle exactly as java.time would:
+ * fractional seconds, years past 9999, out-of-range fields and other
+ * formats make them return false, NONE or null, and the caller goes
+ * through java.time as before, with the same results and errors.
+ */
+final class DateFormats {
+
+    // Indices into a fields array
+    static final int YEAR = 0, MONTH = 1, DAY = 2, HOUR = 3, MINUTE = 4, SECOND = 5;
+
+    /** No epoch second: the input is not for the fast path. */
+    static final long NONE = Long.MIN_VALUE;
+
+    // Formats are few and come from packet constants; past this many, new ones are not cached
+    private static final int MAX_FORMATS = 256;
+    private static final ConcurrentHashMap<String, Format> FORMATS = new ConcurrentHashMap<>();
+
+    private DateFormats() {}
+
+    /** A strftime format, converted to a DateTimeFormatter and, if simple enough, to a layout. */
+    static final class Format {
+        final DateTimeFormatter formatter;
+        // A field index, or ~c for a literal character c; null if not for the fast path
+        private final int[] layout;
+        // Every field appears exactly once, as LocalDateTime.parse needs
+        private final boolean complete;
+
+        Format(String strftime) {
+            // Convert strftime-style format to Java DateTimeFormatter
+            formatter = DateTimeFormatter.ofPattern(strftime
+                    .replace("%Y", "yyyy")
+                    .replace("%m", "MM")
+                    .replace("%d", "dd")
+                    .replace("%H", "HH")
+                    .replace("%M", "mm")
+                    .replace("%S", "ss"));
+            layout = layout(strftime);
+            boolean all = layout != null;
+            for (int field = YEAR; all && field <= SECOND; field++) {
+                int count = 0;
+                for (int op : layout) if (op == field) count++;
+                all = count == 1;
+            }
+            complete = all;
+        }
+
+        /** True if the format can be written without the formatter. */
+        boolean simple() {
+            return layout != null;
+        }
+
+        /**
+         * Read value into fields, returning false unless the format is simple
+         * and complete and the value matches it with every field in range.
+         */
+        boolean parse(String value, int[] fields) {
+            if (!complete) return false;
+            int pos = 0;
+            for (int op : layout) {
+                if (op < 0) {
+                    if (pos >= value.length() || value.charAt(pos) != (char) ~op) return false;
+                    pos++;
+                    continue;
+                }
+                int width = op == YEAR ? 4 : 2;
+                int v = digits(value, pos, width);
+                if (v < 0) return false;
+                fields[op] = v;
+                pos += width;
+            }
+            return pos == value.length() && fields[YEAR] >= 1
+                    && inRange(fields[YEAR], fields[MONTH], fields[DAY], fields[HOUR], fields[MINUTE], fields[SECOND]);
+        }
+
+        /** Write the fields, which must be in range, in a simple format. */
+        String format(int year, int month, int day, int hour, int minute, int second) {
+            StringBuilder sb = new StringBuilder(layout.length + 8);
+            for (int op : layout) {
+                switch (op) {
+                    case YEAR: pad(sb, year, 4); break;
+                    case MONTH: pad(sb, month, 2); break;
+                    case DAY: pad(sb, day, 2); break;
+                    case HOUR: pad(sb, hour, 2); break;
+                    case MINUTE: pad(sb, minute, 2); break;
+                    case SECOND: pad(sb, second, 2); break;
+                    default: sb.append((char) ~op); break;
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /** The converted format, cached. Throws IllegalArgumentException for a format java.time rejects. */
+    static Format format(String strftime) {
+        Format f = FORMATS.get(strftime);
+        if (f != null) return f;
+        f = new Format(strftime);
+        if (FORMATS.size() < MAX_FORMATS) FORMATS.putIfAbsent(strftime, f);
+        return f;
+    }
+
+    /**
+     * The fields and literal characters of a strftime format, or null if it
+     * has anything but %Y %m %d %H %M %S and punctuation, which the
+     * DateTimeFormatter pattern takes as literal.
+     */
+    private static int[] layout(String strftime) {
+        int[] ops = new int[strftime.length()];
+        int n = 0;
+        for (int i = 0; i < strftime.length(); i++) {
+            char c = strftime.charAt(i);
+            if (c == '%') {
+                if (++i == strftime.length()) return null;
+                switch (strftime.charAt(i)) {
+                    case 'Y': ops[n++] = YEAR; break;
+                    case 'm': ops[n++] = MONTH; break;
+                    case 'd': ops[n++] = DAY; break;
+                    case 'H': ops[n++] = HOUR; break;
+                    case 'M': ops[n++] = MINUTE; break;
+                    case 'S': ops[n++] = SECOND; break;
+                    default: return null;
+                }
+            } else if (Character.isLetter(c) || c == '\'' || c == '[' || c == ']'
+                    || c == '{' || c == '}' || c == '#' || c > 0x7E || c < 0x20) {
+                return null;
+            } else {
+                ops[n++] = ~c;
+            }
+        }
+        return java.util.Arrays.copyOf(ops, n);
+    }
+
+    // --- ISO-8601 ---
+
+    /**
+     * Read "yyyy-MM-dd" or "yyyy-MM-ddTHH:mm:ss", either with a trailing Z,
+     * into fields; false for anything else or any field out of range.
+     */
+    static boolean parseIso(String s, int[] fields) {
+        int n = s.length();
+        if (n > 0 && s.charAt(n - 1) == 'Z') n--;
+        if (n != 10 && n != 19 || s.charAt(4) != '-' || s.charAt(7) != '-') return false;
+        int year = digits(s, 0, 4), month = digits(s, 5, 2), day = digits(s, 8, 2);
+        int hour = 0, minute = 0, second = 0;
+        if (n == 19) {
+            if (s.charAt(10) != 'T' || s.charAt(13) != ':' || s.charAt(16) != ':') return false;
+            hour = digits(s, 11, 2);
+            minute = digits(s, 14, 2);
+            second = digits(s, 17, 2);
+        }
+        if (year < 0 || !inRange(year, month, day, hour, minute, second)) return false;
+        fields[YEAR] = year;
+        fields[MONTH] = month;
+        fields[DAY] = day;
+        fields[HOUR] = hour;
+        fields[MINUTE] = minute;
+        fields[SECOND] = second;
+        return true;
+    }
+
+    /** The epoch second of an ISO date or datetime, or NONE if parseIso does not take it. */
+    static long isoEpochSecond(String s, int[] fields) {
+        return parseIso(s, fields) ? epochSecond(fields) : NONE;
+    }
+
+    /** Write the fields as an ISO date, or as a datetime with a Z. */
+    static String formatIso(int[] fields, boolean dateOnly) {
+        char[] buf = new char[dateOnly ? 10 : 20];
+        put(buf, 0, fields[YEAR], 4);
+        buf[4] = '-';
+        put(buf, 5, fields[MONTH], 2);
+        buf[7] = '-';
+        put(buf, 8, fields[DAY], 2);
+        if (!dateOnly) {
+            buf[10] = 'T';
+            put(buf, 11, fields[HOUR], 2);
+            buf[13] = ':';
+            put(buf, 14, fields[MINUTE], 2);
+            buf[16] = ':';
+            put(buf, 17, fields[SECOND], 2);
+            buf[19] = 'Z';
+        }
+        return new String(buf);
+    }
+
+    /**
+     * Add an amount of a dateAdd unit to the fields, as LocalDateTime's plus
+     * methods do (months and years keep the day, or the last day of a
+     * shorter month). False, with the fields undefined, for an unknown unit
+     * or a result outside years 0000-9999.
+     */
+    static boolean add(int[] fields, long amount, String unit) {
+        long scale;
+        switch (unit) {
+            case "seconds": scale = 1; break;
+            case "minutes": scale = 60; break;
+            case "hours": scale = 3600; break;
+            case "days": scale = 86400; break;
+            case "months": return addMonths(fields, amount);
+            case "years": return amount > -10000 && amount < 10000 && addMonths(fields, amount * 12);
+            default: return false;
+        }
+        if (Math.abs(amount) > 1_000_000_000_000L / scale) return false;
+        fromEpochSecond(epochSecond(fields) + amount * scale, fields);
+        return fields[YEAR] >= 0 && fields[YEAR] <= 9999;
+    }
+
+    private static boolean addMonths(int[] fields, long months) {
+        if (months <= -120000 || months >= 120000) return false;
+        long total = fields[YEAR] * 12L + fields[MONTH] - 1 + months;
+        if (total < 0 || total >= 10000 * 12) return false;
+        fields[YEAR] = (int) (total / 12);
+        fields[MONTH] = (int) (total % 12) + 1;
+        fields[DAY] = Math.min(fields[DAY], lengthOfMonth(fields[YEAR], fields[MONTH]));
+        return true;
+    }
+
+    // --- Calendar ---
+
+    /** True if the fields make a valid date and time in years 0000-9999. */
+    static boolean inRange(int year, int month, int day, int hour, int minute, int second) {
+        return year >= 0 && year <= 9999 && month >= 1 && month <= 12
+                && day >= 1 && day <= lengthOfMonth(year, month)
+                && hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59 && second >= 0 && second <= 59;
+    }
+
+    static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2: return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+            case 4: case 6: case 9: case 11: return 30;
+            default: return 31;
+        }
+    }
+
+    /** Seconds since 1970-01-01T00:00:00 of the fields, in the proleptic Gregorian calendar. */
+    static long epochSecond(int[] fields) {
+        int year = fields[YEAR], month = fields[MONTH];
+        // Days from civil: years start in March, so leap days come last
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + fields[DAY] - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long epochDay = era * 146097 + dayOfEra - 719468;
+        return epochDay * 86400 + fields[HOUR] * 3600L + fields[MINUTE] * 60L + fields[SECOND];
+    }
+
+    /** The fields of an epoch second; the inverse of {@link #epochSecond}. */
+    static void fromEpochSecond(long epochSecond, int[] fields) {
+        long days = Math.floorDiv(epochSecond, 86400L);
+        int secondOfDay = (int) Math.floorMod(epochSecond, 86400L);
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097L);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        fields[YEAR] = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+        fields[MONTH] = month;
+        fields[DAY] = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        fields[HOUR] = secondOfDay / 3600;
+        fields[MINUTE] = secondOfDay / 60 % 60;
+        fields[SECOND] = secondOfDay % 60;
+    }
+
+    // --- Digits ---
+
+    /** The decimal number in s at pos of exactly width ASCII digits, or -1. */
+    private static int digits(String s, int pos, int width) {
+        if (pos + width > s.length()) return -1;
+        int v = 0;
+        for (int i = pos; i < pos + width; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    private static void put(char[] buf, int pos, int value, int width) {
+        for (int i = pos + width - 1; i >= pos; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static void pad(StringBuilder sb, int value, int width) {
+        for (int w = width - 1, p = 1; w > 0; w--) {
+            p *= 10;
+            if (value < p) sb.append('0');
+        }
+        sb.append(value);
+    }
+}
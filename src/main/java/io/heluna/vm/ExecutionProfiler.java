@@ -0,0 +1,260 @@
+package io.heluna.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Instruction-level profile of live runs of one packet: how often each
+ * instruction ran, how often each opcode and each stdlib function ran, and
+ * an estimate of the time spent in each, from sampled nanosecond timings.
+ * BenchmarkRunner prints it with --profile.
+ *
+ * Runs go through a session in {@link Executor.Mode#NODES} over the
+ * packet's nodes, each wrapped to count its runs and time every
+ * sampleInterval-th of them, so the ordinary execution paths carry no
+ * profiling cost at all. Estimates scale the sampled time of each
+ * instruction by its count and include the cost of reading the clock,
+ * which dominates for the cheapest instructions: they rank instructions
+ * rather than measure them. Not thread-safe.
+ */
+public final class ExecutionProfiler {
+
+    /** Time every 16th run of each instruction unless told otherwise. */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 16;
+
+    private final Packet packet;
+    private final HelunaSession session;
+    private final long[] counts;
+    private final long[] samples;
+    private final long[] sampledNanos;
+    private long runs;
+
+    public ExecutionProfiler(Packet packet) {
+        this(packet, DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    public ExecutionProfiler(Packet packet, int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("sampleInterval must be positive: " + sampleInterval);
+        }
+        this.packet = packet;
+        this.session = new HelunaSession(packet);
+        session.setMode(Executor.Mode.NODES);
+        Nodes.Node[] nodes = Nodes.decode(packet);
+        counts = new long[nodes.length];
+        samples = new long[nodes.length];
+        sampledNanos = new long[nodes.length];
+        Nodes.Node[] profiling = new Nodes.Node[nodes.length];
+        for (int pc = 0; pc < nodes.length; pc++) {
+            profiling[pc] = new ProfilingNode(nodes[pc], pc, sampleInterval, this);
+        }
+        session.executor().setNodes(profiling);
+    }
+
+    /**
+     * Execute the packet with the given input record and timestamp,
+     * profiling the instructions that run. Returns the output record.
+     */
+    public HVal.HRecord execute(HVal.HRecord input, String timestamp) {
+        runs++;
+        return session.execute(input, timestamp);
+    }
+
+    /** The number of runs profiled. */
+    public long runs() {
+        return runs;
+    }
+
+    /** How often the instruction at pc ran. */
+    public long count(int pc) {
+        return counts[pc];
+    }
+
+    /** Estimated nanoseconds spent in the instruction at pc. */
+    public long nanos(int pc) {
+        return samples[pc] == 0 ? 0 : sampledNanos[pc] * counts[pc] / samples[pc];
+    }
+
+    /** How often any instruction with the given opcode ran. */
+    public long opcodeCount(int opcode) {
+        long total = 0;
+        for (int pc = 0; pc < counts.length; pc++) {
+            if (packet.instructions[pc][0] == opcode) total += counts[pc];
+        }
+        return total;
+    }
+
+    /** How often the stdlib function with the given id was called. */
+    public long stdlibCount(int funcId) {
+        long total = 0;
+        for (int pc = 0; pc < counts.length; pc++) {
+            if (isStdLibCall(pc) && packet.instructions[pc][3] == funcId) total += counts[pc];
+        }
+        return total;
+    }
+
+    /** How many instructions ran in all. */
+    public long total() {
+        long total = 0;
+        for (long c : counts) total += c;
+        return total;
+    }
+
+    /** Estimated nanoseconds spent in all instructions. */
+    public long totalNanos() {
+        long total = 0;
+        for (int pc = 0; pc < counts.length; pc++) total += nanos(pc);
+        return total;
+    }
+
+    /** Zero every counter, to leave out warmup runs. */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(samples, 0);
+        Arrays.fill(sampledNanos, 0);
+        runs = 0;
+    }
+
+    /** The pcs of the n instructions with the most estimated time, most first. */
+    public List<Integer> hottest(int n) {
+        List<Integer> pcs = new ArrayList<>();
+        for (int pc = 0; pc < counts.length; pc++) {
+            if (counts[pc] > 0) pcs.add(pc);
+        }
+        pcs.sort((a, b) -> {
+            int byTime = Long.compare(nanos(b), nanos(a));
+            return byTime != 0 ? byTime : Long.compare(counts[b], counts[a]);
+        });
+        return pcs.subList(0, Math.min(n, pcs.size()));
+    }
+
+    /**
+     * The n hottest instructions with their opcode, operands and constants,
+     * followed by the time per opcode and the calls per stdlib function.
+     */
+    public String report(int n) {
+        long total = total();
+        long totalNanos = totalNanos();
+        long perRun = Math.max(runs, 1);
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d runs, %d instructions and ~%.1f us per run%n",
+                runs, total / perRun, totalNanos / 1000.0 / perRun));
+
+        sb.append(String.format("%6s %-22s %12s %12s %7s  %s%n", "pc", "opcode", "count", "~ns", "time", "operands"));
+        for (int pc : hottest(n)) {
+            int[] in = packet.instructions[pc];
+            sb.append(String.format("%6d %-22s %12d %12d %6.2f%%  %s%n", pc, Executor.opcodeName(in[0]),
+                    counts[pc], nanos(pc), share(nanos(pc), totalNanos), operands(pc)));
+        }
+
+        long[] opCounts = new long[256];
+        long[] opNanos = new long[256];
+        for (int pc = 0; pc < counts.length; pc++) {
+            int op = packet.instructions[pc][0] & 0xFF;
+            opCounts[op] += counts[pc];
+            opNanos[op] += nanos(pc);
+        }
+        sb.append(String.format("%-29s %12s %12s %7s%n", "opcode", "count", "~ns", "time"));
+        for (int op : byDescending(opNanos, opCounts)) {
+            sb.append(String.format("%-29s %12d %12d %6.2f%%%n", Executor.opcodeName(op),
+                    opCounts[op], opNanos[op], share(opNanos[op], totalNanos)));
+        }
+
+        long[] fnCounts = new long[0x10000];
+        long[] fnNanos = new long[0x10000];
+        for (int pc = 0; pc < counts.length; pc++) {
+            if (!isStdLibCall(pc)) continue;
+            int id = packet.instructions[pc][3] & 0xFFFF;
+            fnCounts[id] += counts[pc];
+            fnNanos[id] += nanos(pc);
+        }
+        List<Integer> fns = byDescending(fnNanos, fnCounts);
+        if (!fns.isEmpty()) {
+            sb.append(String.format("%-29s %12s %12s %7s%n", "stdlib", "calls", "~ns", "time"));
+            for (int id : fns) {
+                sb.append(String.format("%-29s %12d %12d %6.2f%%%n", String.format("0x%04X", id),
+                        fnCounts[id], fnNanos[id], share(fnNanos[id], totalNanos)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private boolean isStdLibCall(int pc) {
+        int op = packet.instructions[pc][0];
+        return op == Executor.STDLIB_CALL || op == Executor.STDLIB_CALL_1;
+    }
+
+    /** The operands of the instruction at pc, with any constant it reads. */
+    private String operands(int pc) {
+        int[] in = packet.instructions[pc];
+        String s = "dest=" + in[2] + " op1=" + in[3] + " op2=" + in[4];
+        switch (in[0]) {
+            case Executor.LOAD_CONST: case Executor.TAG_SET:
+            case Executor.RECORD_SET_C: case Executor.RECORD_NEW_SET_C:
+                return s + " const=" + constant(in[3]);
+            case Executor.RECORD_GET_C: case Executor.TAG_CHECK:
+                return s + " const=" + constant(in[4]);
+            case Executor.STDLIB_CALL: case Executor.STDLIB_CALL_1:
+                return s + String.format(" fn=0x%04X", in[3]);
+            default:
+                return s;
+        }
+    }
+
+    private String constant(int index) {
+        if (index >= packet.constants.size()) return "?";
+        HVal c = packet.constants.get(index);
+        String s = c instanceof HVal.HString ? '"' + c.toString() + '"' : c.toString();
+        return s.length() > 40 ? s.substring(0, 37) + "..." : s;
+    }
+
+    /** The indices with a count, by descending time and then count. */
+    private static List<Integer> byDescending(long[] nanos, long[] counts) {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) indices.add(i);
+        }
+        indices.sort((a, b) -> {
+            int byTime = Long.compare(nanos[b], nanos[a]);
+            return byTime != 0 ? byTime : Long.compare(counts[b], counts[a]);
+        });
+        return indices;
+    }
+
+    private static double share(long part, long total) {
+        return total == 0 ? 0 : 100.0 * part / total;
+    }
+
+    /** Runs a node, counting every run and timing every interval-th. */
+    private static final class ProfilingNode extends Nodes.Node {
+        private final Nodes.Node node;
+        private final int pc;
+        private final int interval;
+        private final ExecutionProfiler profiler;
+        private int countdown;
+
+        ProfilingNode(Nodes.Node node, int pc, int interval, ExecutionProfiler profiler) {
+            super(pc + 1);
+            this.node = node;
+            this.pc = pc;
+            this.interval = interval;
+            this.profiler = profiler;
+            this.countdown = 1; // time the first run, so every instruction that ran has a sample
+        }
+
+        @Override
+        int run(Executor ex, HVal[] v, long[] t) {
+            profiler.counts[pc]++;
+            if (--countdown > 0) return node.run(ex, v, t);
+            countdown = interval;
+            long start = System.nanoTime();
+            try {
+                return node.run(ex, v, t);
+            } finally {
+                profiler.sampledNanos[pc] += System.nanoTime() - start;
+                profiler.samples[pc]++;
+            }
+        }
+    }
+}
@@ -32,10 +32,46 @@ public class Executor {
     public static final int CMP_JUMP_LTE = 0xC9, CMP_JUMP_GTE = 0xCA;
     public static final int IS_NOTHING_JUMP = 0xCB;
 
+    // Type-specialized forms, written by TypeAnalyzer where operand types are proven
+    public static final int ADD_II = 0xD0, SUB_II = 0xD1, MUL_II = 0xD2;
+    public static final int ADD_FF = 0xD3, SUB_FF = 0xD4, MUL_FF = 0xD5;
+    public static final int RECORD_GET_C_UNCHECKED = 0xD8, RECORD_SET_C_UNCHECKED = 0xD9;
+    public static final int RECORD_GET_UNCHECKED = 0xDA, RECORD_SET_UNCHECKED = 0xDB;
+
+    // Fused forms, written by InstructionFuser over a run of instructions. The
+    // first instruction's opcode is replaced and the rest stay in place behind
+    // it, skipped by the interpreter; flags bits 8 and up say how many there are
+    public static final int LOAD_CONST_ADD = 0xE0;
+    public static final int LOAD_CONST_RECORD_GET = 0xE1, LOAD_CONST_RECORD_SET = 0xE2;
+    public static final int RECORD_GET_C_COALESCE = 0xE3, RECORD_NEW_SET_C_N = 0xE4;
+    public static final int STR_CONCAT_N = 0xE5, STDLIB_CALL_ARGS = 0xE6;
+    static final int FUSED_LENGTH_SHIFT = 8;
+
     // Tag modes (from flags bits 3-4)
     public static final int TAG_PROPAGATE = 0, TAG_CLEAR = 1, TAG_MODE_SET = 2;
 
-    private static class IterState {
+    // Where a slot's current value lives while the interpreter runs
+    private static final byte BOXED = 0, LONG = 1, DOUBLE = 2;
+
+    private static final boolean COMPILE_ALL = Boolean.getBoolean("heluna.compile");
+
+    /**
+     * How {@link #execute()} runs the packet. The default is taken from the
+     * system property heluna.mode (tiered, interpreter or nodes).
+     */
+    public enum Mode {
+        /** Switch interpreter, promoting hot packets to compiled bytecode. */
+        TIERED,
+        /** Switch interpreter only: no profiling and no compiled code. */
+        INTERPRETER,
+        /** The packet's pre-decoded node objects (see {@link Nodes}). */
+        NODES
+    }
+
+    private static final Mode DEFAULT_MODE =
+            Mode.valueOf(System.getProperty("heluna.mode", "tiered").toUpperCase(java.util.Locale.ROOT));
+
+    static class IterState {
         final int mode, dest, bodyStart, bodyEnd, resultSlot, slotA, slotB;
         final long srcTags;
         final ArrayList<HVal> elements;
@@ -59,14 +95,26 @@ public class Executor {
     private final Packet packet;
     private final HVal[] values;
     private final long[] tags;
+    // Unboxed lanes: a slot whose kind is LONG or DOUBLE holds its value here
+    // and values[] is stale until the slot is boxed (see computeLaneSlots)
+    private final long[] longs;
+    private final double[] doubles;
+    private final byte[] kinds;
+    private boolean[] lanes; // lane slots of the code being interpreted, or null
     private final Deque<IterState> iterStack = new ArrayDeque<>();
     private StdLib stdLib;
     private final HVal.HRecord stdlibArg1 = new HVal.HRecord();
+    private int[] writableSlots; // lazily computed on first reset()
+    private Mode mode = DEFAULT_MODE;
+    private Nodes.Node[] nodes; // run instead of the packet's in Mode.NODES, if set
 
     public Executor(Packet packet) {
         this.packet = packet;
         this.values = new HVal[packet.scratchpadSize];
         this.tags = new long[packet.scratchpadSize];
+        this.longs = new long[packet.scratchpadSize];
+        this.doubles = new double[packet.scratchpadSize];
+        this.kinds = new byte[packet.scratchpadSize];
         // Initialize all slots to nothing
         for (int i = 0; i < values.length; i++) {
             values[i] = HVal.HNothing.INSTANCE;
@@ -77,6 +125,22 @@ public class Executor {
         this.stdLib = stdLib;
     }
 
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * Run these nodes in {@link Mode#NODES} instead of the packet's own,
+     * e.g. nodes wrapped to record what runs (see {@link OpcodePairs}).
+     */
+    void setNodes(Nodes.Node[] nodes) {
+        this.nodes = nodes;
+    }
+
     // Direct access for testing and integration
     public void setSlot(int index, HVal value) {
         values[index] = value;
@@ -95,26 +159,129 @@ public class Executor {
         return tags[index];
     }
 
+    /**
+     * Return the executor to its freshly constructed state so it can run the
+     * packet again. Only slots the bytecode (or input mapping) can write are
+     * cleared; every other slot still holds nothing from construction.
+     */
+    public void reset() {
+        if (writableSlots == null) {
+            writableSlots = computeWritableSlots(packet);
+        }
+        for (int slot : writableSlots) {
+            values[slot] = HVal.HNothing.INSTANCE;
+            tags[slot] = 0;
+        }
+        iterStack.clear();
+    }
+
+    /**
+     * Run the packet: through its compiled code when one is attached (see
+     * {@link HelunaVM#compile}), otherwise through the interpreter. Interpreted
+     * runs update the packet's profile and queue it for background
+     * compilation once it is hot (see {@link TieredCompiler}). With the
+     * system property heluna.compile=true every packet is compiled on first run.
+     * Interpreted runs use the packet's type-specialized code when the input
+     * slots hold the types the contract declares (see {@link TypeAnalyzer}),
+     * with common instruction sequences fused (see {@link InstructionFuser}).
+     * Other {@link Mode}s always use the interpreter or the node array.
+     */
     public void execute() {
-        execute(packet.instructions, 0, packet.instructions.length);
+        if (mode == Mode.NODES) {
+            runNodes(nodes != null ? nodes : Nodes.forPacket(packet));
+            return;
+        }
+        if (mode == Mode.INTERPRETER) {
+            Packet.FlatCode code = packet.interpretedCode(values);
+            interpret(code.code, code.recordSites, code.laneSlots(packet), 0, code.recordSites.length);
+            return;
+        }
+        CompiledPacket compiled = packet.compiled;
+        if (compiled == null && COMPILE_ALL) {
+            compiled = PacketCompiler.attach(packet);
+        }
+        if (compiled != null) {
+            compiled.run(this, values, tags);
+            return;
+        }
+        Packet.FlatCode code = packet.interpretedCode(values);
+        int backedges = interpret(code.code, code.recordSites, code.laneSlots(packet),
+                                  0, code.recordSites.length);
+        if (packet.profile.record(backedges)) {
+            TieredCompiler.submit(packet);
+        }
     }
 
     public void execute(int[][] instructions, int start, int end) {
+        if (instructions == packet.instructions) {
+            Packet.FlatCode code = packet.flatCode();
+            interpret(code.code, code.recordSites, code.laneSlots(packet), start, end);
+        } else {
+            int[] code = Packet.flatten(instructions);
+            interpret(code, new RecordSite[instructions.length], computeLaneSlots(code, packet), start, end);
+        }
+    }
+
+    private void runNodes(Nodes.Node[] nodes) {
+        HVal[] v = values;
+        long[] t = tags;
+        int pc = 0;
+        int end = nodes.length;
+        while (pc < end) {
+            pc = nodes[pc].run(this, v, t);
+        }
+    }
+
+    /**
+     * The switch interpreter. Returns the number of loop back edges taken
+     * (repeated iteration bodies and backward jumps) for the packet profile.
+     * Instructions are read from the flat code stream by offset; recordSites
+     * holds the inline caches of constant-key record accesses, by pc.
+     * Arithmetic results written to laneSlots stay unboxed until the run
+     * ends; every slot is boxed again before this returns or throws.
+     */
+    private int interpret(int[] code, RecordSite[] recordSites, boolean[] laneSlots, int start, int end) {
+        if (laneSlots == null) {
+            return interpret(code, recordSites, start, end);
+        }
+        lanes = laneSlots;
+        try {
+            return interpret(code, recordSites, start, end);
+        } finally {
+            lanes = null;
+            byte[] k = kinds;
+            for (int slot = 0; slot < k.length; slot++) {
+                if (k[slot] != BOXED) box(slot);
+            }
+        }
+    }
+
+    private int interpret(int[] code, RecordSite[] recordSites, int start, int end) {
+        boolean[] lanes = this.lanes;
+        Packet.ConstantTables constants = packet.constantTables();
+        HVal[] constValues = constants.values;
+        String[] keys = constants.keys;
+        long[] tagMasks = constants.tagMasks;
+        int backedges = 0;
         int pc = start;
         while (pc < end) {
-            int[] instr = instructions[pc];
-            int opcode = instr[0];
-            int flags = instr[1];
-            int dest = instr[2];
-            int op1 = instr[3];
-            int op2 = instr[4];
+            int base = pc * Packet.INSTRUCTION_WIDTH;
+            int opcode = code[base];
+            int flags = code[base + 1];
+            int dest = code[base + 2];
+            int op1 = code[base + 3];
+            int op2 = code[base + 4];
 
             int tagMode = (flags >> 3) & 0x03;
 
             switch (opcode) {
                 // --- Scratchpad & Constants ---
                 case LOAD_CONST:
-                    values[dest] = packet.constants.get(op1);
+                    if (lanes != null && lanes[dest]) {
+                        loadLane(dest, constValues[op1]);
+                    } else {
+                        values[dest] = constValues[op1];
+                    }
                     applyTagMode(dest, tagMode, 0);
                     break;
 
@@ -137,84 +304,123 @@ public class Executor {
                     break;
 
                 case COPY:
-                    values[dest] = values[op1];
+                    if (kinds[op1] == BOXED) {
+                        values[dest] = values[op1];
+                        kinds[dest] = BOXED;
+                    } else {
+                        copyLane(dest, op1);
+                    }
                     tags[dest] = tags[op1];
                     break;
 
                 // --- Arithmetic ---
+                case LOAD_CONST_ADD:
+                    if (lanes != null && lanes[dest]) {
+                        loadLane(dest, constValues[op1]);
+                    } else {
+                        values[dest] = constValues[op1];
+                    }
+                    applyTagMode(dest, tagMode, 0);
+                    // Go on with the ADD behind it
+                    pc++;
+                    base += Packet.INSTRUCTION_WIDTH;
+                    dest = code[base + 2];
+                    op1 = code[base + 3];
+                    op2 = code[base + 4];
+                    tagMode = (code[base + 1] >> 3) & 0x03;
+                    // fall through
                 case ADD: {
-                    HVal left = values[op1], right = values[op2];
-                    byte lt = left.typeCode(), rt = right.typeCode();
-                    if (lt == HVal.TYPE_INTEGER && rt == HVal.TYPE_INTEGER) {
-                        values[dest] = HVal.HInteger.of(((HVal.HInteger) left).value() + ((HVal.HInteger) right).value());
-                    } else if (lt == HVal.TYPE_FLOAT && rt == HVal.TYPE_FLOAT) {
-                        values[dest] = new HVal.HFloat(((HVal.HFloat) left).value() + ((HVal.HFloat) right).value());
+                    byte ka = kinds[op1], kb = kinds[op2];
+                    if (ka != BOXED && kb != BOXED && lanes[dest]) {
+                        if ((ka & kb) == LONG) {
+                            longs[dest] = longs[op1] + longs[op2];
+                            kinds[dest] = LONG;
+                        } else {
+                            doubles[dest] = laneDouble(op1) + laneDouble(op2);
+                            kinds[dest] = DOUBLE;
+                        }
+                    } else if (lanes == null || (ka | kb) == BOXED && !lanes[dest]) {
+                        values[dest] = add(values[op1], values[op2]);
                     } else {
-                        execArith(dest, op1, op2, tagMode, '+');
-                        break;
+                        arithLane(dest, op1, op2, '+');
                     }
                     applyTagMode(dest, tagMode, tags[op1] | tags[op2]);
                     break;
                 }
                 case SUB: {
-                    HVal left = values[op1], right = values[op2];
-                    byte lt = left.typeCode(), rt = right.typeCode();
-                    if (lt == HVal.TYPE_INTEGER && rt == HVal.TYPE_INTEGER) {
-                        values[dest] = HVal.HInteger.of(((HVal.HInteger) left).value() - ((HVal.HInteger) right).value());
-                    } else if (lt == HVal.TYPE_FLOAT && rt == HVal.TYPE_FLOAT) {
-                        values[dest] = new HVal.HFloat(((HVal.HFloat) left).value() - ((HVal.HFloat) right).value());
+                    byte ka = kinds[op1], kb = kinds[op2];
+                    if (ka != BOXED && kb != BOXED && lanes[dest]) {
+                        if ((ka & kb) == LONG) {
+                            longs[dest] = longs[op1] - longs[op2];
+                            kinds[dest] = LONG;
+                        } else {
+                            doubles[dest] = laneDouble(op1) - laneDouble(op2);
+                            kinds[dest] = DOUBLE;
+                        }
+                    } else if (lanes == null || (ka | kb) == BOXED && !lanes[dest]) {
+                        values[dest] = sub(values[op1], values[op2]);
                     } else {
-                        execArith(dest, op1, op2, tagMode, '-');
-                        break;
+                        arithLane(dest, op1, op2, '-');
                     }
                     applyTagMode(dest, tagMode, tags[op1] | tags[op2]);
                     break;
                 }
                 case MUL: {
-                    HVal left = values[op1], right = values[op2];
-                    byte lt = left.typeCode(), rt = right.typeCode();
-                    if (lt == HVal.TYPE_INTEGER && rt == HVal.TYPE_INTEGER) {
-                        values[dest] = HVal.HInteger.of(((HVal.HInteger) left).value() * ((HVal.HInteger) right).value());
-                    } else if (lt == HVal.TYPE_FLOAT && rt == HVal.TYPE_FLOAT) {
-                        values[dest] = new HVal.HFloat(((HVal.HFloat) left).value() * ((HVal.HFloat) right).value());
+                    byte ka = kinds[op1], kb = kinds[op2];
+                    if (ka != BOXED && kb != BOXED && lanes[dest]) {
+                        if ((ka & kb) == LONG) {
+                            longs[dest] = longs[op1] * longs[op2];
+                            kinds[dest] = LONG;
+                        } else {
+                            doubles[dest] = laneDouble(op1) * laneDouble(op2);
+                            kinds[dest] = DOUBLE;
+                        }
+                    } else if (lanes == null || (ka | kb) == BOXED && !lanes[dest]) {
+                        values[dest] = mul(values[op1], values[op2]);
                     } else {
-                        execArith(dest, op1, op2, tagMode, '*');
-                        break;
+                        arithLane(dest, op1, op2, '*');
                     }
                     applyTagMode(dest, tagMode, tags[op1] | tags[op2]);
                     break;
                 }
-                case DIV: execArith(dest, op1, op2, tagMode, '/'); break;
-                case MOD: execArith(dest, op1, op2, tagMode, '%'); break;
-
-                case NEGATE: {
-                    HVal v = values[op1];
-                    switch (v.typeCode()) {
-                        case HVal.TYPE_INTEGER:
-                            values[dest] = HVal.HInteger.of(-((HVal.HInteger) v).value());
-                            break;
-                        case HVal.TYPE_FLOAT:
-                            values[dest] = new HVal.HFloat(-((HVal.HFloat) v).value());
-                            break;
-                        default:
-                            throw new HelunaException("NEGATE requires numeric, got " + typeName(v));
+                case DIV:
+                    if (lanes == null || (kinds[op1] | kinds[op2]) == BOXED && !lanes[dest]) {
+                        values[dest] = arith(values[op1], values[op2], '/');
+                    } else {
+                        arithLane(dest, op1, op2, '/');
+                    }
+                    applyTagMode(dest, tagMode, tags[op1] | tags[op2]);
+                    break;
+                case MOD:
+                    if (lanes == null || (kinds[op1] | kinds[op2]) == BOXED && !lanes[dest]) {
+                        values[dest] = arith(values[op1], values[op2], '%');
+                    } else {
+                        arithLane(dest, op1, op2, '%');
+                    }
+                    applyTagMode(dest, tagMode, tags[op1] | tags[op2]);
+                    break;
+
+                case NEGATE:
+                    if (lanes == null || kinds[op1] == BOXED && !lanes[dest]) {
+                        values[dest] = negate(values[op1]);
+                    } else {
+                        negateLane(dest, op1);
                     }
                     applyTagMode(dest, tagMode, tags[op1]);
                     break;
-                }
 
                 // --- Comparison ---
-                case EQ:  values[dest] = HVal.HBoolean.of(valEquals(values[op1], values[op2]));
+                case EQ:  values[dest] = HVal.HBoolean.of(slotsEqual(op1, op2));
                           applyTagMode(dest, tagMode, tags[op1] | tags[op2]); break;
-                case NEQ: values[dest] = HVal.HBoolean.of(!valEquals(values[op1], values[op2]));
+                case NEQ: values[dest] = HVal.HBoolean.of(!slotsEqual(op1, op2));
                           applyTagMode(dest, tagMode, tags[op1] | tags[op2]); break;
-                case LT:  values[dest] = HVal.HBoolean.of(valCompare(values[op1], values[op2]) < 0);
+                case LT:  values[dest] = HVal.HBoolean.of(compareSlots(op1, op2) < 0);
                           applyTagMode(dest, tagMode, tags[op1] | tags[op2]); break;
-                case GT:  values[dest] = HVal.HBoolean.of(valCompare(values[op1], values[op2]) > 0);
+                case GT:  values[dest] = HVal.HBoolean.of(compareSlots(op1, op2) > 0);
                           applyTagMode(dest, tagMode, tags[op1] | tags[op2]); break;
-                case LTE: values[dest] = HVal.HBoolean.of(valCompare(values[op1], values[op2]) <= 0);
+                case LTE: values[dest] = HVal.HBoolean.of(compareSlots(op1, op2) <= 0);
                           applyTagMode(dest, tagMode, tags[op1] | tags[op2]); break;
-                case GTE: values[dest] = HVal.HBoolean.of(valCompare(values[op1], values[op2]) >= 0);
+                case GTE: values[dest] = HVal.HBoolean.of(compareSlots(op1, op2) >= 0);
                           applyTagMode(dest, tagMode, tags[op1] | tags[op2]); break;
 
                 // --- Boolean ---
@@ -232,13 +438,10 @@ public class Executor {
                     break;
 
                 // --- String ---
-                case STR_CONCAT: {
-                    String left = valToString(values[op1]);
-                    String right = valToString(values[op2]);
-                    values[dest] = new HVal.HString(left + right);
+                case STR_CONCAT:
+                    values[dest] = concat(values[op1], values[op2]);
                     applyTagMode(dest, tagMode, tags[op1] | tags[op2]);
                     break;
-                }
 
                 // --- Type Testing ---
                 case IS_STRING:  values[dest] = HVal.HBoolean.of(values[op1].typeCode() == HVal.TYPE_STRING);
@@ -312,16 +515,10 @@ public class Executor {
                     tags[dest] = tags[dest] | tags[op1];
                     break;
                 }
-                case LIST_GET: {
-                    HVal.HList list = asList(op1);
-                    HVal idx = values[op2];
-                    if (idx.typeCode() != HVal.TYPE_INTEGER) {
-                        throw new HelunaException("LIST_GET index must be integer");
-                    }
-                    values[dest] = list.get((int) ((HVal.HInteger) idx).value());
+                case LIST_GET:
+                    values[dest] = listGet(op1, op2);
                     applyTagMode(dest, tagMode, tags[op1]);
                     break;
-                }
                 case LIST_LENGTH: {
                     HVal.HList list = asList(op1);
                     values[dest] = HVal.HInteger.of(list.size());
@@ -331,15 +528,24 @@ public class Executor {
 
                 // --- Control Flow ---
                 case JUMP:
+                    if (dest <= pc) backedges++;
                     pc = dest;
                     continue; // skip pc++
 
                 case JUMP_IF:
-                    if (asBool(op1)) { pc = dest; continue; }
+                    if (asBool(op1)) {
+                        if (dest <= pc) backedges++;
+                        pc = dest;
+                        continue;
+                    }
                     break;
 
                 case JUMP_IF_NOT:
-                    if (!asBool(op1)) { pc = dest; continue; }
+                    if (!asBool(op1)) {
+                        if (dest <= pc) backedges++;
+                        pc = dest;
+                        continue;
+                    }
                     break;
 
                 // --- Nothing Handling ---
@@ -355,117 +561,53 @@ public class Executor {
 
                 // --- Iteration ---
                 case ITER_SETUP: {
-                    int mode = flags & 0x03;
-                    HVal src = values[op1];
-                    if (src.typeCode() != HVal.TYPE_LIST) {
-                        throw new HelunaException("ITER_SETUP source must be list");
-                    }
-                    HVal.HList srcList = (HVal.HList) src;
-                    int bodyLen = op2;
                     int bodyStart = pc + 1;
-                    int collectPc = bodyStart + bodyLen;
-                    int[] collectInstr = instructions[collectPc];
-                    int resultSlot = collectInstr[2];
-                    int slotA = collectInstr[3];
-                    int slotB = collectInstr[4];
-
-                    ArrayList<HVal> elems = srcList.elements();
-                    if (elems.isEmpty()) {
-                        // Empty list — produce empty result or unchanged accumulator
-                        if (mode == 2) { // FOLD
-                            values[resultSlot] = values[slotA];
-                            tags[resultSlot] = tags[slotA];
-                        } else {
-                            values[resultSlot] = new HVal.HList();
-                            tags[resultSlot] = tags[op1];
-                        }
+                    int collectPc = bodyStart + op2;
+                    int collectBase = collectPc * Packet.INSTRUCTION_WIDTH;
+                    if (lanes != null) box(code[collectBase + 3]); // FOLD of an empty list reads the accumulator
+                    IterState state = iterStart(flags & 0x03, dest, op1, bodyStart, collectPc,
+                                                code[collectBase + 2], code[collectBase + 3],
+                                                code[collectBase + 4]);
+                    if (state == null) {
+                        // Empty list — result already written, skip the body
                         pc = collectPc + 1;
                         continue;
                     }
-
-                    IterState state = new IterState(mode, dest, bodyStart, bodyStart + bodyLen,
-                                                     resultSlot, slotA, slotB, tags[op1], elems);
                     iterStack.push(state);
-
-                    // Set up first element and jump into body
-                    values[dest] = elems.get(0);
-                    tags[dest] = tags[op1];
                     pc = bodyStart;
                     continue;
                 }
 
                 case ITER_COLLECT: {
                     IterState state = iterStack.peek();
-
-                    // Process current element result
-                    switch (state.mode) {
-                        case 0: // MAP
-                            state.result.add(values[state.slotA]);
-                            break;
-                        case 1: // FILTER
-                        case 3: // MAP_FILTER
-                            if (values[state.slotA].typeCode() == HVal.TYPE_BOOLEAN &&
-                                    ((HVal.HBoolean) values[state.slotA]).value()) {
-                                state.result.add(values[state.slotB]);
-                            }
-                            break;
-                        case 2: // FOLD — accumulator already updated in slotA
-                            break;
-                    }
-
-                    state.idx++;
-                    if (state.idx < state.size) {
-                        // More elements — set up next and loop back
-                        values[state.dest] = state.elements.get(state.idx);
-                        tags[state.dest] = state.srcTags;
+                    if (lanes != null && state.idx + 1 >= state.size) box(state.slotA); // FOLD result
+                    if (iterNext(state)) {
+                        backedges++;
                         pc = state.bodyStart;
                         continue;
                     }
-
-                    // Done — collect and pop
                     iterStack.pop();
-                    if (state.mode == 2) { // FOLD
-                        values[state.resultSlot] = values[state.slotA];
-                        tags[state.resultSlot] = tags[state.slotA];
-                    } else {
-                        values[state.resultSlot] = state.result;
-                        tags[state.resultSlot] = state.srcTags;
-                    }
                     break; // pc++ moves past ITER_COLLECT
                 }
 
                 // --- Standard Library ---
-                case STDLIB_CALL: {
-                    if (stdLib == null) {
-                        throw new HelunaException("StdLib not configured");
-                    }
-                    HVal result;
-                    if (op1 == 0) {
-                        // Sanitizer passthrough — just copy the value through
-                        HVal.HRecord args = asRecord(op2);
-                        result = args.get("value");
-                    } else {
-                        result = stdLib.call(op1, asRecord(op2));
-                    }
-                    values[dest] = result;
+                case STDLIB_CALL:
+                    values[dest] = callStdLib(op1, op2);
                     applyTagMode(dest, tagMode, tags[op2]);
                     break;
-                }
 
                 // --- Tag Operations ---
                 case TAG_SET: {
-                    // op1 is constant index containing the tag value
-                    HVal tagVal = packet.constants.get(op1);
-                    if (tagVal.typeCode() == HVal.TYPE_INTEGER) {
-                        tags[dest] = ((HVal.HInteger) tagVal).value();
+                    // op1 is constant index containing the tag value; non-integers leave tags unchanged
+                    long setBits = tagMasks[op1];
+                    if (setBits != 0 || constValues[op1].typeCode() == HVal.TYPE_INTEGER) {
+                        tags[dest] = setBits;
                     }
                     break;
                 }
 
                 case TAG_CHECK: {
-                    HVal tagVal = packet.constants.get(op2);
-                    long checkBits = (tagVal.typeCode() == HVal.TYPE_INTEGER) ?
-                            ((HVal.HInteger) tagVal).value() : 0;
+                    long checkBits = tagMasks[op2];
                     values[dest] = HVal.HBoolean.of((tags[op1] & checkBits) == checkBits);
                     applyTagMode(dest, tagMode, 0);
                     break;
@@ -474,74 +616,574 @@ public class Executor {
                 // --- Superinstructions ---
                 case RECORD_GET_C: {
                     HVal.HRecord rec = asRecord(op1);
-                    String key = ((HVal.HString) packet.constants.get(op2)).value();
-                    values[dest] = rec.get(key);
+                    RecordSite site = recordSites[pc];
+                    if (site == null) {
+                        recordSites[pc] = site = new RecordSite(constantKey(keys, constValues, op2));
+                    }
+                    values[dest] = site.get(rec);
                     applyTagMode(dest, tagMode, tags[op1]);
                     break;
                 }
                 case RECORD_SET_C: {
                     HVal.HRecord rec = asRecord(dest);
-                    String key = ((HVal.HString) packet.constants.get(op1)).value();
-                    rec.set(key, values[op2]);
+                    RecordSite site = recordSites[pc];
+                    if (site == null) {
+                        recordSites[pc] = site = new RecordSite(constantKey(keys, constValues, op1));
+                    }
+                    site.set(rec, values[op2]);
                     tags[dest] = tags[dest] | tags[op2];
                     break;
                 }
                 case RECORD_NEW_SET_C: {
                     HVal.HRecord rec = new HVal.HRecord();
-                    String key = ((HVal.HString) packet.constants.get(op1)).value();
-                    rec.set(key, values[op2]);
+                    RecordSite site = recordSites[pc];
+                    if (site == null) {
+                        recordSites[pc] = site = new RecordSite(constantKey(keys, constValues, op1));
+                    }
+                    site.set(rec, values[op2]);
                     values[dest] = rec;
                     applyTagMode(dest, tagMode, tags[op2]);
                     break;
                 }
-                case STDLIB_CALL_1: {
-                    if (stdLib == null) {
-                        throw new HelunaException("StdLib not configured");
-                    }
-                    HVal result;
-                    if (op1 == 0) {
-                        result = values[op2];
-                    } else {
-                        stdlibArg1.clear();
-                        stdlibArg1.set("value", values[op2]);
-                        result = stdLib.call(op1, stdlibArg1);
-                    }
-                    values[dest] = result;
+                case STDLIB_CALL_1:
+                    values[dest] = callStdLib1(op1, op2);
                     applyTagMode(dest, tagMode, tags[op2]);
                     break;
-                }
                 case CMP_JUMP_EQ:
-                    if (!valEquals(values[op1], values[op2])) { pc = dest; continue; }
+                    if (!slotsEqual(op1, op2)) { pc = dest; continue; }
                     break;
                 case CMP_JUMP_NEQ:
-                    if (valEquals(values[op1], values[op2])) { pc = dest; continue; }
+                    if (slotsEqual(op1, op2)) { pc = dest; continue; }
                     break;
                 case CMP_JUMP_LT:
-                    if (!(valCompare(values[op1], values[op2]) < 0)) { pc = dest; continue; }
+                    if (!(compareSlots(op1, op2) < 0)) { pc = dest; continue; }
                     break;
                 case CMP_JUMP_GT:
-                    if (!(valCompare(values[op1], values[op2]) > 0)) { pc = dest; continue; }
+                    if (!(compareSlots(op1, op2) > 0)) { pc = dest; continue; }
                     break;
                 case CMP_JUMP_LTE:
-                    if (!(valCompare(values[op1], values[op2]) <= 0)) { pc = dest; continue; }
+                    if (!(compareSlots(op1, op2) <= 0)) { pc = dest; continue; }
                     break;
                 case CMP_JUMP_GTE:
-                    if (!(valCompare(values[op1], values[op2]) >= 0)) { pc = dest; continue; }
+                    if (!(compareSlots(op1, op2) >= 0)) { pc = dest; continue; }
                     break;
                 case IS_NOTHING_JUMP:
                     if (values[op1].isNothing()) { pc = dest; continue; }
                     break;
 
+                // --- Type-specialized (operand types proven at load time) ---
+                case ADD_II: storeLong(dest, longAt(op1) + longAt(op2));
+                             applyTagMode(dest, tagMode, tags[op1] | tags[op2]); break;
+                case SUB_II: storeLong(dest, longAt(op1) - longAt(op2));
+                             applyTagMode(dest, tagMode, tags[op1] | tags[op2]); break;
+                case MUL_II: storeLong(dest, longAt(op1) * longAt(op2));
+                             applyTagMode(dest, tagMode, tags[op1] | tags[op2]); break;
+                case ADD_FF: storeDouble(dest, doubleAt(op1) + doubleAt(op2));
+                             applyTagMode(dest, tagMode, tags[op1] | tags[op2]); break;
+                case SUB_FF: storeDouble(dest, doubleAt(op1) - doubleAt(op2));
+                             applyTagMode(dest, tagMode, tags[op1] | tags[op2]); break;
+                case MUL_FF: storeDouble(dest, doubleAt(op1) * doubleAt(op2));
+                             applyTagMode(dest, tagMode, tags[op1] | tags[op2]); break;
+                case RECORD_GET_C_UNCHECKED: {
+                    RecordSite site = recordSites[pc];
+                    if (site == null) {
+                        recordSites[pc] = site = new RecordSite(constantKey(keys, constValues, op2));
+                    }
+                    values[dest] = site.get((HVal.HRecord) values[op1]);
+                    applyTagMode(dest, tagMode, tags[op1]);
+                    break;
+                }
+                case RECORD_SET_C_UNCHECKED: {
+                    RecordSite site = recordSites[pc];
+                    if (site == null) {
+                        recordSites[pc] = site = new RecordSite(constantKey(keys, constValues, op1));
+                    }
+                    site.set((HVal.HRecord) values[dest], values[op2]);
+                    tags[dest] = tags[dest] | tags[op2];
+                    break;
+                }
+                case RECORD_GET_UNCHECKED:
+                    values[dest] = ((HVal.HRecord) values[op1]).get(((HVal.HString) values[op2]).value());
+                    applyTagMode(dest, tagMode, tags[op1]);
+                    break;
+                case RECORD_SET_UNCHECKED:
+                    ((HVal.HRecord) values[dest]).set(((HVal.HString) values[op1]).value(), values[op2]);
+                    tags[dest] = tags[dest] | tags[op2];
+                    break;
+
+                // --- Fused (the instructions behind the first are skipped) ---
+                case LOAD_CONST_RECORD_GET: {
+                    values[dest] = constValues[op1];
+                    applyTagMode(dest, tagMode, 0);
+                    int get = base + Packet.INSTRUCTION_WIDTH;
+                    int getDest = code[get + 2], recSlot = code[get + 3];
+                    HVal.HRecord rec = asRecord(recSlot);
+                    RecordSite site = recordSites[pc + 1];
+                    if (site == null) {
+                        recordSites[pc + 1] = site = new RecordSite(keys[op1] != null ? keys[op1] : asString(dest));
+                    }
+                    values[getDest] = site.get(rec);
+                    applyTagMode(getDest, (code[get + 1] >> 3) & 0x03, tags[recSlot]);
+                    pc++;
+                    break;
+                }
+                case LOAD_CONST_RECORD_SET: {
+                    values[dest] = constValues[op1];
+                    applyTagMode(dest, tagMode, 0);
+                    int n = flags >>> FUSED_LENGTH_SHIFT;
+                    int set = base + n * Packet.INSTRUCTION_WIDTH;
+                    if (n == 2) loadValue(code, set - Packet.INSTRUCTION_WIDTH, constValues);
+                    int recSlot = code[set + 2], valueSlot = code[set + 4];
+                    HVal.HRecord rec = asRecord(recSlot);
+                    RecordSite site = recordSites[pc + n];
+                    if (site == null) {
+                        recordSites[pc + n] = site = new RecordSite(keys[op1] != null ? keys[op1] : asString(dest));
+                    }
+                    site.set(rec, values[valueSlot]);
+                    tags[recSlot] = tags[recSlot] | tags[valueSlot];
+                    pc += n;
+                    break;
+                }
+                case RECORD_GET_C_COALESCE: {
+                    HVal.HRecord rec = asRecord(op1);
+                    RecordSite site = recordSites[pc];
+                    if (site == null) {
+                        recordSites[pc] = site = new RecordSite(constantKey(keys, constValues, op2));
+                    }
+                    values[dest] = site.get(rec);
+                    applyTagMode(dest, tagMode, tags[op1]);
+                    int coalesce = base + Packet.INSTRUCTION_WIDTH;
+                    int result = code[coalesce + 2], first = code[coalesce + 3];
+                    int chosen = values[first].isNothing() ? code[coalesce + 4] : first;
+                    values[result] = values[chosen];
+                    applyTagMode(result, (code[coalesce + 1] >> 3) & 0x03, tags[chosen]);
+                    pc++;
+                    break;
+                }
+                case RECORD_NEW_SET_C_N: {
+                    int n = flags >>> FUSED_LENGTH_SHIFT;
+                    values[dest] = new HVal.HRecord();
+                    applyTagMode(dest, tagMode, 0);
+                    fillRecord(code, recordSites, keys, constValues, pc, n);
+                    pc += n;
+                    break;
+                }
+                case STR_CONCAT_N: {
+                    int n = flags >>> FUSED_LENGTH_SHIFT;
+                    concatChain(code, pc, n);
+                    pc += n;
+                    break;
+                }
+                case STDLIB_CALL_ARGS: {
+                    int n = flags >>> FUSED_LENGTH_SHIFT;
+                    callPositional(code, constValues, pc, n);
+                    pc += n;
+                    break;
+                }
+
                 default:
-                    throw new HelunaException(String.format("Unknown opcode 0x%02X at pc=%d", opcode, pc));
+                    throw unknownOpcode(opcode, pc);
             }
 
             pc++;
         }
+        return backedges;
     }
 
     // --- Helper methods ---
 
+    /**
+     * The LOAD_CONST or COPY at base inside a LOAD_CONST_RECORD_SET, which
+     * loads the value of the set. That slot is a record value, so it is
+     * never an unboxed lane slot.
+     */
+    private void loadValue(int[] code, int base, HVal[] constValues) {
+        int dest = code[base + 2], op1 = code[base + 3];
+        if (code[base] == COPY) {
+            box(op1);
+            values[dest] = values[op1];
+            tags[dest] = tags[op1];
+        } else {
+            values[dest] = constValues[op1];
+            applyTagMode(dest, (code[base + 1] >> 3) & 0x03, 0);
+        }
+    }
+
+    /**
+     * The RECORD_SET_C instructions behind a RECORD_NEW_SET_C_N at pc, run
+     * on the record it has just created.
+     */
+    private void fillRecord(int[] code, RecordSite[] recordSites, String[] keys, HVal[] constValues,
+                            int pc, int n) {
+        int recSlot = code[pc * Packet.INSTRUCTION_WIDTH + 2];
+        HVal.HRecord rec = (HVal.HRecord) values[recSlot];
+        for (int i = 1; i <= n; i++) {
+            int base = (pc + i) * Packet.INSTRUCTION_WIDTH;
+            int valueSlot = code[base + 4];
+            RecordSite site = recordSites[pc + i];
+            if (site == null) {
+                recordSites[pc + i] = site = new RecordSite(constantKey(keys, constValues, code[base + 3]));
+            }
+            site.set(rec, values[valueSlot]);
+            tags[recSlot] = tags[recSlot] | tags[valueSlot];
+        }
+    }
+
+    /**
+     * The STR_CONCAT at pc and the n behind it that each append to the one
+     * before, built in one StringBuilder. A result is stored unless the next
+     * concatenation overwrites its slot; all of them propagate tags.
+     */
+    private void concatChain(int[] code, int pc, int n) {
+        int base = pc * Packet.INSTRUCTION_WIDTH;
+        int dest = code[base + 2], left = code[base + 3], right = code[base + 4];
+        StringBuilder sb = new StringBuilder(valToString(values[left])).append(valToString(values[right]));
+        long t = tags[left] | tags[right];
+        for (int i = 1; i <= n; i++) {
+            base += Packet.INSTRUCTION_WIDTH;
+            int next = code[base + 2], operand = code[base + 4];
+            if (next != dest) {
+                values[dest] = new HVal.HString(sb.toString());
+                tags[dest] = t;
+                dest = next;
+            }
+            sb.append(valToString(values[operand]));
+            t |= tags[operand];
+        }
+        values[dest] = new HVal.HString(sb.toString());
+        tags[dest] = t;
+    }
+
+    /**
+     * The stdlib call a STDLIB_CALL_ARGS at pc stands for: the RECORD_NEW of
+     * its argument record, the key and value loads and RECORD_SETs that fill
+     * it, and the STDLIB_CALL. The loads run as they are; each RECORD_SET
+     * passes its value at the parameter position InstructionFuser put in its
+     * flags, and the function is called with the values in place, so the
+     * record is never built. Its slot still gets the tags it would have.
+     */
+    private void callPositional(int[] code, HVal[] constValues, int pc, int n) {
+        int base = pc * Packet.INSTRUCTION_WIDTH;
+        int args = code[base + 2];
+        applyTagMode(args, (code[base + 1] >> 3) & 0x03, 0);
+        HVal nothing = HVal.HNothing.INSTANCE;
+        HVal a = nothing, b = nothing, c = nothing;
+        for (int i = 1; i < n; i++) {
+            base += Packet.INSTRUCTION_WIDTH;
+            int opcode = code[base];
+            if (opcode == LOAD_CONST || opcode == COPY) {
+                loadValue(code, base, constValues);
+                continue;
+            }
+            int valueSlot = code[base + 4];
+            HVal value = values[valueSlot];
+            tags[args] = tags[args] | tags[valueSlot];
+            switch (code[base + 1] >>> FUSED_LENGTH_SHIFT) {
+                case 0: a = value; break;
+                case 1: b = value; break;
+                default: c = value; break;
+            }
+        }
+        base += Packet.INSTRUCTION_WIDTH;
+        if (stdLib == null) {
+            throw new HelunaException("StdLib not configured");
+        }
+        int dest = code[base + 2];
+        values[dest] = function(code[base + 3]).call(stdLib, a, b, c);
+        applyTagMode(dest, (code[base + 1] >> 3) & 0x03, tags[args]);
+    }
+
+    /**
+     * Collect every slot an instruction can write (dest operands, plus the
+     * result slot of ITER_COLLECT) together with the input field slots.
+     * Jump destinations are program counters, not slots, and are skipped.
+     */
+    private static int[] computeWritableSlots(Packet packet) {
+        boolean[] written = new boolean[packet.scratchpadSize];
+        for (Packet.FieldDef field : packet.inputFields) {
+            written[field.scratchpadOffset] = true;
+        }
+        for (int[] instr : packet.instructions) {
+            switch (instr[0]) {
+                case JUMP: case JUMP_IF: case JUMP_IF_NOT:
+                case CMP_JUMP_EQ: case CMP_JUMP_NEQ:
+                case CMP_JUMP_LT: case CMP_JUMP_GT:
+                case CMP_JUMP_LTE: case CMP_JUMP_GTE:
+                case IS_NOTHING_JUMP:
+                    break;
+                default:
+                    if (instr[2] < written.length) written[instr[2]] = true;
+            }
+        }
+        int count = 0;
+        for (boolean w : written) if (w) count++;
+        int[] slots = new int[count];
+        int n = 0;
+        for (int i = 0; i < written.length; i++) {
+            if (written[i]) slots[n++] = i;
+        }
+        return slots;
+    }
+
+    /**
+     * Find the slots the interpreter may keep in the unboxed long/double
+     * lanes: slots written only by LOAD_CONST, COPY and arithmetic, and
+     * read only by arithmetic, comparisons, COPY, TAG_* and as a FOLD
+     * accumulator. Any other use of a slot (a record or list operand, a
+     * stdlib argument, an input field, an iteration element) would need the
+     * boxed value on the spot, so such slots always hold HVal. Operands of
+     * opcodes not listed are all treated as uses. Returns null if no slot
+     * qualifies.
+     */
+    static boolean[] computeLaneSlots(int[] code, Packet packet) {
+        int n = packet.scratchpadSize;
+        boolean[] written = new boolean[n];
+        boolean[] excluded = new boolean[n];
+        for (Packet.FieldDef field : packet.inputFields) {
+            if (field.scratchpadOffset < n) excluded[field.scratchpadOffset] = true;
+        }
+        int count = code.length / Packet.INSTRUCTION_WIDTH;
+        boolean[] foldCollect = new boolean[count];
+        for (int pc = 0; pc < count; pc++) {
+            int base = pc * Packet.INSTRUCTION_WIDTH;
+            if (code[base] == ITER_SETUP && (code[base + 1] & 0x03) == 2) {
+                int collectPc = pc + 1 + code[base + 4];
+                if (collectPc < count) foldCollect[collectPc] = true;
+            }
+        }
+        for (int pc = 0; pc < count; pc++) {
+            int base = pc * Packet.INSTRUCTION_WIDTH;
+            int dest = code[base + 2], op1 = code[base + 3], op2 = code[base + 4];
+            switch (TypeAnalyzer.generic(InstructionFuser.first(code[base]))) {
+                case LOAD_CONST:
+                case COPY:
+                case ADD: case SUB: case MUL: case DIV: case MOD: case NEGATE:
+                    if (dest < n) written[dest] = true;
+                    break;
+                case EQ: case NEQ: case LT: case GT: case LTE: case GTE:
+                case TAG_CHECK:
+                    exclude(excluded, dest);
+                    break;
+                case CMP_JUMP_EQ: case CMP_JUMP_NEQ: case CMP_JUMP_LT:
+                case CMP_JUMP_GT: case CMP_JUMP_LTE: case CMP_JUMP_GTE:
+                case TAG_SET:
+                case JUMP:
+                    break;
+                case JUMP_IF: case JUMP_IF_NOT: case IS_NOTHING_JUMP:
+                    exclude(excluded, op1);
+                    break;
+                case ITER_COLLECT:
+                    exclude(excluded, dest);
+                    if (!foldCollect[pc]) exclude(excluded, op1);
+                    exclude(excluded, op2);
+                    break;
+                // Opcodes with unused operands or a constant, field, function or offset operand
+                case LOAD_FIELD: case LOAD_NOTHING: case RECORD_NEW: case LIST_NEW:
+                    exclude(excluded, dest);
+                    break;
+                case RECORD_GET_C: case ITER_SETUP:
+                    exclude(excluded, dest);
+                    exclude(excluded, op1);
+                    break;
+                case RECORD_SET_C: case RECORD_NEW_SET_C:
+                case STDLIB_CALL: case STDLIB_CALL_1:
+                    exclude(excluded, dest);
+                    exclude(excluded, op2);
+                    break;
+                default:
+                    exclude(excluded, dest);
+                    exclude(excluded, op1);
+                    exclude(excluded, op2);
+            }
+        }
+        boolean[] lanes = null;
+        for (int slot = 0; slot < n; slot++) {
+            if (written[slot] && !excluded[slot]) {
+                if (lanes == null) lanes = new boolean[n];
+                lanes[slot] = true;
+            }
+        }
+        return lanes;
+    }
+
+    private static void exclude(boolean[] excluded, int slot) {
+        if (slot >= 0 && slot < excluded.length) excluded[slot] = true;
+    }
+
+    // --- Unboxed lanes ---
+
+    /** Write a lane slot's value back to values[]. */
+    private void box(int slot) {
+        switch (kinds[slot]) {
+            case LONG:   values[slot] = HVal.HInteger.of(longs[slot]); break;
+            case DOUBLE: values[slot] = new HVal.HFloat(doubles[slot]); break;
+            default:     return;
+        }
+        kinds[slot] = BOXED;
+    }
+
+    /** LONG or DOUBLE for a numeric slot, boxed or not; BOXED for anything else. */
+    private byte numericKind(int slot) {
+        byte k = kinds[slot];
+        if (k != BOXED) return k;
+        switch (values[slot].typeCode()) {
+            case HVal.TYPE_INTEGER: return LONG;
+            case HVal.TYPE_FLOAT:   return DOUBLE;
+            default:                return BOXED;
+        }
+    }
+
+    /** The value of a slot whose kind is LONG or DOUBLE. */
+    private double laneDouble(int slot) {
+        return kinds[slot] == LONG ? (double) longs[slot] : doubles[slot];
+    }
+
+    private void loadLane(int slot, HVal value) {
+        switch (value.typeCode()) {
+            case HVal.TYPE_INTEGER:
+                longs[slot] = ((HVal.HInteger) value).value();
+                kinds[slot] = LONG;
+                break;
+            case HVal.TYPE_FLOAT:
+                doubles[slot] = ((HVal.HFloat) value).value();
+                kinds[slot] = DOUBLE;
+                break;
+            default:
+                values[slot] = value;
+                kinds[slot] = BOXED;
+        }
+    }
+
+    private long longAt(int slot) {
+        return kinds[slot] == LONG ? longs[slot] : ((HVal.HInteger) values[slot]).value();
+    }
+
+    private double doubleAt(int slot) {
+        switch (kinds[slot]) {
+            case LONG:   return longs[slot];
+            case DOUBLE: return doubles[slot];
+            default: {
+                HVal v = values[slot];
+                return v.typeCode() == HVal.TYPE_INTEGER ? (double) ((HVal.HInteger) v).value()
+                                                         : ((HVal.HFloat) v).value();
+            }
+        }
+    }
+
+    private void storeLong(int slot, long value) {
+        if (lanes != null && lanes[slot]) {
+            longs[slot] = value;
+            kinds[slot] = LONG;
+        } else {
+            values[slot] = HVal.HInteger.of(value);
+        }
+    }
+
+    private void storeDouble(int slot, double value) {
+        if (lanes != null && lanes[slot]) {
+            doubles[slot] = value;
+            kinds[slot] = DOUBLE;
+        } else {
+            values[slot] = new HVal.HFloat(value);
+        }
+    }
+
+    /** The same result and errors as {@link #arith}, without boxing numbers. */
+    private void arithLane(int dest, int left, int right, char op) {
+        byte lk = numericKind(left), rk = numericKind(right);
+        if (lk == LONG && rk == LONG) {
+            long a = longAt(left), b = longAt(right);
+            switch (op) {
+                case '+': storeLong(dest, a + b); return;
+                case '-': storeLong(dest, a - b); return;
+                case '*': storeLong(dest, a * b); return;
+                case '/':
+                    if (b == 0) throw new HelunaException("Division by zero");
+                    storeLong(dest, a / b);
+                    return;
+                default:
+                    if (b == 0) throw new HelunaException("Division by zero");
+                    storeLong(dest, a % b);
+                    return;
+            }
+        }
+        if (lk == BOXED || rk == BOXED) {
+            box(left);
+            box(right);
+            values[dest] = arith(values[left], values[right], op); // throws
+            kinds[dest] = BOXED;
+            return;
+        }
+        double a = doubleAt(left), b = doubleAt(right);
+        switch (op) {
+            case '+': storeDouble(dest, a + b); return;
+            case '-': storeDouble(dest, a - b); return;
+            case '*': storeDouble(dest, a * b); return;
+            case '/':
+                if (b == 0.0) throw new HelunaException("Division by zero");
+                storeDouble(dest, a / b);
+                return;
+            default:
+                if (b == 0.0) throw new HelunaException("Division by zero");
+                storeDouble(dest, a % b);
+        }
+    }
+
+    private void negateLane(int dest, int src) {
+        switch (numericKind(src)) {
+            case LONG:   storeLong(dest, -longAt(src)); break;
+            case DOUBLE: storeDouble(dest, -doubleAt(src)); break;
+            default:     values[dest] = negate(values[src]); // throws
+        }
+    }
+
+    private void copyLane(int dest, int src) {
+        if (lanes != null && lanes[dest]) {
+            longs[dest] = longs[src];
+            doubles[dest] = doubles[src];
+            kinds[dest] = kinds[src];
+        } else {
+            box(src);
+            values[dest] = values[src];
+        }
+    }
+
+    /** {@link #valEquals} of two slots, comparing lane values in place. */
+    private boolean slotsEqual(int a, int b) {
+        byte ka = kinds[a], kb = kinds[b];
+        if ((ka | kb) != BOXED) {
+            if (ka == LONG && kb == LONG) return longs[a] == longs[b];
+            box(a);
+            box(b);
+        }
+        return valEquals(values[a], values[b]);
+    }
+
+    /** {@link #valCompare} of two slots, comparing lane values in place. */
+    private int compareSlots(int a, int b) {
+        byte ka = kinds[a], kb = kinds[b];
+        if (ka != BOXED && kb != BOXED) {
+            return Double.compare(laneDouble(a), laneDouble(b));
+        }
+        if ((ka | kb) != BOXED) {
+            if (numericKind(a) != BOXED && numericKind(b) != BOXED) {
+                return Double.compare(doubleAt(a), doubleAt(b));
+            }
+            box(a);
+            box(b);
+        }
+        return valCompare(values[a], values[b]);
+    }
+
+    /**
+     * A record key from the resolved constant table. A constant that is not
+     * a string fails with the same ClassCastException as casting it directly.
+     */
+    private static String constantKey(String[] keys, HVal[] constants, int index) {
+        String key = keys[index];
+        return key != null ? key : ((HVal.HString) constants[index]).value();
+    }
+
     private void applyTagMode(int dest, int tagMode, long propagatedTags) {
         switch (tagMode) {
             case TAG_PROPAGATE: tags[dest] = propagatedTags; break;
@@ -550,10 +1192,37 @@ public class Executor {
         }
     }
 
-    private void execArith(int dest, int op1, int op2, int tagMode, char op) {
-        HVal left = values[op1];
-        HVal right = values[op2];
+    static HVal add(HVal left, HVal right) {
+        byte lt = left.typeCode(), rt = right.typeCode();
+        if (lt == HVal.TYPE_INTEGER && rt == HVal.TYPE_INTEGER) {
+            return HVal.HInteger.of(((HVal.HInteger) left).value() + ((HVal.HInteger) right).value());
+        } else if (lt == HVal.TYPE_FLOAT && rt == HVal.TYPE_FLOAT) {
+            return new HVal.HFloat(((HVal.HFloat) left).value() + ((HVal.HFloat) right).value());
+        }
+        return arith(left, right, '+');
+    }
 
+    static HVal sub(HVal left, HVal right) {
+        byte lt = left.typeCode(), rt = right.typeCode();
+        if (lt == HVal.TYPE_INTEGER && rt == HVal.TYPE_INTEGER) {
+            return HVal.HInteger.of(((HVal.HInteger) left).value() - ((HVal.HInteger) right).value());
+        } else if (lt == HVal.TYPE_FLOAT && rt == HVal.TYPE_FLOAT) {
+            return new HVal.HFloat(((HVal.HFloat) left).value() - ((HVal.HFloat) right).value());
+        }
+        return arith(left, right, '-');
+    }
+
+    static HVal mul(HVal left, HVal right) {
+        byte lt = left.typeCode(), rt = right.typeCode();
+        if (lt == HVal.TYPE_INTEGER && rt == HVal.TYPE_INTEGER) {
+            return HVal.HInteger.of(((HVal.HInteger) left).value() * ((HVal.HInteger) right).value());
+        } else if (lt == HVal.TYPE_FLOAT && rt == HVal.TYPE_FLOAT) {
+            return new HVal.HFloat(((HVal.HFloat) left).value() * ((HVal.HFloat) right).value());
+        }
+        return arith(left, right, '*');
+    }
+
+    static HVal arith(HVal left, HVal right, char op) {
         byte leftType = left.typeCode();
         byte rightType = right.typeCode();
         boolean leftInt = leftType == HVal.TYPE_INTEGER;
@@ -570,17 +1239,15 @@ public class Executor {
             long a = ((HVal.HInteger) left).value();
             long b = ((HVal.HInteger) right).value();
             switch (op) {
-                case '+': values[dest] = HVal.HInteger.of(a + b); break;
-                case '-': values[dest] = HVal.HInteger.of(a - b); break;
-                case '*': values[dest] = HVal.HInteger.of(a * b); break;
+                case '+': return HVal.HInteger.of(a + b);
+                case '-': return HVal.HInteger.of(a - b);
+                case '*': return HVal.HInteger.of(a * b);
                 case '/':
                     if (b == 0) throw new HelunaException("Division by zero");
-                    values[dest] = HVal.HInteger.of(a / b);
-                    break;
-                case '%':
+                    return HVal.HInteger.of(a / b);
+                default:
                     if (b == 0) throw new HelunaException("Division by zero");
-                    values[dest] = HVal.HInteger.of(a % b);
-                    break;
+                    return HVal.HInteger.of(a % b);
             }
         } else {
             double a = leftInt ? (double) ((HVal.HInteger) left).value()
@@ -588,23 +1255,258 @@ public class Executor {
             double b = rightInt ? (double) ((HVal.HInteger) right).value()
                                 : ((HVal.HFloat) right).value();
             switch (op) {
-                case '+': values[dest] = new HVal.HFloat(a + b); break;
-                case '-': values[dest] = new HVal.HFloat(a - b); break;
-                case '*': values[dest] = new HVal.HFloat(a * b); break;
+                case '+': return new HVal.HFloat(a + b);
+                case '-': return new HVal.HFloat(a - b);
+                case '*': return new HVal.HFloat(a * b);
                 case '/':
                     if (b == 0.0) throw new HelunaException("Division by zero");
-                    values[dest] = new HVal.HFloat(a / b);
-                    break;
-                case '%':
+                    return new HVal.HFloat(a / b);
+                default:
                     if (b == 0.0) throw new HelunaException("Division by zero");
-                    values[dest] = new HVal.HFloat(a % b);
-                    break;
+                    return new HVal.HFloat(a % b);
             }
         }
-        applyTagMode(dest, tagMode, tags[op1] | tags[op2]);
     }
 
-    private boolean valEquals(HVal a, HVal b) {
+    static HVal negate(HVal v) {
+        switch (v.typeCode()) {
+            case HVal.TYPE_INTEGER: return HVal.HInteger.of(-((HVal.HInteger) v).value());
+            case HVal.TYPE_FLOAT:   return new HVal.HFloat(-((HVal.HFloat) v).value());
+            default: throw new HelunaException("NEGATE requires numeric, got " + typeName(v));
+        }
+    }
+
+    static HVal concat(HVal left, HVal right) {
+        return new HVal.HString(valToString(left) + valToString(right));
+    }
+
+    HVal listGet(int listSlot, int indexSlot) {
+        HVal.HList list = asList(listSlot);
+        HVal idx = values[indexSlot];
+        if (idx.typeCode() != HVal.TYPE_INTEGER) {
+            throw new HelunaException("LIST_GET index must be integer");
+        }
+        return list.get((int) ((HVal.HInteger) idx).value());
+    }
+
+    HVal callStdLib(int funcId, int argsSlot) {
+        if (stdLib == null) {
+            throw new HelunaException("StdLib not configured");
+        }
+        if (funcId == 0) {
+            // Sanitizer passthrough — just copy the value through
+            return asRecord(argsSlot).get("value");
+        }
+        return function(funcId).call(stdLib, asRecord(argsSlot));
+    }
+
+    HVal callStdLib1(int funcId, int argSlot) {
+        if (stdLib == null) {
+            throw new HelunaException("StdLib not configured");
+        }
+        if (funcId == 0) {
+            return values[argSlot];
+        }
+        StdLib.Function fn = function(funcId);
+        if (fn.parameters != null && fn.parameters[0].equals("value")) {
+            // Positional: the value is the first argument and the rest are absent
+            return fn.call(stdLib, values[argSlot], HVal.HNothing.INSTANCE, HVal.HNothing.INSTANCE);
+        }
+        stdlibArg1.clear();
+        stdlibArg1.set("value", values[argSlot]);
+        return fn.call(stdLib, stdlibArg1);
+    }
+
+    /**
+     * The stdlib function with the given id, from the table resolved when
+     * the packet was loaded; packets built in code look it up by id.
+     */
+    StdLib.Function function(int funcId) {
+        StdLib.Function[] functions = packet.functions;
+        StdLib.Function fn = funcId < functions.length ? functions[funcId] : null;
+        return fn != null ? fn : StdLib.function(funcId);
+    }
+
+    /** The StdLib of the session, for compiled stdlib calls. */
+    StdLib stdLib() {
+        if (stdLib == null) {
+            throw new HelunaException("StdLib not configured");
+        }
+        return stdLib;
+    }
+
+    /**
+     * Start an iteration over the list in srcSlot and load its first element
+     * into dest. For an empty list the result (empty list, or the unchanged
+     * accumulator for FOLD) is written immediately and null is returned.
+     */
+    IterState iterStart(int mode, int dest, int srcSlot, int bodyStart, int bodyEnd,
+                        int resultSlot, int slotA, int slotB) {
+        HVal src = values[srcSlot];
+        if (src.typeCode() != HVal.TYPE_LIST) {
+            throw new HelunaException("ITER_SETUP source must be list");
+        }
+        ArrayList<HVal> elems = ((HVal.HList) src).elements();
+        if (elems.isEmpty()) {
+            if (mode == 2) { // FOLD
+                values[resultSlot] = values[slotA];
+                tags[resultSlot] = tags[slotA];
+            } else {
+                values[resultSlot] = new HVal.HList();
+                tags[resultSlot] = tags[srcSlot];
+            }
+            return null;
+        }
+        IterState state = new IterState(mode, dest, bodyStart, bodyEnd,
+                                         resultSlot, slotA, slotB, tags[srcSlot], elems);
+        values[dest] = elems.get(0);
+        tags[dest] = tags[srcSlot];
+        return state;
+    }
+
+    /**
+     * Collect the current element's result. Returns true with the next
+     * element loaded when the body should run again, false once the result
+     * has been written.
+     */
+    boolean iterNext(IterState state) {
+        switch (state.mode) {
+            case 0: // MAP
+                state.result.add(values[state.slotA]);
+                break;
+            case 1: // FILTER
+            case 3: // MAP_FILTER
+                if (values[state.slotA].typeCode() == HVal.TYPE_BOOLEAN &&
+                        ((HVal.HBoolean) values[state.slotA]).value()) {
+                    state.result.add(values[state.slotB]);
+                }
+                break;
+            case 2: // FOLD — accumulator already updated in slotA
+                break;
+        }
+
+        state.idx++;
+        if (state.idx < state.size) {
+            values[state.dest] = state.elements.get(state.idx);
+            tags[state.dest] = state.srcTags;
+            return true;
+        }
+
+        if (state.mode == 2) { // FOLD
+            values[state.resultSlot] = values[state.slotA];
+            tags[state.resultSlot] = tags[state.slotA];
+        } else {
+            values[state.resultSlot] = state.result;
+            tags[state.resultSlot] = state.srcTags;
+        }
+        return false;
+    }
+
+    void pushIter(IterState state) {
+        iterStack.push(state);
+    }
+
+    IterState peekIter() {
+        return iterStack.peek();
+    }
+
+    void popIter() {
+        iterStack.pop();
+    }
+
+    /** True for the typed and fused opcodes, which only the VM itself writes. */
+    static boolean isInternal(int opcode) {
+        return TypeAnalyzer.generic(opcode) != opcode || InstructionFuser.first(opcode) != opcode;
+    }
+
+    /** The name of an opcode constant, or its number in hex. */
+    static String opcodeName(int opcode) {
+        switch (opcode) {
+            case LOAD_CONST: return "LOAD_CONST";
+            case LOAD_FIELD: return "LOAD_FIELD";
+            case LOAD_NOTHING: return "LOAD_NOTHING";
+            case COPY: return "COPY";
+            case ADD: return "ADD";
+            case SUB: return "SUB";
+            case MUL: return "MUL";
+            case DIV: return "DIV";
+            case MOD: return "MOD";
+            case NEGATE: return "NEGATE";
+            case EQ: return "EQ";
+            case NEQ: return "NEQ";
+            case LT: return "LT";
+            case GT: return "GT";
+            case LTE: return "LTE";
+            case GTE: return "GTE";
+            case AND: return "AND";
+            case OR: return "OR";
+            case NOT: return "NOT";
+            case STR_CONCAT: return "STR_CONCAT";
+            case IS_STRING: return "IS_STRING";
+            case IS_INT: return "IS_INT";
+            case IS_FLOAT: return "IS_FLOAT";
+            case IS_BOOL: return "IS_BOOL";
+            case IS_NOTHING: return "IS_NOTHING";
+            case IS_LIST: return "IS_LIST";
+            case IS_RECORD: return "IS_RECORD";
+            case TO_STRING: return "TO_STRING";
+            case TO_INT: return "TO_INT";
+            case TO_FLOAT: return "TO_FLOAT";
+            case TO_BOOL: return "TO_BOOL";
+            case RECORD_NEW: return "RECORD_NEW";
+            case RECORD_SET: return "RECORD_SET";
+            case RECORD_GET: return "RECORD_GET";
+            case RECORD_HAS: return "RECORD_HAS";
+            case LIST_NEW: return "LIST_NEW";
+            case LIST_APPEND: return "LIST_APPEND";
+            case LIST_GET: return "LIST_GET";
+            case LIST_LENGTH: return "LIST_LENGTH";
+            case JUMP: return "JUMP";
+            case JUMP_IF: return "JUMP_IF";
+            case JUMP_IF_NOT: return "JUMP_IF_NOT";
+            case COALESCE: return "COALESCE";
+            case ITER_SETUP: return "ITER_SETUP";
+            case ITER_COLLECT: return "ITER_COLLECT";
+            case STDLIB_CALL: return "STDLIB_CALL";
+            case TAG_SET: return "TAG_SET";
+            case TAG_CHECK: return "TAG_CHECK";
+            case RECORD_GET_C: return "RECORD_GET_C";
+            case RECORD_SET_C: return "RECORD_SET_C";
+            case RECORD_NEW_SET_C: return "RECORD_NEW_SET_C";
+            case STDLIB_CALL_1: return "STDLIB_CALL_1";
+            case CMP_JUMP_EQ: return "CMP_JUMP_EQ";
+            case CMP_JUMP_NEQ: return "CMP_JUMP_NEQ";
+            case CMP_JUMP_LT: return "CMP_JUMP_LT";
+            case CMP_JUMP_GT: return "CMP_JUMP_GT";
+            case CMP_JUMP_LTE: return "CMP_JUMP_LTE";
+            case CMP_JUMP_GTE: return "CMP_JUMP_GTE";
+            case IS_NOTHING_JUMP: return "IS_NOTHING_JUMP";
+            case ADD_II: return "ADD_II";
+            case SUB_II: return "SUB_II";
+            case MUL_II: return "MUL_II";
+            case ADD_FF: return "ADD_FF";
+            case SUB_FF: return "SUB_FF";
+            case MUL_FF: return "MUL_FF";
+            case RECORD_GET_C_UNCHECKED: return "RECORD_GET_C_UNCHECKED";
+            case RECORD_SET_C_UNCHECKED: return "RECORD_SET_C_UNCHECKED";
+            case RECORD_GET_UNCHECKED: return "RECORD_GET_UNCHECKED";
+            case RECORD_SET_UNCHECKED: return "RECORD_SET_UNCHECKED";
+            case LOAD_CONST_ADD: return "LOAD_CONST_ADD";
+            case LOAD_CONST_RECORD_GET: return "LOAD_CONST_RECORD_GET";
+            case LOAD_CONST_RECORD_SET: return "LOAD_CONST_RECORD_SET";
+            case RECORD_GET_C_COALESCE: return "RECORD_GET_C_COALESCE";
+            case RECORD_NEW_SET_C_N: return "RECORD_NEW_SET_C_N";
+            case STR_CONCAT_N: return "STR_CONCAT_N";
+            case STDLIB_CALL_ARGS: return "STDLIB_CALL_ARGS";
+            default: return String.format("0x%02X", opcode);
+        }
+    }
+
+    static HelunaException unknownOpcode(int opcode, int pc) {
+        return new HelunaException(String.format("Unknown opcode 0x%02X at pc=%d", opcode, pc));
+    }
+
+    static boolean valEquals(HVal a, HVal b) {
         byte ta = a.typeCode(), tb = b.typeCode();
         if (ta == HVal.TYPE_INTEGER && tb == HVal.TYPE_FLOAT) {
             return (double) ((HVal.HInteger) a).value() == ((HVal.HFloat) b).value();
@@ -616,7 +1518,7 @@ public class Executor {
         return a.equals(b);
     }
 
-    private int valCompare(HVal a, HVal b) {
+    static int valCompare(HVal a, HVal b) {
         byte ta = a.typeCode(), tb = b.typeCode();
         boolean aNum = (ta == HVal.TYPE_INTEGER || ta == HVal.TYPE_FLOAT);
         boolean bNum = (tb == HVal.TYPE_INTEGER || tb == HVal.TYPE_FLOAT);
@@ -633,25 +1535,25 @@ public class Executor {
         throw new HelunaException("Cannot compare " + typeName(a) + " with " + typeName(b));
     }
 
-    private boolean asBool(int slot) {
+    boolean asBool(int slot) {
         HVal v = values[slot];
         if (v.typeCode() == HVal.TYPE_BOOLEAN) return ((HVal.HBoolean) v).value();
         throw new HelunaException("Expected boolean at slot " + slot + ", got " + typeName(v));
     }
 
-    private String asString(int slot) {
+    String asString(int slot) {
         HVal v = values[slot];
         if (v.typeCode() == HVal.TYPE_STRING) return ((HVal.HString) v).value();
         throw new HelunaException("Expected string at slot " + slot + ", got " + typeName(v));
     }
 
-    private HVal.HRecord asRecord(int slot) {
+    HVal.HRecord asRecord(int slot) {
         HVal v = values[slot];
         if (v.typeCode() == HVal.TYPE_RECORD) return (HVal.HRecord) v;
         throw new HelunaException("Expected record at slot " + slot + ", got " + typeName(v));
     }
 
-    private HVal.HList asList(int slot) {
+    HVal.HList asList(int slot) {
         HVal v = values[slot];
         if (v.typeCode() == HVal.TYPE_LIST) return (HVal.HList) v;
         throw new HelunaException("Expected list at slot " + slot + ", got " + typeName(v));
@@ -674,7 +1576,7 @@ public class Executor {
         }
     }
 
-    private HVal toInteger(HVal v) {
+    static HVal toInteger(HVal v) {
         switch (v.typeCode()) {
             case HVal.TYPE_INTEGER: return v;
             case HVal.TYPE_FLOAT:   return HVal.HInteger.of((long) ((HVal.HFloat) v).value());
@@ -694,7 +1596,7 @@ public class Executor {
         }
     }
 
-    private HVal toFloat(HVal v) {
+    static HVal toFloat(HVal v) {
         switch (v.typeCode()) {
             case HVal.TYPE_FLOAT:   return v;
             case HVal.TYPE_INTEGER: return new HVal.HFloat((double) ((HVal.HInteger) v).value());
@@ -709,7 +1611,7 @@ public class Executor {
         }
     }
 
-    private HVal toBool(HVal v) {
+    static HVal toBool(HVal v) {
         switch (v.typeCode()) {
             case HVal.TYPE_BOOLEAN: return v;
             case HVal.TYPE_INTEGER: return HVal.HBoolean.of(((HVal.HInteger) v).value() != 0);
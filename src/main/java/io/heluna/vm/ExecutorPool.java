@@ -0,0 +1,221 @@
+package io.heluna.vm;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Hands out warmed, per-thread {@link HelunaSession}s keyed by packet.
+ *
+ * Executor and StdLib are single-threaded mutable objects, so each worker
+ * thread gets its own session per packet, created on first use and reused
+ * afterwards. Lookups after the first call per thread touch only the
+ * packet's thread-local, so one loaded packet can be served from many cores
+ * without contention.
+ */
+public class ExecutorPool {
+
+    // The pool behind HelunaVM.executeBatchParallel: sessions are owned by each packet, not by the pool
+    static final ExecutorPool PACKET_OWNED = new ExecutorPool() {
+        @Override
+        public HelunaSession session(Packet pkt) {
+            return PacketSessions.of(pkt).get();
+        }
+    };
+
+    private final ConcurrentHashMap<Packet, ThreadLocal<HelunaSession>> sessions =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Return the calling thread's session for the given packet.
+     * The session must not be handed to another thread.
+     */
+    public HelunaSession session(Packet pkt) {
+        ThreadLocal<HelunaSession> local = sessions.get(pkt);
+        if (local == null) {
+            local = sessions.computeIfAbsent(pkt,
+                    p -> ThreadLocal.withInitial(() -> new HelunaSession(p)));
+        }
+        return local.get();
+    }
+
+    /**
+     * Execute a packet on the calling thread's session.
+     * Returns the output record.
+     */
+    public HVal.HRecord execute(Packet pkt, HVal.HRecord input, String timestamp) {
+        return session(pkt).execute(input, timestamp);
+    }
+
+    /**
+     * Execute a batch split across a fork/join pool, one pooled session per
+     * worker thread. Outputs are returned in input order and per-record
+     * failures are collected rather than aborting the batch.
+     */
+    public BatchResult executeBatch(Packet pkt, List<HVal.HRecord> inputs, String timestamp,
+                                    ForkJoinPool forkJoinPool) {
+        int n = inputs.size();
+        HVal.HRecord[] outputs = new HVal.HRecord[n];
+        HelunaException[] errors = new HelunaException[n];
+        int threshold = sliceSize(n, forkJoinPool.getParallelism());
+        forkJoinPool.invoke(new BatchSlice(pkt, inputs, 0, n, threshold, timestamp, outputs, errors));
+        return new BatchResult(outputs, errors);
+    }
+
+    /**
+     * Execute a batch on a caller-supplied executor, split into slices of
+     * roughly equal size for the given parallelism. Blocks until every slice
+     * has run. Slices the executor rejects run on the calling thread.
+     */
+    public BatchResult executeBatch(Packet pkt, List<HVal.HRecord> inputs, String timestamp,
+                                    java.util.concurrent.Executor executor, int parallelism) {
+        int n = inputs.size();
+        HVal.HRecord[] outputs = new HVal.HRecord[n];
+        HelunaException[] errors = new HelunaException[n];
+        int slice = sliceSize(n, parallelism);
+        int sliceCount = (n + slice - 1) / slice;
+        CountDownLatch done = new CountDownLatch(sliceCount);
+        Throwable failure = null;
+        for (int from = 0; from < n; from += slice) {
+            int lo = from, hi = Math.min(n, from + slice);
+            Runnable task = () -> {
+                try {
+                    session(pkt).runRange(inputs, lo, hi, timestamp, outputs, errors);
+                } finally {
+                    done.countDown();
+                }
+            };
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // A bounded or shut-down executor: run the slice here rather than leave submitted ones unawaited
+                try {
+                    task.run();
+                } catch (RuntimeException | Error inline) {
+                    if (failure == null) failure = inline;
+                }
+            }
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                // Keep waiting: slices still running write into outputs and errors
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure != null) throw (Error) failure;
+        return new BatchResult(outputs, errors);
+    }
+
+    // Aim for a few slices per worker so uneven records still balance
+    private static int sliceSize(int n, int parallelism) {
+        return Math.max(1, n / (Math.max(1, parallelism) * 4));
+    }
+
+    private class BatchSlice extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Packet pkt;
+        private final List<HVal.HRecord> inputs;
+        private final int from, to, threshold;
+        private final String timestamp;
+        private final HVal.HRecord[] outputs;
+        private final HelunaException[] errors;
+
+        BatchSlice(Packet pkt, List<HVal.HRecord> inputs, int from, int to, int threshold,
+                   String timestamp, HVal.HRecord[] outputs, HelunaException[] errors) {
+            this.pkt = pkt; this.inputs = inputs;
+            this.from = from; this.to = to; this.threshold = threshold;
+            this.timestamp = timestamp;
+            this.outputs = outputs; this.errors = errors;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                session(pkt).runRange(inputs, from, to, timestamp, outputs, errors);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchSlice(pkt, inputs, from, mid, threshold, timestamp, outputs, errors),
+                      new BatchSlice(pkt, inputs, mid, to, threshold, timestamp, outputs, errors));
+        }
+    }
+
+    /**
+     * Stop pooling sessions for a packet. Sessions already handed out stay
+     * usable by their threads but are no longer returned by {@link #session}.
+     */
+    public void evict(Packet pkt) {
+        sessions.remove(pkt);
+    }
+
+    public int packetCount() {
+        return sessions.size();
+    }
+
+    /**
+     * The per-thread sessions of one packet, created on first use and held by
+     * the packet, so they stay warm across batches and are released with it.
+     * Threads reach their session through a weak reference: a thread-local
+     * value pointing at the session strongly would keep the packet reachable
+     * from every worker thread for as long as that thread lives.
+     */
+    static final class PacketSessions {
+        private static final Object CREATE_LOCK = new Object();
+
+        private final Packet pkt;
+        private final ThreadLocal<WeakReference<HelunaSession>> local = new ThreadLocal<>();
+        private final Map<Thread, HelunaSession> byThread = new WeakHashMap<>(); // guarded by itself
+
+        private PacketSessions(Packet pkt) {
+            this.pkt = pkt;
+        }
+
+        static PacketSessions of(Packet pkt) {
+            PacketSessions s = pkt.workerSessions;
+            if (s == null) {
+                synchronized (CREATE_LOCK) {
+                    s = pkt.workerSessions;
+                    if (s == null) {
+                        s = new PacketSessions(pkt);
+                        pkt.workerSessions = s;
+                    }
+                }
+            }
+            return s;
+        }
+
+        /** The calling thread's session. */
+        HelunaSession get() {
+            WeakReference<HelunaSession> ref = local.get();
+            HelunaSession session = ref != null ? ref.get() : null;
+            if (session == null) {
+                session = new HelunaSession(pkt);
+                synchronized (byThread) {
+                    byThread.put(Thread.currentThread(), session);
+                }
+                local.set(new WeakReference<>(session));
+            }
+            return session;
+        }
+
+        /** Sessions whose threads are still alive. */
+        int size() {
+            synchronized (byThread) {
+                return byThread.size();
+            }
+        }
+    }
+}
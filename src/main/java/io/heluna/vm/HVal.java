@@ -1,11 +1,21 @@
 package io.heluna.vm;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 public abstract class HVal {
 
@@ -169,6 +179,7 @@ public abstract class HVal {
 
     public static final class HList extends HVal {
         private final ArrayList<HVal> elements;
+        private volatile LazyJson lazy; // unparsed input, until first access
 
         public HList() {
             this.elements = new ArrayList<>();
@@ -182,34 +193,71 @@ public abstract class HVal {
             this.elements = new ArrayList<>(elements);
         }
 
+        /**
+         * A list whose elements are parsed from the JSON array on first access.
+         */
+        static HList lazy(LazyJson json) {
+            HList list = new HList();
+            list.lazy = json;
+            return list;
+        }
+
+        /**
+         * The JSON text of a list that has not been parsed yet, else null.
+         */
+        LazyJson pendingJson() {
+            return lazy;
+        }
+
+        private synchronized void inflate() {
+            LazyJson json = lazy;
+            if (json == null) return;
+            elements.addAll(((HList) json.parse()).elements);
+            lazy = null;
+        }
+
         public void add(HVal value) {
+            if (lazy != null) inflate();
             elements.add(value);
         }
 
         public HVal get(int index) {
+            if (lazy != null) inflate();
             if (index < 0 || index >= elements.size()) {
                 return HNothing.INSTANCE;
             }
             return elements.get(index);
         }
 
-        public int size() { return elements.size(); }
+        public int size() {
+            if (lazy != null) inflate();
+            return elements.size();
+        }
 
-        public ArrayList<HVal> elements() { return elements; }
+        public ArrayList<HVal> elements() {
+            if (lazy != null) inflate();
+            return elements;
+        }
 
         @Override public byte typeCode() { return TYPE_LIST; }
 
         @Override
         public boolean equals(Object o) {
+            if (lazy != null) inflate();
             if (this == o) return true;
-            if (o instanceof HList) return elements.equals(((HList) o).elements);
+            if (o instanceof HList) return elements.equals(((HList) o).elements());
             return false;
         }
 
-        @Override public int hashCode() { return elements.hashCode(); }
+        @Override
+        public int hashCode() {
+            if (lazy != null) inflate();
+            return elements.hashCode();
+        }
 
         @Override
         public String toString() {
+            if (lazy != null) inflate();
             StringBuilder sb = new StringBuilder("[");
             for (int i = 0; i < elements.size(); i++) {
                 if (i > 0) sb.append(", ");
@@ -225,58 +273,411 @@ public abstract class HVal {
         }
     }
 
+    /**
+     * A record: string keys in insertion order, each mapped to a value.
+     *
+     * Values live in a slot array laid out by a {@link Shape} shared with
+     * every record that added the same keys in the same order, so building a
+     * record allocates only the array and a lookup is a short scan of the
+     * shape's keys. Records that outgrow the shape limits keep their own key
+     * table and a hash index instead (dictionary mode); the public behavior
+     * is the same in both modes.
+     */
     public static final class HRecord extends HVal {
-        private final LinkedHashMap<String, HVal> fields;
+        private static final HVal[] NO_SLOTS = new HVal[0];
+
+        private Shape shape = Shape.EMPTY;       // null in dictionary mode
+        private String[] keys = Shape.EMPTY.keys;
+        private HVal[] slots = NO_SLOTS;
+        private int size;
+        private HashMap<String, Integer> index;  // dictionary mode only
+        private volatile LazyJson lazy;          // unparsed input, until first access
 
         public HRecord() {
-            this.fields = new LinkedHashMap<>();
+        }
+
+        /**
+         * An empty record for keys that come from data rather than from the
+         * packet, laid out in the {@link Shape#DATA} tree.
+         */
+        static HRecord forData() {
+            HRecord rec = new HRecord();
+            rec.shape = Shape.DATA;
+            rec.keys = Shape.DATA.keys;
+            return rec;
+        }
+
+        /**
+         * A record whose members are parsed from the JSON object on first access.
+         */
+        static HRecord lazy(LazyJson json) {
+            HRecord rec = new HRecord();
+            rec.lazy = json;
+            return rec;
         }
 
         public HRecord(LinkedHashMap<String, HVal> fields) {
-            this.fields = new LinkedHashMap<>(fields);
+            for (Map.Entry<String, HVal> e : fields.entrySet()) {
+                set(e.getKey(), e.getValue());
+            }
         }
 
         public void set(String key, HVal value) {
-            fields.put(key, value);
+            if (lazy != null) inflate();
+            int i = indexOf(key);
+            if (i >= 0) {
+                slots[i] = value;
+                return;
+            }
+            if (shape != null) {
+                Shape next = shape.with(key);
+                if (next != null) {
+                    append(next, value);
+                    return;
+                }
+                toDictionary();
+            }
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(8, size * 2));
+            }
+            keys[size] = key;
+            index.put(key, size);
+            growSlots();
+            slots[size++] = value;
         }
 
         public void clear() {
-            fields.clear();
+            lazy = null;
+            Arrays.fill(slots, 0, size, null);
+            shape = Shape.EMPTY;
+            keys = Shape.EMPTY.keys;
+            index = null;
+            size = 0;
         }
 
         public HVal get(String key) {
-            HVal v = fields.get(key);
+            if (lazy != null) inflate();
+            int i = indexOf(key);
+            HVal v = i >= 0 ? slots[i] : null;
             return v != null ? v : HNothing.INSTANCE;
         }
 
         public boolean has(String key) {
-            return fields.containsKey(key);
+            if (lazy != null) inflate();
+            return indexOf(key) >= 0;
+        }
+
+        public int size() {
+            if (lazy != null) inflate();
+            return size;
+        }
+
+        /** The i-th key in insertion order. */
+        public String keyAt(int i) {
+            if (lazy != null) inflate();
+            Objects.checkIndex(i, size);
+            return keys[i];
+        }
+
+        /** The value of the i-th key in insertion order. */
+        public HVal valueAt(int i) {
+            if (lazy != null) inflate();
+            Objects.checkIndex(i, size);
+            return slots[i];
+        }
+
+        /**
+         * A live view of the fields in insertion order, backed by the
+         * record: every update through the map, its views and their
+         * iterators writes through to the record, and it sees later changes.
+         * Removing a key moves the record out of shape mode.
+         */
+        public LinkedHashMap<String, HVal> fields() {
+            return new FieldsMap(new Fields(this));
+        }
+
+        /**
+         * Drop a key, returning its value or null if the record does not
+         * have it. Later keys move down one slot.
+         */
+        private HVal remove(String key) {
+            if (lazy != null) inflate();
+            int i = indexOf(key);
+            if (i < 0) return null;
+            if (shape != null) toDictionary();
+            HVal old = slots[i];
+            index.remove(key);
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(slots, i + 1, slots, i, size - i - 1);
+            size--;
+            keys[size] = null;
+            slots[size] = null;
+            for (int j = i; j < size; j++) {
+                index.put(keys[j], j);
+            }
+            return old;
+        }
+
+        /**
+         * The fields() view typed as the LinkedHashMap that records used to
+         * keep. Every public method goes to the record-backed view, so the
+         * map's own (always empty) table is never read.
+         */
+        private static final class FieldsMap extends LinkedHashMap<String, HVal> {
+            private static final long serialVersionUID = 1L;
+
+            private final transient Fields view;
+
+            FieldsMap(Fields view) {
+                this.view = view;
+            }
+
+            @Override public int size() { return view.size(); }
+            @Override public boolean isEmpty() { return view.isEmpty(); }
+            @Override public boolean containsKey(Object key) { return view.containsKey(key); }
+            @Override public boolean containsValue(Object value) { return view.containsValue(value); }
+            @Override public HVal get(Object key) { return view.get(key); }
+            @Override public HVal getOrDefault(Object key, HVal defaultValue) {
+                return view.getOrDefault(key, defaultValue);
+            }
+            @Override public HVal put(String key, HVal value) { return view.put(key, value); }
+            @Override public void putAll(Map<? extends String, ? extends HVal> m) { view.putAll(m); }
+            @Override public HVal putIfAbsent(String key, HVal value) { return view.putIfAbsent(key, value); }
+            @Override public HVal remove(Object key) { return view.remove(key); }
+            @Override public boolean remove(Object key, Object value) { return view.remove(key, value); }
+            @Override public boolean replace(String key, HVal oldValue, HVal newValue) {
+                return view.replace(key, oldValue, newValue);
+            }
+            @Override public HVal replace(String key, HVal value) { return view.replace(key, value); }
+            @Override public HVal computeIfAbsent(String key,
+                    Function<? super String, ? extends HVal> fn) {
+                return view.computeIfAbsent(key, fn);
+            }
+            @Override public HVal computeIfPresent(String key,
+                    BiFunction<? super String, ? super HVal, ? extends HVal> fn) {
+                return view.computeIfPresent(key, fn);
+            }
+            @Override public HVal compute(String key,
+                    BiFunction<? super String, ? super HVal, ? extends HVal> fn) {
+                return view.compute(key, fn);
+            }
+            @Override public HVal merge(String key, HVal value,
+                    BiFunction<? super HVal, ? super HVal, ? extends HVal> fn) {
+                return view.merge(key, value, fn);
+            }
+            @Override public void forEach(BiConsumer<? super String, ? super HVal> action) {
+                view.forEach(action);
+            }
+            @Override public void replaceAll(
+                    BiFunction<? super String, ? super HVal, ? extends HVal> fn) {
+                view.replaceAll(fn);
+            }
+            @Override public void clear() { view.clear(); }
+            @Override public Set<String> keySet() { return view.keySet(); }
+            @Override public Collection<HVal> values() { return view.values(); }
+            @Override public Set<Map.Entry<String, HVal>> entrySet() { return view.entrySet(); }
+            @Override public boolean equals(Object o) { return view.equals(o); }
+            @Override public int hashCode() { return view.hashCode(); }
+            @Override public String toString() { return view.toString(); }
+
+            /** A detached copy, as cloning the record's old map was. */
+            @Override public Object clone() { return new LinkedHashMap<>(view); }
+
+            // Serialize the fields, not the empty table
+            private Object writeReplace() { return new LinkedHashMap<>(view); }
+        }
+
+        private static final class Fields extends AbstractMap<String, HVal> {
+            private final HRecord rec;
+
+            Fields(HRecord rec) {
+                this.rec = rec;
+            }
+
+            @Override public int size() { return rec.size(); }
+
+            @Override public boolean containsKey(Object key) {
+                return key instanceof String && rec.has((String) key);
+            }
+
+            @Override public HVal get(Object key) {
+                if (!(key instanceof String)) return null;
+                if (rec.lazy != null) rec.inflate();
+                int i = rec.indexOf((String) key);
+                return i >= 0 ? rec.slots[i] : null;
+            }
+
+            @Override public HVal put(String key, HVal value) {
+                HVal old = get(key);
+                rec.set(key, value);
+                return old;
+            }
+
+            @Override public HVal remove(Object key) {
+                return key instanceof String ? rec.remove((String) key) : null;
+            }
+
+            @Override public void clear() { rec.clear(); }
+
+            @Override public Set<Map.Entry<String, HVal>> entrySet() {
+                return new AbstractSet<Map.Entry<String, HVal>>() {
+                    @Override public int size() { return rec.size(); }
+
+                    @Override public Iterator<Map.Entry<String, HVal>> iterator() {
+                        return new Iterator<Map.Entry<String, HVal>>() {
+                            private int next;
+                            private int last = -1;
+
+                            @Override public boolean hasNext() { return next < rec.size(); }
+
+                            @Override public Map.Entry<String, HVal> next() {
+                                if (!hasNext()) throw new NoSuchElementException();
+                                last = next;
+                                return new Field(next++);
+                            }
+
+                            @Override public void remove() {
+                                if (last < 0) throw new IllegalStateException();
+                                rec.remove(rec.keyAt(last));
+                                next = last;
+                                last = -1;
+                            }
+                        };
+                    }
+                };
+            }
+
+            private final class Field implements Map.Entry<String, HVal> {
+                private final int i;
+
+                Field(int i) {
+                    Objects.checkIndex(i, rec.size());
+                    this.i = i;
+                }
+
+                @Override public String getKey() { return rec.keyAt(i); }
+
+                @Override public HVal getValue() { return rec.valueAt(i); }
+
+                @Override public HVal setValue(HVal value) {
+                    HVal old = rec.valueAt(i);
+                    rec.setSlot(i, value);
+                    return old;
+                }
+
+                @Override public boolean equals(Object o) {
+                    if (!(o instanceof Map.Entry)) return false;
+                    Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+                    return getKey().equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+                }
+
+                @Override public int hashCode() {
+                    return getKey().hashCode() ^ Objects.hashCode(getValue());
+                }
+
+                @Override public String toString() { return getKey() + "=" + getValue(); }
+            }
         }
 
-        public int size() { return fields.size(); }
+        // --- Shape access for inline caches (RecordSite) ---
 
-        public LinkedHashMap<String, HVal> fields() { return fields; }
+        /** The record's shape, or null in dictionary mode. */
+        Shape shape() {
+            if (lazy != null) inflate();
+            return shape;
+        }
+
+        HVal slot(int i) { return slots[i]; }
+
+        void setSlot(int i, HVal value) { slots[i] = value; }
+
+        /**
+         * Add a key the record does not have; next must be the transition of
+         * the current shape for that key.
+         */
+        void append(Shape next, HVal value) {
+            growSlots();
+            slots[size++] = value;
+            shape = next;
+            keys = next.keys;
+        }
+
+        private int indexOf(String key) {
+            if (shape != null) return shape.indexOf(key);
+            Integer i = index.get(key);
+            return i != null ? i : -1;
+        }
+
+        private void growSlots() {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, Math.max(4, size * 2));
+            }
+        }
+
+        /**
+         * The JSON text of a record that has not been parsed yet, else null.
+         */
+        LazyJson pendingJson() {
+            return lazy;
+        }
+
+        private synchronized void inflate() {
+            LazyJson json = lazy;
+            if (json == null) return;
+            HRecord parsed = (HRecord) json.parse();
+            shape = parsed.shape;
+            keys = parsed.keys;
+            slots = parsed.slots;
+            size = parsed.size;
+            index = parsed.index;
+            lazy = null;
+        }
+
+        private void toDictionary() {
+            keys = Arrays.copyOf(keys, Math.max(8, size * 2));
+            index = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                index.put(keys[i], i);
+            }
+            shape = null;
+        }
 
         @Override public byte typeCode() { return TYPE_RECORD; }
 
         @Override
         public boolean equals(Object o) {
+            if (lazy != null) inflate();
             if (this == o) return true;
-            if (o instanceof HRecord) return fields.equals(((HRecord) o).fields);
-            return false;
+            if (!(o instanceof HRecord)) return false;
+            HRecord other = (HRecord) o;
+            if (other.lazy != null) other.inflate();
+            if (size != other.size) return false;
+            for (int i = 0; i < size; i++) {
+                int j = other.indexOf(keys[i]);
+                if (j < 0 || !Objects.equals(slots[i], other.slots[j])) return false;
+            }
+            return true;
         }
 
-        @Override public int hashCode() { return fields.hashCode(); }
+        // Same as Map.hashCode, so records hash as their fields() did
+        @Override
+        public int hashCode() {
+            if (lazy != null) inflate();
+            int h = 0;
+            for (int i = 0; i < size; i++) {
+                h += keys[i].hashCode() ^ Objects.hashCode(slots[i]);
+            }
+            return h;
+        }
 
         @Override
         public String toString() {
+            if (lazy != null) inflate();
             StringBuilder sb = new StringBuilder("{");
-            boolean first = true;
-            for (Map.Entry<String, HVal> e : fields.entrySet()) {
-                if (!first) sb.append(", ");
-                first = false;
-                sb.append(e.getKey()).append(": ");
-                HVal v = e.getValue();
+            for (int i = 0; i < size; i++) {
+                if (i > 0) sb.append(", ");
+                sb.append(keys[i]).append(": ");
+                HVal v = slots[i];
                 if (v instanceof HString) {
                     sb.append('"').append(v.toString()).append('"');
                 } else {
@@ -0,0 +1,276 @@
+package io.heluna.vm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Serializes HVal to UTF-8 JSON in a single reusable byte buffer.
+ *
+ * Produces exactly the same text as the String-based serializer it replaces,
+ * without building an intermediate String per nested value. Strings that
+ * need no escaping are copied byte for byte, numbers are written as digits
+ * directly, and record field names are encoded once per writer (quoted,
+ * escaped and followed by the colon) and then copied on every use. Input
+ * records and lists that were never parsed (see {@link LazyJson}) are copied
+ * from the input when their text is already canonical.
+ * Call {@link #reset} between documents to reuse the buffer. Not thread-safe.
+ */
+public class HValJsonWriter {
+
+    private static final int FIELD_CACHE_SIZE = 256; // power of two
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf;
+    private int len;
+    private final String[] fieldNames = new String[FIELD_CACHE_SIZE];
+    private final byte[][] fieldBytes = new byte[FIELD_CACHE_SIZE][];
+
+    public HValJsonWriter() {
+        this(256);
+    }
+
+    public HValJsonWriter(int initialCapacity) {
+        buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /**
+     * Serialize a value to a JSON string.
+     */
+    public static String toJson(HVal v) {
+        return new HValJsonWriter().write(v).toString();
+    }
+
+    /**
+     * Discard the buffered output, keeping the buffer and field-name cache.
+     */
+    public HValJsonWriter reset() {
+        len = 0;
+        return this;
+    }
+
+    public int size() {
+        return len;
+    }
+
+    /**
+     * The internal buffer; only the first {@link #size()} bytes are valid.
+     */
+    public byte[] buffer() {
+        return buf;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, len);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, len);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Append the JSON encoding of a value.
+     */
+    public HValJsonWriter write(HVal v) {
+        switch (v.typeCode()) {
+            case HVal.TYPE_STRING:
+                writeString(((HVal.HString) v).value());
+                break;
+            case HVal.TYPE_INTEGER:
+                writeLong(((HVal.HInteger) v).value());
+                break;
+            case HVal.TYPE_FLOAT:
+                writeDouble(((HVal.HFloat) v).value());
+                break;
+            case HVal.TYPE_BOOLEAN:
+                writeAscii(((HVal.HBoolean) v).value() ? "true" : "false");
+                break;
+            case HVal.TYPE_LIST: {
+                HVal.HList list = (HVal.HList) v;
+                if (writeUnparsed(list.pendingJson())) break;
+                writeByte('[');
+                for (int i = 0; i < list.size(); i++) {
+                    if (i > 0) writeByte(',');
+                    write(list.elements().get(i));
+                }
+                writeByte(']');
+                break;
+            }
+            case HVal.TYPE_RECORD: {
+                HVal.HRecord rec = (HVal.HRecord) v;
+                if (writeUnparsed(rec.pendingJson())) break;
+                writeByte('{');
+                for (int i = 0; i < rec.size(); i++) {
+                    if (i > 0) writeByte(',');
+                    writeFieldName(rec.keyAt(i));
+                    write(rec.valueAt(i));
+                }
+                writeByte('}');
+                break;
+            }
+            default:
+                writeAscii("null");
+        }
+        return this;
+    }
+
+    /**
+     * Copy the input text of a lazy value that was never parsed, if it is
+     * already in the form this writer would produce.
+     */
+    private boolean writeUnparsed(LazyJson json) {
+        if (json == null || !json.canonical()) return false;
+        ensure(json.len);
+        System.arraycopy(json.buf, json.off, buf, len, json.len);
+        len += json.len;
+        return true;
+    }
+
+    // --- Field names ---
+
+    private void writeFieldName(String name) {
+        int slot = (name.hashCode() * 0x9E3779B9 >>> 24) & (FIELD_CACHE_SIZE - 1);
+        byte[] encoded;
+        String cached = fieldNames[slot];
+        if (cached == name || (cached != null && cached.equals(name))) {
+            encoded = fieldBytes[slot];
+        } else {
+            // Encode "name": once and keep it for later records
+            int mark = len;
+            writeString(name);
+            writeByte(':');
+            encoded = Arrays.copyOfRange(buf, mark, len);
+            fieldNames[slot] = name;
+            fieldBytes[slot] = encoded;
+            return;
+        }
+        ensure(encoded.length);
+        System.arraycopy(encoded, 0, buf, len, encoded.length);
+        len += encoded.length;
+    }
+
+    // --- Strings ---
+
+    private void writeString(String s) {
+        int n = s.length();
+        ensure(n + 2);
+        byte[] b = buf;
+        int p = len;
+        b[p++] = '"';
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x20 || c >= 0x80 || c == '"' || c == '\\') {
+                len = p;
+                writeStringSlow(s, i);
+                return;
+            }
+            b[p++] = (byte) c;
+        }
+        b[p++] = '"';
+        len = p;
+    }
+
+    /**
+     * Continue a string from index i, escaping and UTF-8 encoding as needed.
+     * The opening quote and chars before i have already been written.
+     */
+    private void writeStringSlow(String s, int i) {
+        int n = s.length();
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            ensure(6);
+            switch (c) {
+                case '"':  buf[len++] = '\\'; buf[len++] = '"'; break;
+                case '\\': buf[len++] = '\\'; buf[len++] = '\\'; break;
+                case '\n': buf[len++] = '\\'; buf[len++] = 'n'; break;
+                case '\r': buf[len++] = '\\'; buf[len++] = 'r'; break;
+                case '\t': buf[len++] = '\\'; buf[len++] = 't'; break;
+                default:
+                    if (c < 0x20) {
+                        buf[len++] = '\\';
+                        buf[len++] = 'u';
+                        buf[len++] = '0';
+                        buf[len++] = '0';
+                        buf[len++] = HEX[c >> 4];
+                        buf[len++] = HEX[c & 0xF];
+                    } else if (c < 0x80) {
+                        buf[len++] = (byte) c;
+                    } else if (c < 0x800) {
+                        buf[len++] = (byte) (0xC0 | (c >> 6));
+                        buf[len++] = (byte) (0x80 | (c & 0x3F));
+                    } else if (Character.isSurrogate(c)) {
+                        if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                            int cp = Character.toCodePoint(c, s.charAt(++i));
+                            buf[len++] = (byte) (0xF0 | (cp >> 18));
+                            buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                            buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                            buf[len++] = (byte) (0x80 | (cp & 0x3F));
+                        } else {
+                            buf[len++] = '?'; // same replacement String.getBytes(UTF_8) uses
+                        }
+                    } else {
+                        buf[len++] = (byte) (0xE0 | (c >> 12));
+                        buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        buf[len++] = (byte) (0x80 | (c & 0x3F));
+                    }
+            }
+        }
+        writeByte('"');
+    }
+
+    // --- Numbers ---
+
+    private void writeLong(long v) {
+        if (v == Long.MIN_VALUE) {
+            writeAscii("-9223372036854775808");
+            return;
+        }
+        ensure(20);
+        if (v < 0) {
+            buf[len++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) digits++;
+        int p = len + digits;
+        do {
+            buf[--p] = (byte) ('0' + (int) (v % 10));
+            v /= 10;
+        } while (v != 0);
+        len += digits;
+    }
+
+    private void writeDouble(double d) {
+        if (d == Math.floor(d) && !Double.isInfinite(d) && Math.abs(d) < 1e15) {
+            writeLong((long) d);
+            writeAscii(".0");
+            return;
+        }
+        writeAscii(Double.toString(d));
+    }
+
+    // --- Buffer ---
+
+    private void writeByte(char c) {
+        ensure(1);
+        buf[len++] = (byte) c;
+    }
+
+    private void writeAscii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) buf[len++] = (byte) s.charAt(i);
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(len + extra, buf.length * 2));
+        }
+    }
+}
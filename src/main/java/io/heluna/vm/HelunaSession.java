@@ -0,0 +1,223 @@
+package io.heluna.vm;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A reusable execution context for one packet.
+ *
+ * Owns an Executor and StdLib pair that is reset between calls instead of
+ * being rebuilt, so a session can run the same packet millions of times
+ * without per-call setup allocation. Sessions are not thread-safe; use one
+ * per thread.
+ */
+public class HelunaSession {
+
+    private final Packet packet;
+    private final Executor exec;
+    private final StdLib stdLib;
+
+    // Input mapping resolved once from pkt.inputFields
+    private final InputBinder binder;
+    private final int outputSlot;
+
+    // Union of all FORBID_TAGGED rule bits, so the common case is one test
+    private final long forbiddenTags;
+
+    private boolean dirty;
+
+    public HelunaSession(Packet packet) {
+        this.packet = packet;
+        this.exec = new Executor(packet);
+        this.stdLib = new StdLib();
+        stdLib.setPatterns(packet.patterns);
+        exec.setStdLib(stdLib);
+
+        this.binder = new InputBinder(packet);
+        // The bytecode builds the output as a single record at the slot
+        // immediately after all declared field offsets (inputs + outputs).
+        this.outputSlot = packet.inputFieldCount + packet.outputFieldCount;
+
+        long forbidden = 0;
+        for (Packet.Rule rule : packet.rules) {
+            if (rule.type == Packet.Rule.FORBID_TAGGED) {
+                forbidden |= rule.tagBits;
+            }
+        }
+        this.forbiddenTags = forbidden;
+    }
+
+    public Packet packet() {
+        return packet;
+    }
+
+    Executor executor() {
+        return exec;
+    }
+
+    /**
+     * Select how the packet is run (see {@link Executor.Mode}).
+     */
+    public void setMode(Executor.Mode mode) {
+        exec.setMode(mode);
+    }
+
+    /**
+     * Execute the packet with the given input record and timestamp.
+     * Returns the output record.
+     */
+    public HVal.HRecord execute(HVal.HRecord input, String timestamp) {
+        stdLib.setTimestamp(timestamp);
+        return run(input);
+    }
+
+    /**
+     * Execute the packet with UTF-8 JSON input, which must be an object.
+     * Declared input fields are parsed straight into the scratchpad and
+     * other members are skipped, so no input record is built.
+     */
+    public HVal.HRecord execute(byte[] inputJson, String timestamp) {
+        return execute(inputJson, 0, inputJson.length, timestamp);
+    }
+
+    public HVal.HRecord execute(byte[] inputJson, int off, int len, String timestamp) {
+        stdLib.setTimestamp(timestamp);
+        prepare();
+        binder.bind(inputJson, off, len, exec);
+        return runBound();
+    }
+
+    /**
+     * Execute the packet once per input record, all with the same timestamp.
+     * A record that fails is reported in the result instead of aborting the
+     * rest of the batch.
+     */
+    public BatchResult executeBatch(List<HVal.HRecord> inputs, String timestamp) {
+        int n = inputs.size();
+        HVal.HRecord[] outputs = new HVal.HRecord[n];
+        HelunaException[] errors = new HelunaException[n];
+        runRange(inputs, 0, n, timestamp, outputs, errors);
+        return new BatchResult(outputs, errors);
+    }
+
+    public BatchResult executeBatch(HVal.HRecord[] inputs, String timestamp) {
+        stdLib.setTimestamp(timestamp);
+        HVal.HRecord[] outputs = new HVal.HRecord[inputs.length];
+        HelunaException[] errors = new HelunaException[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            runInto(inputs[i], i, outputs, errors);
+        }
+        return new BatchResult(outputs, errors);
+    }
+
+    /**
+     * Execute each record as the iterator yields it, so inputs are never
+     * held in memory together; only the outputs are kept.
+     */
+    public BatchResult executeBatch(Iterator<HVal.HRecord> inputs, String timestamp) {
+        stdLib.setTimestamp(timestamp);
+        HVal.HRecord[] outputs = new HVal.HRecord[16];
+        HelunaException[] errors = new HelunaException[16];
+        int n = 0;
+        while (inputs.hasNext()) {
+            if (n == outputs.length) {
+                outputs = Arrays.copyOf(outputs, n * 2);
+                errors = Arrays.copyOf(errors, n * 2);
+            }
+            runInto(inputs.next(), n++, outputs, errors);
+        }
+        return new BatchResult(Arrays.copyOf(outputs, n), Arrays.copyOf(errors, n));
+    }
+
+    /**
+     * Execute inputs[from, to) of a batch, storing each output or error at
+     * the input's own index. Used by parallel batches to run one slice per
+     * worker session.
+     */
+    void runRange(List<HVal.HRecord> inputs, int from, int to, String timestamp,
+                  HVal.HRecord[] outputs, HelunaException[] errors) {
+        stdLib.setTimestamp(timestamp);
+        for (int i = from; i < to; i++) {
+            runInto(inputs.get(i), i, outputs, errors);
+        }
+    }
+
+    /**
+     * Execute one record of a batch, storing either its output or its error
+     * at the given index.
+     */
+    void runInto(HVal.HRecord input, int index, HVal.HRecord[] outputs, HelunaException[] errors) {
+        try {
+            outputs[index] = run(input);
+        } catch (HelunaException e) {
+            errors[index] = e;
+        } catch (RuntimeException e) {
+            errors[index] = new HelunaException("Execution failed: " + e, e);
+        }
+    }
+
+    private HVal.HRecord run(HVal.HRecord input) {
+        prepare();
+        binder.bind(input, exec);
+        return runBound();
+    }
+
+    private void prepare() {
+        if (dirty) {
+            exec.reset();
+        }
+        dirty = true;
+    }
+
+    /**
+     * Run the packet on the already bound input fields and collect the output.
+     */
+    private HVal.HRecord runBound() {
+        // Execute bytecode
+        exec.execute();
+
+        // Collect output from scratchpad
+        HVal outputVal = exec.getSlot(outputSlot);
+        HVal.HRecord output;
+        if (outputVal instanceof HVal.HRecord) {
+            output = (HVal.HRecord) outputVal;
+        } else {
+            // Fallback: build output from individual scratchpad slots
+            output = new HVal.HRecord();
+            for (Packet.FieldDef field : packet.outputFields) {
+                HVal value = exec.getSlot(field.scratchpadOffset);
+                output.set(field.name, value);
+            }
+        }
+
+        // Validate output against contract rules
+        if (forbiddenTags != 0 && (exec.getTag(outputSlot) & forbiddenTags) != 0) {
+            validateOutput();
+        }
+
+        return output;
+    }
+
+    private void validateOutput() {
+        for (Packet.Rule rule : packet.rules) {
+            switch (rule.type) {
+                case Packet.Rule.FORBID_TAGGED: {
+                    // Check if the output record carries forbidden tags
+                    long outputTags = exec.getTag(outputSlot);
+                    if ((outputTags & rule.tagBits) != 0) {
+                        throw new HelunaException("Output contains forbidden tags: 0x"
+                                + Long.toHexString(outputTags & rule.tagBits));
+                    }
+                    break;
+                }
+                // REQUIRE and MATCH rules are enforced by the bytecode itself
+                // at runtime. The rule declarations are metadata for tooling.
+                case Packet.Rule.REQUIRE:
+                case Packet.Rule.MATCH:
+                case Packet.Rule.FORBID_FIELD:
+                    break;
+            }
+        }
+    }
+}
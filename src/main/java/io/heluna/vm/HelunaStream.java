@@ -0,0 +1,158 @@
+package io.heluna.vm;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Streaming driver for newline-delimited JSON.
+ *
+ * Reads one JSON object per line from an InputStream, executes the packet on
+ * a single reused session and writes one JSON line per record to the
+ * OutputStream. Memory use is bounded by the longest line, not the input
+ * size. A record that fails produces an {"error": "..."} line in its place
+ * so output lines stay aligned with input lines.
+ */
+public class HelunaStream {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Throughput counters for one streaming run.
+     */
+    public static class Stats {
+        public long records;
+        public long errors;
+        public long bytesIn;
+        public long bytesOut;
+        public long nanos;
+
+        public double recordsPerSec() {
+            return nanos == 0 ? 0 : records / (nanos / 1_000_000_000.0);
+        }
+
+        public double mbPerSec() {
+            return nanos == 0 ? 0 : (bytesIn / (1024.0 * 1024.0)) / (nanos / 1_000_000_000.0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d records (%d errors), %.1f MB in, %.1f MB out, %.2f s: %.1f MB/s, %.0f records/s",
+                    records, errors, bytesIn / (1024.0 * 1024.0), bytesOut / (1024.0 * 1024.0),
+                    nanos / 1_000_000_000.0, mbPerSec(), recordsPerSec());
+        }
+    }
+
+    /**
+     * Execute the packet over every line of the input and write the results.
+     * Blank lines are skipped. The output stream is flushed but not closed.
+     */
+    public static Stats run(Packet pkt, InputStream in, OutputStream out, String timestamp) throws IOException {
+        HelunaSession session = new HelunaSession(pkt);
+        HValJsonWriter writer = new HValJsonWriter(4096);
+        Stats stats = new Stats();
+        CountingOutputStream counter = new CountingOutputStream(out);
+        BufferedOutputStream bout = new BufferedOutputStream(counter, WRITE_BUFFER_SIZE);
+        long startNanos = System.nanoTime();
+
+        byte[] buf = new byte[READ_BUFFER_SIZE];
+        int start = 0;    // start of the current line
+        int len = 0;      // bytes held in buf
+        int scanFrom = 0; // where to resume the newline search
+        while (true) {
+            int nl = indexOf(buf, scanFrom, len, (byte) '\n');
+            if (nl >= 0) {
+                processLine(session, writer, buf, start, nl, timestamp, bout, stats);
+                start = nl + 1;
+                scanFrom = start;
+                continue;
+            }
+            // No complete line left: move the partial line to the front
+            if (start > 0) {
+                System.arraycopy(buf, start, buf, 0, len - start);
+                len -= start;
+                start = 0;
+            }
+            if (len == buf.length) {
+                // Line longer than the buffer: grow to fit it
+                byte[] bigger = new byte[buf.length * 2];
+                System.arraycopy(buf, 0, bigger, 0, len);
+                buf = bigger;
+            }
+            scanFrom = len;
+            int n = in.read(buf, len, buf.length - len);
+            if (n < 0) break;
+            stats.bytesIn += n;
+            len += n;
+        }
+        if (len > start) {
+            processLine(session, writer, buf, start, len, timestamp, bout, stats);
+        }
+
+        bout.flush();
+        stats.nanos = System.nanoTime() - startNanos;
+        stats.bytesOut = counter.count;
+        return stats;
+    }
+
+    private static void processLine(HelunaSession session, HValJsonWriter writer,
+                                    byte[] buf, int start, int end,
+                                    String timestamp, OutputStream out, Stats stats) throws IOException {
+        if (end > start && buf[end - 1] == '\r') end--;
+        if (isBlank(buf, start, end)) return;
+
+        stats.records++;
+        writer.reset();
+        try {
+            // Bind input fields straight from the read buffer
+            writer.write(session.execute(buf, start, end - start, timestamp));
+        } catch (RuntimeException e) {
+            stats.errors++;
+            HVal.HRecord error = new HVal.HRecord();
+            error.set("error", new HVal.HString(String.valueOf(e.getMessage())));
+            writer.reset().write(error);
+        }
+        writer.writeTo(out);
+        out.write('\n');
+    }
+
+    private static int indexOf(byte[] buf, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(byte[] buf, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = buf[i];
+            if (b != ' ' && b != '\t' && b != '\r') return false;
+        }
+        return true;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
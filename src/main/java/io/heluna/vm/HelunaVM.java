@@ -1,5 +1,10 @@
 package io.heluna.vm;
 
+import java.util.Iterator;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Entry point for the Heluna Virtual Machine.
  * Loads compiled packets and executes them with JSON input.
@@ -16,71 +21,74 @@ public class HelunaVM {
         return PacketLoader.load(data);
     }
 
+    /**
+     * Run the bytecode optimizer on a loaded packet (see
+     * {@link PacketOptimizer}) and return what it changed. Packets loaded
+     * with -Dheluna.optimize=true have been optimized already.
+     */
+    public static PacketOptimizer.Report optimize(Packet pkt) {
+        return PacketOptimizer.optimize(pkt);
+    }
+
+    /**
+     * Compile a loaded packet to JVM bytecode and attach it, so every later
+     * execution of the packet runs the generated code instead of the
+     * interpreter. Returns false if the packet cannot be compiled; it then
+     * keeps running interpreted.
+     */
+    public static boolean compile(Packet pkt) {
+        return PacketCompiler.attach(pkt) != null;
+    }
+
     /**
      * Execute a loaded packet with the given input record and timestamp.
      * Returns the output record.
+     *
+     * Builds a fresh session per call; callers executing the same packet
+     * repeatedly should hold a {@link HelunaSession} instead.
      */
     public static HVal.HRecord execute(Packet pkt, HVal.HRecord input, String timestamp) {
-        Executor exec = new Executor(pkt);
-
-        StdLib stdLib = new StdLib();
-        stdLib.setTimestamp(timestamp);
-        exec.setStdLib(stdLib);
+        return new HelunaSession(pkt).execute(input, timestamp);
+    }
 
-        // Map input fields to scratchpad slots
-        for (Packet.FieldDef field : pkt.inputFields) {
-            HVal value = input.get(field.name);
-            int slot = field.scratchpadOffset;
-            exec.setSlot(slot, value, field.tagBits);
-        }
+    /**
+     * Execute a loaded packet once per input record with a shared timestamp.
+     * Field-to-slot mappings and rule checks are resolved once and the
+     * scratchpad is reused across records. Per-record failures are
+     * collected in the result rather than aborting the batch.
+     */
+    public static BatchResult executeBatch(Packet pkt, List<HVal.HRecord> inputs, String timestamp) {
+        return new HelunaSession(pkt).executeBatch(inputs, timestamp);
+    }
 
-        // Execute bytecode
-        exec.execute();
+    public static BatchResult executeBatch(Packet pkt, HVal.HRecord[] inputs, String timestamp) {
+        return new HelunaSession(pkt).executeBatch(inputs, timestamp);
+    }
 
-        // Collect output from scratchpad
-        // The bytecode builds the output as a single record at the slot
-        // immediately after all declared field offsets (inputs + outputs).
-        int outputSlot = pkt.inputFieldCount + pkt.outputFieldCount;
-        HVal outputVal = exec.getSlot(outputSlot);
-        HVal.HRecord output;
-        if (outputVal instanceof HVal.HRecord) {
-            output = (HVal.HRecord) outputVal;
-        } else {
-            // Fallback: build output from individual scratchpad slots
-            output = new HVal.HRecord();
-            for (Packet.FieldDef field : pkt.outputFields) {
-                HVal value = exec.getSlot(field.scratchpadOffset);
-                output.set(field.name, value);
-            }
-        }
+    public static BatchResult executeBatch(Packet pkt, Iterator<HVal.HRecord> inputs, String timestamp) {
+        return new HelunaSession(pkt).executeBatch(inputs, timestamp);
+    }
 
-        // Validate output against contract rules
-        validateOutput(pkt, exec, output, outputSlot);
+    /**
+     * Execute a batch in parallel on the common fork/join pool, with one
+     * scratchpad per worker thread. Output order matches input order.
+     * Each worker's session is kept by the packet, so its scratchpad is
+     * reused by later batches and released when the packet is unreachable.
+     */
+    public static BatchResult executeBatchParallel(Packet pkt, List<HVal.HRecord> inputs, String timestamp) {
+        return executeBatchParallel(pkt, inputs, timestamp, ForkJoinPool.commonPool());
+    }
 
-        return output;
+    public static BatchResult executeBatchParallel(Packet pkt, List<HVal.HRecord> inputs, String timestamp,
+                                                   ForkJoinPool forkJoinPool) {
+        return ExecutorPool.PACKET_OWNED.executeBatch(pkt, inputs, timestamp, forkJoinPool);
     }
 
-    private static void validateOutput(Packet pkt, Executor exec,
-                                        HVal.HRecord output, int outputSlot) {
-        for (Packet.Rule rule : pkt.rules) {
-            switch (rule.type) {
-                case Packet.Rule.FORBID_TAGGED: {
-                    // Check if the output record carries forbidden tags
-                    long outputTags = exec.getTag(outputSlot);
-                    if ((outputTags & rule.tagBits) != 0) {
-                        throw new HelunaException("Output contains forbidden tags: 0x"
-                                + Long.toHexString(outputTags & rule.tagBits));
-                    }
-                    break;
-                }
-                // REQUIRE and MATCH rules are enforced by the bytecode itself
-                // at runtime. The rule declarations are metadata for tooling.
-                case Packet.Rule.REQUIRE:
-                case Packet.Rule.MATCH:
-                case Packet.Rule.FORBID_FIELD:
-                    break;
-            }
-        }
+    /**
+     * Create a reusable execution session for a loaded packet.
+     */
+    public static HelunaSession newSession(Packet pkt) {
+        return new HelunaSession(pkt);
     }
 
     /**
@@ -88,11 +96,16 @@ public class HelunaVM {
      * Returns the output as a JSON string.
      */
     public static String executeJson(Packet pkt, String inputJson, String timestamp) {
-        HVal input = StdLib.parseJsonValue(inputJson, new int[]{0});
-        if (!(input instanceof HVal.HRecord)) {
-            throw new HelunaException("Input must be a JSON object, got: " + Executor.typeName(input));
-        }
-        HVal.HRecord output = execute(pkt, (HVal.HRecord) input, timestamp);
-        return StdLib.toJson(output);
+        return executeJson(pkt, inputJson.getBytes(StandardCharsets.UTF_8), timestamp);
+    }
+
+    /**
+     * Execute a loaded packet with UTF-8 encoded JSON input, binding the
+     * declared input fields without building an input record.
+     * Returns the output as a JSON string.
+     */
+    public static String executeJson(Packet pkt, byte[] inputJson, String timestamp) {
+        HVal.HRecord output = new HelunaSession(pkt).execute(inputJson, timestamp);
+        return HValJsonWriter.toJson(output);
     }
 }
@@ -0,0 +1,89 @@
+package io.heluna.vm;
+
+import java.util.HashMap;
+
+/**
+ * Writes a packet's input fields into executor slots, from an input record
+ * or straight from UTF-8 JSON.
+ *
+ * The JSON path never builds the input record: each top-level member whose
+ * key names a declared input field is read (going straight to the reader
+ * for the field's declared type) and stored at the field's scratchpad
+ * offset, and every other member is syntax-checked and skipped without
+ * being materialized. Fields missing from the input are nothing, as with
+ * records. When a field may hold a list or record, large ones are bound as
+ * lazy values over a copy of their bytes and only parsed if the program
+ * looks inside them (see {@link LazyJson}). One binder per session; not
+ * thread-safe.
+ */
+final class InputBinder {
+
+    private final String[] names;
+    private final int[] slots;
+    private final long[] tags;
+    private final byte[] types;
+    private final HashMap<String, Integer> fieldIndex;
+
+    // Reused across inputs to keep its key cache warm
+    private final JsonReader reader = new JsonReader(new byte[0]);
+
+    InputBinder(Packet packet) {
+        int n = packet.inputFields.size();
+        this.names = new String[n];
+        this.slots = new int[n];
+        this.tags = new long[n];
+        this.types = new byte[n];
+        this.fieldIndex = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            Packet.FieldDef field = packet.inputFields.get(i);
+            names[i] = field.name;
+            slots[i] = field.scratchpadOffset;
+            tags[i] = field.tagBits;
+            types[i] = field.typeId;
+            fieldIndex.put(field.name, i);
+            if (!isScalar(field.typeId)) reader.setLazy(true, true);
+        }
+    }
+
+    private static boolean isScalar(byte typeId) {
+        switch (typeId) {
+            case HVal.TYPE_STRING:
+            case HVal.TYPE_INTEGER:
+            case HVal.TYPE_FLOAT:
+            case HVal.TYPE_BOOLEAN:
+            case HVal.TYPE_NOTHING:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    void bind(HVal.HRecord input, Executor exec) {
+        for (int i = 0; i < slots.length; i++) {
+            exec.setSlot(slots[i], input.get(names[i]), tags[i]);
+        }
+    }
+
+    void bind(byte[] json, int off, int len, Executor exec) {
+        for (int i = 0; i < slots.length; i++) {
+            exec.setSlot(slots[i], HVal.HNothing.INSTANCE, tags[i]);
+        }
+        JsonReader r = reader;
+        r.reset(json, off, len);
+        if (!r.enterObject()) {
+            HVal input = r.readDocument();
+            throw new HelunaException("Input must be a JSON object, got: " + Executor.typeName(input));
+        }
+        String key;
+        for (boolean first = true; (key = r.nextKey(first)) != null; first = false) {
+            Integer field = fieldIndex.get(key);
+            if (field == null) {
+                r.skipValue();
+            } else {
+                int f = field;
+                exec.setSlot(slots[f], r.readValue(types[f]), tags[f]);
+            }
+        }
+        r.expectEnd();
+    }
+}
@@ -0,0 +1,320 @@
+package io.heluna.vm;
+
+import java.util.Arrays;
+
+/**
+ * Load-time peephole pass that fuses common instruction sequences into the
+ * superinstructions of {@link Executor}, saving the interpreter a dispatch
+ * per instruction folded in:
+ * <ul>
+ *   <li>LOAD_CONST then ADD: LOAD_CONST_ADD;</li>
+ *   <li>LOAD_CONST of a key then RECORD_GET or RECORD_SET with that key,
+ *       the set possibly after a LOAD_CONST or COPY of its value:
+ *       LOAD_CONST_RECORD_GET / LOAD_CONST_RECORD_SET, which also give the
+ *       access an inline cache like RECORD_GET_C;</li>
+ *   <li>RECORD_GET_C then COALESCE: RECORD_GET_C_COALESCE;</li>
+ *   <li>RECORD_NEW then RECORD_SET_C on the new record, any number of
+ *       times: RECORD_NEW_SET_C_N;</li>
+ *   <li>STR_CONCAT then STR_CONCATs that each append to the one before:
+ *       STR_CONCAT_N, built in one StringBuilder.</li>
+ *   <li>RECORD_NEW, the LOAD_CONST of each key with maybe a LOAD_CONST or
+ *       COPY of its value and the RECORD_SET of the two, then a
+ *       STDLIB_CALL of a function that takes those keys by position
+ *       ({@link StdLib#parameters}): STDLIB_CALL_ARGS, which calls it with
+ *       the values in place and never builds the argument record. Only
+ *       records nothing else reads qualify (see {@link #stdlibCalls}).</li>
+ * </ul>
+ * The candidates come from counting opcode pairs in live runs of real
+ * packets (see {@link OpcodePairs}).
+ *
+ * A fused instruction replaces the first of its sequence and keeps that
+ * instruction's operands; the rest of the sequence stays in place behind it
+ * and is skipped. So no instruction moves, jumps need no relocation, and
+ * only sequences that no jump or iteration enters past the first
+ * instruction are fused (see {@link ControlFlow}). Each slot ends up with
+ * the same value and tags as without fusing, except that the slot of an
+ * unbuilt argument record keeps its old value, and errors are the same.
+ *
+ * The fused code is kept next to the generic code as
+ * {@link Packet#fusedCode} (and replaces {@link Packet#typedCode}) and only
+ * runs from the start (see {@link Packet#interpretedCode}): the tiers and
+ * segment runs use {@link Packet#instructions} as they are.
+ */
+final class InstructionFuser {
+
+    private InstructionFuser() {}
+
+    /**
+     * Build the packet's fused code from its generic and typed code.
+     * Returns the number of instructions fused into another; with none
+     * from the generic code, the packet has no fused code.
+     */
+    static int fuse(Packet pkt) {
+        Packet.FlatCode generic = pkt.flatCode();
+        int[] calls = stdlibCalls(pkt, generic.code);
+        int[] code = generic.code.clone();
+        int fused = fuse(code, calls);
+        pkt.fusedCode = fused > 0 ? new Packet.FlatCode(generic.source, code) : null;
+        Packet.FlatCode typed = pkt.typedCode;
+        if (typed != null) {
+            int[] typedCode = typed.code.clone();
+            if (fuse(typedCode, calls) > 0) pkt.typedCode = typed.withCode(typedCode);
+        }
+        return fused;
+    }
+
+    /**
+     * Fuse sequences in the flat code in place, returning the number of
+     * instructions fused into another. calls, if not null, are the stdlib
+     * calls to fuse as {@link #stdlibCalls} found them.
+     */
+    static int fuse(int[] code, int[] calls) {
+        ControlFlow cfg = ControlFlow.of(code);
+        if (cfg == null) return 0;
+        int fused = 0;
+        for (int pc = 0; pc < cfg.count; pc++) {
+            int base = pc * Packet.INSTRUCTION_WIDTH;
+            int n;
+            if (calls != null && code[base] == Executor.RECORD_NEW && calls[pc] > 0) {
+                // Each RECORD_SET carries the position of its value
+                n = calls[pc];
+                for (int i = 1; i < n; i++) {
+                    int set = base + i * Packet.INSTRUCTION_WIDTH;
+                    if (TypeAnalyzer.generic(code[set]) == Executor.RECORD_SET) {
+                        code[set + 1] = (code[set + 1] & 0xFF) | calls[pc + i] << Executor.FUSED_LENGTH_SHIFT;
+                    }
+                }
+                code[base] = Executor.STDLIB_CALL_ARGS;
+            } else {
+                n = followers(code, cfg, pc);
+                if (n == 0) continue;
+                code[base] = fusedOpcode(code, base);
+            }
+            code[base + 1] = (code[base + 1] & 0xFF) | n << Executor.FUSED_LENGTH_SHIFT;
+            fused += n;
+            pc += n;
+        }
+        return fused;
+    }
+
+    // --- Stdlib calls ---
+
+    /**
+     * The stdlib calls in the generic code that can run without building
+     * their argument record, or null if there are none. For each RECORD_NEW
+     * that starts one, the result holds the number of instructions behind
+     * it up to the STDLIB_CALL, and for each RECORD_SET in between, the
+     * position of the parameter it sets.
+     *
+     * The record goes unbuilt, so its slot must not be read anywhere else:
+     * not by another instruction, including the loads inside a call, and
+     * not by the session as an output slot. The typed code has the same
+     * instructions at the same pcs, so the result applies to it too.
+     */
+    static int[] stdlibCalls(Packet pkt, int[] code) {
+        ControlFlow cfg = ControlFlow.of(code);
+        if (cfg == null) return null;
+        int[] calls = new int[cfg.count];
+        boolean found = false;
+        for (int pc = 0; pc < cfg.count; pc++) {
+            int n = callSequence(pkt, code, cfg, pc, calls);
+            if (n == 0) continue;
+            calls[pc] = n;
+            found = true;
+            pc += n;
+        }
+        if (!found) return null;
+
+        boolean[] read = new boolean[pkt.scratchpadSize];
+        for (int slot : PacketOptimizer.exitSlots(pkt)) read[slot] = true;
+        int[] uses = new int[4];
+        int args = -1, end = -1;
+        for (int pc = 0; pc < cfg.count; pc++) {
+            int base = pc * Packet.INSTRUCTION_WIDTH;
+            if (code[base] == Executor.RECORD_NEW && calls[pc] > 0) {
+                args = code[base + 2];
+                end = pc + calls[pc];
+            }
+            int u = PacketOptimizer.uses(pkt, code, base, uses);
+            for (int i = 0; i < u; i++) {
+                if ((pc > end || uses[i] != args) && uses[i] < read.length) read[uses[i]] = true;
+            }
+        }
+        found = false;
+        for (int pc = 0; pc < cfg.count; pc++) {
+            int base = pc * Packet.INSTRUCTION_WIDTH;
+            if (code[base] != Executor.RECORD_NEW || calls[pc] == 0) continue;
+            if (read[code[base + 2]]) {
+                calls[pc] = 0;
+            } else {
+                found = true;
+            }
+        }
+        return found ? calls : null;
+    }
+
+    /**
+     * The number of instructions behind a RECORD_NEW at pc up to a
+     * STDLIB_CALL that takes the record's keys by position, storing the
+     * position each RECORD_SET sets in calls; 0 if no such call follows.
+     */
+    private static int callSequence(Packet pkt, int[] code, ControlFlow cfg, int pc, int[] calls) {
+        int base = pc * Packet.INSTRUCTION_WIDTH;
+        int args = code[base + 2];
+        if (code[base] != Executor.RECORD_NEW || args >= pkt.scratchpadSize) return 0;
+        String[] keys = new String[3];
+        int[] sets = new int[3];
+        int count = 0;
+        int at = pc + 1;
+        while (joins(cfg, at)) {
+            base = at * Packet.INSTRUCTION_WIDTH;
+            if (code[base] == Executor.STDLIB_CALL && code[base + 4] == args && code[base + 2] != args) {
+                String[] parameters = StdLib.parameters(code[base + 3]);
+                if (parameters == null) return 0;
+                boolean[] taken = new boolean[parameters.length];
+                for (int i = 0; i < count; i++) {
+                    int position = Arrays.asList(parameters).indexOf(keys[i]);
+                    if (position < 0 || taken[position]) return 0;
+                    taken[position] = true;
+                    calls[sets[i]] = position;
+                }
+                return at - pc;
+            }
+
+            // The key, maybe its value, and the RECORD_SET of the two
+            if (count == keys.length || code[base] != Executor.LOAD_CONST) return 0;
+            int key = code[base + 2];
+            String name = string(pkt, code[base + 3]);
+            if (name == null || key == args) return 0;
+            int value = -1;
+            int next = base + Packet.INSTRUCTION_WIDTH;
+            if (joins(cfg, at + 1) && (code[next] == Executor.LOAD_CONST || code[next] == Executor.COPY)) {
+                value = code[next + 2];
+                if (value == key || value == args || code[next] == Executor.COPY && code[next + 3] == args) return 0;
+                at++;
+            }
+            at++;
+            if (!joins(cfg, at)) return 0;
+            base = at * Packet.INSTRUCTION_WIDTH;
+            if (TypeAnalyzer.generic(code[base]) != Executor.RECORD_SET || code[base + 2] != args
+                    || code[base + 3] != key || code[base + 4] == args || value >= 0 && code[base + 4] != value) {
+                return 0;
+            }
+            keys[count] = name;
+            sets[count++] = at;
+            at++;
+        }
+        return 0;
+    }
+
+    private static String string(Packet pkt, int index) {
+        if (index >= pkt.constants.size()) return null;
+        HVal c = pkt.constants.get(index);
+        return c instanceof HVal.HString ? ((HVal.HString) c).value() : null;
+    }
+
+    /**
+     * The number of instructions behind pc that a fused instruction at pc
+     * would run, or 0 if no sequence starts there.
+     */
+    private static int followers(int[] code, ControlFlow cfg, int pc) {
+        int first = pc * Packet.INSTRUCTION_WIDTH;
+        int dest = code[first + 2];
+        int n = 0;
+        switch (code[first]) {
+            case Executor.LOAD_CONST: {
+                if (!joins(cfg, pc + 1)) return 0;
+                int next = first + Packet.INSTRUCTION_WIDTH;
+                switch (TypeAnalyzer.generic(code[next])) {
+                    case Executor.ADD:
+                        return 1;
+                    case Executor.RECORD_GET:
+                        return code[next + 4] == dest ? 1 : 0;
+                    case Executor.RECORD_SET:
+                        return code[next + 3] == dest ? 1 : 0;
+                    case Executor.LOAD_CONST: case Executor.COPY: {
+                        // The value of a RECORD_SET with this key
+                        int set = next + Packet.INSTRUCTION_WIDTH;
+                        int value = code[next + 2];
+                        boolean keySet = joins(cfg, pc + 2) && TypeAnalyzer.generic(code[set]) == Executor.RECORD_SET
+                                && code[set + 3] == dest && code[set + 4] == value && value != dest;
+                        return keySet ? 2 : 0;
+                    }
+                    default:
+                        return 0;
+                }
+            }
+            case Executor.RECORD_GET_C: case Executor.RECORD_GET_C_UNCHECKED:
+                return joins(cfg, pc + 1) && code[first + Packet.INSTRUCTION_WIDTH] == Executor.COALESCE ? 1 : 0;
+            case Executor.RECORD_NEW:
+                while (joins(cfg, pc + n + 1)) {
+                    int base = first + (n + 1) * Packet.INSTRUCTION_WIDTH;
+                    if (TypeAnalyzer.generic(code[base]) != Executor.RECORD_SET_C || code[base + 2] != dest) break;
+                    n++;
+                }
+                return n;
+            case Executor.STR_CONCAT:
+                // Each appends to the one before and all propagate tags; one
+                // writing the slot the one before wrote may not read it, since
+                // the chain does not store the earlier result
+                if (tagMode(code, first) != Executor.TAG_PROPAGATE) return 0;
+                while (joins(cfg, pc + n + 1)) {
+                    int prev = first + n * Packet.INSTRUCTION_WIDTH;
+                    int base = prev + Packet.INSTRUCTION_WIDTH;
+                    if (code[base] != Executor.STR_CONCAT || tagMode(code, base) != Executor.TAG_PROPAGATE
+                            || code[base + 3] != code[prev + 2]
+                            || code[base + 4] == code[prev + 2] && code[base + 2] == code[prev + 2]) {
+                        break;
+                    }
+                    n++;
+                }
+                return n;
+            default:
+                return 0;
+        }
+    }
+
+    /** True if the instruction at pc exists and is only reached from the one before. */
+    private static boolean joins(ControlFlow cfg, int pc) {
+        return pc < cfg.count && !cfg.leaders[pc];
+    }
+
+    /** The fused opcode for the sequence starting at base. */
+    private static int fusedOpcode(int[] code, int base) {
+        switch (code[base]) {
+            case Executor.LOAD_CONST:
+                switch (TypeAnalyzer.generic(code[base + Packet.INSTRUCTION_WIDTH])) {
+                    case Executor.ADD: return Executor.LOAD_CONST_ADD;
+                    case Executor.RECORD_GET: return Executor.LOAD_CONST_RECORD_GET;
+                    default: return Executor.LOAD_CONST_RECORD_SET; // with or without a value in between
+                }
+            case Executor.RECORD_GET_C: case Executor.RECORD_GET_C_UNCHECKED:
+                return Executor.RECORD_GET_C_COALESCE;
+            case Executor.RECORD_NEW:
+                return Executor.RECORD_NEW_SET_C_N;
+            default:
+                return Executor.STR_CONCAT_N;
+        }
+    }
+
+    /**
+     * The opcode of the first instruction a fused one stands for; other
+     * opcodes map to themselves. Fused instructions keep that instruction's
+     * operands, so passes over the code can read them as that instruction.
+     */
+    static int first(int opcode) {
+        switch (opcode) {
+            case Executor.LOAD_CONST_ADD:
+            case Executor.LOAD_CONST_RECORD_GET: case Executor.LOAD_CONST_RECORD_SET:
+                return Executor.LOAD_CONST;
+            case Executor.RECORD_GET_C_COALESCE: return Executor.RECORD_GET_C;
+            case Executor.RECORD_NEW_SET_C_N: case Executor.STDLIB_CALL_ARGS: return Executor.RECORD_NEW;
+            case Executor.STR_CONCAT_N: return Executor.STR_CONCAT;
+            default: return opcode;
+        }
+    }
+
+    private static int tagMode(int[] code, int base) {
+        return (code[base + 1] >> 3) & 0x03;
+    }
+}
@@ -0,0 +1,621 @@
+package io.heluna.vm;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * UTF-8 JSON reader that parses bytes straight into HVal.
+ *
+ * Works on a byte[] slice instead of a String: ASCII strings without escapes
+ * are copied out in one step, integers are accumulated inline without a
+ * substring, and object keys are served from a small per-reader cache so
+ * repeated keys (arrays of records, NDJSON lines) are not reallocated.
+ * A reader can be {@link #reset} onto a new buffer to keep that cache warm.
+ * Not thread-safe.
+ */
+public class JsonReader {
+
+    private static final int KEY_CACHE_SIZE = 256; // power of two
+    private static final int MAX_FAST_DIGITS = 18; // 10^18 < Long.MAX_VALUE
+    static final int LAZY_MIN_BYTES = 64;
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private byte[] buf;
+    private int pos;
+    private int start;
+    private int end;
+    private char[] chars = new char[64]; // scratch for strings with escapes or non-ASCII
+    private final String[] keyCache = new String[KEY_CACHE_SIZE];
+    private boolean lazy;
+    private boolean copyLazy;
+
+    public JsonReader(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    public JsonReader(byte[] buf, int off, int len) {
+        reset(buf, off, len);
+    }
+
+    /**
+     * Point the reader at a new input, keeping its key cache.
+     */
+    public void reset(byte[] buf, int off, int len) {
+        this.buf = buf;
+        this.pos = off;
+        this.start = off;
+        this.end = off + len;
+    }
+
+    public int position() {
+        return pos;
+    }
+
+    /**
+     * In lazy mode, objects and arrays of at least LAZY_MIN_BYTES bytes are
+     * syntax-checked and returned unparsed (see {@link LazyJson}). Unless
+     * copyValues is set, they refer to the reader's buffer, which must then
+     * stay unchanged for as long as those values live.
+     */
+    void setLazy(boolean lazy, boolean copyValues) {
+        this.lazy = lazy;
+        this.copyLazy = copyValues;
+    }
+
+    /**
+     * Parse a complete JSON document. Only whitespace may follow the value.
+     */
+    public static HVal parse(byte[] data) {
+        return parse(data, 0, data.length);
+    }
+
+    public static HVal parse(byte[] data, int off, int len) {
+        return new JsonReader(data, off, len).readDocument();
+    }
+
+    public static HVal parse(ByteBuffer data) {
+        if (data.hasArray()) {
+            return parse(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        return parse(copy);
+    }
+
+    /**
+     * Read one value and require that nothing but whitespace follows it.
+     */
+    public HVal readDocument() {
+        HVal v = readValue();
+        skipWhitespace();
+        if (pos < end) throw error("Unexpected trailing data");
+        return v;
+    }
+
+    /**
+     * Read the next value, leaving the position just after it.
+     */
+    public HVal readValue() {
+        skipWhitespace();
+        if (pos >= end) throw error("Unexpected end of JSON input");
+        byte c = buf[pos];
+        switch (c) {
+            case '"': return new HVal.HString(readString());
+            case '{': return lazy ? readLazily() : readObject();
+            case '[': return lazy ? readLazily() : readArray();
+            case 't': expectLiteral("true"); return HVal.HBoolean.TRUE;
+            case 'f': expectLiteral("false"); return HVal.HBoolean.FALSE;
+            case 'n': expectLiteral("null"); return HVal.HNothing.INSTANCE;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return readNumber();
+                throw error("Unexpected character '" + (char) (c & 0xFF) + "'");
+        }
+    }
+
+    /**
+     * Read a large object or array as a lazy value, or a small one directly.
+     */
+    private HVal readLazily() {
+        int s = pos;
+        skipValue();
+        if (pos - s < LAZY_MIN_BYTES) {
+            pos = s;
+            return buf[s] == '{' ? readObject() : readArray();
+        }
+        LazyJson raw = copyLazy
+                ? new LazyJson(Arrays.copyOfRange(buf, s, pos), 0, pos - s)
+                : new LazyJson(buf, s, pos - s);
+        return buf[s] == '{' ? HVal.HRecord.lazy(raw) : HVal.HList.lazy(raw);
+    }
+
+    /**
+     * Parse the object or array at the current position one level deep: its
+     * members are read as by readValue, so large children stay lazy in lazy
+     * mode.
+     */
+    HVal readLazyContainer() {
+        return buf[pos] == '{' ? readObject() : readArray();
+    }
+
+    // --- Streaming access for InputBinder ---
+
+    /**
+     * Skip whitespace and consume a '{' if one is next. Returns false, with
+     * the position unchanged, if the next value is not an object.
+     */
+    boolean enterObject() {
+        skipWhitespace();
+        if (pos < end && buf[pos] == '{') {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Read the next member key of an object entered with enterObject and
+     * the ':' after it, or consume the closing '}' and return null. first is
+     * true for the first call after enterObject.
+     */
+    String nextKey(boolean first) {
+        skipWhitespace();
+        if (first) {
+            if (pos < end && buf[pos] == '}') { pos++; return null; }
+        } else {
+            if (pos >= end) throw error("Unterminated object");
+            byte c = buf[pos];
+            if (c != ',' && c != '}') throw error("Expected ',' or '}'");
+            pos++;
+            if (c == '}') return null;
+            skipWhitespace();
+        }
+        if (pos >= end || buf[pos] != '"') throw error("Expected object key");
+        String key = readKey();
+        skipWhitespace();
+        if (pos >= end || buf[pos] != ':') throw error("Expected ':'");
+        pos++;
+        return key;
+    }
+
+    /**
+     * Read the next value, going straight to the string, number or boolean
+     * reader when the input has the expected type. Other input is read as
+     * by readValue, so the result is the same either way.
+     */
+    HVal readValue(byte expectedType) {
+        skipWhitespace();
+        if (pos < end) {
+            byte c = buf[pos];
+            switch (expectedType) {
+                case HVal.TYPE_STRING:
+                    if (c == '"') return new HVal.HString(readString());
+                    break;
+                case HVal.TYPE_INTEGER:
+                case HVal.TYPE_FLOAT:
+                    if (c == '-' || (c >= '0' && c <= '9')) return readNumber();
+                    break;
+                case HVal.TYPE_BOOLEAN:
+                    if (c == 't') { expectLiteral("true"); return HVal.HBoolean.TRUE; }
+                    if (c == 'f') { expectLiteral("false"); return HVal.HBoolean.FALSE; }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return readValue();
+    }
+
+    /**
+     * Check the syntax of the next value and move past it without building
+     * it. Numbers are not range-checked.
+     */
+    void skipValue() {
+        skipWhitespace();
+        if (pos >= end) throw error("Unexpected end of JSON input");
+        byte c = buf[pos];
+        switch (c) {
+            case '"': skipString(); return;
+            case '{': skipObject(); return;
+            case '[': skipArray(); return;
+            case 't': expectLiteral("true"); return;
+            case 'f': expectLiteral("false"); return;
+            case 'n': expectLiteral("null"); return;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) { skipNumber(); return; }
+                throw error("Unexpected character '" + (char) (c & 0xFF) + "'");
+        }
+    }
+
+    /**
+     * Require that nothing but whitespace is left.
+     */
+    void expectEnd() {
+        skipWhitespace();
+        if (pos < end) throw error("Unexpected trailing data");
+    }
+
+    private void skipObject() {
+        pos++; // skip {
+        for (boolean first = true; nextKey(first) != null; first = false) {
+            skipValue();
+        }
+    }
+
+    private void skipArray() {
+        pos++; // skip [
+        skipWhitespace();
+        if (pos < end && buf[pos] == ']') { pos++; return; }
+        while (true) {
+            skipValue();
+            skipWhitespace();
+            if (pos >= end) throw error("Unterminated array");
+            byte c = buf[pos];
+            if (c != ',' && c != ']') throw error("Expected ',' or ']'");
+            pos++;
+            if (c == ']') return;
+        }
+    }
+
+    private void skipString() {
+        for (int i = pos + 1; i < end; i++) {
+            byte c = buf[i];
+            if (c == '"') { pos = i + 1; return; }
+            if (c == '\\') {
+                if (i + 1 >= end) break;
+                switch (buf[i + 1]) {
+                    case '"': case '\\': case '/': case 'b': case 'f': case 'n': case 'r': case 't':
+                        i++;
+                        break;
+                    case 'u':
+                        readHex4(i + 2);
+                        i += 5;
+                        break;
+                    default:
+                        pos = i + 1;
+                        throw error("Invalid escape '\\" + (char) (buf[i + 1] & 0xFF) + "'");
+                }
+            }
+        }
+        pos = end;
+        throw error("Unterminated JSON string");
+    }
+
+    private void skipNumber() {
+        int i = pos;
+        if (buf[i] == '-') i++;
+        int digitsStart = i;
+        while (i < end && buf[i] >= '0' && buf[i] <= '9') i++;
+        if (i == digitsStart) { pos = i; throw error("Invalid number"); }
+        if (i < end && buf[i] == '.') {
+            digitsStart = ++i;
+            while (i < end && buf[i] >= '0' && buf[i] <= '9') i++;
+            if (i == digitsStart) { pos = i; throw error("Invalid number"); }
+        }
+        if (i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+            i++;
+            if (i < end && (buf[i] == '+' || buf[i] == '-')) i++;
+            digitsStart = i;
+            while (i < end && buf[i] >= '0' && buf[i] <= '9') i++;
+            if (i == digitsStart) { pos = i; throw error("Invalid number"); }
+        }
+        pos = i;
+    }
+
+    private HVal readObject() {
+        pos++; // skip {
+        HVal.HRecord rec = HVal.HRecord.forData();
+        skipWhitespace();
+        if (pos < end && buf[pos] == '}') { pos++; return rec; }
+        while (true) {
+            skipWhitespace();
+            if (pos >= end || buf[pos] != '"') throw error("Expected object key");
+            String key = readKey();
+            skipWhitespace();
+            if (pos >= end || buf[pos] != ':') throw error("Expected ':'");
+            pos++;
+            rec.set(key, readValue());
+            skipWhitespace();
+            if (pos >= end) throw error("Unterminated object");
+            byte c = buf[pos];
+            if (c != ',' && c != '}') throw error("Expected ',' or '}'");
+            pos++;
+            if (c == '}') return rec;
+        }
+    }
+
+    private HVal readArray() {
+        pos++; // skip [
+        HVal.HList list = new HVal.HList();
+        skipWhitespace();
+        if (pos < end && buf[pos] == ']') { pos++; return list; }
+        while (true) {
+            list.add(readValue());
+            skipWhitespace();
+            if (pos >= end) throw error("Unterminated array");
+            byte c = buf[pos];
+            if (c != ',' && c != ']') throw error("Expected ',' or ']'");
+            pos++;
+            if (c == ']') return list;
+        }
+    }
+
+    // --- Strings ---
+
+    /**
+     * Read an object key. Plain ASCII keys are looked up in the key cache by
+     * their bytes; anything with escapes or non-ASCII goes through readString.
+     */
+    private String readKey() {
+        int s = pos + 1;
+        int h = 0;
+        for (int i = s; i < end; i++) {
+            byte c = buf[i];
+            if (c == '"') {
+                int len = i - s;
+                int slot = (h ^ (h >>> 16)) & (KEY_CACHE_SIZE - 1);
+                String cached = keyCache[slot];
+                pos = i + 1;
+                if (cached != null && sameAscii(cached, s, len)) return cached;
+                String key = new String(buf, s, len, StandardCharsets.ISO_8859_1);
+                keyCache[slot] = key;
+                return key;
+            }
+            if (c == '\\' || c < 0) return readString();
+            h = 31 * h + c;
+        }
+        throw error("Unterminated JSON string");
+    }
+
+    private boolean sameAscii(String s, int off, int len) {
+        if (s.length() != len) return false;
+        for (int k = 0; k < len; k++) {
+            if (s.charAt(k) != buf[off + k]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Read a string starting at the opening quote.
+     */
+    private String readString() {
+        int s = pos + 1;
+        for (int i = s; i < end; i++) {
+            byte c = buf[i];
+            if (c == '"') {
+                // Fast path: pure ASCII, no escapes
+                pos = i + 1;
+                return new String(buf, s, i - s, StandardCharsets.ISO_8859_1);
+            }
+            if (c == '\\' || c < 0) return readStringSlow(s, i);
+        }
+        throw error("Unterminated JSON string");
+    }
+
+    /**
+     * Decode a string whose bytes [s, i) are plain ASCII and whose byte at i
+     * starts an escape or a multi-byte UTF-8 sequence.
+     */
+    private String readStringSlow(int s, int i) {
+        int n = 0;
+        ensureChars(i - s + 16);
+        for (int k = s; k < i; k++) chars[n++] = (char) buf[k];
+        int p = i;
+        while (true) {
+            if (p >= end) { pos = p; throw error("Unterminated JSON string"); }
+            int c = buf[p] & 0xFF;
+            if (c == '"') {
+                pos = p + 1;
+                return new String(chars, 0, n);
+            }
+            ensureChars(n + 2);
+            if (c == '\\') {
+                if (p + 1 >= end) { pos = p; throw error("Unterminated JSON string"); }
+                byte esc = buf[p + 1];
+                p += 2;
+                switch (esc) {
+                    case '"':  chars[n++] = '"'; break;
+                    case '\\': chars[n++] = '\\'; break;
+                    case '/':  chars[n++] = '/'; break;
+                    case 'b':  chars[n++] = '\b'; break;
+                    case 'f':  chars[n++] = '\f'; break;
+                    case 'n':  chars[n++] = '\n'; break;
+                    case 'r':  chars[n++] = '\r'; break;
+                    case 't':  chars[n++] = '\t'; break;
+                    case 'u': {
+                        char cu = (char) readHex4(p);
+                        p += 4;
+                        if (Character.isHighSurrogate(cu)) {
+                            // A high surrogate is only valid when a \\u low surrogate follows
+                            if (p + 6 <= end && buf[p] == '\\' && buf[p + 1] == 'u') {
+                                char lo = (char) readHex4(p + 2);
+                                if (Character.isLowSurrogate(lo)) {
+                                    chars[n++] = cu;
+                                    chars[n++] = lo;
+                                    p += 6;
+                                    break;
+                                }
+                            }
+                            chars[n++] = '\uFFFD';
+                        } else if (Character.isLowSurrogate(cu)) {
+                            chars[n++] = '\uFFFD';
+                        } else {
+                            chars[n++] = cu;
+                        }
+                        break;
+                    }
+                    default:
+                        pos = p - 1;
+                        throw error("Invalid escape '\\" + (char) (esc & 0xFF) + "'");
+                }
+            } else if (c < 0x80) {
+                chars[n++] = (char) c;
+                p++;
+            } else {
+                p = decodeUtf8(c, p, n);
+                n += decodedChars;
+            }
+        }
+    }
+
+    private int decodedChars;
+
+    /**
+     * Decode the multi-byte UTF-8 sequence whose lead byte c sits at p into
+     * chars[n..]. Sets decodedChars and returns the position after the
+     * sequence. Malformed sequences decode to U+FFFD one byte at a time.
+     */
+    private int decodeUtf8(int c, int p, int n) {
+        decodedChars = 1;
+        if ((c & 0xE0) == 0xC0 && p + 1 < end && isCont(buf[p + 1])) {
+            int cp = ((c & 0x1F) << 6) | (buf[p + 1] & 0x3F);
+            chars[n] = cp >= 0x80 ? (char) cp : '\uFFFD';
+            return p + 2;
+        }
+        if ((c & 0xF0) == 0xE0 && p + 2 < end && isCont(buf[p + 1]) && isCont(buf[p + 2])) {
+            int cp = ((c & 0x0F) << 12) | ((buf[p + 1] & 0x3F) << 6) | (buf[p + 2] & 0x3F);
+            chars[n] = (cp >= 0x800 && !Character.isSurrogate((char) cp)) ? (char) cp : '\uFFFD';
+            return p + 3;
+        }
+        if ((c & 0xF8) == 0xF0 && p + 3 < end && isCont(buf[p + 1]) && isCont(buf[p + 2]) && isCont(buf[p + 3])) {
+            int cp = ((c & 0x07) << 18) | ((buf[p + 1] & 0x3F) << 12)
+                    | ((buf[p + 2] & 0x3F) << 6) | (buf[p + 3] & 0x3F);
+            if (cp >= 0x10000 && cp <= Character.MAX_CODE_POINT) {
+                chars[n] = Character.highSurrogate(cp);
+                chars[n + 1] = Character.lowSurrogate(cp);
+                decodedChars = 2;
+            } else {
+                chars[n] = '\uFFFD';
+            }
+            return p + 4;
+        }
+        chars[n] = '\uFFFD';
+        return p + 1;
+    }
+
+    private static boolean isCont(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    private int readHex4(int p) {
+        if (p + 4 > end) { pos = p; throw error("Truncated \\u escape"); }
+        int v = 0;
+        for (int k = 0; k < 4; k++) {
+            int d = Character.digit(buf[p + k], 16);
+            if (d < 0) { pos = p; throw error("Invalid \\u escape"); }
+            v = (v << 4) | d;
+        }
+        return v;
+    }
+
+    private void ensureChars(int capacity) {
+        if (capacity > chars.length) {
+            char[] bigger = new char[Math.max(capacity, chars.length * 2)];
+            System.arraycopy(chars, 0, bigger, 0, chars.length);
+            chars = bigger;
+        }
+    }
+
+    // --- Numbers ---
+
+    private HVal readNumber() {
+        int s = pos;
+        int i = pos;
+        boolean neg = false;
+        if (buf[i] == '-') { neg = true; i++; }
+
+        long mantissa = 0;
+        int digits = 0;
+        int intStart = i;
+        while (i < end) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) break;
+            mantissa = mantissa * 10 + d;
+            i++;
+        }
+        if (i == intStart) { pos = i; throw error("Invalid number"); }
+        digits = i - intStart;
+
+        boolean isFloat = false;
+        int fracDigits = 0;
+        if (i < end && buf[i] == '.') {
+            isFloat = true;
+            int fracStart = ++i;
+            while (i < end) {
+                int d = buf[i] - '0';
+                if (d < 0 || d > 9) break;
+                mantissa = mantissa * 10 + d;
+                i++;
+            }
+            fracDigits = i - fracStart;
+            if (fracDigits == 0) { pos = i; throw error("Invalid number"); }
+            digits += fracDigits;
+        }
+
+        int exp = 0;
+        if (i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+            isFloat = true;
+            i++;
+            boolean expNeg = false;
+            if (i < end && (buf[i] == '+' || buf[i] == '-')) { expNeg = buf[i] == '-'; i++; }
+            int expStart = i;
+            while (i < end) {
+                int d = buf[i] - '0';
+                if (d < 0 || d > 9) break;
+                if (exp < 100_000) exp = exp * 10 + d;
+                i++;
+            }
+            if (i == expStart) { pos = i; throw error("Invalid number"); }
+            if (expNeg) exp = -exp;
+        }
+        pos = i;
+
+        if (!isFloat) {
+            if (digits <= MAX_FAST_DIGITS) return HVal.HInteger.of(neg ? -mantissa : mantissa);
+            try {
+                return HVal.HInteger.of(Long.parseLong(ascii(s, i)));
+            } catch (NumberFormatException e) {
+                throw error("Integer out of range: " + ascii(s, i));
+            }
+        }
+        // Exact when both the mantissa and the power of ten are exactly
+        // representable as doubles: one correctly rounded multiply or divide.
+        int e10 = exp - fracDigits;
+        if (digits <= 15 && e10 >= -22 && e10 <= 22) {
+            double d = (double) mantissa;
+            d = e10 < 0 ? d / POW10[-e10] : d * POW10[e10];
+            return new HVal.HFloat(neg ? -d : d);
+        }
+        return new HVal.HFloat(Double.parseDouble(ascii(s, i)));
+    }
+
+    private String ascii(int from, int to) {
+        return new String(buf, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    // --- Helpers ---
+
+    private void expectLiteral(String literal) {
+        int len = literal.length();
+        if (pos + len > end) throw error("Invalid literal");
+        for (int k = 0; k < len; k++) {
+            if (buf[pos + k] != literal.charAt(k)) throw error("Invalid literal");
+        }
+        pos += len;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte c = buf[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return;
+            pos++;
+        }
+    }
+
+    private HelunaException error(String message) {
+        return new HelunaException(message + " at offset " + (pos - start));
+    }
+}
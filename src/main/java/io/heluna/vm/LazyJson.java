@@ -0,0 +1,147 @@
+package io.heluna.vm;
+
+import java.util.Arrays;
+
+/**
+ * The unparsed JSON text of a record or list read lazily from input.
+ *
+ * {@link JsonReader} in lazy mode checks the syntax of large objects and
+ * arrays and hands out an {@link HVal.HRecord} or {@link HVal.HList} holding
+ * one of these instead of building the value. The value is parsed the first
+ * time anything reads or changes it, one level at a time: its own large
+ * children stay lazy in turn. A value that is never touched is written to
+ * output by copying its bytes, when they are exactly what the serializer
+ * would produce anyway (see {@link #canonical}).
+ *
+ * The byte array must not change while lazy values refer to it, so values
+ * read from a caller's buffer hold a copy of their own bytes; the lazy
+ * children of a value share its copy.
+ */
+final class LazyJson {
+
+    // Objects with more keys than this are not checked for duplicates; they are re-serialized
+    private static final int MAX_CHECKED_KEYS = 64;
+
+    private static final ThreadLocal<JsonReader> READER = ThreadLocal.withInitial(() -> {
+        JsonReader r = new JsonReader(new byte[0]);
+        r.setLazy(true, false);
+        return r;
+    });
+
+    final byte[] buf;
+    final int off;
+    final int len;
+    private byte canonical; // 0 unknown, 1 yes, -1 no
+
+    LazyJson(byte[] buf, int off, int len) {
+        this.buf = buf;
+        this.off = off;
+        this.len = len;
+    }
+
+    /**
+     * Parse the value one level deep. Called with the owning value's lock
+     * held, so a thread-local reader is never re-entered.
+     */
+    HVal parse() {
+        JsonReader r = READER.get();
+        r.reset(buf, off, len);
+        return r.readLazyContainer();
+    }
+
+    /**
+     * True if the bytes are what HValJsonWriter would write for the parsed
+     * value: no whitespace, no escapes or non-ASCII in strings, only integers
+     * in canonical form, and no duplicate keys. Checked once, on first use.
+     */
+    boolean canonical() {
+        if (canonical == 0) {
+            canonical = scan(off) == off + len ? (byte) 1 : (byte) -1;
+        }
+        return canonical > 0;
+    }
+
+    // --- Canonical form scan (input is already known to be valid JSON) ---
+
+    /**
+     * Scan the value at p, returning the position after it, or -1 as soon as
+     * anything is not in canonical form.
+     */
+    private int scan(int p) {
+        byte[] b = buf;
+        switch (b[p]) {
+            case '"': return scanString(p);
+            case '{': return scanObject(p);
+            case '[': {
+                p++;
+                if (b[p] == ']') return p + 1;
+                while (true) {
+                    p = scan(p);
+                    if (p < 0) return -1;
+                    if (b[p] == ']') return p + 1;
+                    if (b[p] != ',') return -1;
+                    p++;
+                }
+            }
+            case 't': case 'n': return p + 4;
+            case 'f': return p + 5;
+            default: return scanInteger(p);
+        }
+    }
+
+    private int scanObject(int p) {
+        byte[] b = buf;
+        p++;
+        if (b[p] == '}') return p + 1;
+        int[] keyStarts = new int[8];
+        int keys = 0;
+        while (true) {
+            int keyStart = p;
+            p = scanString(p);
+            if (p < 0 || keys == MAX_CHECKED_KEYS) return -1;
+            for (int k = 0; k < keys; k++) {
+                if (sameString(keyStarts[k], keyStart)) return -1;
+            }
+            if (keys == keyStarts.length) keyStarts = Arrays.copyOf(keyStarts, keys * 2);
+            keyStarts[keys++] = keyStart;
+            if (b[p] != ':') return -1;
+            p = scan(p + 1);
+            if (p < 0) return -1;
+            if (b[p] == '}') return p + 1;
+            if (b[p] != ',') return -1;
+            p++;
+        }
+    }
+
+    private int scanString(int p) {
+        byte[] b = buf;
+        for (int i = p + 1; ; i++) {
+            byte c = b[i];
+            if (c == '"') return i + 1;
+            if (c == '\\' || c < 0x20) return -1; // escapes, control and non-ASCII bytes
+        }
+    }
+
+    private int scanInteger(int p) {
+        byte[] b = buf;
+        int end = off + len;
+        int i = p;
+        if (b[i] == '-') i++;
+        int digitsStart = i;
+        while (i < end && b[i] >= '0' && b[i] <= '9') i++;
+        int digits = i - digitsStart;
+        if (digits == 0 || digits > 18) return -1;
+        if (b[digitsStart] == '0' && (digits > 1 || digitsStart > p)) return -1; // leading zero, -0
+        if (i < end && (b[i] == '.' || b[i] == 'e' || b[i] == 'E')) return -1;
+        return i;
+    }
+
+    private boolean sameString(int a, int c) {
+        byte[] b = buf;
+        while (true) {
+            byte x = b[++a], y = b[++c];
+            if (x != y) return false;
+            if (x == '"') return true;
+        }
+    }
+}
@@ -0,0 +1,784 @@
+package io.heluna.vm;
+
+/**
+ * Pre-decoded form of a packet's instructions: one specialized node object
+ * per instruction, run by {@link Executor} in {@link Executor.Mode#NODES}.
+ *
+ * Decoding happens once per packet, at load time. Each node keeps its
+ * operands in final fields with the tag mode already extracted from the
+ * flags, constants and record keys already resolved, and LOAD_FIELD already
+ * mapped to its input slot, so running a node is a single virtual call with
+ * no switch, no int[] field extraction and no constant-pool lookups. Each
+ * node returns the index of the next node to run.
+ *
+ * Instructions whose operands cannot be resolved up front (constant indices
+ * out of range, non-string record keys) decode to a node that runs that
+ * single instruction through the interpreter, so errors surface exactly as
+ * they do there.
+ */
+final class Nodes {
+
+    private Nodes() {}
+
+    /**
+     * The packet's node array, decoding and caching it on first use for
+     * packets that were not produced by {@link PacketLoader}.
+     */
+    static Node[] forPacket(Packet pkt) {
+        Node[] nodes = pkt.nodes;
+        if (nodes == null) {
+            nodes = decode(pkt);
+            pkt.nodes = nodes;
+        }
+        return nodes;
+    }
+
+    static Node[] decode(Packet pkt) {
+        int[][] code = pkt.instructions;
+        Node[] nodes = new Node[code.length];
+        for (int pc = 0; pc < code.length; pc++) {
+            Node node;
+            try {
+                node = decode(pkt, code, pc);
+            } catch (RuntimeException e) {
+                node = null;
+            }
+            nodes[pc] = node != null ? node : new InterpretNode(pc + 1, code, pc);
+        }
+        return nodes;
+    }
+
+    /**
+     * Decode one instruction, or return null to fall back to the interpreter.
+     */
+    private static Node decode(Packet pkt, int[][] code, int pc) {
+        int[] in = code[pc];
+        int opcode = in[0], flags = in[1], dest = in[2], op1 = in[3], op2 = in[4];
+        int tagMode = (flags >> 3) & 0x03;
+        int next = pc + 1;
+        switch (opcode) {
+            case Executor.LOAD_CONST:   return new LoadNode(next, dest, pkt.constants.get(op1), tagMode);
+            case Executor.LOAD_NOTHING: return new LoadNode(next, dest, HVal.HNothing.INSTANCE, tagMode);
+            case Executor.LOAD_FIELD:
+                if (op1 < pkt.inputFields.size()) {
+                    int src = pkt.inputFields.get(op1).scratchpadOffset;
+                    if (dest != src) return new CopyNode(next, dest, src);
+                }
+                return new NopNode(next);
+            case Executor.COPY: return new CopyNode(next, dest, op1);
+
+            case Executor.ADD: return new AddNode(next, dest, op1, op2, tagMode);
+            case Executor.SUB: return new SubNode(next, dest, op1, op2, tagMode);
+            case Executor.MUL: return new MulNode(next, dest, op1, op2, tagMode);
+            case Executor.DIV: return new ArithNode(next, dest, op1, op2, tagMode, '/');
+            case Executor.MOD: return new ArithNode(next, dest, op1, op2, tagMode, '%');
+            case Executor.NEGATE: return new NegateNode(next, dest, op1, tagMode);
+
+            case Executor.EQ:  return new EqNode(next, dest, op1, op2, tagMode, true);
+            case Executor.NEQ: return new EqNode(next, dest, op1, op2, tagMode, false);
+            case Executor.LT:  return new CompareNode(next, dest, op1, op2, tagMode, opcode);
+            case Executor.GT:  return new CompareNode(next, dest, op1, op2, tagMode, opcode);
+            case Executor.LTE: return new CompareNode(next, dest, op1, op2, tagMode, opcode);
+            case Executor.GTE: return new CompareNode(next, dest, op1, op2, tagMode, opcode);
+
+            case Executor.AND: return new AndNode(next, dest, op1, op2, tagMode);
+            case Executor.OR:  return new OrNode(next, dest, op1, op2, tagMode);
+            case Executor.NOT: return new NotNode(next, dest, op1, tagMode);
+
+            case Executor.STR_CONCAT: return new ConcatNode(next, dest, op1, op2, tagMode);
+
+            case Executor.IS_STRING:  return new IsTypeNode(next, dest, op1, tagMode, HVal.TYPE_STRING);
+            case Executor.IS_INT:     return new IsTypeNode(next, dest, op1, tagMode, HVal.TYPE_INTEGER);
+            case Executor.IS_FLOAT:   return new IsTypeNode(next, dest, op1, tagMode, HVal.TYPE_FLOAT);
+            case Executor.IS_BOOL:    return new IsTypeNode(next, dest, op1, tagMode, HVal.TYPE_BOOLEAN);
+            case Executor.IS_NOTHING: return new IsTypeNode(next, dest, op1, tagMode, HVal.TYPE_NOTHING);
+            case Executor.IS_LIST:    return new IsTypeNode(next, dest, op1, tagMode, HVal.TYPE_LIST);
+            case Executor.IS_RECORD:  return new IsTypeNode(next, dest, op1, tagMode, HVal.TYPE_RECORD);
+
+            case Executor.TO_STRING: return new ToStringNode(next, dest, op1, tagMode);
+            case Executor.TO_INT:    return new ConvertNode(next, dest, op1, tagMode, opcode);
+            case Executor.TO_FLOAT:  return new ConvertNode(next, dest, op1, tagMode, opcode);
+            case Executor.TO_BOOL:   return new ConvertNode(next, dest, op1, tagMode, opcode);
+
+            case Executor.RECORD_NEW:  return new RecordNewNode(next, dest, tagMode);
+            case Executor.RECORD_SET:  return new RecordSetNode(next, dest, op1, op2);
+            case Executor.RECORD_GET:  return new RecordGetNode(next, dest, op1, op2, tagMode);
+            case Executor.RECORD_HAS:  return new RecordHasNode(next, dest, op1, op2, tagMode);
+
+            case Executor.LIST_NEW:    return new ListNewNode(next, dest, tagMode);
+            case Executor.LIST_APPEND: return new ListAppendNode(next, dest, op1);
+            case Executor.LIST_GET:    return new ListGetNode(next, dest, op1, op2, tagMode);
+            case Executor.LIST_LENGTH: return new ListLengthNode(next, dest, op1, tagMode);
+
+            case Executor.JUMP:        return new JumpNode(dest);
+            case Executor.JUMP_IF:     return new JumpIfNode(next, dest, op1, true);
+            case Executor.JUMP_IF_NOT: return new JumpIfNode(next, dest, op1, false);
+
+            case Executor.COALESCE: return new CoalesceNode(next, dest, op1, op2, tagMode);
+
+            case Executor.ITER_SETUP: {
+                int collectPc = next + op2;
+                int[] collect = code[collectPc];
+                return new IterSetupNode(next, collectPc + 1, flags & 0x03, dest, op1, collectPc,
+                        collect[2], collect[3], collect[4]);
+            }
+            case Executor.ITER_COLLECT: return new IterCollectNode(next);
+
+            case Executor.STDLIB_CALL:   return new StdLibCallNode(next, dest, op1, op2, tagMode, false);
+            case Executor.STDLIB_CALL_1: return new StdLibCallNode(next, dest, op1, op2, tagMode, true);
+
+            case Executor.TAG_SET: {
+                HVal tagVal = pkt.constants.get(op1);
+                if (tagVal.typeCode() != HVal.TYPE_INTEGER) return new NopNode(next);
+                return new TagSetNode(next, dest, ((HVal.HInteger) tagVal).value());
+            }
+            case Executor.TAG_CHECK: {
+                HVal tagVal = pkt.constants.get(op2);
+                long bits = tagVal.typeCode() == HVal.TYPE_INTEGER ? ((HVal.HInteger) tagVal).value() : 0;
+                return new TagCheckNode(next, dest, op1, bits, tagMode);
+            }
+
+            case Executor.RECORD_GET_C:
+                return new RecordGetConstNode(next, dest, op1, constantKey(pkt, op2), tagMode);
+            case Executor.RECORD_SET_C:
+                return new RecordSetConstNode(next, dest, constantKey(pkt, op1), op2);
+            case Executor.RECORD_NEW_SET_C:
+                return new RecordNewSetConstNode(next, dest, constantKey(pkt, op1), op2, tagMode);
+
+            case Executor.CMP_JUMP_EQ:  return new CmpJumpEqNode(next, dest, op1, op2, true);
+            case Executor.CMP_JUMP_NEQ: return new CmpJumpEqNode(next, dest, op1, op2, false);
+            case Executor.CMP_JUMP_LT:  return new CmpJumpNode(next, dest, op1, op2, opcode);
+            case Executor.CMP_JUMP_GT:  return new CmpJumpNode(next, dest, op1, op2, opcode);
+            case Executor.CMP_JUMP_LTE: return new CmpJumpNode(next, dest, op1, op2, opcode);
+            case Executor.CMP_JUMP_GTE: return new CmpJumpNode(next, dest, op1, op2, opcode);
+            case Executor.IS_NOTHING_JUMP: return new IsNothingJumpNode(next, dest, op1);
+
+            default:
+                return null; // the interpreter reports the unknown opcode
+        }
+    }
+
+    private static String constantKey(Packet pkt, int index) {
+        return ((HVal.HString) pkt.constants.get(index)).value();
+    }
+
+    // --- Node base ---
+
+    abstract static class Node {
+        final int next;
+
+        Node(int next) {
+            this.next = next;
+        }
+
+        /**
+         * Run the instruction and return the index of the next node.
+         */
+        abstract int run(Executor ex, HVal[] v, long[] t);
+    }
+
+    /** Node writing one result slot under a pre-decoded tag mode. */
+    abstract static class ResultNode extends Node {
+        final int dest;
+        final int tagMode;
+
+        ResultNode(int next, int dest, int tagMode) {
+            super(next);
+            this.dest = dest;
+            this.tagMode = tagMode;
+        }
+
+        final void tag(long[] t, long bits) {
+            if (tagMode == Executor.TAG_PROPAGATE) {
+                t[dest] = bits;
+            } else if (tagMode == Executor.TAG_CLEAR) {
+                t[dest] = 0;
+            }
+        }
+    }
+
+    abstract static class BinaryNode extends ResultNode {
+        final int op1, op2;
+
+        BinaryNode(int next, int dest, int op1, int op2, int tagMode) {
+            super(next, dest, tagMode);
+            this.op1 = op1;
+            this.op2 = op2;
+        }
+    }
+
+    abstract static class UnaryNode extends ResultNode {
+        final int op1;
+
+        UnaryNode(int next, int dest, int op1, int tagMode) {
+            super(next, dest, tagMode);
+            this.op1 = op1;
+        }
+    }
+
+    // --- Scratchpad & Constants ---
+
+    static final class NopNode extends Node {
+        NopNode(int next) { super(next); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            return next;
+        }
+    }
+
+    static final class LoadNode extends ResultNode {
+        final HVal value;
+
+        LoadNode(int next, int dest, HVal value, int tagMode) {
+            super(next, dest, tagMode);
+            this.value = value;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = value;
+            tag(t, 0);
+            return next;
+        }
+    }
+
+    static final class CopyNode extends Node {
+        final int dest, src;
+
+        CopyNode(int next, int dest, int src) {
+            super(next);
+            this.dest = dest;
+            this.src = src;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = v[src];
+            t[dest] = t[src];
+            return next;
+        }
+    }
+
+    // --- Arithmetic ---
+
+    static final class AddNode extends BinaryNode {
+        AddNode(int next, int dest, int op1, int op2, int tagMode) { super(next, dest, op1, op2, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = Executor.add(v[op1], v[op2]);
+            tag(t, t[op1] | t[op2]);
+            return next;
+        }
+    }
+
+    static final class SubNode extends BinaryNode {
+        SubNode(int next, int dest, int op1, int op2, int tagMode) { super(next, dest, op1, op2, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = Executor.sub(v[op1], v[op2]);
+            tag(t, t[op1] | t[op2]);
+            return next;
+        }
+    }
+
+    static final class MulNode extends BinaryNode {
+        MulNode(int next, int dest, int op1, int op2, int tagMode) { super(next, dest, op1, op2, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = Executor.mul(v[op1], v[op2]);
+            tag(t, t[op1] | t[op2]);
+            return next;
+        }
+    }
+
+    static final class ArithNode extends BinaryNode {
+        final char op;
+
+        ArithNode(int next, int dest, int op1, int op2, int tagMode, char op) {
+            super(next, dest, op1, op2, tagMode);
+            this.op = op;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = Executor.arith(v[op1], v[op2], op);
+            tag(t, t[op1] | t[op2]);
+            return next;
+        }
+    }
+
+    static final class NegateNode extends UnaryNode {
+        NegateNode(int next, int dest, int op1, int tagMode) { super(next, dest, op1, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = Executor.negate(v[op1]);
+            tag(t, t[op1]);
+            return next;
+        }
+    }
+
+    // --- Comparison & Boolean ---
+
+    static final class EqNode extends BinaryNode {
+        final boolean equal;
+
+        EqNode(int next, int dest, int op1, int op2, int tagMode, boolean equal) {
+            super(next, dest, op1, op2, tagMode);
+            this.equal = equal;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = HVal.HBoolean.of(Executor.valEquals(v[op1], v[op2]) == equal);
+            tag(t, t[op1] | t[op2]);
+            return next;
+        }
+    }
+
+    static final class CompareNode extends BinaryNode {
+        final int opcode;
+
+        CompareNode(int next, int dest, int op1, int op2, int tagMode, int opcode) {
+            super(next, dest, op1, op2, tagMode);
+            this.opcode = opcode;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = HVal.HBoolean.of(holds(opcode, Executor.valCompare(v[op1], v[op2])));
+            tag(t, t[op1] | t[op2]);
+            return next;
+        }
+    }
+
+    /** Whether a valCompare result satisfies LT/GT/LTE/GTE (or their CMP_JUMP forms). */
+    static boolean holds(int opcode, int cmp) {
+        switch (opcode) {
+            case Executor.LT: case Executor.CMP_JUMP_LT: return cmp < 0;
+            case Executor.GT: case Executor.CMP_JUMP_GT: return cmp > 0;
+            case Executor.LTE: case Executor.CMP_JUMP_LTE: return cmp <= 0;
+            default: return cmp >= 0;
+        }
+    }
+
+    static final class AndNode extends BinaryNode {
+        AndNode(int next, int dest, int op1, int op2, int tagMode) { super(next, dest, op1, op2, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = HVal.HBoolean.of(ex.asBool(op1) && ex.asBool(op2));
+            tag(t, t[op1] | t[op2]);
+            return next;
+        }
+    }
+
+    static final class OrNode extends BinaryNode {
+        OrNode(int next, int dest, int op1, int op2, int tagMode) { super(next, dest, op1, op2, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = HVal.HBoolean.of(ex.asBool(op1) || ex.asBool(op2));
+            tag(t, t[op1] | t[op2]);
+            return next;
+        }
+    }
+
+    static final class NotNode extends UnaryNode {
+        NotNode(int next, int dest, int op1, int tagMode) { super(next, dest, op1, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = HVal.HBoolean.of(!ex.asBool(op1));
+            tag(t, t[op1]);
+            return next;
+        }
+    }
+
+    // --- String, Type Testing & Conversion ---
+
+    static final class ConcatNode extends BinaryNode {
+        ConcatNode(int next, int dest, int op1, int op2, int tagMode) { super(next, dest, op1, op2, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = Executor.concat(v[op1], v[op2]);
+            tag(t, t[op1] | t[op2]);
+            return next;
+        }
+    }
+
+    static final class IsTypeNode extends UnaryNode {
+        final byte type;
+
+        IsTypeNode(int next, int dest, int op1, int tagMode, byte type) {
+            super(next, dest, op1, tagMode);
+            this.type = type;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = HVal.HBoolean.of(v[op1].typeCode() == type);
+            tag(t, t[op1]);
+            return next;
+        }
+    }
+
+    static final class ToStringNode extends UnaryNode {
+        ToStringNode(int next, int dest, int op1, int tagMode) { super(next, dest, op1, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = new HVal.HString(Executor.valToString(v[op1]));
+            tag(t, t[op1]);
+            return next;
+        }
+    }
+
+    static final class ConvertNode extends UnaryNode {
+        final int opcode;
+
+        ConvertNode(int next, int dest, int op1, int tagMode, int opcode) {
+            super(next, dest, op1, tagMode);
+            this.opcode = opcode;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            HVal in = v[op1];
+            v[dest] = opcode == Executor.TO_INT ? Executor.toInteger(in)
+                    : opcode == Executor.TO_FLOAT ? Executor.toFloat(in)
+                    : Executor.toBool(in);
+            tag(t, t[op1]);
+            return next;
+        }
+    }
+
+    // --- Record ---
+
+    static final class RecordNewNode extends ResultNode {
+        RecordNewNode(int next, int dest, int tagMode) { super(next, dest, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = new HVal.HRecord();
+            tag(t, 0);
+            return next;
+        }
+    }
+
+    static final class RecordSetNode extends Node {
+        final int dest, keySlot, valueSlot;
+
+        RecordSetNode(int next, int dest, int keySlot, int valueSlot) {
+            super(next);
+            this.dest = dest;
+            this.keySlot = keySlot;
+            this.valueSlot = valueSlot;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            HVal.HRecord rec = ex.asRecord(dest);
+            rec.set(ex.asString(keySlot), v[valueSlot]);
+            t[dest] = t[dest] | t[valueSlot];
+            return next;
+        }
+    }
+
+    static final class RecordGetNode extends BinaryNode {
+        RecordGetNode(int next, int dest, int op1, int op2, int tagMode) { super(next, dest, op1, op2, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            HVal.HRecord rec = ex.asRecord(op1);
+            v[dest] = rec.get(ex.asString(op2));
+            tag(t, t[op1]);
+            return next;
+        }
+    }
+
+    static final class RecordHasNode extends BinaryNode {
+        RecordHasNode(int next, int dest, int op1, int op2, int tagMode) { super(next, dest, op1, op2, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            HVal.HRecord rec = ex.asRecord(op1);
+            v[dest] = HVal.HBoolean.of(rec.has(ex.asString(op2)));
+            tag(t, t[op1]);
+            return next;
+        }
+    }
+
+    static final class RecordGetConstNode extends UnaryNode {
+        final String key;
+        final RecordSite site;
+
+        RecordGetConstNode(int next, int dest, int op1, String key, int tagMode) {
+            super(next, dest, op1, tagMode);
+            this.key = key;
+            this.site = new RecordSite(key);
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = site.get(ex.asRecord(op1));
+            tag(t, t[op1]);
+            return next;
+        }
+    }
+
+    static final class RecordSetConstNode extends Node {
+        final int dest, valueSlot;
+        final RecordSite site;
+
+        RecordSetConstNode(int next, int dest, String key, int valueSlot) {
+            super(next);
+            this.dest = dest;
+            this.site = new RecordSite(key);
+            this.valueSlot = valueSlot;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            site.set(ex.asRecord(dest), v[valueSlot]);
+            t[dest] = t[dest] | t[valueSlot];
+            return next;
+        }
+    }
+
+    static final class RecordNewSetConstNode extends UnaryNode {
+        final RecordSite site;
+
+        RecordNewSetConstNode(int next, int dest, String key, int valueSlot, int tagMode) {
+            super(next, dest, valueSlot, tagMode);
+            this.site = new RecordSite(key);
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            HVal.HRecord rec = new HVal.HRecord();
+            site.set(rec, v[op1]);
+            v[dest] = rec;
+            tag(t, t[op1]);
+            return next;
+        }
+    }
+
+    // --- List ---
+
+    static final class ListNewNode extends ResultNode {
+        ListNewNode(int next, int dest, int tagMode) { super(next, dest, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = new HVal.HList();
+            tag(t, 0);
+            return next;
+        }
+    }
+
+    static final class ListAppendNode extends Node {
+        final int dest, valueSlot;
+
+        ListAppendNode(int next, int dest, int valueSlot) {
+            super(next);
+            this.dest = dest;
+            this.valueSlot = valueSlot;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            ex.asList(dest).add(v[valueSlot]);
+            t[dest] = t[dest] | t[valueSlot];
+            return next;
+        }
+    }
+
+    static final class ListGetNode extends BinaryNode {
+        ListGetNode(int next, int dest, int op1, int op2, int tagMode) { super(next, dest, op1, op2, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = ex.listGet(op1, op2);
+            tag(t, t[op1]);
+            return next;
+        }
+    }
+
+    static final class ListLengthNode extends UnaryNode {
+        ListLengthNode(int next, int dest, int op1, int tagMode) { super(next, dest, op1, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = HVal.HInteger.of(ex.asList(op1).size());
+            tag(t, t[op1]);
+            return next;
+        }
+    }
+
+    // --- Control Flow & Nothing Handling ---
+
+    static final class JumpNode extends Node {
+        JumpNode(int target) { super(target); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            return next;
+        }
+    }
+
+    static final class JumpIfNode extends Node {
+        final int target, cond;
+        final boolean when;
+
+        JumpIfNode(int next, int target, int cond, boolean when) {
+            super(next);
+            this.target = target;
+            this.cond = cond;
+            this.when = when;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            return ex.asBool(cond) == when ? target : next;
+        }
+    }
+
+    static final class CmpJumpEqNode extends Node {
+        final int target, op1, op2;
+        final boolean equal;
+
+        CmpJumpEqNode(int next, int target, int op1, int op2, boolean equal) {
+            super(next);
+            this.target = target;
+            this.op1 = op1;
+            this.op2 = op2;
+            this.equal = equal;
+        }
+
+        // Falls through when the comparison holds, like the interpreter
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            return Executor.valEquals(v[op1], v[op2]) == equal ? next : target;
+        }
+    }
+
+    static final class CmpJumpNode extends Node {
+        final int target, op1, op2, opcode;
+
+        CmpJumpNode(int next, int target, int op1, int op2, int opcode) {
+            super(next);
+            this.target = target;
+            this.op1 = op1;
+            this.op2 = op2;
+            this.opcode = opcode;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            return holds(opcode, Executor.valCompare(v[op1], v[op2])) ? next : target;
+        }
+    }
+
+    static final class IsNothingJumpNode extends Node {
+        final int target, op1;
+
+        IsNothingJumpNode(int next, int target, int op1) {
+            super(next);
+            this.target = target;
+            this.op1 = op1;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            return v[op1].isNothing() ? target : next;
+        }
+    }
+
+    static final class CoalesceNode extends BinaryNode {
+        CoalesceNode(int next, int dest, int op1, int op2, int tagMode) { super(next, dest, op1, op2, tagMode); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            int src = v[op1].isNothing() ? op2 : op1;
+            v[dest] = v[src];
+            tag(t, t[src]);
+            return next;
+        }
+    }
+
+    // --- Iteration ---
+
+    static final class IterSetupNode extends Node {
+        final int afterLoop, mode, dest, srcSlot, collectPc, resultSlot, slotA, slotB;
+
+        IterSetupNode(int next, int afterLoop, int mode, int dest, int srcSlot, int collectPc,
+                      int resultSlot, int slotA, int slotB) {
+            super(next);
+            this.afterLoop = afterLoop;
+            this.mode = mode;
+            this.dest = dest;
+            this.srcSlot = srcSlot;
+            this.collectPc = collectPc;
+            this.resultSlot = resultSlot;
+            this.slotA = slotA;
+            this.slotB = slotB;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            Executor.IterState state = ex.iterStart(mode, dest, srcSlot, next, collectPc, resultSlot, slotA, slotB);
+            if (state == null) return afterLoop; // empty list: result written, skip the body
+            ex.pushIter(state);
+            return next;
+        }
+    }
+
+    static final class IterCollectNode extends Node {
+        IterCollectNode(int next) { super(next); }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            Executor.IterState state = ex.peekIter();
+            if (ex.iterNext(state)) return state.bodyStart;
+            ex.popIter();
+            return next;
+        }
+    }
+
+    // --- Standard Library & Tags ---
+
+    static final class StdLibCallNode extends BinaryNode {
+        final boolean single;
+
+        StdLibCallNode(int next, int dest, int funcId, int argSlot, int tagMode, boolean single) {
+            super(next, dest, funcId, argSlot, tagMode);
+            this.single = single;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = single ? ex.callStdLib1(op1, op2) : ex.callStdLib(op1, op2);
+            tag(t, t[op2]);
+            return next;
+        }
+    }
+
+    static final class TagSetNode extends Node {
+        final int dest;
+        final long bits;
+
+        TagSetNode(int next, int dest, long bits) {
+            super(next);
+            this.dest = dest;
+            this.bits = bits;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            t[dest] = bits;
+            return next;
+        }
+    }
+
+    static final class TagCheckNode extends UnaryNode {
+        final long bits;
+
+        TagCheckNode(int next, int dest, int op1, long bits, int tagMode) {
+            super(next, dest, op1, tagMode);
+            this.bits = bits;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            v[dest] = HVal.HBoolean.of((t[op1] & bits) == bits);
+            tag(t, 0);
+            return next;
+        }
+    }
+
+    // --- Fallback ---
+
+    /** Runs one instruction through the interpreter. */
+    static final class InterpretNode extends Node {
+        final int[][] code;
+        final int pc;
+
+        InterpretNode(int next, int[][] code, int pc) {
+            super(next);
+            this.code = code;
+            this.pc = pc;
+        }
+
+        @Override int run(Executor ex, HVal[] v, long[] t) {
+            ex.execute(code, pc, pc + 1);
+            return next;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package io.heluna.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opcode-pair frequencies from live runs of one packet: how often each
+ * opcode ran straight after another. Used to pick the instruction
+ * sequences worth fusing (see {@link InstructionFuser}); BenchmarkRunner
+ * prints them with --opcode-pairs.
+ *
+ * Runs go through a session in {@link Executor.Mode#NODES} over the
+ * packet's nodes, each wrapped to count what runs after it, so the
+ * ordinary execution paths carry no recording cost. Only fall-through
+ * pairs count (an instruction and the one after it in the code), since a
+ * fused sequence cannot follow a jump. Not thread-safe.
+ */
+public final class OpcodePairs {
+
+    /**
+     * One opcode pair and how often the second ran straight after the first.
+     */
+    public static final class Pair {
+        private final int first;
+        private final int second;
+        private final long count;
+
+        Pair(int first, int second, long count) {
+            this.first = first;
+            this.second = second;
+            this.count = count;
+        }
+
+        public int first() { return first; }
+
+        public int second() { return second; }
+
+        public long count() { return count; }
+
+        @Override
+        public String toString() {
+            return Executor.opcodeName(first) + " > " + Executor.opcodeName(second) + ": " + count;
+        }
+    }
+
+    private final HelunaSession session;
+    private final long[] counts = new long[256 * 256];
+
+    public OpcodePairs(Packet packet) {
+        this.session = new HelunaSession(packet);
+        session.setMode(Executor.Mode.NODES);
+        int[][] code = packet.instructions;
+        Nodes.Node[] nodes = Nodes.decode(packet);
+        Nodes.Node[] counting = new Nodes.Node[nodes.length];
+        for (int pc = 0; pc < nodes.length; pc++) {
+            int pair = -1;
+            if (pc + 1 < code.length && (code[pc][0] | code[pc + 1][0]) < 256) {
+                pair = code[pc][0] << 8 | code[pc + 1][0];
+            }
+            counting[pc] = new CountingNode(nodes[pc], pc + 1, pair, counts);
+        }
+        session.executor().setNodes(counting);
+    }
+
+    /**
+     * Execute the packet with the given input record and timestamp,
+     * counting the pairs that run. Returns the output record.
+     */
+    public HVal.HRecord execute(HVal.HRecord input, String timestamp) {
+        return session.execute(input, timestamp);
+    }
+
+    /** How often second ran straight after first. */
+    public long count(int first, int second) {
+        return (first | second) < 256 ? counts[first << 8 | second] : 0;
+    }
+
+    /** How often any instruction ran straight after the one before it. */
+    public long total() {
+        long total = 0;
+        for (long c : counts) total += c;
+        return total;
+    }
+
+    /** The n most frequent pairs, most frequent first. */
+    public List<Pair> top(int n) {
+        List<Pair> pairs = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) pairs.add(new Pair(i >>> 8, i & 0xFF, counts[i]));
+        }
+        pairs.sort((a, b) -> Long.compare(b.count, a.count));
+        return pairs.subList(0, Math.min(n, pairs.size()));
+    }
+
+    /** The n most frequent pairs, one per line with their share of the total. */
+    public String report(int n) {
+        long total = total();
+        StringBuilder sb = new StringBuilder();
+        for (Pair p : top(n)) {
+            sb.append(String.format("%-24s %-24s %12d %6.2f%%%n", Executor.opcodeName(p.first),
+                    Executor.opcodeName(p.second), p.count, 100.0 * p.count / total));
+        }
+        return sb.toString();
+    }
+
+    /** Runs a node and counts its pair when the next node is the one after it. */
+    private static final class CountingNode extends Nodes.Node {
+        private final Nodes.Node node;
+        private final int pair;
+        private final long[] counts;
+
+        CountingNode(Nodes.Node node, int next, int pair, long[] counts) {
+            super(next);
+            this.node = node;
+            this.pair = pair;
+            this.counts = counts;
+        }
+
+        @Override
+        int run(Executor ex, HVal[] v, long[] t) {
+            int pc = node.run(ex, v, t);
+            if (pc == next && pair >= 0) counts[pair]++;
+            return pc;
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package io.heluna.vm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 public class Packet {
 
@@ -30,15 +34,200 @@ public class Packet {
     // Constants
     public final List<HVal> constants = new ArrayList<>();
 
+    // The constants as typed arrays, read by the interpreter
+    private volatile ConstantTables constantTables;
+
     // Stdlib deps
     public final List<Integer> stdlibDeps = new ArrayList<>();
 
+    // The stdlib functions the code calls, by id, resolved at load time by StdLib.resolve
+    volatile StdLib.Function[] functions = new StdLib.Function[0];
+
     // Bytecode
     public int[][] instructions; // [n][4]: opcode, flags, dest, op1, op2 (but stored as int[5])
 
+    // Ints per instruction in the flat code stream
+    static final int INSTRUCTION_WIDTH = 5;
+
+    // The same instructions as one flat int[], read by the interpreter
+    private volatile FlatCode flatCode;
+
+    // The instructions rewritten by TypeAnalyzer for the declared input types, if any
+    volatile FlatCode typedCode;
+
+    // The generic code with instruction sequences fused by InstructionFuser, if any
+    volatile FlatCode fusedCode;
+
+    // Constant regex patterns compiled at load time by PatternCache.precompile
+    volatile Map<PatternCache.Key, Pattern> patterns = Collections.emptyMap();
+
+    // What PacketOptimizer changed, if it has run on the packet
+    public volatile PacketOptimizer.Report optimization;
+
+    // Interpreter profile and current execution tier
+    public final PacketProfile profile = new PacketProfile();
+
+    // Instructions pre-decoded into node objects, for Executor.Mode.NODES
+    volatile Nodes.Node[] nodes;
+
+    // Generated JVM code for the instructions, attached by PacketCompiler
+    volatile CompiledPacket compiled;
+    volatile boolean compileFailed;
+
+    // Per-thread sessions for HelunaVM.executeBatchParallel, created on first parallel batch
+    volatile ExecutorPool.PacketSessions workerSessions;
+
     // Tests (optional)
     public final List<TestCase> testCases = new ArrayList<>();
 
+    /**
+     * The instructions as one flat array, instruction i at
+     * [i*INSTRUCTION_WIDTH, (i+1)*INSTRUCTION_WIDTH). Set by the loader;
+     * rebuilt from {@link #instructions} if that field has been replaced.
+     */
+    int[] code() {
+        return flatCode().code;
+    }
+
+    FlatCode flatCode() {
+        FlatCode f = flatCode;
+        int[][] current = instructions;
+        if (f == null || f.source != current) {
+            f = new FlatCode(current, flatten(current));
+            flatCode = f;
+        }
+        return f;
+    }
+
+    /**
+     * The code the interpreter runs over these slot values: the typed code
+     * when it was built from the current instructions and every input slot
+     * holds the type the contract declares, otherwise the generic code, in
+     * its fused form when there is one. Only whole runs may use fused code.
+     */
+    FlatCode interpretedCode(HVal[] values) {
+        FlatCode generic = flatCode();
+        FlatCode typed = typedCode;
+        if (typed != null && typed.source == generic.source && typed.guardsHold(values)) {
+            return typed;
+        }
+        FlatCode fused = fusedCode;
+        return fused != null && fused.source == generic.source ? fused : generic;
+    }
+
+    /**
+     * Install flat code, filling {@link #instructions} with the nested view.
+     */
+    void setCode(int[] code) {
+        int count = code.length / INSTRUCTION_WIDTH;
+        int[][] nested = new int[count][];
+        for (int i = 0; i < count; i++) {
+            nested[i] = Arrays.copyOfRange(code, i * INSTRUCTION_WIDTH, (i + 1) * INSTRUCTION_WIDTH);
+        }
+        instructions = nested;
+        flatCode = new FlatCode(nested, code);
+    }
+
+    static int[] flatten(int[][] instructions) {
+        int[] code = new int[instructions.length * INSTRUCTION_WIDTH];
+        for (int i = 0; i < instructions.length; i++) {
+            System.arraycopy(instructions[i], 0, code, i * INSTRUCTION_WIDTH, INSTRUCTION_WIDTH);
+        }
+        return code;
+    }
+
+    /**
+     * Typed views of the constant pool. Built by the loader; rebuilt if
+     * constants have been added since.
+     */
+    ConstantTables constantTables() {
+        ConstantTables t = constantTables;
+        if (t == null || t.values.length != constants.size()) {
+            t = new ConstantTables(constants.toArray(new HVal[0]));
+            constantTables = t;
+        }
+        return t;
+    }
+
+    /**
+     * The constant pool resolved once per packet: the values themselves,
+     * string constants as record keys (null for other types) and integer
+     * constants as tag masks (0 for other types).
+     */
+    static final class ConstantTables {
+        final HVal[] values;
+        final String[] keys;
+        final long[] tagMasks;
+
+        ConstantTables(HVal[] values) {
+            this.values = values;
+            this.keys = new String[values.length];
+            this.tagMasks = new long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                HVal v = values[i];
+                if (v instanceof HVal.HString) {
+                    keys[i] = ((HVal.HString) v).value();
+                } else if (v instanceof HVal.HInteger) {
+                    tagMasks[i] = ((HVal.HInteger) v).value();
+                }
+            }
+        }
+    }
+
+    /**
+     * Flat code plus one record inline cache slot per instruction, filled
+     * in by the interpreter the first time a constant-key record access runs,
+     * and the slots the interpreter may hold unboxed (see
+     * {@link Executor#computeLaneSlots}), found on first run. Typed code
+     * also carries the slots and types its instructions were proven for.
+     */
+    static final class FlatCode {
+        private static final int[] NO_SLOTS = new int[0];
+        private static final byte[] NO_TYPES = new byte[0];
+
+        final int[][] source;
+        final int[] code;
+        final RecordSite[] recordSites;
+        private final int[] guardSlots;
+        private final byte[] guardTypes;
+        private volatile boolean[] laneSlots;
+        private volatile boolean lanesResolved;
+
+        FlatCode(int[][] source, int[] code) {
+            this(source, code, NO_SLOTS, NO_TYPES);
+        }
+
+        FlatCode(int[][] source, int[] code, int[] guardSlots, byte[] guardTypes) {
+            this.source = source;
+            this.code = code;
+            this.recordSites = new RecordSite[code.length / INSTRUCTION_WIDTH];
+            this.guardSlots = guardSlots;
+            this.guardTypes = guardTypes;
+        }
+
+        /** The same source and guards over other code. */
+        FlatCode withCode(int[] code) {
+            return new FlatCode(source, code, guardSlots, guardTypes);
+        }
+
+        /** True if every guarded slot holds a value of its type. */
+        boolean guardsHold(HVal[] values) {
+            for (int i = 0; i < guardSlots.length; i++) {
+                if (values[guardSlots[i]].typeCode() != guardTypes[i]) return false;
+            }
+            return true;
+        }
+
+        /** Lane slots of the packet, or null if it has none. */
+        boolean[] laneSlots(Packet packet) {
+            if (!lanesResolved) {
+                laneSlots = Executor.computeLaneSlots(code, packet);
+                lanesResolved = true;
+            }
+            return laneSlots;
+        }
+    }
+
     // --- Nested data classes ---
 
     public static class TagDef {
@@ -0,0 +1,1112 @@
+package io.heluna.vm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Translates a packet's instructions into a generated JVM class.
+ *
+ * Each Heluna instruction becomes straight-line JVM bytecode with its
+ * operands baked in as constants: jumps become real branches, ITER_SETUP /
+ * ITER_COLLECT become real loops, and operations call the same static and
+ * package-private helpers the interpreter uses, so HotSpot can inline and
+ * specialize them per call site. Slots stay in the Executor's value and tag
+ * arrays rather than JVM locals, which keeps getSlot/setSlot, reset and tag
+ * propagation identical between both modes.
+ *
+ * Code is split into chunk methods at points no jump or loop crosses, so
+ * each method stays below HotSpot's huge-method limit and remains eligible
+ * for JIT compilation. Packets whose control flow cannot be expressed this
+ * way (malformed loops, jumps into or out of loop bodies, non-constant tag
+ * or key operands) are not compiled; {@link #compile} returns null and the
+ * interpreter runs them as before.
+ *
+ * Classes are defined as hidden classes where the JDK supports them (so
+ * they can be unloaded with their packet) and through
+ * {@link MethodHandles.Lookup#defineClass} otherwise.
+ */
+public class PacketCompiler {
+
+    // Keep generated methods under HotSpot's 8000-byte HugeMethodLimit
+    static final int CHUNK_BUDGET = 7000;
+
+    private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+    private static final String BASE = "io/heluna/vm/CompiledPacket";
+    private static final String EXEC = "io/heluna/vm/Executor";
+    private static final String ITER = "io/heluna/vm/Executor$IterState";
+    private static final String HVAL = "io/heluna/vm/HVal";
+    private static final String HREC = "io/heluna/vm/HVal$HRecord";
+    private static final String HLIST = "io/heluna/vm/HVal$HList";
+    private static final String HSTR = "io/heluna/vm/HVal$HString";
+    private static final String HINT = "io/heluna/vm/HVal$HInteger";
+    private static final String HBOOL = "io/heluna/vm/HVal$HBoolean";
+    private static final String HNOTH = "io/heluna/vm/HVal$HNothing";
+    private static final String STDLIB = "io/heluna/vm/StdLib";
+    private static final String FUNCTION = "io/heluna/vm/StdLib$Function";
+    private static final String BY_RECORD = "io/heluna/vm/StdLib$ByRecord";
+
+    private static final String V = "L" + HVAL + ";";
+    private static final String STR = "Ljava/lang/String;";
+    private static final String CHUNK_DESC = "(L" + EXEC + ";[" + V + "[J[" + V + ")Z";
+
+    // Chunk method locals
+    private static final int L_EX = 0, L_VALUES = 1, L_TAGS = 2, L_CONSTS = 3, L_ITER = 4;
+
+    private static final Method DEFINE_HIDDEN;
+    private static final Object NO_CLASS_OPTIONS;
+
+    static {
+        Method define = null;
+        Object options = null;
+        try {
+            Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            options = Array.newInstance(optionClass, 0);
+            define = MethodHandles.Lookup.class.getMethod("defineHiddenClass",
+                    byte[].class, boolean.class, options.getClass());
+        } catch (ReflectiveOperationException e) {
+            // Before Java 15: fall back to Lookup.defineClass
+        }
+        DEFINE_HIDDEN = define;
+        NO_CLASS_OPTIONS = options;
+    }
+
+    /**
+     * Return the packet's compiled code, compiling and attaching it on first
+     * use. Returns null if the packet cannot be compiled, including when the
+     * generated class fails to define, verify or instantiate; the failure is
+     * remembered and the packet stays interpreted.
+     */
+    public static CompiledPacket attach(Packet pkt) {
+        CompiledPacket compiled = pkt.compiled;
+        if (compiled != null || pkt.compileFailed) return compiled;
+        synchronized (pkt) {
+            if (pkt.compiled == null && !pkt.compileFailed) {
+                pkt.profile.markCompiling();
+                long start = System.nanoTime();
+                try {
+                    compiled = compile(pkt);
+                } catch (RuntimeException | LinkageError e) {
+                    compiled = null;
+                }
+                long nanos = System.nanoTime() - start;
+                if (compiled == null) {
+                    pkt.compileFailed = true;
+                    pkt.profile.notCompilable(nanos);
+                } else {
+                    pkt.compiled = compiled;
+                    pkt.profile.compiled(nanos);
+                }
+            }
+            return pkt.compiled;
+        }
+    }
+
+    /**
+     * Compile a packet without attaching it. Returns null if the packet's
+     * instructions cannot be compiled.
+     */
+    public static CompiledPacket compile(Packet pkt) {
+        byte[] classBytes;
+        try {
+            classBytes = new PacketCompiler(pkt).generate();
+        } catch (Unsupported e) {
+            return null;
+        }
+        try {
+            Class<?> cls = define(classBytes);
+            HVal[] constants = pkt.constants.toArray(new HVal[0]);
+            return (CompiledPacket) cls.getConstructor(HVal[].class).newInstance((Object) constants);
+        } catch (ReflectiveOperationException e) {
+            throw new HelunaException("Failed to load compiled packet", e);
+        }
+    }
+
+    private static Class<?> define(byte[] classBytes) throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        if (DEFINE_HIDDEN != null) {
+            MethodHandles.Lookup hidden = (MethodHandles.Lookup)
+                    DEFINE_HIDDEN.invoke(lookup, classBytes, true, NO_CLASS_OPTIONS);
+            return hidden.lookupClass();
+        }
+        return lookup.defineClass(classBytes);
+    }
+
+    /** Thrown during analysis or generation when a packet cannot be compiled. */
+    private static final class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final Packet pkt;
+    private final int[][] code;
+    private final int n;
+    private final String className;
+    private final int[] loopEnd;     // ITER_SETUP pc -> matching ITER_COLLECT pc, else -1
+    private final int[] loopStart;   // ITER_COLLECT pc -> matching ITER_SETUP pc, else -1
+    private final boolean[] cutOk;   // a chunk may start at pc
+    private int maxLoopDepth;
+
+    private PacketCompiler(Packet pkt) {
+        this.pkt = pkt;
+        this.code = pkt.instructions;
+        this.n = code.length;
+        this.className = "io/heluna/vm/CompiledPacket$" + CLASS_COUNTER.incrementAndGet();
+        this.loopEnd = new int[n];
+        this.loopStart = new int[n];
+        this.cutOk = new boolean[n + 1];
+        analyze();
+    }
+
+    // --- Analysis ---
+
+    private void analyze() {
+        Arrays.fill(loopEnd, -1);
+        Arrays.fill(loopStart, -1);
+        int[] loopAt = new int[n + 1]; // innermost loop whose body contains pc, or -1
+        int[] stack = new int[n + 1];
+        int depth = 0;
+        for (int pc = 0; pc < n; pc++) {
+            int[] in = code[pc];
+            if (in == null || in.length < 5) throw new Unsupported("malformed instruction at " + pc);
+            while (depth > 0 && loopEnd[stack[depth - 1]] < pc) depth--;
+            loopAt[pc] = depth > 0 ? stack[depth - 1] : -1;
+            if (in[0] == Executor.ITER_SETUP) {
+                int collect = pc + 1 + in[4];
+                if (in[4] < 0 || collect >= n || code[collect] == null || code[collect].length < 5
+                        || code[collect][0] != Executor.ITER_COLLECT || loopStart[collect] >= 0) {
+                    throw new Unsupported("unmatched ITER_SETUP at " + pc);
+                }
+                if (depth > 0 && collect >= loopEnd[stack[depth - 1]]) {
+                    throw new Unsupported("overlapping iterations at " + pc);
+                }
+                loopEnd[pc] = collect;
+                loopStart[collect] = pc;
+                stack[depth++] = pc;
+                maxLoopDepth = Math.max(maxLoopDepth, depth);
+            } else if (in[0] == Executor.ITER_COLLECT && loopStart[pc] < 0) {
+                throw new Unsupported("unmatched ITER_COLLECT at " + pc);
+            }
+        }
+        loopAt[n] = -1;
+
+        // A chunk boundary may not fall inside a loop or between a jump and its target
+        int[] blocked = new int[n + 2];
+        for (int pc = 0; pc < n; pc++) {
+            if (loopEnd[pc] >= 0) {
+                blocked[pc + 1]++;
+                blocked[loopEnd[pc] + 1]--;
+            }
+            if (!isJump(code[pc][0])) continue;
+            int target = code[pc][2];
+            if (target < 0) throw new Unsupported("negative jump target at " + pc);
+            target = Math.min(target, n);
+            // Jumps may not enter or leave a loop body
+            if (loopAt[target] != loopAt[pc] && target != n) {
+                throw new Unsupported("jump across iteration boundary at " + pc);
+            }
+            if (target == n && loopAt[pc] != -1) {
+                throw new Unsupported("jump out of iteration at " + pc);
+            }
+            if (target > pc && target < n) {
+                blocked[pc + 1]++;
+                blocked[target]--;
+            } else if (target < pc) {
+                blocked[target + 1]++;
+                blocked[pc + 1]--;
+            }
+        }
+        int open = 0;
+        for (int p = 0; p <= n; p++) {
+            open += blocked[p];
+            cutOk[p] = p == 0 || p == n || open == 0;
+        }
+    }
+
+    private static boolean isJump(int opcode) {
+        switch (opcode) {
+            case Executor.JUMP: case Executor.JUMP_IF: case Executor.JUMP_IF_NOT:
+            case Executor.CMP_JUMP_EQ: case Executor.CMP_JUMP_NEQ:
+            case Executor.CMP_JUMP_LT: case Executor.CMP_JUMP_GT:
+            case Executor.CMP_JUMP_LTE: case Executor.CMP_JUMP_GTE:
+            case Executor.IS_NOTHING_JUMP:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // --- Class generation ---
+
+    private byte[] generate() {
+        ConstantPool cp = new ConstantPool();
+        List<int[]> chunks = partition(cp);
+
+        List<byte[]> methods = new ArrayList<>();
+        methods.add(constructor(cp));
+        methods.add(runMethod(cp, chunks.size()));
+        for (int i = 0; i < chunks.size(); i++) {
+            int[] range = chunks.get(i);
+            Code c = new Code(cp);
+            emitChunk(c, range[0], range[1]);
+            methods.add(c.method(0x0008 | 0x0002, "c" + i, CHUNK_DESC, L_ITER + maxLoopDepth)); // private static
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            int thisClass = cp.cls(className);
+            int superClass = cp.cls(BASE);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49); // Java 5 format: verified by type inference, no stack maps needed
+            cp.writeTo(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for (byte[] m : methods) out.write(m);
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new Unsupported("class file too large: " + e.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Split [0, n) into chunks of at most CHUNK_BUDGET bytes of generated
+     * code, cutting only where cutOk allows. A region with no allowed cut
+     * becomes one oversized chunk.
+     */
+    private List<int[]> partition(ConstantPool cp) {
+        Code sizing = new Code(cp);
+        int[] offsets = emitChunk(sizing, 0, n);
+        List<int[]> chunks = new ArrayList<>();
+        int start = 0;
+        while (start < n) {
+            int end = -1;
+            for (int p = start + 1; p <= n; p++) {
+                boolean over = offsets[p] - offsets[start] > CHUNK_BUDGET;
+                if (over && end > 0) break;
+                if (cutOk[p]) {
+                    end = p;
+                    if (over) break;
+                }
+            }
+            chunks.add(new int[]{start, end});
+            start = end;
+        }
+        if (chunks.isEmpty()) chunks.add(new int[]{0, 0});
+        return chunks;
+    }
+
+    private byte[] constructor(ConstantPool cp) {
+        Code c = new Code(cp);
+        c.aload(0);
+        c.aload(1);
+        c.invoke(0xB7, BASE, "<init>", "([" + V + ")V");
+        c.op(0xB1); // return
+        return c.method(0x0001, "<init>", "([" + V + ")V", 2);
+    }
+
+    private byte[] runMethod(ConstantPool cp, int chunkCount) {
+        Code c = new Code(cp);
+        int done = c.newLabel();
+        c.aload(0);
+        c.getfield(BASE, "constants", "[" + V);
+        c.astore(4);
+        for (int i = 0; i < chunkCount; i++) {
+            c.aload(1);
+            c.aload(2);
+            c.aload(3);
+            c.aload(4);
+            c.invoke(0xB8, className, "c" + i, CHUNK_DESC);
+            c.jump(0x99, done); // ifeq: program finished
+        }
+        c.bind(done);
+        c.op(0xB1);
+        return c.method(0x0000, "run", "(L" + EXEC + ";[" + V + "[J)V", 5);
+    }
+
+    /**
+     * Emit instructions [start, end) as one chunk method body returning true
+     * to continue with the next chunk or false when a jump ended the program.
+     * Returns each instruction's code offset (offsets[end] is the chunk size).
+     */
+    private int[] emitChunk(Code c, int start, int end) {
+        int[] labels = new int[end - start];
+        for (int i = 0; i < labels.length; i++) labels[i] = c.newLabel();
+        int next = c.newLabel();
+        int finished = c.newLabel();
+        Targets targets = new Targets(start, end, labels, next, finished);
+        int[] offsets = new int[n + 1];
+        int depth = 0;
+        for (int pc = start; pc < end; pc++) {
+            offsets[pc] = c.size();
+            c.bind(labels[pc - start]);
+            int[] in = code[pc];
+            if (in[0] == Executor.ITER_SETUP) depth++;
+            emitInstruction(c, pc, in, targets, L_ITER + depth - 1);
+            if (in[0] == Executor.ITER_COLLECT) depth--;
+        }
+        offsets[end] = c.size();
+        c.bind(next);
+        c.op(0x04); // iconst_1
+        c.op(0xAC); // ireturn
+        c.bind(finished);
+        c.op(0x03); // iconst_0
+        c.op(0xAC);
+        return offsets;
+    }
+
+    private static final class Targets {
+        final int start, end, next, finished;
+        final int[] labels;
+
+        Targets(int start, int end, int[] labels, int next, int finished) {
+            this.start = start; this.end = end;
+            this.labels = labels; this.next = next; this.finished = finished;
+        }
+    }
+
+    private int label(Targets t, int target) {
+        if (target >= n) return t.finished;
+        if (target == t.end) return t.next;
+        if (target < t.start || target > t.end) throw new Unsupported("jump leaves chunk");
+        return t.labels[target - t.start];
+    }
+
+    private void emitInstruction(Code c, int pc, int[] in, Targets t, int iterLocal) {
+        int opcode = in[0], flags = in[1], dest = in[2], op1 = in[3], op2 = in[4];
+        int tagMode = (flags >> 3) & 0x03;
+        switch (opcode) {
+            // --- Scratchpad & Constants ---
+            case Executor.LOAD_CONST:
+                c.storeValue(dest, () -> { c.aload(L_CONSTS); c.push(op1); c.op(0x32); });
+                tag(c, dest, tagMode);
+                break;
+            case Executor.LOAD_FIELD:
+                if (op1 < pkt.inputFields.size()) {
+                    int src = pkt.inputFields.get(op1).scratchpadOffset;
+                    if (dest != src) copy(c, dest, src);
+                }
+                break;
+            case Executor.LOAD_NOTHING:
+                c.storeValue(dest, () -> c.getstatic(HNOTH, "INSTANCE", "L" + HNOTH + ";"));
+                tag(c, dest, tagMode);
+                break;
+            case Executor.COPY:
+                copy(c, dest, op1);
+                break;
+
+            // --- Arithmetic ---
+            case Executor.ADD: binary(c, dest, op1, op2, tagMode, "add"); break;
+            case Executor.SUB: binary(c, dest, op1, op2, tagMode, "sub"); break;
+            case Executor.MUL: binary(c, dest, op1, op2, tagMode, "mul"); break;
+            case Executor.DIV:
+            case Executor.MOD:
+                c.storeValue(dest, () -> {
+                    c.loadValue(op1);
+                    c.loadValue(op2);
+                    c.push(opcode == Executor.DIV ? '/' : '%');
+                    c.invoke(0xB8, EXEC, "arith", "(" + V + V + "C)" + V);
+                });
+                tag(c, dest, tagMode, op1, op2);
+                break;
+            case Executor.NEGATE: unary(c, dest, op1, tagMode, "negate"); break;
+
+            // --- Comparison ---
+            case Executor.EQ:
+            case Executor.NEQ:
+                c.storeValue(dest, () -> {
+                    c.loadValue(op1);
+                    c.loadValue(op2);
+                    c.invoke(0xB8, EXEC, "valEquals", "(" + V + V + ")Z");
+                    c.boolIf(opcode == Executor.EQ ? 0x9A : 0x99); // ifne / ifeq
+                });
+                tag(c, dest, tagMode, op1, op2);
+                break;
+            case Executor.LT: compare(c, dest, op1, op2, tagMode, 0x9B); break; // iflt
+            case Executor.GT: compare(c, dest, op1, op2, tagMode, 0x9D); break; // ifgt
+            case Executor.LTE: compare(c, dest, op1, op2, tagMode, 0x9E); break; // ifle
+            case Executor.GTE: compare(c, dest, op1, op2, tagMode, 0x9C); break; // ifge
+
+            // --- Boolean ---
+            case Executor.AND:
+            case Executor.OR: {
+                boolean and = opcode == Executor.AND;
+                c.storeValue(dest, () -> {
+                    int shortCircuit = c.newLabel(), joined = c.newLabel();
+                    c.asBool(op1);
+                    c.jump(and ? 0x99 : 0x9A, shortCircuit);
+                    c.asBool(op2);
+                    c.jump(and ? 0x99 : 0x9A, shortCircuit);
+                    c.bool(and);
+                    c.jump(0xA7, joined);
+                    c.bind(shortCircuit);
+                    c.bool(!and);
+                    c.bind(joined);
+                });
+                tag(c, dest, tagMode, op1, op2);
+                break;
+            }
+            case Executor.NOT:
+                c.storeValue(dest, () -> { c.asBool(op1); c.boolIf(0x99); }); // ifeq
+                tag(c, dest, tagMode, op1);
+                break;
+
+            // --- String ---
+            case Executor.STR_CONCAT: binary(c, dest, op1, op2, tagMode, "concat"); break;
+
+            // --- Type Testing ---
+            case Executor.IS_STRING:  typeTest(c, dest, op1, tagMode, HVal.TYPE_STRING); break;
+            case Executor.IS_INT:     typeTest(c, dest, op1, tagMode, HVal.TYPE_INTEGER); break;
+            case Executor.IS_FLOAT:   typeTest(c, dest, op1, tagMode, HVal.TYPE_FLOAT); break;
+            case Executor.IS_BOOL:    typeTest(c, dest, op1, tagMode, HVal.TYPE_BOOLEAN); break;
+            case Executor.IS_NOTHING: typeTest(c, dest, op1, tagMode, HVal.TYPE_NOTHING); break;
+            case Executor.IS_LIST:    typeTest(c, dest, op1, tagMode, HVal.TYPE_LIST); break;
+            case Executor.IS_RECORD:  typeTest(c, dest, op1, tagMode, HVal.TYPE_RECORD); break;
+
+            // --- Type Conversion ---
+            case Executor.TO_STRING:
+                c.storeValue(dest, () -> {
+                    c.newObject(HSTR);
+                    c.op(0x59); // dup
+                    c.loadValue(op1);
+                    c.invoke(0xB8, EXEC, "valToString", "(" + V + ")" + STR);
+                    c.invoke(0xB7, HSTR, "<init>", "(" + STR + ")V");
+                });
+                tag(c, dest, tagMode, op1);
+                break;
+            case Executor.TO_INT:   unary(c, dest, op1, tagMode, "toInteger"); break;
+            case Executor.TO_FLOAT: unary(c, dest, op1, tagMode, "toFloat"); break;
+            case Executor.TO_BOOL:  unary(c, dest, op1, tagMode, "toBool"); break;
+
+            // --- Record ---
+            case Executor.RECORD_NEW:
+                c.storeValue(dest, () -> c.construct(HREC));
+                tag(c, dest, tagMode);
+                break;
+            case Executor.RECORD_SET:
+                c.slotAs(dest, "asRecord", HREC);
+                c.slotAs(op1, "asString", null);
+                c.loadValue(op2);
+                c.invoke(0xB6, HREC, "set", "(" + STR + V + ")V");
+                orTag(c, dest, op2);
+                break;
+            case Executor.RECORD_GET:
+                c.storeValue(dest, () -> {
+                    c.slotAs(op1, "asRecord", HREC);
+                    c.slotAs(op2, "asString", null);
+                    c.invoke(0xB6, HREC, "get", "(" + STR + ")" + V);
+                });
+                tag(c, dest, tagMode, op1);
+                break;
+            case Executor.RECORD_HAS:
+                c.storeValue(dest, () -> {
+                    c.slotAs(op1, "asRecord", HREC);
+                    c.slotAs(op2, "asString", null);
+                    c.invoke(0xB6, HREC, "has", "(" + STR + ")Z");
+                    c.boolIf(0x9A); // ifne
+                });
+                tag(c, dest, tagMode, op1);
+                break;
+
+            // --- List ---
+            case Executor.LIST_NEW:
+                c.storeValue(dest, () -> c.construct(HLIST));
+                tag(c, dest, tagMode);
+                break;
+            case Executor.LIST_APPEND:
+                c.slotAs(dest, "asList", HLIST);
+                c.loadValue(op1);
+                c.invoke(0xB6, HLIST, "add", "(" + V + ")V");
+                orTag(c, dest, op1);
+                break;
+            case Executor.LIST_GET:
+                c.storeValue(dest, () -> {
+                    c.aload(L_EX);
+                    c.push(op1);
+                    c.push(op2);
+                    c.invoke(0xB6, EXEC, "listGet", "(II)" + V);
+                });
+                tag(c, dest, tagMode, op1);
+                break;
+            case Executor.LIST_LENGTH:
+                c.storeValue(dest, () -> {
+                    c.slotAs(op1, "asList", HLIST);
+                    c.invoke(0xB6, HLIST, "size", "()I");
+                    c.op(0x85); // i2l
+                    c.invoke(0xB8, HINT, "of", "(J)L" + HINT + ";");
+                });
+                tag(c, dest, tagMode, op1);
+                break;
+
+            // --- Control Flow ---
+            case Executor.JUMP:
+                c.jump(0xA7, label(t, dest));
+                break;
+            case Executor.JUMP_IF:
+                c.asBool(op1);
+                c.jump(0x9A, label(t, dest)); // ifne
+                break;
+            case Executor.JUMP_IF_NOT:
+                c.asBool(op1);
+                c.jump(0x99, label(t, dest)); // ifeq
+                break;
+
+            // --- Nothing Handling ---
+            case Executor.COALESCE: {
+                int useSecond = c.newLabel(), joined = c.newLabel();
+                c.loadValue(op1);
+                c.invoke(0xB6, HVAL, "isNothing", "()Z");
+                c.jump(0x9A, useSecond);
+                c.storeValue(dest, () -> c.loadValue(op1));
+                tag(c, dest, tagMode, op1);
+                c.jump(0xA7, joined);
+                c.bind(useSecond);
+                c.storeValue(dest, () -> c.loadValue(op2));
+                tag(c, dest, tagMode, op2);
+                c.bind(joined);
+                break;
+            }
+
+            // --- Iteration ---
+            case Executor.ITER_SETUP: {
+                int collect = loopEnd[pc];
+                int[] ci = code[collect];
+                c.aload(L_EX);
+                c.push(flags & 0x03);
+                c.push(dest);
+                c.push(op1);
+                c.push(pc + 1);
+                c.push(collect);
+                c.push(ci[2]);
+                c.push(ci[3]);
+                c.push(ci[4]);
+                c.invoke(0xB6, EXEC, "iterStart", "(IIIIIIII)L" + ITER + ";");
+                c.op(0x59); // dup
+                c.astore(iterLocal);
+                c.jump(0xC6, label(t, collect + 1)); // ifnull: empty list, skip the body
+                break;
+            }
+            case Executor.ITER_COLLECT:
+                c.aload(L_EX);
+                c.aload(iterLocal);
+                c.invoke(0xB6, EXEC, "iterNext", "(L" + ITER + ";)Z");
+                c.jump(0x9A, label(t, loopStart[pc] + 1)); // ifne: run the body again
+                break;
+
+            // --- Standard Library ---
+            case Executor.STDLIB_CALL:
+                if (op1 < pkt.functions.length && pkt.functions[op1] != null) {
+                    // Straight into the resolved function, so each call site
+                    // only ever sees one implementation
+                    c.storeValue(dest, () -> {
+                        c.aload(L_EX);
+                        c.push(op1);
+                        c.invoke(0xB6, EXEC, "function", "(I)L" + FUNCTION + ";");
+                        c.getfield(FUNCTION, "byRecord", "L" + BY_RECORD + ";");
+                        c.aload(L_EX);
+                        c.invoke(0xB6, EXEC, "stdLib", "()L" + STDLIB + ";");
+                        c.slotAs(op2, "asRecord", HREC);
+                        c.invokeInterface(BY_RECORD, "call", "(L" + STDLIB + ";L" + HREC + ";)" + V, 2);
+                    });
+                    tag(c, dest, tagMode, op2);
+                    break;
+                }
+                // fall through: the passthrough, or a packet built without a function table
+            case Executor.STDLIB_CALL_1:
+                c.storeValue(dest, () -> {
+                    c.aload(L_EX);
+                    c.push(op1);
+                    c.push(op2);
+                    c.invoke(0xB6, EXEC, opcode == Executor.STDLIB_CALL ? "callStdLib" : "callStdLib1",
+                            "(II)" + V);
+                });
+                tag(c, dest, tagMode, op2);
+                break;
+
+            // --- Tag Operations ---
+            case Executor.TAG_SET: {
+                HVal tagVal = constant(op1);
+                if (tagVal.typeCode() == HVal.TYPE_INTEGER) {
+                    c.aload(L_TAGS);
+                    c.push(dest);
+                    c.pushLong(((HVal.HInteger) tagVal).value());
+                    c.op(0x50); // lastore
+                }
+                break;
+            }
+            case Executor.TAG_CHECK: {
+                HVal tagVal = constant(op2);
+                long checkBits = tagVal.typeCode() == HVal.TYPE_INTEGER ? ((HVal.HInteger) tagVal).value() : 0;
+                c.storeValue(dest, () -> {
+                    c.loadTag(op1);
+                    c.pushLong(checkBits);
+                    c.op(0x7F); // land
+                    c.pushLong(checkBits);
+                    c.op(0x94); // lcmp
+                    c.boolIf(0x99); // ifeq
+                });
+                tag(c, dest, tagMode);
+                break;
+            }
+
+            // --- Superinstructions ---
+            case Executor.RECORD_GET_C: {
+                String key = constantKey(op2);
+                c.storeValue(dest, () -> {
+                    c.slotAs(op1, "asRecord", HREC);
+                    c.ldcString(key);
+                    c.invoke(0xB6, HREC, "get", "(" + STR + ")" + V);
+                });
+                tag(c, dest, tagMode, op1);
+                break;
+            }
+            case Executor.RECORD_SET_C: {
+                String key = constantKey(op1);
+                c.slotAs(dest, "asRecord", HREC);
+                c.ldcString(key);
+                c.loadValue(op2);
+                c.invoke(0xB6, HREC, "set", "(" + STR + V + ")V");
+                orTag(c, dest, op2);
+                break;
+            }
+            case Executor.RECORD_NEW_SET_C: {
+                String key = constantKey(op1);
+                c.storeValue(dest, () -> {
+                    c.construct(HREC);
+                    c.op(0x59); // dup
+                    c.ldcString(key);
+                    c.loadValue(op2);
+                    c.invoke(0xB6, HREC, "set", "(" + STR + V + ")V");
+                });
+                tag(c, dest, tagMode, op2);
+                break;
+            }
+            case Executor.CMP_JUMP_EQ:
+            case Executor.CMP_JUMP_NEQ:
+                c.loadValue(op1);
+                c.loadValue(op2);
+                c.invoke(0xB8, EXEC, "valEquals", "(" + V + V + ")Z");
+                c.jump(opcode == Executor.CMP_JUMP_EQ ? 0x99 : 0x9A, label(t, dest));
+                break;
+            case Executor.CMP_JUMP_LT:  compareJump(c, op1, op2, 0x9C, label(t, dest)); break; // ifge
+            case Executor.CMP_JUMP_GT:  compareJump(c, op1, op2, 0x9E, label(t, dest)); break; // ifle
+            case Executor.CMP_JUMP_LTE: compareJump(c, op1, op2, 0x9D, label(t, dest)); break; // ifgt
+            case Executor.CMP_JUMP_GTE: compareJump(c, op1, op2, 0x9B, label(t, dest)); break; // iflt
+            case Executor.IS_NOTHING_JUMP:
+                c.loadValue(op1);
+                c.invoke(0xB6, HVAL, "isNothing", "()Z");
+                c.jump(0x9A, label(t, dest));
+                break;
+
+            default:
+                c.push(opcode);
+                c.push(pc);
+                c.invoke(0xB8, EXEC, "unknownOpcode", "(II)Lio/heluna/vm/HelunaException;");
+                c.op(0xBF); // athrow
+        }
+    }
+
+    private HVal constant(int index) {
+        if (index < 0 || index >= pkt.constants.size()) {
+            throw new Unsupported("constant index out of range: " + index);
+        }
+        return pkt.constants.get(index);
+    }
+
+    private String constantKey(int index) {
+        HVal key = constant(index);
+        if (key.typeCode() != HVal.TYPE_STRING) throw new Unsupported("record key is not a string constant");
+        return ((HVal.HString) key).value();
+    }
+
+    private static void copy(Code c, int dest, int src) {
+        c.storeValue(dest, () -> c.loadValue(src));
+        c.aload(L_TAGS);
+        c.push(dest);
+        c.loadTag(src);
+        c.op(0x50); // lastore
+    }
+
+    private static void unary(Code c, int dest, int op1, int tagMode, String helper) {
+        c.storeValue(dest, () -> {
+            c.loadValue(op1);
+            c.invoke(0xB8, EXEC, helper, "(" + V + ")" + V);
+        });
+        tag(c, dest, tagMode, op1);
+    }
+
+    private static void binary(Code c, int dest, int op1, int op2, int tagMode, String helper) {
+        c.storeValue(dest, () -> {
+            c.loadValue(op1);
+            c.loadValue(op2);
+            c.invoke(0xB8, EXEC, helper, "(" + V + V + ")" + V);
+        });
+        tag(c, dest, tagMode, op1, op2);
+    }
+
+    private static void compare(Code c, int dest, int op1, int op2, int tagMode, int ifTrue) {
+        c.storeValue(dest, () -> {
+            c.loadValue(op1);
+            c.loadValue(op2);
+            c.invoke(0xB8, EXEC, "valCompare", "(" + V + V + ")I");
+            c.boolIf(ifTrue);
+        });
+        tag(c, dest, tagMode, op1, op2);
+    }
+
+    private static void compareJump(Code c, int op1, int op2, int ifJump, int label) {
+        c.loadValue(op1);
+        c.loadValue(op2);
+        c.invoke(0xB8, EXEC, "valCompare", "(" + V + V + ")I");
+        c.jump(ifJump, label);
+    }
+
+    private static void typeTest(Code c, int dest, int op1, int tagMode, byte type) {
+        c.storeValue(dest, () -> {
+            c.loadValue(op1);
+            c.invoke(0xB6, HVAL, "typeCode", "()B");
+            c.push(type);
+            c.boolIf(0x9F); // if_icmpeq
+        });
+        tag(c, dest, tagMode, op1);
+    }
+
+    // Tag modes, as in Executor.applyTagMode: propagate the given slots' tags, clear, or keep
+
+    private static void tag(Code c, int dest, int tagMode, int... from) {
+        if (tagMode != Executor.TAG_PROPAGATE && tagMode != Executor.TAG_CLEAR) return;
+        c.aload(L_TAGS);
+        c.push(dest);
+        if (tagMode == Executor.TAG_CLEAR || from.length == 0) {
+            c.op(0x09); // lconst_0
+        } else {
+            c.loadTag(from[0]);
+            for (int i = 1; i < from.length; i++) {
+                c.loadTag(from[i]);
+                c.op(0x81); // lor
+            }
+        }
+        c.op(0x50); // lastore
+    }
+
+    private static void orTag(Code c, int dest, int from) {
+        c.aload(L_TAGS);
+        c.push(dest);
+        c.loadTag(dest);
+        c.loadTag(from);
+        c.op(0x81); // lor
+        c.op(0x50); // lastore
+    }
+
+    // --- Class file assembly ---
+
+    private interface Emitter {
+        void emit();
+    }
+
+    /**
+     * Bytecode buffer for one method, with forward/backward labels resolved
+     * to 16-bit branch offsets when the method is finished.
+     */
+    private static final class Code {
+        private final ConstantPool cp;
+        private byte[] buf = new byte[256];
+        private int len;
+        private int[] labelPos = new int[16];
+        private int labelCount;
+        private final List<int[]> fixups = new ArrayList<>(); // {branch offset, label}
+
+        Code(ConstantPool cp) {
+            this.cp = cp;
+        }
+
+        int size() {
+            return len;
+        }
+
+        void op(int b) {
+            if (len == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            buf[len++] = (byte) b;
+        }
+
+        void u2(int v) {
+            op(v >> 8);
+            op(v);
+        }
+
+        int newLabel() {
+            if (labelCount == labelPos.length) labelPos = Arrays.copyOf(labelPos, labelCount * 2);
+            labelPos[labelCount] = -1;
+            return labelCount++;
+        }
+
+        void bind(int label) {
+            labelPos[label] = len;
+        }
+
+        void jump(int opcode, int label) {
+            fixups.add(new int[]{len, label});
+            op(opcode);
+            u2(0);
+        }
+
+        void push(int v) {
+            if (v >= -1 && v <= 5) {
+                op(0x03 + v); // iconst_<v>
+            } else if (v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+                op(0x10); // bipush
+                op(v);
+            } else if (v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+                op(0x11); // sipush
+                u2(v);
+            } else {
+                ldc(cp.integer(v));
+            }
+        }
+
+        void pushLong(long v) {
+            if (v == 0) {
+                op(0x09); // lconst_0
+            } else {
+                op(0x14); // ldc2_w
+                u2(cp.longConst(v));
+            }
+        }
+
+        void ldcString(String s) {
+            ldc(cp.string(s));
+        }
+
+        private void ldc(int index) {
+            if (index < 256) {
+                op(0x12);
+                op(index);
+            } else {
+                op(0x13); // ldc_w
+                u2(index);
+            }
+        }
+
+        void aload(int local) {
+            if (local <= 3) {
+                op(0x2A + local);
+            } else {
+                op(0x19);
+                op(local);
+            }
+        }
+
+        void astore(int local) {
+            if (local <= 3) {
+                op(0x4B + local);
+            } else {
+                op(0x3A);
+                op(local);
+            }
+        }
+
+        void invoke(int opcode, String owner, String name, String desc) {
+            op(opcode);
+            u2(cp.methodRef(owner, name, desc));
+        }
+
+        void invokeInterface(String owner, String name, String desc, int argSlots) {
+            op(0xB9);
+            u2(cp.interfaceMethodRef(owner, name, desc));
+            op(argSlots + 1); // count, including the receiver
+            op(0);
+        }
+
+        void getstatic(String owner, String name, String desc) {
+            op(0xB2);
+            u2(cp.fieldRef(owner, name, desc));
+        }
+
+        void getfield(String owner, String name, String desc) {
+            op(0xB4);
+            u2(cp.fieldRef(owner, name, desc));
+        }
+
+        void newObject(String cls) {
+            op(0xBB);
+            u2(cp.cls(cls));
+        }
+
+        void construct(String cls) {
+            newObject(cls);
+            op(0x59); // dup
+            invoke(0xB7, cls, "<init>", "()V");
+        }
+
+        void loadValue(int slot) {
+            aload(L_VALUES);
+            push(slot);
+            op(0x32); // aaload
+        }
+
+        void storeValue(int slot, Emitter value) {
+            aload(L_VALUES);
+            push(slot);
+            value.emit();
+            op(0x53); // aastore
+        }
+
+        void loadTag(int slot) {
+            aload(L_TAGS);
+            push(slot);
+            op(0x2F); // laload
+        }
+
+        void asBool(int slot) {
+            aload(L_EX);
+            push(slot);
+            invoke(0xB6, EXEC, "asBool", "(I)Z");
+        }
+
+        /** Executor.asRecord/asList/asString(slot); type is null for asString. */
+        void slotAs(int slot, String accessor, String type) {
+            aload(L_EX);
+            push(slot);
+            invoke(0xB6, EXEC, accessor, "(I)" + (type == null ? STR : "L" + type + ";"));
+        }
+
+        void bool(boolean value) {
+            getstatic(HBOOL, value ? "TRUE" : "FALSE", "L" + HBOOL + ";");
+        }
+
+        /** Consume a condition with the given branch opcode and push HBoolean.TRUE or FALSE. */
+        void boolIf(int ifTrue) {
+            int isTrue = newLabel(), joined = newLabel();
+            jump(ifTrue, isTrue);
+            bool(false);
+            jump(0xA7, joined);
+            bind(isTrue);
+            bool(true);
+            bind(joined);
+        }
+
+        byte[] method(int access, String name, String desc, int maxLocals) {
+            for (int[] f : fixups) {
+                int target = labelPos[f[1]];
+                if (target < 0) throw new Unsupported("unbound label");
+                int offset = target - f[0];
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                    throw new Unsupported("branch offset out of range");
+                }
+                buf[f[0] + 1] = (byte) (offset >> 8);
+                buf[f[0] + 2] = (byte) offset;
+            }
+            if (len > 65535) throw new Unsupported("method too large");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(len + 32);
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeShort(access);
+                out.writeShort(cp.utf8(name));
+                out.writeShort(cp.utf8(desc));
+                out.writeShort(1); // attributes: Code
+                out.writeShort(cp.utf8("Code"));
+                out.writeInt(12 + len);
+                out.writeShort(16); // max_stack: generous upper bound for the sequences above
+                out.writeShort(maxLocals);
+                out.writeInt(len);
+                out.write(buf, 0, len);
+                out.writeShort(0); // exception table
+                out.writeShort(0); // attributes
+            } catch (IOException e) {
+                throw new Unsupported(e.getMessage());
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        private interface Entry {
+            void write(DataOutputStream out) throws IOException;
+        }
+
+        private int entry(String key, int width, Entry entry) {
+            Integer existing = entries.get(key);
+            if (existing != null) return existing;
+            if (count + width > 65535) throw new Unsupported("constant pool overflow");
+            try {
+                entry.write(out);
+            } catch (IOException e) {
+                throw new Unsupported("constant too large");
+            }
+            int index = count;
+            count += width;
+            entries.put(key, index);
+            return index;
+        }
+
+        int utf8(String s) {
+            return entry("U" + s, 1, o -> { o.writeByte(1); o.writeUTF(s); });
+        }
+
+        int integer(int v) {
+            return entry("I" + v, 1, o -> { o.writeByte(3); o.writeInt(v); });
+        }
+
+        int longConst(long v) {
+            return entry("J" + v, 2, o -> { o.writeByte(5); o.writeLong(v); });
+        }
+
+        int cls(String name) {
+            int u = utf8(name);
+            return entry("C" + name, 1, o -> { o.writeByte(7); o.writeShort(u); });
+        }
+
+        int string(String s) {
+            int u = utf8(s);
+            return entry("S" + s, 1, o -> { o.writeByte(8); o.writeShort(u); });
+        }
+
+        private int nameAndType(String name, String desc) {
+            int nu = utf8(name), du = utf8(desc);
+            return entry("N" + name + " " + desc, 1, o -> { o.writeByte(12); o.writeShort(nu); o.writeShort(du); });
+        }
+
+        int fieldRef(String owner, String name, String desc) {
+            int c = cls(owner), nt = nameAndType(name, desc);
+            return entry("F" + owner + "." + name + " " + desc, 1, o -> { o.writeByte(9); o.writeShort(c); o.writeShort(nt); });
+        }
+
+        int methodRef(String owner, String name, String desc) {
+            int c = cls(owner), nt = nameAndType(name, desc);
+            return entry("M" + owner + "." + name + desc, 1, o -> { o.writeByte(10); o.writeShort(c); o.writeShort(nt); });
+        }
+
+        int interfaceMethodRef(String owner, String name, String desc) {
+            int c = cls(owner), nt = nameAndType(name, desc);
+            return entry("I" + owner + "." + name + desc, 1, o -> { o.writeByte(11); o.writeShort(c); o.writeShort(nt); });
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            out.flush();
+            target.writeShort(count);
+            bytes.writeTo(target);
+        }
+    }
+}
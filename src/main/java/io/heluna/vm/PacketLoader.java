@@ -17,6 +17,9 @@ public class PacketLoader {
     private static final int SECTION_BYTECODE = 0x0004;
     private static final int SECTION_TESTS = 0x0101;
 
+    // Run PacketOptimizer on every loaded packet
+    private static final boolean OPTIMIZE = Boolean.getBoolean("heluna.optimize");
+
     public static Packet load(byte[] data) {
         if (data.length < HEADER_SIZE) {
             throw new HelunaException("Packet too small: " + data.length + " bytes");
@@ -59,12 +62,21 @@ public class PacketLoader {
 
         // --- CONSTANTS ---
         parseConstants(buf, sections.get(SECTION_CONSTANTS), pkt);
+        pkt.constantTables();
 
         // --- STDLIB_DEPS ---
         parseStdlibDeps(buf, sections.get(SECTION_STDLIB_DEPS), pkt);
 
         // --- BYTECODE ---
         parseBytecode(buf, sections.get(SECTION_BYTECODE), pkt);
+        pkt.functions = StdLib.resolve(pkt);
+        if (OPTIMIZE) {
+            pkt.optimization = PacketOptimizer.rewrite(pkt);
+        }
+        TypeAnalyzer.specialize(pkt);
+        InstructionFuser.fuse(pkt);
+        pkt.nodes = Nodes.decode(pkt);
+        PatternCache.precompile(pkt);
 
         // --- TESTS (optional) ---
         if (sections.containsKey(SECTION_TESTS)) {
@@ -250,19 +262,24 @@ public class PacketLoader {
         }
     }
 
-    private static void parseBytecode(ByteBuffer buf, int[] section, Packet pkt) {
+    static void parseBytecode(ByteBuffer buf, int[] section, Packet pkt) {
         int pos = section[0];
         int instrCount = section[1] / 8;
-        pkt.instructions = new int[instrCount][5];
-
-        for (int i = 0; i < instrCount; i++) {
-            pkt.instructions[i][0] = Byte.toUnsignedInt(buf.get(pos));     // opcode
-            pkt.instructions[i][1] = Byte.toUnsignedInt(buf.get(pos + 1)); // flags
-            pkt.instructions[i][2] = Short.toUnsignedInt(buf.getShort(pos + 2)); // dest
-            pkt.instructions[i][3] = Short.toUnsignedInt(buf.getShort(pos + 4)); // operand1
-            pkt.instructions[i][4] = Short.toUnsignedInt(buf.getShort(pos + 6)); // operand2
+        int[] code = new int[instrCount * Packet.INSTRUCTION_WIDTH];
+
+        for (int i = 0, base = 0; i < instrCount; i++, base += Packet.INSTRUCTION_WIDTH) {
+            code[base]     = Byte.toUnsignedInt(buf.get(pos));             // opcode
+            code[base + 1] = Byte.toUnsignedInt(buf.get(pos + 1));         // flags
+            code[base + 2] = Short.toUnsignedInt(buf.getShort(pos + 2));   // dest
+            code[base + 3] = Short.toUnsignedInt(buf.getShort(pos + 4));   // operand1
+            code[base + 4] = Short.toUnsignedInt(buf.getShort(pos + 6));   // operand2
+            if (Executor.isInternal(code[base])) {
+                throw new HelunaException(String.format("Opcode 0x%02X at pc=%d is internal to the VM",
+                        code[base], i));
+            }
             pos += 8;
         }
+        pkt.setCode(code);
     }
 
     private static void parseTests(ByteBuffer buf, int[] section, Packet pkt) {
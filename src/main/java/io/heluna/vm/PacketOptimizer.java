@@ -0,0 +1,700 @@
+package io.heluna.vm;
+
+import java.util.Arrays;
+
+/**
+ * Load-time clean-up of a packet's bytecode. Off by default: PacketLoader
+ * runs it on every packet with -Dheluna.optimize=true, and
+ * {@link HelunaVM#optimize} runs it on one loaded packet.
+ *
+ * The passes, repeated until nothing changes:
+ * <ul>
+ *   <li>no-ops: LOAD_FIELD of a field onto its own slot, COPY of a slot to
+ *       itself and JUMP to the next instruction are dropped;</li>
+ *   <li>constant folding within a basic block: arithmetic, comparisons,
+ *       NOT, STR_CONCAT and type tests on constants become LOAD_CONST, and
+ *       conditional jumps on constants become JUMP or are dropped;</li>
+ *   <li>copy propagation within a basic block: reads of a COPY's
+ *       destination read its source while neither has changed;</li>
+ *   <li>dead-store elimination: instructions that cannot fail and only
+ *       write a slot that is not read again are dropped, by liveness over
+ *       the {@link ControlFlow} graph.</li>
+ * </ul>
+ * Dropped instructions are then compacted out, relocating jump targets and
+ * ITER_SETUP body lengths.
+ *
+ * What is preserved is what a {@link HelunaSession} reads after a run: the
+ * output record slot and the output field slots with their tags, or the
+ * error the run fails with. Instructions that can fail are never dropped,
+ * and copies are not propagated into operands whose error message names the
+ * slot. Other slots may end a run holding something else, so packets driven
+ * slot by slot through {@link Executor} should not be optimized. Packets
+ * without a control-flow graph (see {@link ControlFlow#of}) are left as
+ * they are.
+ */
+public final class PacketOptimizer {
+
+    // Above this many instructions times slots, dead stores are not looked for
+    private static final long MAX_LIVENESS_CELLS = 1L << 24;
+
+    private static final int MAX_ROUNDS = 8;
+
+    private PacketOptimizer() {}
+
+    /**
+     * What optimizing one packet changed.
+     */
+    public static final class Report {
+        int before;
+        int after;
+        int folded;
+        int propagated;
+        int deadStores;
+        int noOps;
+
+        /** Instructions before optimizing. */
+        public int before() { return before; }
+
+        /** Instructions after optimizing. */
+        public int after() { return after; }
+
+        /** Instructions removed. */
+        public int removed() { return before - after; }
+
+        /** Instructions and branches replaced by their constant result. */
+        public int folded() { return folded; }
+
+        /** Operands redirected from a copy to its source. */
+        public int propagated() { return propagated; }
+
+        /** Instructions dropped because their result is never read. */
+        public int deadStores() { return deadStores; }
+
+        /** Instructions dropped because they do nothing. */
+        public int noOps() { return noOps; }
+
+        @Override
+        public String toString() {
+            return String.format("%d of %d instructions removed (%d folded, %d copies propagated, "
+                    + "%d dead stores, %d no-ops)", removed(), before, folded, propagated, deadStores, noOps);
+        }
+    }
+
+    /**
+     * Optimize a loaded packet's bytecode in place, then rebuild what the
+     * loader derives from it (typed and fused code, node array). Call it
+     * before the packet is executed; code already compiled for it keeps
+     * running.
+     */
+    public static Report optimize(Packet pkt) {
+        Report report = rewrite(pkt);
+        if (report.removed() > 0 || report.folded > 0 || report.propagated > 0) {
+            TypeAnalyzer.specialize(pkt);
+            InstructionFuser.fuse(pkt);
+            pkt.nodes = Nodes.decode(pkt);
+        }
+        pkt.optimization = report;
+        return report;
+    }
+
+    /**
+     * Optimize the packet's bytecode only; called by the loader before it
+     * derives anything from it.
+     */
+    static Report rewrite(Packet pkt) {
+        int[] code = pkt.code().clone();
+        Report report = new Report();
+        report.before = code.length / Packet.INSTRUCTION_WIDTH;
+        report.after = report.before;
+        if (!knownOpcodes(code)) return report;
+
+        int[] exitSlots = exitSlots(pkt);
+        boolean changed = false;
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            ControlFlow cfg = ControlFlow.of(code);
+            if (cfg == null) break;
+            boolean[] drop = new boolean[cfg.count];
+            int edits = dropNoOps(pkt, code, drop, report);
+            edits += foldAndPropagate(pkt, code, cfg, drop, report);
+            edits += dropDeadStores(pkt, code, cfg, drop, exitSlots, report);
+            if (edits == 0) break;
+            code = compact(code, drop);
+            changed = true;
+        }
+        if (changed) pkt.setCode(code);
+        report.after = code.length / Packet.INSTRUCTION_WIDTH;
+        return report;
+    }
+
+    // --- No-ops ---
+
+    private static int dropNoOps(Packet pkt, int[] code, boolean[] drop, Report report) {
+        int dropped = 0;
+        for (int pc = 0; pc < drop.length; pc++) {
+            int base = pc * Packet.INSTRUCTION_WIDTH;
+            int dest = code[base + 2], op1 = code[base + 3];
+            boolean noOp;
+            switch (code[base]) {
+                case Executor.LOAD_FIELD:
+                    noOp = op1 >= pkt.inputFields.size() || pkt.inputFields.get(op1).scratchpadOffset == dest;
+                    break;
+                case Executor.COPY:
+                    noOp = dest == op1;
+                    break;
+                case Executor.JUMP:
+                    noOp = dest == pc + 1;
+                    break;
+                default:
+                    noOp = false;
+            }
+            if (noOp) {
+                drop[pc] = true;
+                dropped++;
+            }
+        }
+        report.noOps += dropped;
+        return dropped;
+    }
+
+    // --- Constant folding and copy propagation ---
+
+    /**
+     * One forward pass over each basic block, tracking slots that hold a
+     * constant with no tags and slots that hold a copy of another slot.
+     * Iterations start and end blocks, so ITER_SETUP and ITER_COLLECT writes
+     * never need tracking.
+     */
+    private static int foldAndPropagate(Packet pkt, int[] code, ControlFlow cfg, boolean[] drop,
+                                        Report report) {
+        int slots = pkt.scratchpadSize;
+        int[] constOf = new int[slots];   // constant index held, or -1
+        int[] copyOf = new int[slots];    // slot this one is a copy of, or -1
+        int[] copies = new int[slots];    // slots with a copyOf entry
+        Arrays.fill(constOf, -1);
+        Arrays.fill(copyOf, -1);
+        int copyCount = 0;
+        int edits = 0;
+
+        for (int pc = 0; pc < cfg.count; pc++) {
+            int base = pc * Packet.INSTRUCTION_WIDTH;
+            int opcode = code[base];
+            if (cfg.leaders[pc] || opcode == Executor.ITER_SETUP || opcode == Executor.ITER_COLLECT) {
+                Arrays.fill(constOf, -1);
+                for (int i = 0; i < copyCount; i++) copyOf[copies[i]] = -1;
+                copyCount = 0;
+            }
+            if (drop[pc]) continue;
+
+            // Read copies' sources instead
+            for (int pos = 3; pos <= 4; pos++) {
+                int slot = code[base + pos];
+                if (propagatable(opcode, pos) && inRange(slot, slots) && copyOf[slot] >= 0) {
+                    code[base + pos] = copyOf[slot];
+                    report.propagated++;
+                    edits++;
+                }
+            }
+
+            int folded = fold(pkt, code, base, constOf);
+            if (folded >= 0) {
+                if (opcode == Executor.JUMP_IF || opcode == Executor.JUMP_IF_NOT
+                        || opcode >= Executor.CMP_JUMP_EQ && opcode <= Executor.CMP_JUMP_GTE) {
+                    // 1: the jump is taken, 0: it falls through
+                    if (folded == 1) {
+                        code[base] = Executor.JUMP;
+                        code[base + 3] = 0;
+                        code[base + 4] = 0;
+                    } else {
+                        drop[pc] = true;
+                    }
+                } else {
+                    code[base] = Executor.LOAD_CONST;
+                    code[base + 3] = folded;
+                    code[base + 4] = 0;
+                }
+                opcode = code[base];
+                report.folded++;
+                edits++;
+                if (drop[pc]) continue;
+            }
+
+            int written = writes(opcode) ? code[base + 2] : -1;
+            if (!inRange(written, slots)) continue;
+            constOf[written] = -1;
+            for (int i = 0; i < copyCount; i++) {
+                int s = copies[i];
+                if (s == written || copyOf[s] == written) {
+                    copyOf[s] = -1;
+                    copies[i--] = copies[--copyCount];
+                }
+            }
+            int tagMode = (code[base + 1] >> 3) & 0x03;
+            int op1 = code[base + 3];
+            if (opcode == Executor.LOAD_CONST && tagMode != Executor.TAG_MODE_SET
+                    && op1 < pkt.constants.size() && scalar(pkt.constants.get(op1))) {
+                constOf[written] = op1;
+            } else if (opcode == Executor.COPY && inRange(op1, slots) && op1 != written) {
+                constOf[written] = constOf[op1];
+                copyOf[written] = op1;
+                copies[copyCount++] = written;
+            }
+        }
+        return edits;
+    }
+
+    /**
+     * Evaluate an instruction whose operands are all known constants: the
+     * constant index of its result, 1 or 0 for whether a conditional jump is
+     * taken, or -1 if it is not foldable or would fail.
+     */
+    private static int fold(Packet pkt, int[] code, int base, int[] constOf) {
+        int opcode = code[base], op1 = code[base + 3], op2 = code[base + 4];
+        HVal a = constantIn(pkt, constOf, op1);
+        HVal b = constantIn(pkt, constOf, op2);
+        HVal result;
+        try {
+            switch (opcode) {
+                case Executor.ADD: case Executor.SUB: case Executor.MUL:
+                case Executor.DIV: case Executor.MOD:
+                    if (a == null || b == null) return -1;
+                    result = Executor.arith(a, b, "+-*/%".charAt(opcode - Executor.ADD));
+                    break;
+                case Executor.NEGATE:
+                    if (a == null) return -1;
+                    result = Executor.negate(a);
+                    break;
+                case Executor.EQ: case Executor.NEQ:
+                    if (a == null || b == null) return -1;
+                    result = HVal.HBoolean.of(Executor.valEquals(a, b) == (opcode == Executor.EQ));
+                    break;
+                case Executor.LT: case Executor.GT: case Executor.LTE: case Executor.GTE:
+                    if (a == null || b == null) return -1;
+                    result = HVal.HBoolean.of(compares(opcode - Executor.LT, Executor.valCompare(a, b)));
+                    break;
+                case Executor.NOT:
+                    if (!(a instanceof HVal.HBoolean)) return -1;
+                    result = HVal.HBoolean.of(!((HVal.HBoolean) a).value());
+                    break;
+                case Executor.STR_CONCAT:
+                    if (a == null || b == null) return -1;
+                    result = Executor.concat(a, b);
+                    break;
+                case Executor.IS_STRING: case Executor.IS_INT: case Executor.IS_FLOAT: case Executor.IS_BOOL:
+                case Executor.IS_NOTHING: case Executor.IS_LIST: case Executor.IS_RECORD:
+                    if (a == null) return -1;
+                    result = HVal.HBoolean.of(a.typeCode() == testedType(opcode));
+                    break;
+
+                case Executor.JUMP_IF: case Executor.JUMP_IF_NOT:
+                    if (!(a instanceof HVal.HBoolean)) return -1;
+                    return ((HVal.HBoolean) a).value() == (opcode == Executor.JUMP_IF) ? 1 : 0;
+                case Executor.CMP_JUMP_EQ: case Executor.CMP_JUMP_NEQ:
+                    if (a == null || b == null) return -1;
+                    return Executor.valEquals(a, b) == (opcode == Executor.CMP_JUMP_EQ) ? 0 : 1;
+                case Executor.CMP_JUMP_LT: case Executor.CMP_JUMP_GT:
+                case Executor.CMP_JUMP_LTE: case Executor.CMP_JUMP_GTE:
+                    if (a == null || b == null) return -1;
+                    return compares(opcode - Executor.CMP_JUMP_LT, Executor.valCompare(a, b)) ? 0 : 1;
+                default:
+                    return -1;
+            }
+        } catch (HelunaException e) {
+            return -1; // left to fail at run time
+        }
+        return constantIndex(pkt, result);
+    }
+
+    // LT, GT, LTE, GTE in opcode order
+    private static boolean compares(int which, int cmp) {
+        switch (which) {
+            case 0: return cmp < 0;
+            case 1: return cmp > 0;
+            case 2: return cmp <= 0;
+            default: return cmp >= 0;
+        }
+    }
+
+    private static byte testedType(int opcode) {
+        switch (opcode) {
+            case Executor.IS_STRING: return HVal.TYPE_STRING;
+            case Executor.IS_INT: return HVal.TYPE_INTEGER;
+            case Executor.IS_FLOAT: return HVal.TYPE_FLOAT;
+            case Executor.IS_BOOL: return HVal.TYPE_BOOLEAN;
+            case Executor.IS_NOTHING: return HVal.TYPE_NOTHING;
+            case Executor.IS_LIST: return HVal.TYPE_LIST;
+            default: return HVal.TYPE_RECORD;
+        }
+    }
+
+    // Lists and records in the pool can be changed through the slots they are loaded into
+    private static boolean scalar(HVal v) {
+        byte type = v.typeCode();
+        return type != HVal.TYPE_LIST && type != HVal.TYPE_RECORD;
+    }
+
+    private static HVal constantIn(Packet pkt, int[] constOf, int slot) {
+        if (!inRange(slot, constOf.length) || constOf[slot] < 0) return null;
+        return pkt.constants.get(constOf[slot]);
+    }
+
+    /**
+     * The index of a constant equal to value, added to the pool if there is
+     * none. Floats match by bit pattern so 0.0 and -0.0 stay apart.
+     */
+    private static int constantIndex(Packet pkt, HVal value) {
+        for (int i = 0; i < pkt.constants.size(); i++) {
+            HVal c = pkt.constants.get(i);
+            if (c.typeCode() != value.typeCode()) continue;
+            if (c instanceof HVal.HFloat
+                    ? Double.doubleToLongBits(((HVal.HFloat) c).value())
+                        == Double.doubleToLongBits(((HVal.HFloat) value).value())
+                    : c.equals(value)) {
+                return i;
+            }
+        }
+        pkt.constants.add(value);
+        return pkt.constants.size() - 1;
+    }
+
+    /**
+     * True if operand pos (3 for op1, 4 for op2) of the opcode is a slot
+     * read for its value and tags only, without an error naming the slot.
+     */
+    private static boolean propagatable(int opcode, int pos) {
+        switch (opcode) {
+            case Executor.COPY: case Executor.NEGATE:
+            case Executor.IS_STRING: case Executor.IS_INT: case Executor.IS_FLOAT: case Executor.IS_BOOL:
+            case Executor.IS_NOTHING: case Executor.IS_LIST: case Executor.IS_RECORD:
+            case Executor.TO_STRING: case Executor.TO_INT: case Executor.TO_FLOAT: case Executor.TO_BOOL:
+            case Executor.LIST_APPEND: case Executor.TAG_CHECK: case Executor.IS_NOTHING_JUMP:
+                return pos == 3;
+            case Executor.ADD: case Executor.SUB: case Executor.MUL: case Executor.DIV: case Executor.MOD:
+            case Executor.EQ: case Executor.NEQ: case Executor.LT: case Executor.GT:
+            case Executor.LTE: case Executor.GTE:
+            case Executor.STR_CONCAT: case Executor.COALESCE:
+            case Executor.CMP_JUMP_EQ: case Executor.CMP_JUMP_NEQ:
+            case Executor.CMP_JUMP_LT: case Executor.CMP_JUMP_GT:
+            case Executor.CMP_JUMP_LTE: case Executor.CMP_JUMP_GTE:
+                return true;
+            case Executor.RECORD_SET: case Executor.RECORD_SET_C: case Executor.RECORD_NEW_SET_C:
+            case Executor.LIST_GET: case Executor.STDLIB_CALL_1:
+                return pos == 4;
+            default:
+                return false;
+        }
+    }
+
+    /** True if the opcode changes the value or tags of its dest slot. */
+    private static boolean writes(int opcode) {
+        switch (opcode) {
+            case Executor.JUMP: case Executor.JUMP_IF: case Executor.JUMP_IF_NOT:
+            case Executor.CMP_JUMP_EQ: case Executor.CMP_JUMP_NEQ:
+            case Executor.CMP_JUMP_LT: case Executor.CMP_JUMP_GT:
+            case Executor.CMP_JUMP_LTE: case Executor.CMP_JUMP_GTE:
+            case Executor.IS_NOTHING_JUMP:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    // --- Dead stores ---
+
+    /**
+     * Drop instructions that cannot fail and write only a slot that is dead
+     * after them. Liveness is per slot, value and tags together, solved
+     * backwards over the control-flow graph; the exit slots are live at the
+     * end.
+     */
+    private static int dropDeadStores(Packet pkt, int[] code, ControlFlow cfg, boolean[] drop,
+                                      int[] exitSlots, Report report) {
+        int count = cfg.count;
+        int slots = pkt.scratchpadSize;
+        int words = (slots + 63) >>> 6;
+        if ((long) count * words * 64 > MAX_LIVENESS_CELLS) return 0;
+
+        long[] exit = new long[words];
+        for (int slot : exitSlots) exit[slot >>> 6] |= 1L << slot;
+        long[][] liveIn = new long[count][words];
+        int[] uses = new int[4];
+        int[] next = new int[2];
+        long[] out = new long[words];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int pc = count - 1; pc >= 0; pc--) {
+                Arrays.fill(out, 0);
+                int base = pc * Packet.INSTRUCTION_WIDTH;
+                int n = cfg.successors(pc, next);
+                for (int i = 0; i < n; i++) {
+                    long[] in = next[i] < count ? liveIn[next[i]] : exit;
+                    int written = edgeWrite(code, cfg, pc, i);
+                    for (int w = 0; w < words; w++) {
+                        out[w] |= w == written >>> 6 && written >= 0 ? in[w] & ~(1L << written) : in[w];
+                    }
+                }
+                if (!drop[pc]) {
+                    int killed = kills(pkt, code, base);
+                    if (inRange(killed, slots)) out[killed >>> 6] &= ~(1L << killed);
+                    int u = uses(pkt, code, base, uses);
+                    for (int i = 0; i < u; i++) {
+                        if (inRange(uses[i], slots)) out[uses[i] >>> 6] |= 1L << uses[i];
+                    }
+                }
+                long[] in = liveIn[pc];
+                for (int w = 0; w < words; w++) {
+                    if (in[w] != out[w]) {
+                        in[w] = out[w];
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        int dropped = 0;
+        for (int pc = 0; pc < count; pc++) {
+            int base = pc * Packet.INSTRUCTION_WIDTH;
+            int dest = code[base + 2];
+            if (drop[pc] || !removable(code[base]) || !inRange(dest, slots)) continue;
+            int n = cfg.successors(pc, next);
+            boolean live = false;
+            for (int i = 0; i < n; i++) {
+                long[] in = next[i] < count ? liveIn[next[i]] : exit;
+                live |= (in[dest >>> 6] & (1L << dest)) != 0;
+            }
+            if (!live) {
+                drop[pc] = true;
+                dropped++;
+            }
+        }
+        report.deadStores += dropped;
+        return dropped;
+    }
+
+    /**
+     * The slot an iteration instruction writes on its i-th successor edge
+     * (as ordered by {@link ControlFlow#successors}), or -1: the element on
+     * the way into the body, the result on the way out.
+     */
+    private static int edgeWrite(int[] code, ControlFlow cfg, int pc, int i) {
+        int base = pc * Packet.INSTRUCTION_WIDTH;
+        switch (code[base]) {
+            case Executor.ITER_SETUP:
+                return i == 0 ? code[base + 2]
+                        : code[ControlFlow.collectOf(code, pc) * Packet.INSTRUCTION_WIDTH + 2];
+            case Executor.ITER_COLLECT:
+                return i == 0 ? code[cfg.setupOf[pc] * Packet.INSTRUCTION_WIDTH + 2] : code[base + 2];
+            default:
+                return -1;
+        }
+    }
+
+    /** True for instructions that cannot fail and only write their dest. */
+    private static boolean removable(int opcode) {
+        switch (opcode) {
+            case Executor.LOAD_CONST: case Executor.LOAD_FIELD: case Executor.LOAD_NOTHING:
+            case Executor.COPY:
+            case Executor.EQ: case Executor.NEQ:
+            case Executor.STR_CONCAT: case Executor.TO_STRING:
+            case Executor.IS_STRING: case Executor.IS_INT: case Executor.IS_FLOAT: case Executor.IS_BOOL:
+            case Executor.IS_NOTHING: case Executor.IS_LIST: case Executor.IS_RECORD:
+            case Executor.RECORD_NEW: case Executor.LIST_NEW:
+            case Executor.COALESCE: case Executor.TAG_CHECK:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The slot whose value and tags the instruction replaces on every path
+     * through it, or -1. Writes that keep the slot's tags (tag mode SET) or
+     * that only some paths make (iterations) do not count.
+     */
+    private static int kills(Packet pkt, int[] code, int base) {
+        int opcode = code[base], dest = code[base + 2], op1 = code[base + 3];
+        int tagMode = (code[base + 1] >> 3) & 0x03;
+        switch (opcode) {
+            case Executor.COPY:
+                return dest;
+            case Executor.LOAD_FIELD:
+                return op1 < pkt.inputFields.size() ? dest : -1;
+            default:
+                return hasTagMode(opcode) && tagMode != Executor.TAG_MODE_SET ? dest : -1;
+        }
+    }
+
+    /**
+     * Store the slots the instruction reads in uses, returning how many
+     * there are. Slots an instruction updates in place count as read.
+     */
+    static int uses(Packet pkt, int[] code, int base, int[] uses) {
+        int opcode = code[base], dest = code[base + 2], op1 = code[base + 3], op2 = code[base + 4];
+        int tagMode = (code[base + 1] >> 3) & 0x03;
+        int n = 0;
+        switch (opcode) {
+            case Executor.LOAD_CONST: case Executor.LOAD_NOTHING:
+            case Executor.RECORD_NEW: case Executor.LIST_NEW:
+            case Executor.JUMP:
+                break;
+            case Executor.LOAD_FIELD:
+                if (op1 < pkt.inputFields.size()) uses[n++] = pkt.inputFields.get(op1).scratchpadOffset;
+                break;
+            case Executor.COPY: case Executor.NEGATE: case Executor.NOT:
+            case Executor.IS_STRING: case Executor.IS_INT: case Executor.IS_FLOAT: case Executor.IS_BOOL:
+            case Executor.IS_NOTHING: case Executor.IS_LIST: case Executor.IS_RECORD:
+            case Executor.TO_STRING: case Executor.TO_INT: case Executor.TO_FLOAT: case Executor.TO_BOOL:
+            case Executor.LIST_LENGTH: case Executor.TAG_CHECK: case Executor.RECORD_GET_C:
+            case Executor.JUMP_IF: case Executor.JUMP_IF_NOT: case Executor.IS_NOTHING_JUMP:
+                uses[n++] = op1;
+                break;
+            case Executor.STDLIB_CALL: case Executor.STDLIB_CALL_1: case Executor.RECORD_NEW_SET_C:
+                uses[n++] = op2;
+                break;
+            case Executor.RECORD_SET_C:
+                uses[n++] = dest;
+                uses[n++] = op2;
+                break;
+            case Executor.RECORD_SET:
+                uses[n++] = dest;
+                uses[n++] = op1;
+                uses[n++] = op2;
+                break;
+            case Executor.LIST_APPEND:
+                uses[n++] = dest;
+                uses[n++] = op1;
+                break;
+            case Executor.TAG_SET:
+                uses[n++] = dest;
+                break;
+            case Executor.ITER_SETUP: {
+                // The list, and the accumulator a FOLD of an empty list returns
+                int collect = ControlFlow.collectOf(code, base / Packet.INSTRUCTION_WIDTH)
+                        * Packet.INSTRUCTION_WIDTH;
+                uses[n++] = op1;
+                uses[n++] = code[collect + 3];
+                uses[n++] = code[collect + 4];
+                return n;
+            }
+            case Executor.ITER_COLLECT:
+                uses[n++] = op1;
+                uses[n++] = op2;
+                return n;
+            default:
+                // Arithmetic, comparisons, AND/OR, STR_CONCAT, RECORD_GET/HAS,
+                // LIST_GET, COALESCE, compare-jumps
+                uses[n++] = op1;
+                uses[n++] = op2;
+        }
+        if (tagMode == Executor.TAG_MODE_SET && hasTagMode(opcode)) {
+            uses[n++] = dest; // keeps the tags already on dest
+        }
+        return n;
+    }
+
+    /** True for instructions that set their dest's tags by the tag mode in their flags. */
+    private static boolean hasTagMode(int opcode) {
+        switch (opcode) {
+            case Executor.COPY: case Executor.LOAD_FIELD:
+            case Executor.RECORD_SET: case Executor.RECORD_SET_C: case Executor.LIST_APPEND:
+            case Executor.TAG_SET: case Executor.ITER_SETUP: case Executor.ITER_COLLECT:
+                return false;
+            default:
+                return writes(opcode);
+        }
+    }
+
+    /** The slots a session reads after a run: the output record and output fields. */
+    static int[] exitSlots(Packet pkt) {
+        int[] slots = new int[pkt.outputFields.size() + 1];
+        int n = 0;
+        int outputSlot = pkt.inputFieldCount + pkt.outputFieldCount;
+        if (outputSlot < pkt.scratchpadSize) slots[n++] = outputSlot;
+        for (Packet.FieldDef field : pkt.outputFields) {
+            if (field.scratchpadOffset < pkt.scratchpadSize) slots[n++] = field.scratchpadOffset;
+        }
+        return Arrays.copyOf(slots, n);
+    }
+
+    // --- Compaction ---
+
+    /**
+     * The code without the dropped instructions. A jump to a dropped
+     * instruction goes to the next one kept; ITER_SETUP body lengths shrink
+     * by what was dropped from their bodies.
+     */
+    private static int[] compact(int[] code, boolean[] drop) {
+        int count = drop.length;
+        int[] newPc = new int[count + 1];
+        int kept = 0;
+        for (int pc = 0; pc < count; pc++) {
+            newPc[pc] = kept;
+            if (!drop[pc]) kept++;
+        }
+        newPc[count] = kept;
+
+        int[] out = new int[kept * Packet.INSTRUCTION_WIDTH];
+        for (int pc = 0; pc < count; pc++) {
+            if (drop[pc]) continue;
+            int base = pc * Packet.INSTRUCTION_WIDTH;
+            int at = newPc[pc] * Packet.INSTRUCTION_WIDTH;
+            System.arraycopy(code, base, out, at, Packet.INSTRUCTION_WIDTH);
+            switch (code[base]) {
+                case Executor.JUMP: case Executor.JUMP_IF: case Executor.JUMP_IF_NOT:
+                case Executor.CMP_JUMP_EQ: case Executor.CMP_JUMP_NEQ:
+                case Executor.CMP_JUMP_LT: case Executor.CMP_JUMP_GT:
+                case Executor.CMP_JUMP_LTE: case Executor.CMP_JUMP_GTE:
+                case Executor.IS_NOTHING_JUMP:
+                    out[at + 2] = newPc[Math.min(code[base + 2], count)];
+                    break;
+                case Executor.ITER_SETUP:
+                    out[at + 4] = newPc[ControlFlow.collectOf(code, pc)] - newPc[pc] - 1;
+                    break;
+                default:
+            }
+        }
+        return out;
+    }
+
+    // --- Helpers ---
+
+    private static boolean knownOpcodes(int[] code) {
+        for (int base = 0; base < code.length; base += Packet.INSTRUCTION_WIDTH) {
+            switch (code[base]) {
+                case Executor.LOAD_CONST: case Executor.LOAD_FIELD: case Executor.LOAD_NOTHING: case Executor.COPY:
+                case Executor.ADD: case Executor.SUB: case Executor.MUL: case Executor.DIV: case Executor.MOD:
+                case Executor.NEGATE:
+                case Executor.EQ: case Executor.NEQ: case Executor.LT: case Executor.GT:
+                case Executor.LTE: case Executor.GTE:
+                case Executor.AND: case Executor.OR: case Executor.NOT:
+                case Executor.STR_CONCAT:
+                case Executor.IS_STRING: case Executor.IS_INT: case Executor.IS_FLOAT: case Executor.IS_BOOL:
+                case Executor.IS_NOTHING: case Executor.IS_LIST: case Executor.IS_RECORD:
+                case Executor.TO_STRING: case Executor.TO_INT: case Executor.TO_FLOAT: case Executor.TO_BOOL:
+                case Executor.RECORD_NEW: case Executor.RECORD_SET: case Executor.RECORD_GET:
+                case Executor.RECORD_HAS:
+                case Executor.LIST_NEW: case Executor.LIST_APPEND: case Executor.LIST_GET:
+                case Executor.LIST_LENGTH:
+                case Executor.JUMP: case Executor.JUMP_IF: case Executor.JUMP_IF_NOT:
+                case Executor.COALESCE:
+                case Executor.ITER_SETUP: case Executor.ITER_COLLECT:
+                case Executor.STDLIB_CALL:
+                case Executor.TAG_SET: case Executor.TAG_CHECK:
+                case Executor.RECORD_GET_C: case Executor.RECORD_SET_C: case Executor.RECORD_NEW_SET_C:
+                case Executor.STDLIB_CALL_1:
+                case Executor.CMP_JUMP_EQ: case Executor.CMP_JUMP_NEQ:
+                case Executor.CMP_JUMP_LT: case Executor.CMP_JUMP_GT:
+                case Executor.CMP_JUMP_LTE: case Executor.CMP_JUMP_GTE:
+                case Executor.IS_NOTHING_JUMP:
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean inRange(int slot, int slots) {
+        return slot >= 0 && slot < slots;
+    }
+}
@@ -0,0 +1,95 @@
+package io.heluna.vm;
+
+/**
+ * Execution profile of one packet, maintained by the interpreter and read
+ * by {@link TieredCompiler} to decide when the packet is hot enough to
+ * compile.
+ *
+ * Counters cover interpreted runs only and are updated without
+ * synchronization: under concurrent execution they may undercount slightly,
+ * which is fine for a promotion heuristic and keeps the interpreter free of
+ * shared atomic writes. Counting stops once the packet leaves
+ * {@link Tier#INTERPRETED} and while tiering is disabled, so packets that
+ * will not be promoted cost no writes to the shared profile at all.
+ */
+public class PacketProfile {
+
+    public enum Tier {
+        /** Running in the switch interpreter. */
+        INTERPRETED,
+        /** Hot; waiting for or undergoing background compilation. */
+        COMPILING,
+        /** Running generated bytecode. */
+        COMPILED,
+        /** Compilation was attempted and the packet is not compilable; stays interpreted. */
+        NOT_COMPILABLE
+    }
+
+    private long executions;
+    private long backedges;
+    private volatile Tier tier = Tier.INTERPRETED;
+    private volatile long compileNanos = -1;
+
+    /**
+     * Number of interpreted executions counted towards promotion.
+     */
+    public long executions() {
+        return executions;
+    }
+
+    /**
+     * Number of interpreted loop back edges: iterations continued by
+     * ITER_COLLECT and backward jumps.
+     */
+    public long backedges() {
+        return backedges;
+    }
+
+    public Tier tier() {
+        return tier;
+    }
+
+    /**
+     * Time spent compiling the packet (or finding out it cannot be compiled)
+     * in nanoseconds, or -1 if no compilation has been attempted.
+     */
+    public long compileNanos() {
+        return compileNanos;
+    }
+
+    @Override
+    public String toString() {
+        String s = tier + " after " + executions + " executions, " + backedges + " backedges";
+        if (compileNanos >= 0) {
+            s += String.format(", compile took %.2f ms", compileNanos / 1_000_000.0);
+        }
+        return s;
+    }
+
+    /**
+     * Count one interpreted run of the packet. Returns true exactly once,
+     * when the run pushes the packet over the compile threshold.
+     */
+    boolean record(int runBackedges) {
+        if (tier != Tier.INTERPRETED || !TieredCompiler.enabled()) return false;
+        long n = ++executions;
+        long b = backedges += runBackedges;
+        return TieredCompiler.isHot(n, b) && markCompiling();
+    }
+
+    synchronized boolean markCompiling() {
+        if (tier != Tier.INTERPRETED) return false;
+        tier = Tier.COMPILING;
+        return true;
+    }
+
+    void compiled(long nanos) {
+        compileNanos = nanos;
+        tier = Tier.COMPILED;
+    }
+
+    void notCompilable(long nanos) {
+        compileNanos = nanos;
+        tier = Tier.NOT_COMPILABLE;
+    }
+}
@@ -0,0 +1,215 @@
+package io.heluna.vm;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled regular expressions for the stdlib regex functions, so a
+ * pattern is parsed once rather than on every call.
+ *
+ * Patterns that are packet constants are compiled when the packet is
+ * loaded ({@link #precompile}) and kept in {@link Packet#patterns} for as
+ * long as the packet lives; every session's StdLib looks there first,
+ * without locking. Other patterns are looked up in a small per-StdLib
+ * table of recently used patterns, again without locking, and then in the
+ * shared cache ({@link #shared()}): a least-recently-used map bounded both
+ * by entry count and by total pattern length, with hit, miss and eviction
+ * counters. The shared cache is thread-safe; its bounds come from
+ * -Dheluna.regex.cache.entries (default 512) and
+ * -Dheluna.regex.cache.weight (total characters, default 262144).
+ */
+final class PatternCache {
+
+    private static final PatternCache SHARED = new PatternCache(
+            Integer.getInteger("heluna.regex.cache.entries", 512),
+            Integer.getInteger("heluna.regex.cache.weight", 1 << 18));
+
+    /** A pattern and the flags it is compiled with. */
+    static final class Key {
+        final String regex;
+        final int flags;
+
+        Key(String regex, int flags) {
+            this.regex = regex;
+            this.flags = flags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return flags == k.flags && regex.equals(k.regex);
+        }
+
+        @Override
+        public int hashCode() {
+            return regex.hashCode() * 31 + flags;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final LinkedHashMap<Key, Pattern> patterns = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    PatternCache(int maxEntries, long maxWeight) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    static PatternCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * The compiled pattern, compiling and caching it on a miss. Throws
+     * PatternSyntaxException for an invalid pattern, which is not cached.
+     */
+    Pattern get(String regex, int flags) {
+        Key key = new Key(regex, flags);
+        synchronized (this) {
+            Pattern p = patterns.get(key);
+            if (p != null) {
+                hits++;
+                return p;
+            }
+            misses++;
+        }
+        // Compile outside the lock; a racing thread may compile it too
+        Pattern compiled = Pattern.compile(regex, flags);
+        synchronized (this) {
+            Pattern p = patterns.putIfAbsent(key, compiled);
+            if (p != null) return p;
+            weight += regex.length();
+            evict();
+        }
+        return compiled;
+    }
+
+    /** Drop least recently used patterns until the cache is within both bounds. */
+    private void evict() {
+        Iterator<Map.Entry<Key, Pattern>> it = patterns.entrySet().iterator();
+        while ((patterns.size() > maxEntries || weight > maxWeight) && it.hasNext()) {
+            weight -= it.next().getKey().regex.length();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    synchronized int size() { return patterns.size(); }
+
+    synchronized long weight() { return weight; }
+
+    synchronized long hits() { return hits; }
+
+    synchronized long misses() { return misses; }
+
+    synchronized long evictions() { return evictions; }
+
+    synchronized void clear() {
+        patterns.clear();
+        weight = 0;
+        hits = misses = evictions = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d patterns (%d chars), %d hits, %d misses, %d evictions",
+                patterns.size(), weight, hits, misses, evictions);
+    }
+
+    // --- Load-time precompilation ---
+
+    /**
+     * Compile the string constants the packet passes as the "pattern"
+     * argument of regexMatch or regexReplace into {@link Packet#patterns},
+     * returning how many were compiled.
+     *
+     * Argument records are built with RECORD_SET instructions whose key
+     * and value come from LOAD_CONST (or COPY) a few instructions before,
+     * so a linear scan that tracks the last constant loaded into each slot
+     * finds them. The scan ignores control flow: a constant it picks up
+     * wrongly only costs a compiled pattern that is never looked up, since
+     * calls find patterns by their text. Invalid patterns are skipped and
+     * fail when called, as before.
+     */
+    static int precompile(Packet pkt) {
+        int[] code = pkt.code();
+        int count = code.length / Packet.INSTRUCTION_WIDTH;
+        boolean match = false, replace = false;
+        for (int base = 0; base < code.length; base += Packet.INSTRUCTION_WIDTH) {
+            if (code[base] == Executor.STDLIB_CALL) {
+                match |= code[base + 3] == StdLib.REGEX_MATCH;
+                replace |= code[base + 3] == StdLib.REGEX_REPLACE;
+            }
+        }
+        if (!match && !replace) {
+            pkt.patterns = Collections.emptyMap();
+            return 0;
+        }
+
+        Map<Key, Pattern> compiled = new HashMap<>();
+        int[] constantIn = new int[pkt.scratchpadSize];
+        Arrays.fill(constantIn, -1);
+        for (int pc = 0; pc < count; pc++) {
+            int base = pc * Packet.INSTRUCTION_WIDTH;
+            int dest = code[base + 2], op1 = code[base + 3], op2 = code[base + 4];
+            int keyConst = -1, valueSlot = -1;
+            switch (code[base]) {
+                case Executor.RECORD_SET:
+                    keyConst = constantIn(constantIn, op1);
+                    valueSlot = op2;
+                    break;
+                case Executor.RECORD_SET_C: case Executor.RECORD_NEW_SET_C:
+                    keyConst = op1;
+                    valueSlot = op2;
+                    break;
+                default:
+                    break;
+            }
+            if (keyConst >= 0 && "pattern".equals(string(pkt, keyConst))) {
+                String regex = string(pkt, constantIn(constantIn, valueSlot));
+                if (regex != null) {
+                    if (match) compile(compiled, regex, StdLib.MATCH_FLAGS);
+                    if (replace) compile(compiled, regex, StdLib.REPLACE_FLAGS);
+                }
+            }
+            if (dest >= 0 && dest < constantIn.length) {
+                switch (code[base]) {
+                    case Executor.LOAD_CONST: constantIn[dest] = op1; break;
+                    case Executor.COPY: constantIn[dest] = constantIn(constantIn, op1); break;
+                    case Executor.RECORD_SET: case Executor.RECORD_SET_C: break; // dest is the record
+                    default: constantIn[dest] = -1; break;
+                }
+            }
+        }
+        pkt.patterns = compiled.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(compiled);
+        return compiled.size();
+    }
+
+    private static void compile(Map<Key, Pattern> compiled, String regex, int flags) {
+        try {
+            compiled.putIfAbsent(new Key(regex, flags), Pattern.compile(regex, flags));
+        } catch (RuntimeException e) {
+            // Left for the call to report
+        }
+    }
+
+    private static int constantIn(int[] constantIn, int slot) {
+        return slot >= 0 && slot < constantIn.length ? constantIn[slot] : -1;
+    }
+
+    private static String string(Packet pkt, int index) {
+        if (index < 0 || index >= pkt.constants.size()) return null;
+        HVal c = pkt.constants.get(index);
+        return c instanceof HVal.HString ? ((HVal.HString) c).value() : null;
+    }
+}
@@ -0,0 +1,70 @@
+package io.heluna.vm;
+
+/**
+ * Inline cache for one constant-key record access (RECORD_GET_C,
+ * RECORD_SET_C, RECORD_NEW_SET_C).
+ *
+ * Remembers the last record shape seen at the site together with where the
+ * key lives in it, so a record of the same shape is read or written at a
+ * known slot without searching its keys, and a set that adds the key moves
+ * the record straight to the cached shape. Other shapes and dictionary-mode
+ * records take the ordinary {@link HVal.HRecord} path and re-prime the cache.
+ *
+ * A site may be shared by executors on different threads: the cache is one
+ * immutable entry replaced as a whole, so a racing update only costs a miss.
+ */
+final class RecordSite {
+
+    final String key;
+    private Entry entry;
+
+    private static final class Entry {
+        final Shape shape;
+        final int index;   // slot of the key, or -1 if records of this shape lack it
+        final Shape next;  // shape after adding the key, when index is -1
+
+        Entry(Shape shape, int index, Shape next) {
+            this.shape = shape;
+            this.index = index;
+            this.next = next;
+        }
+    }
+
+    RecordSite(String key) {
+        this.key = key;
+    }
+
+    HVal get(HVal.HRecord rec) {
+        Shape shape = rec.shape();
+        Entry e = entry;
+        if (e == null || e.shape != shape) {
+            if (shape == null) return rec.get(key);
+            e = new Entry(shape, shape.indexOf(key), null);
+            entry = e;
+        }
+        if (e.index < 0) return HVal.HNothing.INSTANCE;
+        HVal v = rec.slot(e.index);
+        return v != null ? v : HVal.HNothing.INSTANCE;
+    }
+
+    void set(HVal.HRecord rec, HVal value) {
+        Shape shape = rec.shape();
+        Entry e = entry;
+        if (e == null || e.shape != shape) {
+            if (shape == null) {
+                rec.set(key, value);
+                return;
+            }
+            int index = shape.indexOf(key);
+            e = new Entry(shape, index, index < 0 ? shape.with(key) : null);
+            entry = e;
+        }
+        if (e.index >= 0) {
+            rec.setSlot(e.index, value);
+        } else if (e.next != null) {
+            rec.append(e.next, value);
+        } else {
+            rec.set(key, value);
+        }
+    }
+}
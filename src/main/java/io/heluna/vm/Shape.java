@@ -0,0 +1,102 @@
+package io.heluna.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The field layout shared by records built the same way: the keys in
+ * insertion order, each at a fixed index into the record's slot array.
+ *
+ * Shapes form a tree rooted at {@link #EMPTY}; adding a key that a record
+ * does not have moves it to the child shape for that key, created once and
+ * reused by every later record that adds the same keys in the same order.
+ * Shapes are immutable apart from their transition table and are shared
+ * between threads.
+ *
+ * Records whose keys come from data (objects parsed from JSON, and records
+ * the stdlib builds from other records' keys) start from their own root,
+ * {@link #DATA}, so however many layouts the input brings, the tree that
+ * packet code builds its records in is unaffected. To keep either tree from
+ * growing without bound, {@link #with} returns null past {@link #MAX_FIELDS}
+ * keys, {@link #MAX_TRANSITIONS} children of one shape or {@link #MAX_SHAPES}
+ * shapes under one root, and the record switches to its own key table
+ * instead.
+ */
+final class Shape {
+
+    static final int MAX_FIELDS = 64;
+    static final int MAX_TRANSITIONS = 32;
+    static final int MAX_SHAPES = 1 << 14;
+
+    // Up to this many keys are found by a linear scan, beyond it by a hash index
+    private static final int LINEAR_LIMIT = 8;
+
+    /** The root for records built by packet code. */
+    static final Shape EMPTY = root();
+
+    /** The root for records whose keys come from data. */
+    static final Shape DATA = root();
+
+    final String[] keys;
+    private final HashMap<String, Integer> index;
+    private final ConcurrentHashMap<String, Shape> transitions = new ConcurrentHashMap<>();
+    private final AtomicInteger treeSize;    // shapes created under this shape's root
+
+    private Shape(String[] keys, AtomicInteger treeSize) {
+        this.keys = keys;
+        this.treeSize = treeSize;
+        if (keys.length > LINEAR_LIMIT) {
+            index = new HashMap<>(keys.length * 2);
+            for (int i = 0; i < keys.length; i++) {
+                index.put(keys[i], i);
+            }
+        } else {
+            index = null;
+        }
+    }
+
+    /** A new empty shape with a tree, and a shape budget, of its own. */
+    static Shape root() {
+        return new Shape(new String[0], new AtomicInteger());
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    /**
+     * Slot index of the key, or -1 if records of this shape do not have it.
+     */
+    int indexOf(String key) {
+        if (index != null) {
+            Integer i = index.get(key);
+            return i != null ? i : -1;
+        }
+        String[] k = keys;
+        for (int i = 0; i < k.length; i++) {
+            if (k[i] == key || k[i].equals(key)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * The shape of a record of this shape after adding a key it does not
+     * have, or null if the record should leave shape mode.
+     */
+    Shape with(String key) {
+        Shape next = transitions.get(key);
+        if (next != null) return next;
+        if (keys.length >= MAX_FIELDS || transitions.size() >= MAX_TRANSITIONS
+                || treeSize.get() >= MAX_SHAPES) {
+            return null;
+        }
+        return transitions.computeIfAbsent(key, k -> {
+            treeSize.incrementAndGet();
+            String[] extended = Arrays.copyOf(keys, keys.length + 1);
+            extended[keys.length] = k;
+            return new Shape(extended, treeSize);
+        });
+    }
+}
@@ -15,9 +15,13 @@ import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
 import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -26,6 +30,312 @@ public class StdLib {
 
     private String timestamp = "2024-01-01T00:00:00Z";
     private MessageDigest sha256Digest;
+    private HValJsonWriter jsonWriter;
+    private Map<PatternCache.Key, Pattern> patterns = Collections.emptyMap();
+    // Non-constant patterns this StdLib used recently, direct-mapped by hash: repeats skip the shared cache's lock
+    private final Pattern[] recentPatterns = new Pattern[RECENT_PATTERNS];
+    // Scratch year, month, day, hour, minute and second for the date functions
+    private final int[] dateFields = new int[6];
+
+    private static final HVal NOTHING = HVal.HNothing.INSTANCE;
+
+    // The regex functions, and the flags their patterns are compiled with
+    static final int REGEX_MATCH = 0x0010;
+    static final int REGEX_REPLACE = 0x0011;
+    static final int MATCH_FLAGS = Pattern.DOTALL;
+    static final int REPLACE_FLAGS = 0;
+    private static final int RECENT_PATTERNS = 16;
+
+    /**
+     * A stdlib function: its id, the names of its parameters in argument
+     * order if it can be called by position, and its implementation, which
+     * runs on the StdLib of the calling session. PacketLoader resolves the
+     * functions a packet uses into {@link Packet#functions} once, so calls
+     * go straight to the implementation.
+     */
+    static final class Function {
+        final int id;
+        final String[] parameters; // null if it only takes a record
+        final ByRecord byRecord;
+        private final ByPosition byPosition;
+
+        Function(int id, String[] parameters, ByRecord byRecord, ByPosition byPosition) {
+            this.id = id;
+            this.parameters = parameters;
+            this.byRecord = byRecord;
+            this.byPosition = byPosition;
+        }
+
+        HVal call(StdLib stdLib, HVal.HRecord args) {
+            return byRecord.call(stdLib, args);
+        }
+
+        HVal call(StdLib stdLib, HVal a, HVal b, HVal c) {
+            if (byPosition == null) {
+                throw new HelunaException(String.format("Stdlib function 0x%04X takes its arguments as a record", id));
+            }
+            return byPosition.call(stdLib, a, b, c);
+        }
+    }
+
+    /** A function taking its arguments by name. */
+    @FunctionalInterface
+    interface ByRecord {
+        HVal call(StdLib stdLib, HVal.HRecord args);
+    }
+
+    /** A function taking its arguments by position; absent ones are nothing. */
+    @FunctionalInterface
+    interface ByPosition {
+        HVal call(StdLib stdLib, HVal a, HVal b, HVal c);
+    }
+
+    // The built-in functions, by id
+    private static final Function[] FUNCTIONS = new Function[0x80];
+
+    static {
+        // String functions
+        byPosition(0x0001, (s, a, b, c) -> s.upper(a), "value");
+        byPosition(0x0002, (s, a, b, c) -> s.lower(a), "value");
+        byPosition(0x0003, (s, a, b, c) -> s.trim(a), "value");
+        byPosition(0x0004, (s, a, b, c) -> s.trimStart(a), "value");
+        byPosition(0x0005, (s, a, b, c) -> s.trimEnd(a), "value");
+        byPosition(0x0006, (s, a, b, c) -> s.substring(a, b, c), "value", "start", "end");
+        byPosition(0x0007, (s, a, b, c) -> s.replace(a, b, c), "value", "find", "replacement");
+        byPosition(0x0008, (s, a, b, c) -> s.split(a, b), "value", "delimiter");
+        byPosition(0x0009, (s, a, b, c) -> s.join(a, b), "list", "delimiter");
+        byPosition(0x000A, (s, a, b, c) -> s.startsWith(a, b), "value", "prefix");
+        byPosition(0x000B, (s, a, b, c) -> s.endsWith(a, b), "value", "suffix");
+        byPosition(0x000C, (s, a, b, c) -> s.contains(a, b, c), "value", "substring", "search");
+        byPosition(0x000D, (s, a, b, c) -> s.length(a, b), "value", "list");
+        byPosition(0x000E, (s, a, b, c) -> s.padLeft(a, b, c), "value", "width", "fill");
+        byPosition(0x000F, (s, a, b, c) -> s.padRight(a, b, c), "value", "width", "fill");
+        byPosition(REGEX_MATCH, (s, a, b, c) -> s.regexMatch(a, b), "value", "pattern");
+        byPosition(REGEX_REPLACE, (s, a, b, c) -> s.regexReplace(a, b, c), "value", "pattern", "replacement");
+
+        // Numeric functions
+        byPosition(0x0020, (s, a, b, c) -> s.abs(a), "value");
+        byPosition(0x0021, (s, a, b, c) -> s.ceil(a), "value");
+        byPosition(0x0022, (s, a, b, c) -> s.floor(a), "value");
+        byPosition(0x0023, (s, a, b, c) -> s.round(a), "value");
+        byPosition(0x0024, (s, a, b, c) -> s.min(a, b), "a", "b");
+        byPosition(0x0025, (s, a, b, c) -> s.max(a, b), "a", "b");
+        // By name, the bounds may also be given as min and max; not by position
+        FUNCTIONS[0x0026] = new Function(0x0026, new String[]{"value", "low", "high"},
+                (s, args) -> s.clamp(args.get("value"), args.get("low"), args.get("high"),
+                        args.get("min"), args.get("max")),
+                (s, a, b, c) -> s.clamp(a, b, c, NOTHING, NOTHING));
+
+        // List functions
+        byRecord(0x0030, StdLib::sort);
+        byRecord(0x0031, StdLib::sortBy);
+        byRecord(0x0032, StdLib::reverse);
+        byRecord(0x0033, StdLib::unique);
+        byRecord(0x0034, StdLib::flatten);
+        byRecord(0x0035, StdLib::zip);
+        byRecord(0x0036, StdLib::range);
+        byRecord(0x0037, StdLib::slice);
+
+        // Record functions
+        byRecord(0x0040, StdLib::keys);
+        byRecord(0x0041, StdLib::values);
+        byRecord(0x0042, StdLib::merge);
+        byRecord(0x0043, StdLib::pick);
+        byRecord(0x0044, StdLib::omit);
+
+        // Date/Time functions
+        byRecord(0x0050, StdLib::parseDate);
+        byRecord(0x0051, StdLib::formatDate);
+        byRecord(0x0052, StdLib::dateDiff);
+        byRecord(0x0053, StdLib::dateAdd);
+        byRecord(0x0054, StdLib::nowDate);
+
+        // Encoding functions
+        byPosition(0x0060, (s, a, b, c) -> s.base64Encode(a), "value");
+        byPosition(0x0061, (s, a, b, c) -> s.base64Decode(a), "value");
+        byPosition(0x0062, (s, a, b, c) -> s.urlEncode(a), "value");
+        byPosition(0x0063, (s, a, b, c) -> s.urlDecode(a), "value");
+        byPosition(0x0064, (s, a, b, c) -> s.jsonEncode(a), "value");
+        byPosition(0x0065, (s, a, b, c) -> s.jsonParse(a), "value");
+
+        // Crypto functions
+        byPosition(0x0070, (s, a, b, c) -> s.sha256(a), "value");
+        byPosition(0x0071, (s, a, b, c) -> s.hmacSha256(a, b), "value", "key");
+        byRecord(0x0072, StdLib::uuidGen);
+
+        // Conversion functions
+        byPosition(0x0074, (s, a, b, c) -> s.toStringFn(a), "value");
+        byPosition(0x0075, (s, a, b, c) -> s.toFloatFn(a), "value");
+        byPosition(0x0076, (s, a, b, c) -> s.toIntegerFn(a), "value");
+
+        // Iteration
+        byRecord(0x0078, StdLib::fold);
+    }
+
+    /** Define a function that takes its arguments by position, or by name as the parameters say. */
+    private static void byPosition(int id, ByPosition fn, String... parameters) {
+        FUNCTIONS[id] = new Function(id, parameters, byName(fn, parameters), fn);
+    }
+
+    /** The function called with its arguments by name: each parameter is read from the record. */
+    private static ByRecord byName(ByPosition fn, String[] parameters) {
+        String first = parameters[0];
+        String second = parameters.length > 1 ? parameters[1] : null;
+        String third = parameters.length > 2 ? parameters[2] : null;
+        return (s, args) -> fn.call(s, args.get(first),
+                second != null ? args.get(second) : NOTHING,
+                third != null ? args.get(third) : NOTHING);
+    }
+
+    /** Define a function that only takes its arguments by name. */
+    private static void byRecord(int id, ByRecord fn) {
+        FUNCTIONS[id] = new Function(id, null, fn, null);
+    }
+
+    /**
+     * The built-in or extension function with the given id. Throws
+     * HelunaException if there is none.
+     */
+    static Function function(int funcId) {
+        Function fn = find(funcId);
+        if (fn == null) {
+            throw new HelunaException(String.format("Unknown stdlib function 0x%04X", funcId));
+        }
+        return fn;
+    }
+
+    /** The function with the given id, or null. */
+    private static Function find(int funcId) {
+        return find(funcId, null);
+    }
+
+    /**
+     * The function with the given id among the built-ins and the given
+     * extensions, or the installed ones if null; null if there is none.
+     * Throws HelunaException for an extension id if the extensions failed
+     * to register.
+     */
+    private static Function find(int funcId, Extensions extensions) {
+        if (funcId >= 0 && funcId < FUNCTIONS.length) return FUNCTIONS[funcId];
+        if (funcId < StdLibExtension.FIRST_ID) return null;
+        return (extensions != null ? extensions : Installed.EXTENSIONS).get(funcId);
+    }
+
+    /** The metrics of every extension function, in the order they were registered. */
+    public static List<StdLibExtension.Metrics> extensionMetrics() {
+        return Collections.unmodifiableList(Installed.EXTENSIONS.metrics);
+    }
+
+    // The extensions on the class path, registered the first time one is looked up
+    private static final class Installed {
+        static final Extensions EXTENSIONS = Extensions.load(ServiceLoader.load(StdLibExtension.class));
+    }
+
+    /** The functions registered by a set of extensions, each counted and timed. */
+    static final class Extensions implements StdLibExtension.Registry {
+        final Map<Integer, Function> functions = new HashMap<>();
+        final List<StdLibExtension.Metrics> metrics = new ArrayList<>();
+        // Why the extensions could not be registered, or null
+        private final Throwable failure;
+
+        /** Register the extensions; throws IllegalArgumentException for a bad registration. */
+        Extensions(Iterable<StdLibExtension> extensions) {
+            for (StdLibExtension extension : extensions) {
+                extension.register(this);
+            }
+            failure = null;
+        }
+
+        private Extensions(Throwable failure) {
+            this.failure = failure;
+        }
+
+        /**
+         * Register the extensions a ServiceLoader finds. If any of them
+         * cannot be loaded or registered, none are, and looking up an
+         * extension id fails with the reason instead.
+         */
+        static Extensions load(ServiceLoader<StdLibExtension> loader) {
+            try {
+                return new Extensions(loader);
+            } catch (RuntimeException | ServiceConfigurationError e) {
+                return new Extensions(e);
+            }
+        }
+
+        /** The function with the given id, or null. Throws HelunaException if registration failed. */
+        Function get(int funcId) {
+            if (failure != null) {
+                throw new HelunaException("Stdlib extensions failed to register: " + failure, failure);
+            }
+            return functions.get(funcId);
+        }
+
+        @Override
+        public void byName(int id, String name, StdLibExtension.ByName function) {
+            StdLibExtension.Metrics m = metrics(id, name);
+            functions.put(id, new Function(id, null, (s, args) -> {
+                long start = System.nanoTime();
+                boolean failed = true;
+                try {
+                    HVal result = function.call(args);
+                    failed = false;
+                    return result != null ? result : NOTHING;
+                } catch (HelunaException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    throw failure(m, e);
+                } finally {
+                    m.record(System.nanoTime() - start, failed);
+                }
+            }, null));
+        }
+
+        @Override
+        public void byPosition(int id, String name, StdLibExtension.ByPosition function, String... parameters) {
+            if (parameters.length < 1 || parameters.length > 3) {
+                throw new IllegalArgumentException(String.format(
+                        "Stdlib function 0x%04X takes 1 to 3 parameters by position, not %d", id, parameters.length));
+            }
+            StdLibExtension.Metrics m = metrics(id, name);
+            ByPosition metered = (s, a, b, c) -> {
+                long start = System.nanoTime();
+                boolean failed = true;
+                try {
+                    HVal result = function.call(a, b, c);
+                    failed = false;
+                    return result != null ? result : NOTHING;
+                } catch (HelunaException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    throw failure(m, e);
+                } finally {
+                    m.record(System.nanoTime() - start, failed);
+                }
+            };
+            String[] names = parameters.clone();
+            functions.put(id, new Function(id, names, StdLib.byName(metered, names), metered));
+        }
+
+        private StdLibExtension.Metrics metrics(int id, String name) {
+            if (id < StdLibExtension.FIRST_ID || id > 0xFFFF) {
+                throw new IllegalArgumentException(String.format(
+                        "Stdlib function id 0x%04X is outside the extension range 0x%04X-0xFFFF",
+                        id, StdLibExtension.FIRST_ID));
+            }
+            if (functions.containsKey(id)) {
+                throw new IllegalArgumentException(String.format("Stdlib function 0x%04X is registered twice", id));
+            }
+            StdLibExtension.Metrics m = new StdLibExtension.Metrics(id, name);
+            metrics.add(m);
+            return m;
+        }
+
+        private static HelunaException failure(StdLibExtension.Metrics m, RuntimeException e) {
+            return new HelunaException(String.format("Stdlib function %s (0x%04X) failed: %s",
+                    m.name(), m.id(), e), e);
+        }
+    }
 
     private MessageDigest getSha256() {
         if (sha256Digest == null) {
@@ -35,122 +345,115 @@ public class StdLib {
         return sha256Digest;
     }
 
+    private HValJsonWriter getJsonWriter() {
+        if (jsonWriter == null) jsonWriter = new HValJsonWriter();
+        return jsonWriter.reset();
+    }
+
+    /** Patterns the packet's code passes as constants, compiled at load time. */
+    void setPatterns(Map<PatternCache.Key, Pattern> patterns) {
+        this.patterns = patterns;
+    }
+
     public void setTimestamp(String timestamp) {
         this.timestamp = timestamp;
     }
 
-    public HVal call(int funcId, HVal.HRecord args) {
-        switch (funcId) {
-            // String functions
-            case 0x0001: return upper(args);
-            case 0x0002: return lower(args);
-            case 0x0003: return trim(args);
-            case 0x0004: return trimStart(args);
-            case 0x0005: return trimEnd(args);
-            case 0x0006: return substring(args);
-            case 0x0007: return replace(args);
-            case 0x0008: return split(args);
-            case 0x0009: return join(args);
-            case 0x000A: return startsWith(args);
-            case 0x000B: return endsWith(args);
-            case 0x000C: return contains(args);
-            case 0x000D: return length(args);
-            case 0x000E: return padLeft(args);
-            case 0x000F: return padRight(args);
-            case 0x0010: return regexMatch(args);
-            case 0x0011: return regexReplace(args);
-
-            // Numeric functions
-            case 0x0020: return abs(args);
-            case 0x0021: return ceil(args);
-            case 0x0022: return floor(args);
-            case 0x0023: return round(args);
-            case 0x0024: return min(args);
-            case 0x0025: return max(args);
-            case 0x0026: return clamp(args);
-
-            // List functions
-            case 0x0030: return sort(args);
-            case 0x0031: return sortBy(args);
-            case 0x0032: return reverse(args);
-            case 0x0033: return unique(args);
-            case 0x0034: return flatten(args);
-            case 0x0035: return zip(args);
-            case 0x0036: return range(args);
-            case 0x0037: return slice(args);
-
-            // Record functions
-            case 0x0040: return keys(args);
-            case 0x0041: return values(args);
-            case 0x0042: return merge(args);
-            case 0x0043: return pick(args);
-            case 0x0044: return omit(args);
-
-            // Date/Time functions
-            case 0x0050: return parseDate(args);
-            case 0x0051: return formatDate(args);
-            case 0x0052: return dateDiff(args);
-            case 0x0053: return dateAdd(args);
-            case 0x0054: return nowDate(args);
-
-            // Encoding functions
-            case 0x0060: return base64Encode(args);
-            case 0x0061: return base64Decode(args);
-            case 0x0062: return urlEncode(args);
-            case 0x0063: return urlDecode(args);
-            case 0x0064: return jsonEncode(args);
-            case 0x0065: return jsonParse(args);
-
-            // Crypto functions
-            case 0x0070: return sha256(args);
-            case 0x0071: return hmacSha256(args);
-            case 0x0072: return uuidGen(args);
-
-            // Conversion functions
-            case 0x0074: return toStringFn(args);
-            case 0x0075: return toFloatFn(args);
-            case 0x0076: return toIntegerFn(args);
-
-            // Iteration
-            case 0x0078: return fold(args);
+    /**
+     * The functions the packet depends on, and any its code calls without
+     * listing them, as a table by id for {@link Packet#functions}. Throws
+     * HelunaException for any id that is not a stdlib function, so a packet
+     * that needs one fails to load rather than when the call is reached.
+     */
+    static Function[] resolve(Packet pkt) {
+        return resolve(pkt, null);
+    }
 
-            default:
-                throw new HelunaException(String.format("Unknown stdlib function 0x%04X", funcId));
+    /** Resolve against the given extensions, or the installed ones if null. */
+    static Function[] resolve(Packet pkt, Extensions extensions) {
+        int max = -1;
+        for (int id : pkt.stdlibDeps) max = Math.max(max, id);
+        for (int[] instr : pkt.instructions) {
+            if (isCall(instr)) max = Math.max(max, instr[3]);
+        }
+        Function[] functions = new Function[max + 1];
+        for (int id : pkt.stdlibDeps) {
+            functions[id] = find(id, extensions);
+            if (functions[id] == null) {
+                throw new HelunaException(String.format("Packet depends on unknown stdlib function 0x%04X", id));
+            }
         }
+        for (int pc = 0; pc < pkt.instructions.length; pc++) {
+            int[] instr = pkt.instructions[pc];
+            if (!isCall(instr) || instr[3] == 0 || functions[instr[3]] != null) continue; // 0 is the passthrough
+            functions[instr[3]] = find(instr[3], extensions);
+            if (functions[instr[3]] == null) {
+                throw new HelunaException(String.format("Unknown stdlib function 0x%04X at pc=%d", instr[3], pc));
+            }
+        }
+        return functions;
+    }
+
+    private static boolean isCall(int[] instr) {
+        return instr[0] == Executor.STDLIB_CALL || instr[0] == Executor.STDLIB_CALL_1;
+    }
+
+    public HVal call(int funcId, HVal.HRecord args) {
+        return function(funcId).call(this, args);
+    }
+
+    /**
+     * Call a function with its arguments by position, in the order of
+     * {@link #parameters}; arguments past the function's parameters, and
+     * parameters the caller has no value for, are nothing. Gives the same
+     * result as {@link #call(int, HVal.HRecord)} with a record of the same
+     * arguments by name, without building or reading the record.
+     */
+    public HVal call(int funcId, HVal a, HVal b, HVal c) {
+        return function(funcId).call(this, a, b, c);
+    }
+
+    /**
+     * The parameter names of a function that can be called by position,
+     * in argument order, or null if it only takes a record.
+     */
+    static String[] parameters(int funcId) {
+        Function fn = find(funcId);
+        return fn != null ? fn.parameters : null;
     }
 
     // ========== String Functions ==========
 
-    private HVal upper(HVal.HRecord args) {
-        return new HVal.HString(getStr(args, "value").toUpperCase());
+    private HVal upper(HVal value) {
+        return new HVal.HString(getStr(value).toUpperCase());
     }
 
-    private HVal lower(HVal.HRecord args) {
-        return new HVal.HString(getStr(args, "value").toLowerCase());
+    private HVal lower(HVal value) {
+        return new HVal.HString(getStr(value).toLowerCase());
     }
 
-    private HVal trim(HVal.HRecord args) {
-        return new HVal.HString(getStr(args, "value").trim());
+    private HVal trim(HVal value) {
+        return new HVal.HString(getStr(value).trim());
     }
 
-    private HVal trimStart(HVal.HRecord args) {
-        String s = getStr(args, "value");
+    private HVal trimStart(HVal value) {
+        String s = getStr(value);
         int i = 0;
         while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
         return new HVal.HString(s.substring(i));
     }
 
-    private HVal trimEnd(HVal.HRecord args) {
-        String s = getStr(args, "value");
+    private HVal trimEnd(HVal value) {
+        String s = getStr(value);
         int i = s.length();
         while (i > 0 && Character.isWhitespace(s.charAt(i - 1))) i--;
         return new HVal.HString(s.substring(0, i));
     }
 
-    private HVal substring(HVal.HRecord args) {
-        String s = getStr(args, "value");
-        int start = (int) getInt(args, "start");
-        int end = (int) getInt(args, "end");
+    private HVal substring(HVal value, HVal startVal, HVal endVal) {
+        String s = getStr(value);
+        int start = (int) getInt(startVal);
+        int end = (int) getInt(endVal);
         int len = s.codePointCount(0, s.length());
         if (start < 0) start = 0;
         if (end > len) end = len;
@@ -160,17 +463,17 @@ public class StdLib {
         return new HVal.HString(s.substring(startOff, endOff));
     }
 
-    private HVal replace(HVal.HRecord args) {
-        String s = getStr(args, "value");
-        String find = getStr(args, "find");
-        String repl = getStr(args, "replacement");
+    private HVal replace(HVal value, HVal findVal, HVal replacement) {
+        String s = getStr(value);
+        String find = getStr(findVal);
+        String repl = getStr(replacement);
         if (find.isEmpty()) return new HVal.HString(s);
         return new HVal.HString(s.replace(find, repl));
     }
 
-    private HVal split(HVal.HRecord args) {
-        String s = getStr(args, "value");
-        String delim = getStr(args, "delimiter");
+    private HVal split(HVal value, HVal delimiter) {
+        String s = getStr(value);
+        String delim = getStr(delimiter);
         HVal.HList result = new HVal.HList();
         if (delim.isEmpty()) {
             for (int i = 0; i < s.length(); ) {
@@ -187,9 +490,9 @@ public class StdLib {
         return result;
     }
 
-    private HVal join(HVal.HRecord args) {
-        HVal.HList list = getList(args, "list");
-        String delim = getStr(args, "delimiter");
+    private HVal join(HVal listVal, HVal delimiter) {
+        HVal.HList list = getList(listVal);
+        String delim = getStr(delimiter);
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < list.size(); i++) {
             if (i > 0) sb.append(delim);
@@ -198,126 +501,141 @@ public class StdLib {
         return new HVal.HString(sb.toString());
     }
 
-    private HVal startsWith(HVal.HRecord args) {
-        return HVal.HBoolean.of(getStr(args, "value").startsWith(getStr(args, "prefix")));
+    private HVal startsWith(HVal value, HVal prefix) {
+        return HVal.HBoolean.of(getStr(value).startsWith(getStr(prefix)));
     }
 
-    private HVal endsWith(HVal.HRecord args) {
-        return HVal.HBoolean.of(getStr(args, "value").endsWith(getStr(args, "suffix")));
+    private HVal endsWith(HVal value, HVal suffix) {
+        return HVal.HBoolean.of(getStr(value).endsWith(getStr(suffix)));
     }
 
-    private HVal contains(HVal.HRecord args) {
-        String s = getStr(args, "value");
+    private HVal contains(HVal value, HVal substring, HVal search) {
+        String s = getStr(value);
         // The spec uses "search" for the contains function parameter name
-        HVal sub = args.get("substring");
-        if (sub.isNothing()) sub = args.get("search");
+        HVal sub = substring.isNothing() ? search : substring;
         if (sub.typeCode() == HVal.TYPE_STRING) {
             return HVal.HBoolean.of(s.contains(((HVal.HString) sub).value()));
         }
         throw new HelunaException("contains: missing substring/search argument");
     }
 
-    private HVal length(HVal.HRecord args) {
-        HVal listVal = args.get("list");
+    private HVal length(HVal value, HVal listVal) {
         if (listVal.typeCode() == HVal.TYPE_LIST) {
             return HVal.HInteger.of(((HVal.HList) listVal).size());
         }
-        String s = getStr(args, "value");
+        String s = getStr(value);
         return HVal.HInteger.of(s.codePointCount(0, s.length()));
     }
 
-    private HVal padLeft(HVal.HRecord args) {
-        String s = getStr(args, "value");
-        int width = (int) getInt(args, "width");
-        String fill = getStr(args, "fill");
+    private HVal padLeft(HVal value, HVal widthVal, HVal fillVal) {
+        String original = getStr(value);
+        String s = original;
+        int width = (int) getInt(widthVal);
+        String fill = getStr(fillVal);
         if (fill.isEmpty()) fill = " ";
         while (s.length() < width) {
             s = fill + s;
         }
-        if (s.length() > width && s.length() > getStr(args, "value").length()) {
-            s = s.substring(s.length() - Math.max(width, getStr(args, "value").length()));
+        if (s.length() > width && s.length() > original.length()) {
+            s = s.substring(s.length() - Math.max(width, original.length()));
         }
         return new HVal.HString(s);
     }
 
-    private HVal padRight(HVal.HRecord args) {
-        String s = getStr(args, "value");
-        int width = (int) getInt(args, "width");
-        String fill = getStr(args, "fill");
+    private HVal padRight(HVal value, HVal widthVal, HVal fillVal) {
+        String original = getStr(value);
+        String s = original;
+        int width = (int) getInt(widthVal);
+        String fill = getStr(fillVal);
         if (fill.isEmpty()) fill = " ";
         while (s.length() < width) {
             s = s + fill;
         }
-        if (s.length() > width && s.length() > getStr(args, "value").length()) {
-            s = s.substring(0, Math.max(width, getStr(args, "value").length()));
+        if (s.length() > width && s.length() > original.length()) {
+            s = s.substring(0, Math.max(width, original.length()));
         }
         return new HVal.HString(s);
     }
 
-    private HVal regexMatch(HVal.HRecord args) {
-        String s = getStr(args, "value");
-        String pattern = getStr(args, "pattern");
+    private HVal regexMatch(HVal value, HVal patternVal) {
+        String s = getStr(value);
+        String pattern = getStr(patternVal);
         try {
-            return HVal.HBoolean.of(s.matches("(?s)" + pattern));
+            return HVal.HBoolean.of(pattern(pattern, MATCH_FLAGS).matcher(s).matches());
         } catch (Exception e) {
             throw new HelunaException("Invalid regex: " + pattern);
         }
     }
 
-    private HVal regexReplace(HVal.HRecord args) {
-        String s = getStr(args, "value");
-        String pattern = getStr(args, "pattern");
-        String replacement = getStr(args, "replacement");
+    private HVal regexReplace(HVal value, HVal patternVal, HVal replacementVal) {
+        String s = getStr(value);
+        String pattern = getStr(patternVal);
+        String replacement = getStr(replacementVal);
         try {
-            return new HVal.HString(s.replaceAll(pattern, Matcher.quoteReplacement(replacement)));
+            return new HVal.HString(pattern(pattern, REPLACE_FLAGS).matcher(s)
+                    .replaceAll(Matcher.quoteReplacement(replacement)));
         } catch (Exception e) {
             throw new HelunaException("Invalid regex: " + pattern);
         }
     }
 
+    /**
+     * The compiled pattern: the packet's precompiled constant, else one this
+     * StdLib used recently, else the shared cache.
+     */
+    Pattern pattern(String regex, int flags) {
+        if (!patterns.isEmpty()) {
+            Pattern p = patterns.get(new PatternCache.Key(regex, flags));
+            if (p != null) return p;
+        }
+        int i = (regex.hashCode() * 31 + flags) & (RECENT_PATTERNS - 1);
+        Pattern p = recentPatterns[i];
+        if (p == null || p.flags() != flags || !p.pattern().equals(regex)) {
+            p = PatternCache.shared().get(regex, flags);
+            recentPatterns[i] = p;
+        }
+        return p;
+    }
+
     // ========== Numeric Functions ==========
 
-    private HVal abs(HVal.HRecord args) {
-        HVal v = args.get("value");
+    private HVal abs(HVal v) {
         if (v.typeCode() == HVal.TYPE_INTEGER) return HVal.HInteger.of(Math.abs(((HVal.HInteger) v).value()));
         if (v.typeCode() == HVal.TYPE_FLOAT) return new HVal.HFloat(Math.abs(((HVal.HFloat) v).value()));
         throw new HelunaException("abs: expected number");
     }
 
-    private HVal ceil(HVal.HRecord args) {
-        return HVal.HInteger.of((long) Math.ceil(getNum(args, "value")));
+    private HVal ceil(HVal value) {
+        return HVal.HInteger.of((long) Math.ceil(toDouble(value)));
     }
 
-    private HVal floor(HVal.HRecord args) {
-        return HVal.HInteger.of((long) Math.floor(getNum(args, "value")));
+    private HVal floor(HVal value) {
+        return HVal.HInteger.of((long) Math.floor(toDouble(value)));
     }
 
-    private HVal round(HVal.HRecord args) {
-        double v = getNum(args, "value");
+    private HVal round(HVal value) {
+        double v = toDouble(value);
         return HVal.HInteger.of((long) Math.floor(v + 0.5));
     }
 
-    private HVal min(HVal.HRecord args) {
-        HVal a = args.get("a"), b = args.get("b");
+    private HVal min(HVal a, HVal b) {
         double da = toDouble(a), db = toDouble(b);
         if (da <= db) return a;
         return b;
     }
 
-    private HVal max(HVal.HRecord args) {
-        HVal a = args.get("a"), b = args.get("b");
+    private HVal max(HVal a, HVal b) {
         double da = toDouble(a), db = toDouble(b);
         if (da >= db) return a;
         return b;
     }
 
-    private HVal clamp(HVal.HRecord args) {
-        HVal v = args.get("value");
+    private HVal clamp(HVal v, HVal low, HVal high, HVal min, HVal max) {
         double dv = toDouble(v);
-        double lo = getNum(args, "low");
-        if (lo == 0 && args.get("low").isNothing()) lo = getNum(args, "min");
-        double hi = getNum(args, "high");
-        if (hi == 0 && args.get("high").isNothing()) hi = getNum(args, "max");
+        double lo = toDouble(low);
+        if (lo == 0 && low.isNothing()) lo = toDouble(min);
+        double hi = toDouble(high);
+        if (hi == 0 && high.isNothing()) hi = toDouble(max);
         if (dv < lo) return numFromDouble(lo, v);
         if (dv > hi) return numFromDouble(hi, v);
         return v;
@@ -438,8 +756,8 @@ public class StdLib {
     private HVal keys(HVal.HRecord args) {
         HVal.HRecord rec = getRecord(args, "record");
         HVal.HList result = new HVal.HList();
-        for (String key : rec.fields().keySet()) {
-            result.add(new HVal.HString(key));
+        for (int i = 0; i < rec.size(); i++) {
+            result.add(new HVal.HString(rec.keyAt(i)));
         }
         return result;
     }
@@ -447,8 +765,8 @@ public class StdLib {
     private HVal values(HVal.HRecord args) {
         HVal.HRecord rec = getRecord(args, "record");
         HVal.HList result = new HVal.HList();
-        for (HVal val : rec.fields().values()) {
-            result.add(val);
+        for (int i = 0; i < rec.size(); i++) {
+            result.add(rec.valueAt(i));
         }
         return result;
     }
@@ -456,16 +774,16 @@ public class StdLib {
     private HVal merge(HVal.HRecord args) {
         HVal.HRecord a = getRecord(args, "a");
         HVal.HRecord b = getRecord(args, "b");
-        HVal.HRecord result = new HVal.HRecord();
-        for (var e : a.fields().entrySet()) result.set(e.getKey(), e.getValue());
-        for (var e : b.fields().entrySet()) result.set(e.getKey(), e.getValue());
+        HVal.HRecord result = HVal.HRecord.forData();
+        for (int i = 0; i < a.size(); i++) result.set(a.keyAt(i), a.valueAt(i));
+        for (int i = 0; i < b.size(); i++) result.set(b.keyAt(i), b.valueAt(i));
         return result;
     }
 
     private HVal pick(HVal.HRecord args) {
         HVal.HRecord rec = getRecord(args, "record");
         HVal.HList fields = getList(args, "fields");
-        HVal.HRecord result = new HVal.HRecord();
+        HVal.HRecord result = HVal.HRecord.forData();
         for (HVal f : fields.elements()) {
             String name = ((HVal.HString) f).value();
             if (rec.has(name)) result.set(name, rec.get(name));
@@ -478,9 +796,9 @@ public class StdLib {
         HVal.HList fields = getList(args, "fields");
         LinkedHashSet<String> omitSet = new LinkedHashSet<>();
         for (HVal f : fields.elements()) omitSet.add(((HVal.HString) f).value());
-        HVal.HRecord result = new HVal.HRecord();
-        for (var e : rec.fields().entrySet()) {
-            if (!omitSet.contains(e.getKey())) result.set(e.getKey(), e.getValue());
+        HVal.HRecord result = HVal.HRecord.forData();
+        for (int i = 0; i < rec.size(); i++) {
+            if (!omitSet.contains(rec.keyAt(i))) result.set(rec.keyAt(i), rec.valueAt(i));
         }
         return result;
     }
@@ -490,15 +808,24 @@ public class StdLib {
     private HVal parseDate(HVal.HRecord args) {
         String value = getStr(args, "value");
         String format = getStr(args, "format");
-        DateTimeFormatter fmt = convertFormat(format);
-        LocalDateTime dt = LocalDateTime.parse(value, fmt);
+        DateFormats.Format fmt = DateFormats.format(format);
+        int[] f = dateFields;
+        if (!fmt.parse(value, f)) {
+            LocalDateTime dt = LocalDateTime.parse(value, fmt.formatter);
+            f[DateFormats.YEAR] = dt.getYear();
+            f[DateFormats.MONTH] = dt.getMonthValue();
+            f[DateFormats.DAY] = dt.getDayOfMonth();
+            f[DateFormats.HOUR] = dt.getHour();
+            f[DateFormats.MINUTE] = dt.getMinute();
+            f[DateFormats.SECOND] = dt.getSecond();
+        }
         HVal.HRecord result = new HVal.HRecord();
-        result.set("year", HVal.HInteger.of(dt.getYear()));
-        result.set("month", HVal.HInteger.of(dt.getMonthValue()));
-        result.set("day", HVal.HInteger.of(dt.getDayOfMonth()));
-        result.set("hour", HVal.HInteger.of(dt.getHour()));
-        result.set("minute", HVal.HInteger.of(dt.getMinute()));
-        result.set("second", HVal.HInteger.of(dt.getSecond()));
+        result.set("year", HVal.HInteger.of(f[DateFormats.YEAR]));
+        result.set("month", HVal.HInteger.of(f[DateFormats.MONTH]));
+        result.set("day", HVal.HInteger.of(f[DateFormats.DAY]));
+        result.set("hour", HVal.HInteger.of(f[DateFormats.HOUR]));
+        result.set("minute", HVal.HInteger.of(f[DateFormats.MINUTE]));
+        result.set("second", HVal.HInteger.of(f[DateFormats.SECOND]));
         return result;
     }
 
@@ -511,8 +838,14 @@ public class StdLib {
         int hour = (int) getIntFromRecord(date, "hour");
         int minute = (int) getIntFromRecord(date, "minute");
         int second = (int) getIntFromRecord(date, "second");
+        if (year >= 1 && DateFormats.inRange(year, month, day, hour, minute, second)) {
+            DateFormats.Format fmt = DateFormats.format(format);
+            if (fmt.simple()) return new HVal.HString(fmt.format(year, month, day, hour, minute, second));
+            return new HVal.HString(LocalDateTime.of(year, month, day, hour, minute, second).format(fmt.formatter));
+        }
+        // Invalid fields fail here, before the format is read
         LocalDateTime dt = LocalDateTime.of(year, month, day, hour, minute, second);
-        return new HVal.HString(dt.format(convertFormat(format)));
+        return new HVal.HString(dt.format(DateFormats.format(format).formatter));
     }
 
     private HVal dateDiff(HVal.HRecord args) {
@@ -521,6 +854,18 @@ public class StdLib {
         String to = getStr(args, "to");
         if (to.isEmpty()) to = getStr(args, "b");
         String unit = getStr(args, "unit");
+        long secondsFrom = DateFormats.isoEpochSecond(from, dateFields);
+        long secondsTo = DateFormats.isoEpochSecond(to, dateFields);
+        if (secondsFrom != DateFormats.NONE && secondsTo != DateFormats.NONE) {
+            long seconds = secondsTo - secondsFrom;
+            switch (unit) {
+                case "seconds": return HVal.HInteger.of(seconds);
+                case "minutes": return HVal.HInteger.of(seconds / 60);
+                case "hours":   return HVal.HInteger.of(seconds / 3600);
+                case "days":    return HVal.HInteger.of(seconds / 86400);
+                default: throw new HelunaException("dateDiff: unknown unit " + unit);
+            }
+        }
         LocalDateTime dtFrom = parseISO(from);
         LocalDateTime dtTo = parseISO(to);
         long diff;
@@ -538,6 +883,9 @@ public class StdLib {
         String date = getStr(args, "date");
         long amount = getInt(args, "amount");
         String unit = getStr(args, "unit");
+        if (DateFormats.parseIso(date, dateFields) && DateFormats.add(dateFields, amount, unit)) {
+            return new HVal.HString(DateFormats.formatIso(dateFields, !date.contains("T")));
+        }
         LocalDateTime dt = parseISO(date);
         switch (unit) {
             case "seconds": dt = dt.plusSeconds(amount); break;
@@ -561,49 +909,49 @@ public class StdLib {
 
     // ========== Encoding Functions ==========
 
-    private HVal base64Encode(HVal.HRecord args) {
-        String s = getStr(args, "value");
+    private HVal base64Encode(HVal value) {
+        String s = getStr(value);
         return new HVal.HString(Base64.getEncoder().encodeToString(s.getBytes(StandardCharsets.UTF_8)));
     }
 
-    private HVal base64Decode(HVal.HRecord args) {
-        String s = getStr(args, "value");
+    private HVal base64Decode(HVal value) {
+        String s = getStr(value);
         return new HVal.HString(new String(Base64.getDecoder().decode(s), StandardCharsets.UTF_8));
     }
 
-    private HVal urlEncode(HVal.HRecord args) {
-        String s = getStr(args, "value");
+    private HVal urlEncode(HVal value) {
+        String s = getStr(value);
         return new HVal.HString(URLEncoder.encode(s, StandardCharsets.UTF_8).replace("+", "%20"));
     }
 
-    private HVal urlDecode(HVal.HRecord args) {
-        String s = getStr(args, "value");
+    private HVal urlDecode(HVal value) {
+        String s = getStr(value);
         return new HVal.HString(URLDecoder.decode(s, StandardCharsets.UTF_8));
     }
 
-    private HVal jsonEncode(HVal.HRecord args) {
-        HVal v = args.get("value");
-        return new HVal.HString(toJson(v));
+    private HVal jsonEncode(HVal v) {
+        return new HVal.HString(getJsonWriter().write(v).toString());
     }
 
-    private HVal jsonParse(HVal.HRecord args) {
-        String s = getStr(args, "value");
-        return parseJsonValue(s.trim(), new int[]{0});
+    private HVal jsonParse(HVal value) {
+        String s = getStr(value).trim();
+        if (s.isEmpty()) return HVal.HNothing.INSTANCE;
+        return new JsonReader(s.getBytes(StandardCharsets.UTF_8)).readValue();
     }
 
     // ========== Crypto Functions ==========
 
-    private HVal sha256(HVal.HRecord args) {
-        String s = getStr(args, "value");
+    private HVal sha256(HVal value) {
+        String s = getStr(value);
         MessageDigest md = getSha256();
         md.reset();
         byte[] hash = md.digest(s.getBytes(StandardCharsets.UTF_8));
         return new HVal.HString(bytesToHex(hash));
     }
 
-    private HVal hmacSha256(HVal.HRecord args) {
-        String value = getStr(args, "value");
-        String key = getStr(args, "key");
+    private HVal hmacSha256(HVal valueVal, HVal keyVal) {
+        String value = getStr(valueVal);
+        String key = getStr(keyVal);
         try {
             Mac mac = Mac.getInstance("HmacSHA256");
             mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
@@ -620,12 +968,11 @@ public class StdLib {
 
     // ========== Conversion Functions ==========
 
-    private HVal toStringFn(HVal.HRecord args) {
-        return new HVal.HString(Executor.valToString(args.get("value")));
+    private HVal toStringFn(HVal v) {
+        return new HVal.HString(Executor.valToString(v));
     }
 
-    private HVal toFloatFn(HVal.HRecord args) {
-        HVal v = args.get("value");
+    private HVal toFloatFn(HVal v) {
         switch (v.typeCode()) {
             case HVal.TYPE_FLOAT:   return v;
             case HVal.TYPE_INTEGER: return new HVal.HFloat((double) ((HVal.HInteger) v).value());
@@ -634,8 +981,7 @@ public class StdLib {
         }
     }
 
-    private HVal toIntegerFn(HVal.HRecord args) {
-        HVal v = args.get("value");
+    private HVal toIntegerFn(HVal v) {
         switch (v.typeCode()) {
             case HVal.TYPE_INTEGER: return v;
             case HVal.TYPE_FLOAT:   return HVal.HInteger.of((long) ((HVal.HFloat) v).value());
@@ -674,14 +1020,20 @@ public class StdLib {
     // ========== Helpers ==========
 
     private String getStr(HVal.HRecord rec, String field) {
-        HVal v = rec.get(field);
+        return getStr(rec.get(field));
+    }
+
+    private String getStr(HVal v) {
         if (v.typeCode() == HVal.TYPE_STRING) return ((HVal.HString) v).value();
         if (v.isNothing()) return "";
         return Executor.valToString(v);
     }
 
     private long getInt(HVal.HRecord rec, String field) {
-        HVal v = rec.get(field);
+        return getInt(rec.get(field));
+    }
+
+    private long getInt(HVal v) {
         byte tc = v.typeCode();
         if (tc == HVal.TYPE_INTEGER) return ((HVal.HInteger) v).value();
         if (tc == HVal.TYPE_FLOAT) return (long) ((HVal.HFloat) v).value();
@@ -700,7 +1052,10 @@ public class StdLib {
     }
 
     private HVal.HList getList(HVal.HRecord rec, String field) {
-        HVal v = rec.get(field);
+        return getList(rec.get(field));
+    }
+
+    private HVal.HList getList(HVal v) {
         if (v.typeCode() == HVal.TYPE_LIST) return (HVal.HList) v;
         return new HVal.HList();
     }
@@ -751,21 +1106,17 @@ public class StdLib {
         return LocalDateTime.parse(s + "T00:00:00", DateTimeFormatter.ISO_LOCAL_DATE_TIME);
     }
 
-    private DateTimeFormatter convertFormat(String format) {
-        // Convert strftime-style format to Java DateTimeFormatter
-        String java = format
-                .replace("%Y", "yyyy")
-                .replace("%m", "MM")
-                .replace("%d", "dd")
-                .replace("%H", "HH")
-                .replace("%M", "mm")
-                .replace("%S", "ss");
-        return DateTimeFormatter.ofPattern(java);
-    }
-
     // ========== JSON serialization/parsing ==========
 
     static String toJson(HVal v) {
+        return HValJsonWriter.toJson(v);
+    }
+
+    /**
+     * String-concatenating serializer that HValJsonWriter replaced. Kept as
+     * the baseline for BenchmarkRunner --serialize.
+     */
+    static String toJsonConcat(HVal v) {
         switch (v.typeCode()) {
             case HVal.TYPE_STRING:
                 return "\"" + escapeJson(((HVal.HString) v).value()) + "\"";
@@ -787,7 +1138,7 @@ public class StdLib {
                 HVal.HList list = (HVal.HList) v;
                 for (int i = 0; i < list.size(); i++) {
                     if (i > 0) sb.append(",");
-                    sb.append(toJson(list.elements().get(i)));
+                    sb.append(toJsonConcat(list.elements().get(i)));
                 }
                 sb.append("]");
                 return sb.toString();
@@ -795,12 +1146,10 @@ public class StdLib {
             case HVal.TYPE_RECORD: {
                 StringBuilder sb = new StringBuilder("{");
                 HVal.HRecord rec = (HVal.HRecord) v;
-                boolean first = true;
-                for (var e : rec.fields().entrySet()) {
-                    if (!first) sb.append(",");
-                    first = false;
-                    sb.append("\"").append(escapeJson(e.getKey())).append("\":");
-                    sb.append(toJson(e.getValue()));
+                for (int i = 0; i < rec.size(); i++) {
+                    if (i > 0) sb.append(",");
+                    sb.append("\"").append(escapeJson(rec.keyAt(i))).append("\":");
+                    sb.append(toJsonConcat(rec.valueAt(i)));
                 }
                 sb.append("}");
                 return sb.toString();
@@ -895,7 +1244,7 @@ public class StdLib {
 
     private static HVal parseJsonObject(String s, int[] pos) {
         pos[0]++; // skip {
-        HVal.HRecord rec = new HVal.HRecord();
+        HVal.HRecord rec = HVal.HRecord.forData();
         skipWhitespace(s, pos);
         if (s.charAt(pos[0]) == '}') { pos[0]++; return rec; }
         while (true) {
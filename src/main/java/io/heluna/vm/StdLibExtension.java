@@ -0,0 +1,98 @@
+package io.heluna.vm;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Native stdlib functions from outside the VM, for work that costs several
+ * times as much written as bytecode loops: tokenizers, lookups, checksum
+ * validators. Implementations are found with {@link java.util.ServiceLoader},
+ * so an extension on the class path is listed in
+ * META-INF/services/io.heluna.vm.StdLibExtension.
+ *
+ * Extensions register their functions by id when the first packet is
+ * loaded. Ids below {@link #FIRST_ID} belong to the built-in functions and
+ * each id may be registered once; anything else fails the registration.
+ * If any extension cannot be loaded or registered, none are, and a packet
+ * that depends on an extension id fails to load with the reason.
+ * A packet lists the ids it uses in its stdlib dependencies and calls them
+ * with STDLIB_CALL like a built-in: the loader resolves them into the
+ * packet's function table, the result takes the argument record's tags as
+ * the call's tag mode says, and a function registered with parameter names
+ * is also called by position. Every call is counted and timed
+ * ({@link StdLib#extensionMetrics()}); a RuntimeException other than
+ * HelunaException is rethrown as a HelunaException naming the function.
+ *
+ * Functions run on the thread of the calling session, and sessions run
+ * concurrently, so they must be thread-safe.
+ */
+@FunctionalInterface
+public interface StdLibExtension {
+
+    /** The lowest id an extension may register. */
+    int FIRST_ID = 0x0100;
+
+    /** Register this extension's functions. */
+    void register(Registry registry);
+
+    /** Where an extension registers its functions. */
+    interface Registry {
+        /** Register a function that takes its arguments as a record. */
+        void byName(int id, String name, ByName function);
+
+        /**
+         * Register a function that takes up to three arguments by position,
+         * in the order of the parameter names; called with a record, it gets
+         * them by those names.
+         */
+        void byPosition(int id, String name, ByPosition function, String... parameters);
+    }
+
+    /** A function called with its arguments as a record. */
+    @FunctionalInterface
+    interface ByName {
+        HVal call(HVal.HRecord args);
+    }
+
+    /** A function called with its arguments by position; absent ones are nothing. */
+    @FunctionalInterface
+    interface ByPosition {
+        HVal call(HVal a, HVal b, HVal c);
+    }
+
+    /** Calls, failures and time spent in one extension function, since startup. Thread-safe. */
+    final class Metrics {
+        private final int id;
+        private final String name;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        Metrics(int id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public int id() { return id; }
+
+        public String name() { return name; }
+
+        public long calls() { return calls.sum(); }
+
+        public long failures() { return failures.sum(); }
+
+        public long nanos() { return nanos.sum(); }
+
+        void record(long elapsed, boolean failed) {
+            calls.increment();
+            nanos.add(elapsed);
+            if (failed) failures.increment();
+        }
+
+        @Override
+        public String toString() {
+            long n = calls();
+            return String.format("%s (0x%04X): %d calls, %d failures, %.2f us per call",
+                    name, id, n, failures(), n == 0 ? 0.0 : nanos() / 1000.0 / n);
+        }
+    }
+}
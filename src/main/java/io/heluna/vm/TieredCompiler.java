@@ -0,0 +1,92 @@
+package io.heluna.vm;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Promotes hot packets from the interpreter to compiled bytecode.
+ *
+ * Every packet starts interpreted. Once its {@link PacketProfile} reaches
+ * either threshold (interpreted executions, or loop back edges for packets
+ * that iterate over large lists), the packet is compiled by
+ * {@link PacketCompiler} on a single background daemon thread and the result
+ * is attached to the packet; executions already in flight finish
+ * interpreted and every later one runs the compiled code.
+ *
+ * Thresholds default to 1000 executions and 100000 back edges and can be
+ * set with the system properties heluna.tier.executions and
+ * heluna.tier.backedges, or at runtime with {@link #setThresholds}. A
+ * threshold of 0 disables that trigger.
+ */
+public final class TieredCompiler {
+
+    private static volatile long executionThreshold = Long.getLong("heluna.tier.executions", 1000);
+    private static volatile long backedgeThreshold = Long.getLong("heluna.tier.backedges", 100_000);
+
+    private TieredCompiler() {}
+
+    private static final class Worker {
+        static final ExecutorService THREAD = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "heluna-compiler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static void setThresholds(long executions, long backedges) {
+        executionThreshold = executions;
+        backedgeThreshold = backedges;
+    }
+
+    public static long executionThreshold() {
+        return executionThreshold;
+    }
+
+    public static long backedgeThreshold() {
+        return backedgeThreshold;
+    }
+
+    /** False when both thresholds are 0 and packets are never promoted. */
+    static boolean enabled() {
+        return executionThreshold > 0 || backedgeThreshold > 0;
+    }
+
+    static boolean isHot(long executions, long backedges) {
+        long e = executionThreshold, b = backedgeThreshold;
+        return (e > 0 && executions >= e) || (b > 0 && backedges >= b);
+    }
+
+    /**
+     * Queue a packet whose profile has been marked COMPILING.
+     */
+    static void submit(Packet pkt) {
+        Worker.THREAD.execute(() -> {
+            try {
+                PacketCompiler.attach(pkt);
+            } catch (RuntimeException | LinkageError e) {
+                // Leave the packet interpreted rather than retrying on every run,
+                // including when the generated class fails to verify or link
+                pkt.profile.notCompilable(-1);
+            }
+        });
+    }
+
+    /**
+     * Wait until every queued compilation has finished. Intended for tests
+     * and benchmarks that want to measure the compiled tier. Returns false
+     * if the timeout elapsed first.
+     */
+    public static boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            Worker.THREAD.submit(() -> {}).get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
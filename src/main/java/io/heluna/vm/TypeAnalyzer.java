@@ -0,0 +1,342 @@
+package io.heluna.vm;
+
+import java.util.Arrays;
+
+/**
+ * Load-time type inference over a packet's bytecode.
+ *
+ * Propagates the set of types each slot may hold along the
+ * {@link ControlFlow} graph until nothing changes, then rewrites
+ * instructions whose operand types are proven into the type-specialized
+ * opcodes of {@link Executor}: integer and float ADD, SUB and MUL, and
+ * record accesses that skip the record and key checks. Everything else
+ * keeps its generic opcode.
+ *
+ * Input fields start out as the type the contract declares (maybe-typed
+ * fields as any type), other slots as any type. The binder reads JSON as-is,
+ * so the declarations are only an assumption: the rewritten code is kept
+ * next to the generic code as {@link Packet#typedCode}, guarded by the
+ * declared input types, and the interpreter runs it only when every input
+ * slot holds its declared type (see {@link Packet#interpretedCode}).
+ * {@link Packet#instructions} and the tiers built from it stay generic.
+ */
+final class TypeAnalyzer {
+
+    // Type sets: one bit per HVal type code
+    private static final int INT = 1 << HVal.TYPE_INTEGER;
+    private static final int FLOAT = 1 << HVal.TYPE_FLOAT;
+    private static final int STRING = 1 << HVal.TYPE_STRING;
+    private static final int BOOL = 1 << HVal.TYPE_BOOLEAN;
+    private static final int NOTHING = 1 << HVal.TYPE_NOTHING;
+    private static final int LIST = 1 << HVal.TYPE_LIST;
+    private static final int RECORD = 1 << HVal.TYPE_RECORD;
+    private static final int NUMBER = INT | FLOAT;
+    private static final int ANY = INT | FLOAT | STRING | BOOL | NOTHING | LIST | RECORD;
+
+    // Packets with more instructions times slots than this are left generic
+    private static final long MAX_CELLS = 1L << 22;
+
+    private TypeAnalyzer() {}
+
+    /**
+     * Build the packet's typed code from its instructions. Returns the number
+     * of instructions rewritten; with none, the packet has no typed code.
+     */
+    static int specialize(Packet pkt) {
+        Packet.FlatCode generic = pkt.flatCode();
+        int[] code = generic.code;
+        int[] guardSlots = new int[pkt.inputFields.size()];
+        byte[] guardTypes = new byte[guardSlots.length];
+        int guards = 0;
+        for (Packet.FieldDef field : pkt.inputFields) {
+            if (declared(field.typeId) != ANY && field.scratchpadOffset < pkt.scratchpadSize) {
+                guardSlots[guards] = field.scratchpadOffset;
+                guardTypes[guards++] = field.typeId;
+            }
+        }
+        int[][] in = analyze(pkt, code);
+        pkt.typedCode = null;
+        if (in == null) return 0;
+        int[] rewritten = code.clone();
+        int count = 0;
+        for (int pc = 0; pc < in.length; pc++) {
+            int[] types = in[pc];
+            if (types == null) continue; // unreachable
+            int base = pc * Packet.INSTRUCTION_WIDTH;
+            int opcode = code[base], dest = code[base + 2], op1 = code[base + 3], op2 = code[base + 4];
+            int special = specialized(opcode, typeOf(types, dest), typeOf(types, op1), typeOf(types, op2));
+            if (special != opcode) {
+                rewritten[base] = special;
+                count++;
+            }
+        }
+        if (count > 0) {
+            pkt.typedCode = new Packet.FlatCode(generic.source, rewritten,
+                    Arrays.copyOf(guardSlots, guards), Arrays.copyOf(guardTypes, guards));
+        }
+        return count;
+    }
+
+    // The type set a contract type declares
+    private static int declared(byte typeId) {
+        switch (typeId) {
+            case HVal.TYPE_STRING: return STRING;
+            case HVal.TYPE_INTEGER: return INT;
+            case HVal.TYPE_FLOAT: return FLOAT;
+            case HVal.TYPE_BOOLEAN: return BOOL;
+            case HVal.TYPE_NOTHING: return NOTHING;
+            case HVal.TYPE_LIST: return LIST;
+            case HVal.TYPE_RECORD: return RECORD;
+            default: return ANY;
+        }
+    }
+
+    /**
+     * The generic opcode a specialized one was rewritten from; other opcodes
+     * map to themselves.
+     */
+    static int generic(int opcode) {
+        switch (opcode) {
+            case Executor.ADD_II: case Executor.ADD_FF: return Executor.ADD;
+            case Executor.SUB_II: case Executor.SUB_FF: return Executor.SUB;
+            case Executor.MUL_II: case Executor.MUL_FF: return Executor.MUL;
+            case Executor.RECORD_GET_C_UNCHECKED: return Executor.RECORD_GET_C;
+            case Executor.RECORD_SET_C_UNCHECKED: return Executor.RECORD_SET_C;
+            case Executor.RECORD_GET_UNCHECKED: return Executor.RECORD_GET;
+            case Executor.RECORD_SET_UNCHECKED: return Executor.RECORD_SET;
+            default: return opcode;
+        }
+    }
+
+    private static int specialized(int opcode, int dest, int op1, int op2) {
+        boolean ints = op1 == INT && op2 == INT;
+        boolean floats = op1 == FLOAT && op2 == FLOAT;
+        switch (opcode) {
+            case Executor.ADD: return ints ? Executor.ADD_II : floats ? Executor.ADD_FF : opcode;
+            case Executor.SUB: return ints ? Executor.SUB_II : floats ? Executor.SUB_FF : opcode;
+            case Executor.MUL: return ints ? Executor.MUL_II : floats ? Executor.MUL_FF : opcode;
+            case Executor.RECORD_GET_C: return op1 == RECORD ? Executor.RECORD_GET_C_UNCHECKED : opcode;
+            case Executor.RECORD_SET_C: return dest == RECORD ? Executor.RECORD_SET_C_UNCHECKED : opcode;
+            case Executor.RECORD_GET:
+                return op1 == RECORD && op2 == STRING ? Executor.RECORD_GET_UNCHECKED : opcode;
+            case Executor.RECORD_SET:
+                return dest == RECORD && op1 == STRING ? Executor.RECORD_SET_UNCHECKED : opcode;
+            default: return opcode;
+        }
+    }
+
+    /**
+     * The slot types on entry to each instruction, null for unreachable
+     * ones; or null if the packet is too large or has no control-flow graph.
+     */
+    private static int[][] analyze(Packet pkt, int[] code) {
+        int count = code.length / Packet.INSTRUCTION_WIDTH;
+        int slots = pkt.scratchpadSize;
+        if (count == 0 || (long) count * slots > MAX_CELLS) return null;
+
+        ControlFlow cfg = ControlFlow.of(code);
+        if (cfg == null) return null;
+
+        HVal[] constants = pkt.constantTables().values;
+        int[] fieldSlots = new int[pkt.inputFields.size()];
+        int[][] in = new int[count][];
+        in[0] = new int[slots];
+        Arrays.fill(in[0], ANY);
+        for (int i = 0; i < fieldSlots.length; i++) {
+            Packet.FieldDef field = pkt.inputFields.get(i);
+            fieldSlots[i] = field.scratchpadOffset;
+            set(in[0], field.scratchpadOffset, declared(field.typeId));
+        }
+        int[] worklist = new int[count];
+        boolean[] queued = new boolean[count];
+        int pending = 0;
+        worklist[pending++] = 0;
+        queued[0] = true;
+        int[] out = new int[slots];
+        int[] successors = new int[2];
+        while (pending > 0) {
+            int pc = worklist[--pending];
+            queued[pc] = false;
+            System.arraycopy(in[pc], 0, out, 0, slots);
+            transfer(code, pc, out, constants, fieldSlots, cfg.setupOf);
+            int n = cfg.successors(pc, successors);
+            for (int i = 0; i < n; i++) {
+                int next = successors[i];
+                if (next < 0 || next >= count) continue; // runs off the end
+                if (merge(in, next, out) && !queued[next]) {
+                    worklist[pending++] = next;
+                    queued[next] = true;
+                }
+            }
+        }
+        return in;
+    }
+
+    private static boolean merge(int[][] in, int pc, int[] types) {
+        int[] target = in[pc];
+        if (target == null) {
+            in[pc] = types.clone();
+            return true;
+        }
+        boolean changed = false;
+        for (int i = 0; i < target.length; i++) {
+            int merged = target[i] | types[i];
+            if (merged != target[i]) {
+                target[i] = merged;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Update the slot types for one instruction completing normally.
+     */
+    private static void transfer(int[] code, int pc, int[] t, HVal[] constants, int[] fieldSlots,
+                                 int[] setupOf) {
+        int base = pc * Packet.INSTRUCTION_WIDTH;
+        int opcode = code[base], dest = code[base + 2], op1 = code[base + 3], op2 = code[base + 4];
+        switch (opcode) {
+            case Executor.LOAD_CONST:
+                set(t, dest, op1 >= 0 && op1 < constants.length ? 1 << constants[op1].typeCode() : ANY);
+                break;
+            case Executor.LOAD_FIELD:
+                // Copies the field's slot; an unknown field index leaves dest as it was
+                if (op1 >= 0 && op1 < fieldSlots.length) set(t, dest, typeOf(t, fieldSlots[op1]));
+                break;
+            case Executor.LOAD_NOTHING:
+                set(t, dest, NOTHING);
+                break;
+            case Executor.COPY:
+                set(t, dest, typeOf(t, op1));
+                break;
+
+            case Executor.ADD: case Executor.SUB: case Executor.MUL:
+            case Executor.DIV: case Executor.MOD: {
+                int a = typeOf(t, op1), b = typeOf(t, op2);
+                int result = a == INT && b == INT ? INT
+                        : (a & ~NUMBER) == 0 && (b & ~NUMBER) == 0 && (a == FLOAT || b == FLOAT) ? FLOAT
+                        : NUMBER;
+                refine(t, op1, NUMBER); // anything else throws
+                refine(t, op2, NUMBER);
+                set(t, dest, result);
+                break;
+            }
+            case Executor.NEGATE: {
+                int a = typeOf(t, op1);
+                refine(t, op1, NUMBER);
+                set(t, dest, a == INT || a == FLOAT ? a : NUMBER);
+                break;
+            }
+
+            case Executor.AND: case Executor.OR:
+                refine(t, op1, BOOL); // op2 is not checked when op1 decides
+                set(t, dest, BOOL);
+                break;
+            case Executor.NOT:
+                refine(t, op1, BOOL);
+                set(t, dest, BOOL);
+                break;
+            case Executor.EQ: case Executor.NEQ: case Executor.LT: case Executor.GT:
+            case Executor.LTE: case Executor.GTE:
+            case Executor.IS_STRING: case Executor.IS_INT: case Executor.IS_FLOAT: case Executor.IS_BOOL:
+            case Executor.IS_NOTHING: case Executor.IS_LIST: case Executor.IS_RECORD:
+            case Executor.TO_BOOL: case Executor.TAG_CHECK:
+                set(t, dest, BOOL);
+                break;
+            case Executor.STR_CONCAT: case Executor.TO_STRING:
+                set(t, dest, STRING);
+                break;
+            case Executor.TO_INT:
+                set(t, dest, INT);
+                break;
+            case Executor.TO_FLOAT:
+                set(t, dest, FLOAT);
+                break;
+
+            case Executor.RECORD_NEW: case Executor.RECORD_NEW_SET_C:
+                set(t, dest, RECORD);
+                break;
+            case Executor.RECORD_SET:
+                refine(t, dest, RECORD);
+                refine(t, op1, STRING);
+                break;
+            case Executor.RECORD_SET_C:
+                refine(t, dest, RECORD);
+                break;
+            case Executor.RECORD_GET: case Executor.RECORD_HAS:
+                refine(t, op1, RECORD);
+                refine(t, op2, STRING);
+                set(t, dest, opcode == Executor.RECORD_HAS ? BOOL : ANY);
+                break;
+            case Executor.RECORD_GET_C:
+                refine(t, op1, RECORD);
+                set(t, dest, ANY);
+                break;
+
+            case Executor.LIST_NEW:
+                set(t, dest, LIST);
+                break;
+            case Executor.LIST_APPEND:
+                refine(t, dest, LIST);
+                break;
+            case Executor.LIST_GET:
+                refine(t, op1, LIST);
+                refine(t, op2, INT);
+                set(t, dest, ANY);
+                break;
+            case Executor.LIST_LENGTH:
+                refine(t, op1, LIST);
+                set(t, dest, INT);
+                break;
+
+            case Executor.COALESCE:
+                set(t, dest, (typeOf(t, op1) & ~NOTHING) | typeOf(t, op2));
+                break;
+
+            case Executor.JUMP_IF: case Executor.JUMP_IF_NOT:
+                refine(t, op1, BOOL);
+                break;
+            case Executor.JUMP:
+            case Executor.CMP_JUMP_EQ: case Executor.CMP_JUMP_NEQ:
+            case Executor.CMP_JUMP_LT: case Executor.CMP_JUMP_GT:
+            case Executor.CMP_JUMP_LTE: case Executor.CMP_JUMP_GTE:
+            case Executor.IS_NOTHING_JUMP:
+            case Executor.TAG_SET:
+                break;
+
+            case Executor.ITER_SETUP: {
+                // Writes the element, or the result when the list is empty
+                refine(t, op1, LIST);
+                set(t, dest, ANY);
+                int collect = ControlFlow.collectOf(code, pc);
+                set(t, code[collect * Packet.INSTRUCTION_WIDTH + 2], ANY);
+                break;
+            }
+            case Executor.ITER_COLLECT: {
+                // Writes the next element, or the result after the last one
+                int setup = setupOf[pc] * Packet.INSTRUCTION_WIDTH;
+                set(t, code[setup + 2], ANY);
+                set(t, dest, ANY);
+                break;
+            }
+
+            default:
+                // Stdlib calls and anything else: the result is not known
+                set(t, dest, ANY);
+        }
+    }
+
+    private static int typeOf(int[] t, int slot) {
+        return slot >= 0 && slot < t.length ? t[slot] : ANY;
+    }
+
+    private static void set(int[] t, int slot, int types) {
+        if (slot >= 0 && slot < t.length) t[slot] = types;
+    }
+
+    // Narrow a slot to the types an instruction that completed accepts
+    private static void refine(int[] t, int slot, int types) {
+        if (slot >= 0 && slot < t.length) t[slot] &= types;
+    }
+}
@@ -0,0 +1,76 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Random;
+
+class DateFormatsTest {
+
+    @Test void isoDatesAndDatetimesAreParsed() {
+        int[] f = new int[6];
+        assertTrue(DateFormats.parseIso("2024-02-29T23:59:58Z", f));
+        assertArrayEquals(new int[]{2024, 2, 29, 23, 59, 58}, f);
+        assertTrue(DateFormats.parseIso("0000-01-01Z", f));
+        assertArrayEquals(new int[]{0, 1, 1, 0, 0, 0}, f);
+        for (String s : new String[]{"2023-02-29", "2024-13-01", "2024-01-01T24:00:00", "2024-01-01T10:00",
+                "2024-01-01T10:00:00.5", "+2024-01-01", "2024-1-01", "2024/01/01", "", "Z"}) {
+            assertFalse(DateFormats.parseIso(s, f), s);
+        }
+        assertEquals(DateFormats.NONE, DateFormats.isoEpochSecond("10000-01-01", f));
+    }
+
+    @Test void epochSecondsMatchJavaTime() {
+        Random random = new Random(7);
+        int[] f = new int[6];
+        for (int i = 0; i < 10000; i++) {
+            LocalDateTime dt = LocalDateTime.of(random.nextInt(10000), 1 + random.nextInt(12),
+                    1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60));
+            long epochSecond = dt.toEpochSecond(ZoneOffset.UTC);
+            f[0] = dt.getYear(); f[1] = dt.getMonthValue(); f[2] = dt.getDayOfMonth();
+            f[3] = dt.getHour(); f[4] = dt.getMinute(); f[5] = dt.getSecond();
+            assertEquals(epochSecond, DateFormats.epochSecond(f), dt.toString());
+            DateFormats.fromEpochSecond(epochSecond, f);
+            assertArrayEquals(new int[]{dt.getYear(), dt.getMonthValue(), dt.getDayOfMonth(),
+                    dt.getHour(), dt.getMinute(), dt.getSecond()}, f, dt.toString());
+        }
+    }
+
+    @Test void addingStaysInFourDigitYears() {
+        int[] f = {2024, 1, 31, 12, 0, 0};
+        assertTrue(DateFormats.add(f, 1, "months"));
+        assertEquals("2024-02-29T12:00:00Z", DateFormats.formatIso(f, false));
+        assertTrue(DateFormats.add(f, -90, "minutes"));
+        assertEquals("2024-02-29", DateFormats.formatIso(f, true));
+        assertEquals("2024-02-29T10:30:00Z", DateFormats.formatIso(f, false));
+        assertFalse(DateFormats.add(f, 8000, "years"));
+        assertFalse(DateFormats.add(new int[]{2024, 1, 1, 0, 0, 0}, Long.MAX_VALUE, "seconds"));
+        assertFalse(DateFormats.add(new int[]{2024, 1, 1, 0, 0, 0}, 1, "weeks"));
+    }
+
+    @Test void formatsAreConvertedOnce() {
+        DateFormats.Format f = DateFormats.format("%Y-%m-%d %H:%M:%S");
+        assertSame(f, DateFormats.format("%Y-%m-%d %H:%M:%S"));
+        assertTrue(f.simple());
+        assertEquals("0987-06-05 04:03:02", f.format(987, 6, 5, 4, 3, 2));
+        int[] fields = new int[6];
+        assertTrue(f.parse("0987-06-05 04:03:02", fields));
+        assertArrayEquals(new int[]{987, 6, 5, 4, 3, 2}, fields);
+        assertFalse(f.parse("0000-06-05 04:03:02", fields));    // yyyy has no year 0
+        assertFalse(f.parse("0987-06-05 04:03:02 ", fields));
+    }
+
+    @Test void otherFormatsUseTheFormatter() {
+        assertFalse(DateFormats.format("%Y-%m-%d E").simple());
+        assertFalse(DateFormats.format("'%Y'").simple());
+        assertFalse(DateFormats.format("%Y%%").simple());
+        DateFormats.Format partial = DateFormats.format("%d/%m/%Y");
+        assertTrue(partial.simple());
+        assertEquals("05/06/0987", partial.format(987, 6, 5, 4, 3, 2));
+        assertFalse(partial.parse("05/06/0987", new int[6]));     // LocalDateTime needs the time
+        assertThrows(IllegalArgumentException.class, () -> DateFormats.format("%Y {"));
+        assertThrows(IllegalArgumentException.class, () -> DateFormats.format("%Y {"));
+    }
+}
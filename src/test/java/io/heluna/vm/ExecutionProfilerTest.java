@@ -0,0 +1,76 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static io.heluna.vm.TestPackets.instr;
+import static io.heluna.vm.TestPackets.loopPacket;
+
+import java.io.IOException;
+import java.util.List;
+
+class ExecutionProfilerTest {
+
+    private static final String TS = "2024-01-15T10:30:00Z";
+
+    @Test void instructionsOpcodesAndCallsAreCounted() {
+        ExecutionProfiler profiler = new ExecutionProfiler(loopPacket());
+        profiler.execute(new HVal.HRecord(), TS);
+        assertEquals(1, profiler.runs());
+        assertEquals(1, profiler.count(0));
+        assertEquals(11, profiler.count(5));
+        assertEquals(10, profiler.count(6));
+        assertEquals(10, profiler.count(9));
+        assertEquals(5, profiler.opcodeCount(Executor.LOAD_CONST));
+        assertEquals(20, profiler.opcodeCount(Executor.ADD));
+        assertEquals(10, profiler.stdlibCount(0x0001));
+        assertEquals(0, profiler.stdlibCount(0x0002));
+        assertEquals(5 + 11 + 4 * 10, profiler.total());
+
+        profiler.execute(new HVal.HRecord(), TS);
+        assertEquals(20, profiler.count(6));
+        profiler.reset();
+        assertEquals(0, profiler.runs());
+        assertEquals(0, profiler.total());
+        assertEquals(0, profiler.totalNanos());
+    }
+
+    @Test void everyInstructionThatRanIsTimed() {
+        ExecutionProfiler profiler = new ExecutionProfiler(loopPacket(), 4);
+        profiler.execute(new HVal.HRecord(), TS);
+        for (int pc = 0; pc < 10; pc++) {
+            assertTrue(profiler.nanos(pc) > 0, "pc " + pc);
+        }
+        long sum = 0;
+        for (int pc = 0; pc < 10; pc++) sum += profiler.nanos(pc);
+        assertEquals(sum, profiler.totalNanos());
+
+        List<Integer> hottest = profiler.hottest(3);
+        assertEquals(3, hottest.size());
+        assertTrue(profiler.nanos(hottest.get(0)) >= profiler.nanos(hottest.get(1)));
+        assertEquals(10, profiler.hottest(100).size());
+
+        assertThrows(IllegalArgumentException.class, () -> new ExecutionProfiler(loopPacket(), 0));
+    }
+
+    @Test void reportMapsHotInstructionsToOpcodesAndConstants() {
+        ExecutionProfiler profiler = new ExecutionProfiler(loopPacket());
+        profiler.execute(new HVal.HRecord(), TS);
+        String report = profiler.report(10);
+        assertTrue(report.startsWith("1 runs, 56 instructions and ~"), report);
+        assertTrue(report.matches("(?s).*\\n +4 LOAD_CONST +1 +\\d+ +\\d+\\.\\d+%  dest=5 op1=3 op2=0 const=\"abc\"\\n.*"),
+                report);
+        assertTrue(report.matches("(?s).*\\n +7 STDLIB_CALL_1 +10 .* fn=0x0001\\n.*"), report);
+        assertTrue(report.matches("(?s).*\\nADD +20 .*"), report);
+        assertTrue(report.matches("(?s).*\\n0x0001 +10 .*"), report);
+    }
+
+    @Test void profiledRunsGiveTheSameOutput() throws IOException {
+        Packet pkt = TestPackets.comprehensive();
+        HVal.HRecord record = TestPackets.comprehensiveRecord();
+        ExecutionProfiler profiler = new ExecutionProfiler(pkt);
+        assertEquals(HValJsonWriter.toJson(HelunaVM.execute(pkt, record, TS)),
+                HValJsonWriter.toJson(profiler.execute(record, TS)));
+        assertTrue(profiler.opcodeCount(Executor.STDLIB_CALL) + profiler.opcodeCount(Executor.STDLIB_CALL_1) > 0);
+        assertTrue(profiler.report(20).contains("stdlib"));
+    }
+}
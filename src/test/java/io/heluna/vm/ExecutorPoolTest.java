@@ -0,0 +1,218 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+class ExecutorPoolTest {
+
+    private static Packet pkt;
+    private static HVal.HRecord input;
+
+    @BeforeAll
+    static void loadPacket() throws IOException {
+        pkt = TestPackets.comprehensive();
+        input = TestPackets.comprehensiveRecord();
+    }
+
+    @Test void sameThreadReusesSession() {
+        ExecutorPool pool = new ExecutorPool();
+        assertSame(pool.session(pkt), pool.session(pkt));
+        assertEquals(1, pool.packetCount());
+    }
+
+    @Test void differentThreadsGetDifferentSessions() throws Exception {
+        ExecutorPool pool = new ExecutorPool();
+        HelunaSession mine = pool.session(pkt);
+        HelunaSession[] theirs = new HelunaSession[1];
+        Thread t = new Thread(() -> theirs[0] = pool.session(pkt));
+        t.start();
+        t.join();
+        assertNotNull(theirs[0]);
+        assertNotSame(mine, theirs[0]);
+    }
+
+    @Test void differentPacketsGetDifferentSessions() {
+        Packet other = new Packet();
+        other.scratchpadSize = 1;
+        other.instructions = new int[0][];
+        ExecutorPool pool = new ExecutorPool();
+        assertNotSame(pool.session(pkt), pool.session(other));
+        assertSame(other, pool.session(other).packet());
+        assertEquals(2, pool.packetCount());
+    }
+
+    @Test void evictDropsPacket() {
+        ExecutorPool pool = new ExecutorPool();
+        HelunaSession before = pool.session(pkt);
+        pool.evict(pkt);
+        assertEquals(0, pool.packetCount());
+        assertNotSame(before, pool.session(pkt));
+    }
+
+    @Test void concurrentExecutionMatchesSequential() throws Exception {
+        HVal.HRecord expected = HelunaVM.execute(pkt, input, "2024-01-15T10:30:00Z");
+        ExecutorPool pool = new ExecutorPool();
+
+        int threads = 8;
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Callable<Integer> job = () -> {
+                    int matches = 0;
+                    for (int i = 0; i < 100; i++) {
+                        if (expected.equals(pool.execute(pkt, input, "2024-01-15T10:30:00Z"))) {
+                            matches++;
+                        }
+                    }
+                    return matches;
+                };
+                futures.add(workers.submit(job));
+            }
+            for (Future<Integer> f : futures) {
+                assertEquals(100, f.get());
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    private static List<HVal.HRecord> divInputs(int count) {
+        List<HVal.HRecord> inputs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            inputs.add(TestPackets.divInput(i % 7)); // every 7th input divides by zero
+        }
+        return inputs;
+    }
+
+    @Test void parallelBatchPreservesOrderAndCollectsErrors() {
+        Packet p = TestPackets.divPacket();
+        List<HVal.HRecord> inputs = divInputs(10_000);
+
+        BatchResult sequential = HelunaVM.executeBatch(p, inputs, "2024-01-01T00:00:00Z");
+        BatchResult parallel = HelunaVM.executeBatchParallel(p, inputs, "2024-01-01T00:00:00Z");
+
+        assertEquals(inputs.size(), parallel.size());
+        assertEquals(sequential.errorCount(), parallel.errorCount());
+        assertEquals((10_000 + 6) / 7, parallel.errorCount());
+        for (int i = 0; i < inputs.size(); i++) {
+            if (i % 7 == 0) {
+                assertTrue(parallel.isError(i), "index " + i);
+                assertEquals("Division by zero", parallel.error(i).getMessage());
+            } else {
+                assertEquals(new HVal.HInteger(100 / (i % 7)), parallel.output(i).get("result"), "index " + i);
+            }
+        }
+    }
+
+    @Test void parallelBatchOnDedicatedForkJoinPool() {
+        HVal.HRecord expected = HelunaVM.execute(pkt, input, "2024-01-15T10:30:00Z");
+        List<HVal.HRecord> inputs = new ArrayList<>();
+        for (int i = 0; i < 64; i++) inputs.add(input);
+
+        ForkJoinPool fj = new ForkJoinPool(4);
+        try {
+            BatchResult result = new ExecutorPool().executeBatch(pkt, inputs, "2024-01-15T10:30:00Z", fj);
+            assertEquals(0, result.errorCount());
+            for (int i = 0; i < inputs.size(); i++) {
+                assertEquals(expected, result.output(i));
+            }
+        } finally {
+            fj.shutdown();
+        }
+    }
+
+    @Test void parallelBatchesReuseWorkerSessions() throws Exception {
+        Packet p = TestPackets.divPacket();
+        List<HVal.HRecord> inputs = divInputs(100);
+        ForkJoinPool fj = new ForkJoinPool(1);
+        try {
+            HelunaVM.executeBatchParallel(p, inputs, "2024-01-01T00:00:00Z", fj);
+            HelunaSession first = fj.submit(() -> ExecutorPool.PACKET_OWNED.session(p)).get();
+            BatchResult again = HelunaVM.executeBatchParallel(p, inputs, "2024-01-01T00:00:00Z", fj);
+            assertEquals(new HVal.HInteger(50), again.output(2).get("result"));
+            assertSame(first, fj.submit(() -> ExecutorPool.PACKET_OWNED.session(p)).get());
+            assertEquals(1, p.workerSessions.size());
+            assertEquals(0, ExecutorPool.PACKET_OWNED.packetCount());
+        } finally {
+            fj.shutdown();
+        }
+    }
+
+    @Test void parallelBatchesDoNotKeepPacketsAlive() throws InterruptedException {
+        ForkJoinPool fj = new ForkJoinPool(2);
+        try {
+            WeakReference<Packet> ref = runAndForget(fj);
+            for (int i = 0; i < 100 && ref.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertNull(ref.get(), "packet still reachable from the worker threads");
+        } finally {
+            fj.shutdown();
+        }
+    }
+
+    private static WeakReference<Packet> runAndForget(ForkJoinPool fj) {
+        Packet p = TestPackets.divPacket();
+        assertEquals(100, HelunaVM.executeBatchParallel(p, divInputs(100), "2024-01-01T00:00:00Z", fj).size());
+        return new WeakReference<>(p);
+    }
+
+    @Test void parallelBatchOnCallerSuppliedExecutor() {
+        Packet p = TestPackets.divPacket();
+        List<HVal.HRecord> inputs = divInputs(1_000);
+        ExecutorService workers = Executors.newFixedThreadPool(3);
+        try {
+            BatchResult result = new ExecutorPool().executeBatch(p, inputs, "2024-01-01T00:00:00Z", workers, 3);
+            assertEquals(1_000, result.size());
+            assertEquals((1_000 + 6) / 7, result.errorCount());
+            assertEquals(new HVal.HInteger(50), result.output(2).get("result"));
+            assertEquals(new HVal.HInteger(20), result.output(999).get("result")); // 999 % 7 = 5
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    @Test void rejectedSlicesRunOnTheCallingThread() {
+        Packet p = TestPackets.divPacket();
+        List<HVal.HRecord> inputs = divInputs(1_000);
+        ThreadPoolExecutor bounded = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(1), new ThreadPoolExecutor.AbortPolicy());
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        try {
+            for (java.util.concurrent.Executor executor : new java.util.concurrent.Executor[]{bounded, stopped}) {
+                BatchResult result = new ExecutorPool().executeBatch(p, inputs, "2024-01-01T00:00:00Z", executor, 4);
+                assertEquals((1_000 + 6) / 7, result.errorCount());
+                for (int i = 0; i < inputs.size(); i++) {
+                    assertTrue(result.isError(i) || result.output(i) != null, "index " + i);
+                }
+                assertEquals(new HVal.HInteger(20), result.output(999).get("result"));
+            }
+        } finally {
+            bounded.shutdown();
+        }
+    }
+
+    @Test void parallelBatchEmptyAndSingle() {
+        Packet p = TestPackets.divPacket();
+        assertEquals(0, HelunaVM.executeBatchParallel(p, new ArrayList<>(), "2024-01-01T00:00:00Z").size());
+        BatchResult one = HelunaVM.executeBatchParallel(p, divInputs(2).subList(1, 2), "2024-01-01T00:00:00Z");
+        assertEquals(new HVal.HInteger(100), one.output(0).get("result"));
+    }
+}
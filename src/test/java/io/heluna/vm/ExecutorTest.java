@@ -2,28 +2,12 @@ package io.heluna.vm;
 
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
+import static io.heluna.vm.TestPackets.instr;
+import static io.heluna.vm.TestPackets.makePacket;
 
-import java.util.Arrays;
 
 class ExecutorTest {
 
-    // Helper: build a minimal Packet with given constants and instructions
-    private static Packet makePacket(int scratchpadSize, HVal[] constants, int[][] instructions) {
-        Packet pkt = new Packet();
-        pkt.scratchpadSize = scratchpadSize;
-        pkt.constants.addAll(Arrays.asList(constants));
-        pkt.instructions = instructions;
-        return pkt;
-    }
-
-    private static int[] instr(int opcode, int flags, int dest, int op1, int op2) {
-        return new int[]{opcode, flags, dest, op1, op2};
-    }
-
-    private static int[] instr(int opcode, int dest, int op1, int op2) {
-        return instr(opcode, 0, dest, op1, op2);
-    }
-
     // --- LOAD_CONST ---
 
     @Test void loadConstInteger() {
@@ -742,6 +726,28 @@ class ExecutorTest {
         assertEquals(0x05, ex.getTag(0));
     }
 
+    @Test void tagSetZeroClearsTags() {
+        Packet pkt = makePacket(2, new HVal[]{new HVal.HInteger(0)},
+                new int[][]{
+                    instr(0xB0, 0, 0, 0, 0)  // TAG_SET dest=0, tag from const[0]
+                });
+        Executor ex = new Executor(pkt);
+        ex.setSlot(0, new HVal.HInteger(42), 0x03);
+        ex.execute();
+        assertEquals(0, ex.getTag(0));
+    }
+
+    @Test void tagSetNonIntegerConstantKeepsTags() {
+        Packet pkt = makePacket(2, new HVal[]{new HVal.HString("pii")},
+                new int[][]{
+                    instr(0xB0, 0, 0, 0, 0)  // TAG_SET with a string constant is ignored
+                });
+        Executor ex = new Executor(pkt);
+        ex.setSlot(0, new HVal.HInteger(42), 0x03);
+        ex.execute();
+        assertEquals(0x03, ex.getTag(0));
+    }
+
     @Test void tagCheckInstruction() {
         Packet pkt = makePacket(2, new HVal[]{new HVal.HInteger(0x02)},
                 new int[][]{
@@ -1195,4 +1201,79 @@ class ExecutorTest {
         ex.execute();
         assertEquals(new HVal.HInteger(99), ex.getSlot(1)); // fell through
     }
+
+    // --- Unboxed lanes ---
+
+    private static Packet arithmeticLoop(long n) {
+        return makePacket(8,
+                new HVal[]{new HVal.HInteger(0), new HVal.HInteger(1), new HVal.HFloat(0.5),
+                           new HVal.HInteger(n), new HVal.HString("sum")},
+                new int[][]{
+                    instr(0x01, 0, 0, 0),            // 0: i = 0
+                    instr(0x01, 1, 0, 0),            // 1: sum = 0
+                    instr(0x01, 2, 2, 0),            // 2: total = 0.5
+                    instr(0x01, 3, 3, 0),            // 3: n
+                    instr(0x01, 4, 1, 0),            // 4: one
+                    instr(0xC7, 0, 11, 0, 3),        // 5: exit unless i < n
+                    instr(0x12, 5, 0, 2),            // 6: t = i * total
+                    instr(0x10, 2, 2, 5),            // 7: total = total + t
+                    instr(0x10, 1, 1, 0),            // 8: sum = sum + i
+                    instr(0x10, 0, 0, 4),            // 9: i = i + one
+                    instr(0x80, 5, 0, 0),            // 10: JUMP 5
+                    instr(0x60, 6, 0, 0),            // 11: RECORD_NEW slot6
+                    instr(0xC2, 6, 4, 1),            // 12: slot6.sum = sum
+                });
+    }
+
+    @Test void laneSlotsAreThoseThatNeverEscape() {
+        Packet pkt = arithmeticLoop(3);
+        boolean[] lanes = Executor.computeLaneSlots(pkt.flatCode().code, pkt);
+        assertTrue(lanes[0] && lanes[2] && lanes[3] && lanes[4] && lanes[5]);
+        assertFalse(lanes[1]);   // stored into a record
+        assertFalse(lanes[6]);
+        pkt.inputFields.add(new Packet.FieldDef("i", HVal.TYPE_INTEGER, 0, 0));
+        assertFalse(Executor.computeLaneSlots(pkt.flatCode().code, pkt)[0]);
+    }
+
+    @Test void unboxedLoopMatchesBoxedResults() {
+        for (long n : new long[]{0, 1, 20000}) {
+            Packet pkt = arithmeticLoop(n);
+            Executor lanes = new Executor(pkt);
+            lanes.setMode(Executor.Mode.INTERPRETER);
+            lanes.execute();
+            Executor nodes = new Executor(pkt);
+            nodes.setMode(Executor.Mode.NODES);
+            nodes.execute();
+            for (int slot = 0; slot < 7; slot++) {
+                HVal expected = nodes.getSlot(slot);
+                assertEquals(expected, lanes.getSlot(slot), "slot " + slot);
+                assertEquals(expected.typeCode(), lanes.getSlot(slot).typeCode(), "slot " + slot);
+            }
+            assertEquals(new HVal.HInteger(n * (n - 1) / 2), ((HVal.HRecord) lanes.getSlot(6)).get("sum"));
+        }
+    }
+
+    @Test void unboxedArithmeticFailsLikeBoxed() {
+        Packet divide = makePacket(3, new HVal[]{new HVal.HInteger(7), new HVal.HInteger(0)},
+                new int[][]{
+                    instr(0x01, 0, 0, 0),
+                    instr(0x01, 1, 1, 0),
+                    instr(0x13, 2, 0, 1),            // DIV by zero into a lane slot
+                });
+        Executor ex = new Executor(divide);
+        ex.setMode(Executor.Mode.INTERPRETER);
+        assertEquals("Division by zero", assertThrows(HelunaException.class, ex::execute).getMessage());
+        assertEquals(new HVal.HInteger(7), ex.getSlot(0)); // boxed again after the error
+
+        Packet mixed = makePacket(3, new HVal[]{new HVal.HInteger(7), new HVal.HString("x")},
+                new int[][]{
+                    instr(0x01, 0, 0, 0),
+                    instr(0x01, 1, 1, 0),
+                    instr(0x10, 2, 0, 1),            // ADD integer + string
+                });
+        Executor ex2 = new Executor(mixed);
+        ex2.setMode(Executor.Mode.INTERPRETER);
+        assertEquals("Arithmetic requires numeric operands, got integer + string",
+                assertThrows(HelunaException.class, ex2::execute).getMessage());
+    }
 }
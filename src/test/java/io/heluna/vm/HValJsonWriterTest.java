@@ -0,0 +1,127 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+class HValJsonWriterTest {
+
+    private static String json(HVal v) {
+        return new HValJsonWriter().write(v).toString();
+    }
+
+    private static void assertSameAsConcat(HVal v) {
+        String expected = StdLib.toJsonConcat(v);
+        HValJsonWriter w = new HValJsonWriter(16);
+        w.write(v);
+        assertEquals(expected, w.toString());
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), w.toByteArray());
+    }
+
+    @Test void scalars() {
+        assertEquals("42", json(new HVal.HInteger(42)));
+        assertEquals("-7", json(new HVal.HInteger(-7)));
+        assertEquals("0", json(new HVal.HInteger(0)));
+        assertEquals("true", json(HVal.HBoolean.TRUE));
+        assertEquals("false", json(HVal.HBoolean.FALSE));
+        assertEquals("null", json(HVal.HNothing.INSTANCE));
+        assertEquals("\"hi\"", json(new HVal.HString("hi")));
+    }
+
+    @Test void longBoundaries() {
+        assertEquals(Long.toString(Long.MAX_VALUE), json(new HVal.HInteger(Long.MAX_VALUE)));
+        assertEquals(Long.toString(Long.MIN_VALUE), json(new HVal.HInteger(Long.MIN_VALUE)));
+        assertEquals("1000000000000000000", json(new HVal.HInteger(1_000_000_000_000_000_000L)));
+    }
+
+    @Test void floats() {
+        assertEquals("3.0", json(new HVal.HFloat(3.0)));
+        assertEquals("-2.0", json(new HVal.HFloat(-2.0)));
+        assertEquals("0.0", json(new HVal.HFloat(-0.0)));
+        assertEquals("3.14", json(new HVal.HFloat(3.14)));
+        assertEquals("1.0E15", json(new HVal.HFloat(1e15)));
+        assertEquals("NaN", json(new HVal.HFloat(Double.NaN)));
+        assertEquals("Infinity", json(new HVal.HFloat(Double.POSITIVE_INFINITY)));
+    }
+
+    @Test void escapes() {
+        assertEquals("\"a\\\"b\\\\c\\nd\\re\\tf\"", json(new HVal.HString("a\"b\\c\nd\re\tf")));
+        assertEquals("\"\\u0001\\u001f\"", json(new HVal.HString("\u0001\u001f")));
+        assertEquals("\"/\"", json(new HVal.HString("/")));
+    }
+
+    @Test void unicode() {
+        String text = "café € 😀";
+        assertEquals("\"" + text + "\"", json(new HVal.HString(text)));
+        assertSameAsConcat(new HVal.HString(text));
+        // Lone surrogates are replaced the same way String.getBytes(UTF_8) does
+        HVal lone = new HVal.HString("lone \ud83d and \ude00");
+        assertArrayEquals(StdLib.toJsonConcat(lone).getBytes(StandardCharsets.UTF_8),
+                new HValJsonWriter().write(lone).toByteArray());
+    }
+
+    @Test void nestedStructures() {
+        HVal.HRecord inner = new HVal.HRecord();
+        inner.set("ok", HVal.HBoolean.TRUE);
+        HVal.HList list = new HVal.HList();
+        list.add(new HVal.HInteger(1));
+        list.add(new HVal.HFloat(2.5));
+        list.add(inner);
+        list.add(new HVal.HList());
+        HVal.HRecord rec = new HVal.HRecord();
+        rec.set("z", list);
+        rec.set("a", new HVal.HRecord());
+        rec.set("esc\"key", new HVal.HString("v"));
+        assertEquals("{\"z\":[1,2.5,{\"ok\":true},[]],\"a\":{},\"esc\\\"key\":\"v\"}", json(rec));
+        assertSameAsConcat(rec);
+    }
+
+    @Test void fieldNamesReusedAcrossRecords() {
+        HValJsonWriter w = new HValJsonWriter();
+        HVal.HList list = new HVal.HList();
+        for (int i = 0; i < 1000; i++) {
+            HVal.HRecord r = new HVal.HRecord();
+            r.set("id", new HVal.HInteger(i));
+            r.set("name-" + (i % 300), new HVal.HString("x" + i)); // forces cache collisions
+            list.add(r);
+        }
+        w.write(list);
+        assertEquals(StdLib.toJsonConcat(list), w.toString());
+        // Second pass hits the warm cache
+        assertEquals(StdLib.toJsonConcat(list), w.reset().write(list).toString());
+    }
+
+    @Test void resetAndReuse() throws IOException {
+        HValJsonWriter w = new HValJsonWriter();
+        w.write(new HVal.HString("first"));
+        w.reset().write(new HVal.HInteger(2));
+        assertEquals(1, w.size());
+        assertEquals("2", w.toString());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        w.writeTo(out);
+        assertEquals("2", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test void growsPastInitialCapacity() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) sb.append((char) ('a' + i % 26));
+        HVal.HList list = new HVal.HList();
+        list.add(new HVal.HString(sb.toString()));
+        list.add(new HVal.HString(sb + "é\n"));
+        assertSameAsConcat(list);
+    }
+
+    @Test void jsonEncodeUsesWriter() {
+        HVal.HRecord value = new HVal.HRecord();
+        value.set("k", new HVal.HString("ü"));
+        HVal.HRecord args = new HVal.HRecord();
+        args.set("value", value);
+        StdLib stdlib = new StdLib();
+        assertEquals(new HVal.HString("{\"k\":\"ü\"}"), stdlib.call(0x0064, args));
+        assertEquals(new HVal.HString("{\"k\":\"ü\"}"), stdlib.call(0x0064, args));
+    }
+}
@@ -265,6 +265,133 @@ class HValTest {
         assertEquals("{name: \"Bob\", age: 25}", rec.toString());
     }
 
+    @Test void recordsBuiltAlikeShareShape() {
+        HRecord a = new HRecord();
+        a.set("name", new HString("Ada"));
+        a.set("age", new HInteger(36));
+        HRecord b = new HRecord();
+        b.set("name", new HString("Bob"));
+        b.set("age", new HInteger(25));
+        assertSame(a.shape(), b.shape());
+        HRecord c = new HRecord();
+        c.set("age", new HInteger(25));
+        c.set("name", new HString("Bob"));
+        assertNotSame(a.shape(), c.shape());
+        assertEquals(b, c); // equality ignores order, like the map it replaced
+        assertEquals(b.hashCode(), c.hashCode());
+    }
+
+    @Test void parsedRecordsUseTheDataTree() {
+        HRecord empty = (HRecord) JsonReader.parse("{}".getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        assertSame(Shape.DATA, empty.shape());
+        HRecord parsed = (HRecord) JsonReader.parse("{\"x\":1}".getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        HRecord built = new HRecord();
+        built.set("x", new HInteger(1));
+        assertNotSame(built.shape(), parsed.shape());
+        assertEquals(built, parsed);
+    }
+
+    @Test void eachShapeTreeHasItsOwnBudget() {
+        Shape data = Shape.root();
+        Shape program = Shape.root();
+        int created = 0;
+        for (int a = 0; a < Shape.MAX_TRANSITIONS; a++) {
+            Shape sa = data.with("a" + a);
+            if (sa == null) continue;
+            created++;
+            for (int b = 0; b < Shape.MAX_TRANSITIONS; b++) {
+                Shape sb = sa.with("b" + b);
+                if (sb == null) continue;
+                created++;
+                for (int c = 0; c < Shape.MAX_TRANSITIONS; c++) {
+                    if (sb.with("c" + c) != null) created++;
+                }
+            }
+        }
+        assertEquals(Shape.MAX_SHAPES, created);
+        assertNull(data.with("a0").with("b0").with("c0").with("d")); // a leaf, refused only by the budget
+        assertNotNull(program.with("x").with("y"));
+    }
+
+    @Test void largeRecordSwitchesToDictionaryMode() {
+        HRecord rec = new HRecord();
+        HRecord small = new HRecord();
+        for (int i = 0; i <= Shape.MAX_FIELDS; i++) {
+            rec.set("k" + i, new HInteger(i));
+        }
+        assertNull(rec.shape());
+        assertEquals(Shape.MAX_FIELDS + 1, rec.size());
+        assertEquals(new HInteger(7), rec.get("k7"));
+        assertEquals("k" + Shape.MAX_FIELDS, rec.keyAt(Shape.MAX_FIELDS));
+        rec.set("k7", new HInteger(-7));
+        assertEquals(new HInteger(-7), rec.valueAt(7));
+        rec.clear();
+        assertSame(Shape.EMPTY, rec.shape());
+        assertEquals(0, rec.size());
+        assertEquals(small, rec);
+    }
+
+    @Test void recordFieldsIsALiveOrderedView() {
+        HRecord rec = new HRecord();
+        rec.set("b", new HInteger(2));
+        rec.set("a", new HInteger(1));
+        java.util.LinkedHashMap<String, HVal> fields = rec.fields();
+        assertEquals("[b, a]", fields.keySet().toString());
+        assertEquals(new HInteger(1), fields.get("a"));
+        assertNull(fields.get("c"));
+
+        assertNull(fields.put("c", new HInteger(3)));
+        assertEquals(new HInteger(3), rec.get("c"));
+        assertEquals(new HInteger(2), fields.put("b", new HInteger(20)));
+        assertEquals(new HInteger(20), rec.get("b"));
+        fields.entrySet().iterator().next().setValue(new HInteger(200));
+        assertEquals(new HInteger(200), rec.get("b"));
+
+        rec.set("d", new HInteger(4));
+        assertEquals("{b=200, a=1, c=3, d=4}", fields.toString());
+        assertEquals(java.util.Map.of("a", new HInteger(1), "b", new HInteger(200),
+                "c", new HInteger(3), "d", new HInteger(4)), fields);
+        assertEquals(new HInteger(1), fields.remove("a"));
+        assertNull(fields.remove("a"));
+        assertFalse(rec.has("a"));
+        assertEquals("{b: 200, c: 3, d: 4}", rec.toString());
+        assertEquals(new HInteger(4), rec.get("d"));
+        fields.merge("d", new HInteger(1), (x, y) -> new HInteger(((HInteger) x).value() + ((HInteger) y).value()));
+        assertEquals(new HInteger(5), rec.get("d"));
+        assertEquals(new java.util.LinkedHashMap<>(fields), fields.clone());
+        fields.clear();
+        assertEquals(0, rec.size());
+    }
+
+    @Test void removingFieldsCompactsTheRecord() {
+        HRecord rec = new HRecord();
+        for (int i = 0; i < 12; i++) rec.set("k" + i, new HInteger(i));
+        java.util.Iterator<java.util.Map.Entry<String, HVal>> it = rec.fields().entrySet().iterator();
+        while (it.hasNext()) {
+            if (((HInteger) it.next().getValue()).value() % 3 != 0) it.remove();
+        }
+        assertEquals(4, rec.size());
+        assertNull(rec.shape());
+        assertEquals("[k0, k3, k6, k9]", rec.fields().keySet().toString());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(new HInteger(i * 3), rec.get("k" + i * 3));
+            assertEquals(new HInteger(i * 3), rec.valueAt(i));
+        }
+        assertTrue(rec.fields().values().remove(new HInteger(9)));
+        assertFalse(rec.has("k9"));
+        rec.set("k1", new HInteger(1));
+        assertEquals("{k0: 0, k3: 3, k6: 6, k1: 1}", rec.toString());
+
+        HRecord shaped = new HRecord();
+        shaped.set("x", new HInteger(1));
+        shaped.set("y", new HInteger(2));
+        HRecord same = new HRecord();
+        same.set("y", new HInteger(2));
+        shaped.fields().remove("x");
+        assertEquals(same, shaped);
+        assertEquals(same.hashCode(), shaped.hashCode());
+    }
+
     // --- Mixed type comparisons ---
 
     @Test void differentTypesNotEqual() {
@@ -0,0 +1,114 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+
+class HelunaSessionTest {
+
+    private static Packet pkt;
+
+    private static final String EMPTY_LISTS_INPUT = TestPackets.COMPREHENSIVE_INPUT
+            .replace("[3,1,4,1,5,9,2,6]", "[]")
+            .replace("[\"banana\",\"apple\",\"cherry\"]", "[]")
+            .replace("[[1,2],[3,4],[5]]", "[]")
+            .replace("[{\"name\":\"Charlie\",\"age\":25},{\"name\":\"Alice\",\"age\":30},{\"name\":\"Bob\",\"age\":20}]", "[]")
+            .replace("\"optional-text\":\"present\"", "\"optional-text\":null");
+
+    @BeforeAll
+    static void loadPacket() throws IOException {
+        pkt = TestPackets.comprehensive();
+    }
+
+    private static HVal.HRecord parse(String json) {
+        return (HVal.HRecord) StdLib.parseJsonValue(json, new int[]{0});
+    }
+
+    @Test void repeatedExecutionMatchesFreshExecution() {
+        HVal.HRecord input = parse(TestPackets.COMPREHENSIVE_INPUT);
+        HVal.HRecord expected = HelunaVM.execute(pkt, input, "2024-01-15T10:30:00Z");
+
+        HelunaSession session = HelunaVM.newSession(pkt);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(expected, session.execute(input, "2024-01-15T10:30:00Z"), "run " + i);
+        }
+    }
+
+    @Test void alternatingInputsDoNotLeakState() {
+        HVal.HRecord full = parse(TestPackets.COMPREHENSIVE_INPUT);
+        HVal.HRecord empty = parse(EMPTY_LISTS_INPUT);
+        HVal.HRecord expectedFull = HelunaVM.execute(pkt, full, "2024-01-15T10:30:00Z");
+        HVal.HRecord expectedEmpty = HelunaVM.execute(pkt, empty, "2024-01-15T10:30:00Z");
+
+        HelunaSession session = new HelunaSession(pkt);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(expectedFull, session.execute(full, "2024-01-15T10:30:00Z"));
+            assertEquals(expectedEmpty, session.execute(empty, "2024-01-15T10:30:00Z"));
+        }
+        assertEquals("fallback", ((HVal.HString) expectedEmpty.get("or-else-text")).value());
+    }
+
+    @Test void timestampIsAppliedPerCall() {
+        Packet nowPkt = new Packet();
+        nowPkt.scratchpadSize = 3;
+        nowPkt.outputFieldCount = 1;
+        nowPkt.outputFields.add(new Packet.FieldDef("now", HVal.TYPE_STRING, 0, 0));
+        nowPkt.constants.add(new HVal.HString("now")); // constant 0
+        nowPkt.instructions = new int[][]{
+                {0xC4, 0, 2, 0x0054, 0},   // STDLIB_CALL_1 now -> slot 2
+                {0xC3, 0, 1, 0, 2},        // RECORD_NEW_SET_C slot1 = {now: slot2}
+        };
+
+        HelunaSession session = new HelunaSession(nowPkt);
+        HVal.HRecord empty = new HVal.HRecord();
+        assertEquals(new HVal.HString("2024-01-01T00:00:00Z"),
+                session.execute(empty, "2024-01-01T00:00:00Z").get("now"));
+        assertEquals(new HVal.HString("2025-06-30T12:00:00Z"),
+                session.execute(empty, "2025-06-30T12:00:00Z").get("now"));
+    }
+
+    @Test void sessionRecoversAfterFailedExecution() {
+        Packet miniPkt = new Packet();
+        miniPkt.scratchpadSize = 5;
+        miniPkt.inputFieldCount = 1;
+        miniPkt.outputFieldCount = 1;
+        miniPkt.inputFields.add(new Packet.FieldDef("n", HVal.TYPE_INTEGER, 0, 0));
+        miniPkt.outputFields.add(new Packet.FieldDef("result", HVal.TYPE_INTEGER, 0, 1));
+        miniPkt.constants.add(new HVal.HInteger(100)); // constant 0
+        miniPkt.constants.add(new HVal.HString("result")); // constant 1
+        miniPkt.instructions = new int[][]{
+                {0x01, 0, 3, 0, 0},     // LOAD_CONST slot3 = 100
+                {0x13, 0, 4, 3, 0},     // DIV slot4 = 100 / n
+                {0xC3, 0, 2, 1, 4},     // RECORD_NEW_SET_C slot2 = {result: slot4}
+        };
+
+        HelunaSession session = new HelunaSession(miniPkt);
+        HVal.HRecord zero = new HVal.HRecord();
+        zero.set("n", new HVal.HInteger(0));
+        HVal.HRecord four = new HVal.HRecord();
+        four.set("n", new HVal.HInteger(4));
+
+        assertThrows(HelunaException.class, () -> session.execute(zero, "2024-01-01T00:00:00Z"));
+        assertEquals(new HVal.HInteger(25), session.execute(four, "2024-01-01T00:00:00Z").get("result"));
+    }
+
+    @Test void resetClearsWrittenSlotsAndTags() {
+        Packet p = new Packet();
+        p.scratchpadSize = 3;
+        p.constants.add(new HVal.HInteger(7));
+        p.instructions = new int[][]{
+                {0x01, 0x10, 1, 0, 0},  // LOAD_CONST slot1 = 7, tag mode SET
+                {0xB0, 0, 1, 0, 0},     // TAG_SET slot1 = const0 (7)
+        };
+        Executor ex = new Executor(p);
+        ex.execute();
+        assertEquals(new HVal.HInteger(7), ex.getSlot(1));
+        assertEquals(7L, ex.getTag(1));
+
+        ex.reset();
+        assertTrue(ex.getSlot(1).isNothing());
+        assertEquals(0L, ex.getTag(1));
+    }
+}
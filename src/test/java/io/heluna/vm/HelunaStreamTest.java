@@ -0,0 +1,148 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+class HelunaStreamTest {
+
+    // Synthetic input size for the large-stream test; raise it (for example
+    // -Dheluna.stream.testBytes=4000000000) to exercise multi-GB inputs.
+    private static final long SYNTHETIC_BYTES = Long.getLong("heluna.stream.testBytes", 8L * 1024 * 1024);
+
+    private static String runString(String input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HelunaStream.run(TestPackets.divPacket(), new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)),
+                out, "2024-01-01T00:00:00Z");
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test void executesEachLine() throws IOException {
+        assertEquals("{\"result\":50}\n{\"result\":25}\n{\"result\":10}\n",
+                runString("{\"n\":2}\n{\"n\":4}\n{\"n\":10}\n"));
+    }
+
+    @Test void lastLineWithoutNewline() throws IOException {
+        assertEquals("{\"result\":50}\n{\"result\":20}\n", runString("{\"n\":2}\n{\"n\":5}"));
+    }
+
+    @Test void skipsBlankLinesAndHandlesCrLf() throws IOException {
+        assertEquals("{\"result\":50}\n{\"result\":1}\n", runString("\n{\"n\":2}\r\n   \r\n{\"n\":100}\r\n"));
+    }
+
+    @Test void errorsProduceErrorLines() throws IOException {
+        String out = runString("{\"n\":0}\n[1,2]\n{\"n\":1}\n");
+        String[] lines = out.split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("{\"error\":\"Division by zero\"}", lines[0]);
+        assertTrue(lines[1].startsWith("{\"error\":\"Input must be a JSON object"), lines[1]);
+        assertEquals("{\"result\":100}", lines[2]);
+    }
+
+    @Test void linesLongerThanReadBuffer() throws IOException {
+        StringBuilder pad = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) pad.append('x');
+        String input = "{\"pad\":\"" + pad + "\",\"n\":4}\n{\"n\":5,\"pad\":\"" + pad + "\"}\n";
+        assertEquals("{\"result\":25}\n{\"result\":20}\n", runString(input));
+    }
+
+    @Test void statsCountRecordsAndBytes() throws IOException {
+        byte[] input = "{\"n\":2}\n{\"n\":0}\n".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HelunaStream.Stats stats = HelunaStream.run(TestPackets.divPacket(), new ByteArrayInputStream(input), out,
+                "2024-01-01T00:00:00Z");
+        assertEquals(2, stats.records);
+        assertEquals(1, stats.errors);
+        assertEquals(input.length, stats.bytesIn);
+        assertEquals(out.size(), stats.bytesOut);
+        assertTrue(stats.nanos > 0);
+        assertTrue(stats.toString().contains("2 records (1 errors)"));
+    }
+
+    @Test void largeSyntheticStream() throws IOException {
+        SyntheticInput in = new SyntheticInput(SYNTHETIC_BYTES);
+        LineChecker out = new LineChecker();
+        HelunaStream.Stats stats = HelunaStream.run(TestPackets.divPacket(), in, out, "2024-01-01T00:00:00Z");
+
+        assertEquals(in.lines, stats.records);
+        assertEquals(in.lines, out.lines);
+        assertEquals(in.zeroLines, stats.errors);
+        assertEquals(in.zeroLines, out.errorLines);
+        assertEquals(in.produced, stats.bytesIn);
+        assertEquals(out.bytes, stats.bytesOut);
+        assertTrue(stats.nanos > 0);
+        assertTrue(stats.toString().startsWith(in.lines + " records (" + in.zeroLines + " errors)"), stats.toString());
+    }
+
+    /**
+     * Generates NDJSON lines on the fly until the byte budget is reached,
+     * so arbitrarily large inputs never need to be held in memory.
+     */
+    private static final class SyntheticInput extends InputStream {
+        private final long budget;
+        private byte[] line = new byte[0];
+        private int linePos;
+        long produced, lines, zeroLines;
+
+        SyntheticInput(long budget) {
+            this.budget = budget;
+        }
+
+        private boolean nextLine() {
+            if (produced >= budget) return false;
+            long n = lines % 7;
+            if (n == 0) zeroLines++;
+            line = ("{\"id\":" + lines + ",\"name\":\"record-" + lines + "\",\"n\":" + n
+                    + ",\"tags\":[\"a\",\"b\"],\"score\":" + (lines % 100) + ".5}\n").getBytes(StandardCharsets.UTF_8);
+            linePos = 0;
+            lines++;
+            return true;
+        }
+
+        @Override public int read() {
+            if (linePos == line.length && !nextLine()) return -1;
+            produced++;
+            return line[linePos++];
+        }
+
+        @Override public int read(byte[] b, int off, int len) {
+            int written = 0;
+            while (written < len) {
+                if (linePos == line.length && !nextLine()) break;
+                int chunk = Math.min(len - written, line.length - linePos);
+                System.arraycopy(line, linePos, b, off + written, chunk);
+                linePos += chunk;
+                written += chunk;
+            }
+            produced += written;
+            return written == 0 ? -1 : written;
+        }
+    }
+
+    /**
+     * Counts output lines and error lines without retaining the output.
+     */
+    private static final class LineChecker extends OutputStream {
+        long bytes, lines, errorLines;
+        private int col;
+        private final byte[] head = new byte[3];
+
+        @Override public void write(int b) {
+            bytes++;
+            if (b == '\n') {
+                lines++;
+                if (col >= 3 && head[0] == '{' && head[1] == '"' && head[2] == 'e') errorLines++;
+                col = 0;
+            } else {
+                if (col < 3) head[col] = (byte) b;
+                col++;
+            }
+        }
+    }
+}
@@ -6,6 +6,11 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 class HelunaVMTest {
 
@@ -550,6 +555,98 @@ class HelunaVMTest {
                 "Expected numeric, got " + mulFloat.getClass().getSimpleName());
     }
 
+    // =========================================================
+    // Batch execution
+    // =========================================================
+
+    @Test
+    void executeBatchMatchesIndividualExecution() {
+        String[] kinds = {"circle", "rectangle", "square"};
+        List<HVal.HRecord> inputs = new ArrayList<>();
+        for (String kind : kinds) {
+            String json = TestPackets.comprehensiveInput(kind);
+            inputs.add((HVal.HRecord) StdLib.parseJsonValue(json, new int[]{0}));
+        }
+
+        BatchResult batch = HelunaVM.executeBatch(pkt, inputs, "2024-01-15T10:30:00Z");
+        assertEquals(3, batch.size());
+        assertEquals(0, batch.errorCount());
+        for (int i = 0; i < inputs.size(); i++) {
+            assertEquals(HelunaVM.execute(pkt, inputs.get(i), "2024-01-15T10:30:00Z"), batch.output(i));
+        }
+    }
+
+    @Test
+    void executeBatchCollectsPerRecordErrors() {
+        List<HVal.HRecord> inputs = Arrays.asList(TestPackets.divInput(4), TestPackets.divInput(0), TestPackets.divInput(5), TestPackets.divInput(0), TestPackets.divInput(50));
+        BatchResult batch = HelunaVM.executeBatch(TestPackets.divPacket(), inputs, "2024-01-01T00:00:00Z");
+
+        assertEquals(5, batch.size());
+        assertEquals(2, batch.errorCount());
+        assertEquals(new HVal.HInteger(25), batch.output(0).get("result"));
+        assertTrue(batch.isError(1));
+        assertNull(batch.output(1));
+        assertEquals("Division by zero", batch.error(1).getMessage());
+        assertEquals(new HVal.HInteger(20), batch.output(2).get("result"));
+        assertTrue(batch.isError(3));
+        assertEquals(new HVal.HInteger(2), batch.output(4).get("result"));
+        assertNull(batch.error(4));
+        assertEquals(5, batch.outputs().size());
+    }
+
+    @Test
+    void executeBatchArrayAndIteratorVariants() {
+        HVal.HRecord[] inputs = {TestPackets.divInput(1), TestPackets.divInput(2), TestPackets.divInput(0), TestPackets.divInput(10)};
+        Packet p = TestPackets.divPacket();
+
+        BatchResult fromArray = HelunaVM.executeBatch(p, inputs, "2024-01-01T00:00:00Z");
+        BatchResult fromIterator = HelunaVM.executeBatch(p, Arrays.asList(inputs).iterator(), "2024-01-01T00:00:00Z");
+
+        assertEquals(fromArray.size(), fromIterator.size());
+        assertEquals(1, fromArray.errorCount());
+        assertEquals(1, fromIterator.errorCount());
+        for (int i = 0; i < inputs.length; i++) {
+            assertEquals(fromArray.output(i), fromIterator.output(i));
+        }
+        assertEquals(new HVal.HInteger(10), fromArray.output(3).get("result"));
+    }
+
+    @Test
+    void executeBatchRunsEachRecordAsTheIteratorYieldsIt() {
+        // A single-pass source that reuses one record, as a streaming reader would:
+        // each record must be run before the next one overwrites it
+        HVal.HRecord reused = new HVal.HRecord();
+        Iterator<HVal.HRecord> inputs = new Iterator<HVal.HRecord>() {
+            int next = 0;
+
+            @Override public boolean hasNext() { return next < 40; }
+
+            @Override public HVal.HRecord next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                reused.set("n", new HVal.HInteger(next++ % 8));
+                return reused;
+            }
+        };
+
+        BatchResult batch = HelunaVM.executeBatch(TestPackets.divPacket(), inputs, "2024-01-01T00:00:00Z");
+        assertEquals(40, batch.size());
+        assertEquals(5, batch.errorCount());
+        for (int i = 0; i < 40; i++) {
+            if (i % 8 == 0) {
+                assertEquals("Division by zero", batch.error(i).getMessage(), "index " + i);
+            } else {
+                assertEquals(new HVal.HInteger(100 / (i % 8)), batch.output(i).get("result"), "index " + i);
+            }
+        }
+    }
+
+    @Test
+    void executeBatchEmpty() {
+        BatchResult batch = HelunaVM.executeBatch(TestPackets.divPacket(), new ArrayList<>(), "2024-01-01T00:00:00Z");
+        assertEquals(0, batch.size());
+        assertEquals(0, batch.errorCount());
+    }
+
     // =========================================================
     // Helper methods
     // =========================================================
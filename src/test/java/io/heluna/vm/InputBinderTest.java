@@ -0,0 +1,84 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+class InputBinderTest {
+
+    private static final String TS = "2024-01-15T10:30:00Z";
+
+    private static Packet contract() {
+        Packet pkt = new Packet();
+        pkt.scratchpadSize = 4;
+        pkt.inputFields.add(new Packet.FieldDef("name", HVal.TYPE_STRING, 0x01, 0));
+        pkt.inputFields.add(new Packet.FieldDef("age", HVal.TYPE_INTEGER, 0, 1));
+        pkt.inputFields.add(new Packet.FieldDef("active", HVal.TYPE_BOOLEAN, 0, 2));
+        pkt.inputFields.add(new Packet.FieldDef("tags", HVal.TYPE_LIST, 0, 3));
+        pkt.instructions = new int[0][];
+        return pkt;
+    }
+
+    private static Executor bind(String json) {
+        Packet pkt = contract();
+        Executor ex = new Executor(pkt);
+        new InputBinder(pkt).bind(json.getBytes(StandardCharsets.UTF_8), 0, json.length(), ex);
+        return ex;
+    }
+
+    @Test void bindsDeclaredFieldsAndSkipsOthers() {
+        Executor ex = bind("{\"extra\":{\"a\":[1,2.5e3,\"x\\\"y\\u0041\",null,true]},"
+                + "\"age\":36,\"name\":\"Ada\",\"more\":-0.5,\"tags\":[\"a\"]}");
+        assertEquals(new HVal.HString("Ada"), ex.getSlot(0));
+        assertEquals(0x01, ex.getTag(0));
+        assertEquals(HVal.HInteger.of(36), ex.getSlot(1));
+        assertEquals(HVal.HNothing.INSTANCE, ex.getSlot(2)); // missing
+        assertEquals(1, ((HVal.HList) ex.getSlot(3)).size());
+    }
+
+    @Test void mismatchedTypesAreReadAsIs() {
+        Executor ex = bind("{\"name\":42,\"age\":\"old\",\"active\":null}");
+        assertEquals(HVal.HInteger.of(42), ex.getSlot(0));
+        assertEquals(new HVal.HString("old"), ex.getSlot(1));
+        assertEquals(HVal.HNothing.INSTANCE, ex.getSlot(2));
+    }
+
+    @Test void lastDuplicateWins() {
+        assertEquals(HVal.HInteger.of(2), bind("{\"age\":1,\"age\":2}").getSlot(1));
+    }
+
+    @Test void rejectsNonObjectsAndBadSyntax() {
+        HelunaException e = assertThrows(HelunaException.class, () -> bind("[1,2]"));
+        assertEquals("Input must be a JSON object, got: list", e.getMessage());
+        assertThrows(HelunaException.class, () -> bind("{\"skipped\":[1,}"));
+        assertThrows(HelunaException.class, () -> bind("{\"skipped\":\"bad \\q escape\"}"));
+        assertThrows(HelunaException.class, () -> bind("{\"age\":1} x"));
+        assertThrows(HelunaException.class, () -> bind("{\"age\" 1}"));
+    }
+
+    @Test void largeListsBindLazily() {
+        String tags = "[\"one\",\"two\",\"three\",\"four\",\"five\",\"six\",\"seven\",\"eight\",\"nine\"]";
+        byte[] bytes = ("{\"tags\":" + tags + "}").getBytes(StandardCharsets.UTF_8);
+        Packet pkt = contract();
+        Executor ex = new Executor(pkt);
+        new InputBinder(pkt).bind(bytes, 0, bytes.length, ex);
+        HVal.HList list = (HVal.HList) ex.getSlot(3);
+        assertNotNull(list.pendingJson());
+        bytes[10] = 'X'; // the binder holds its own copy
+        assertEquals(tags, HValJsonWriter.toJson(list));
+        assertEquals(new HVal.HString("nine"), list.get(8));
+    }
+
+    @Test void sessionMatchesRecordInput() throws IOException {
+        Packet pkt = TestPackets.comprehensive();
+        String input = "{\"unused\":{\"deep\":[{\"x\":1e-3}]},"
+                + TestPackets.comprehensiveInput("square").substring(1);
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        HelunaSession session = new HelunaSession(pkt);
+        String expected = HValJsonWriter.toJson(session.execute((HVal.HRecord) JsonReader.parse(bytes), TS));
+        assertEquals(expected, HValJsonWriter.toJson(session.execute(bytes, TS)));
+        assertEquals(expected, HelunaVM.executeJson(pkt, bytes, TS));
+    }
+}
@@ -0,0 +1,306 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static io.heluna.vm.TestPackets.instr;
+import static io.heluna.vm.TestPackets.makePacket;
+
+import java.io.IOException;
+
+class InstructionFuserTest {
+
+    private static int fusedOpcode(Packet pkt, int pc) {
+        return pkt.fusedCode.code[pc * Packet.INSTRUCTION_WIDTH];
+    }
+
+    private static int fusedLength(Packet pkt, int pc) {
+        return pkt.fusedCode.code[pc * Packet.INSTRUCTION_WIDTH + 1] >>> Executor.FUSED_LENGTH_SHIFT;
+    }
+
+    private static Executor run(Packet pkt, HVal[] slots, long[] tags) {
+        Executor ex = new Executor(pkt);
+        ex.setMode(Executor.Mode.INTERPRETER);
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) ex.setSlot(i, slots[i], tags[i]);
+        }
+        ex.execute();
+        return ex;
+    }
+
+    /** Run the packet fused and as it is, and check every slot ends up the same. */
+    private static Executor assertSameAsUnfused(Packet pkt, HVal[] slots, long[] tags) {
+        Packet.FlatCode fused = pkt.fusedCode;
+        assertNotNull(fused);
+        Executor ex = run(pkt, slots, tags);
+        pkt.fusedCode = null;
+        Executor plain = run(pkt, slots, tags);
+        pkt.fusedCode = fused;
+        for (int slot = 0; slot < pkt.scratchpadSize; slot++) {
+            assertEquals(String.valueOf(plain.getSlot(slot)), String.valueOf(ex.getSlot(slot)), "slot " + slot);
+            assertEquals(plain.getTag(slot), ex.getTag(slot), "tags of slot " + slot);
+        }
+        return ex;
+    }
+
+    @Test void constantAddIsFused() {
+        Packet pkt = makePacket(3,
+                new HVal[]{HVal.HInteger.of(40), HVal.HInteger.of(2)},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 0, 0, 0),
+                    instr(Executor.LOAD_CONST, 0, 1, 1, 0),
+                    instr(Executor.ADD, 0, 2, 0, 1),
+                });
+        assertEquals(1, InstructionFuser.fuse(pkt));
+        assertEquals(Executor.LOAD_CONST, fusedOpcode(pkt, 0));
+        assertEquals(Executor.LOAD_CONST_ADD, fusedOpcode(pkt, 1));
+        assertEquals(Executor.LOAD_CONST, pkt.instructions[1][0]); // the generic code is left alone
+
+        Executor ex = assertSameAsUnfused(pkt, new HVal[3], new long[3]);
+        assertEquals(HVal.HInteger.of(42), ex.getSlot(2));
+    }
+
+    @Test void keyedRecordAccessIsFused() {
+        Packet pkt = makePacket(6,
+                new HVal[]{new HVal.HString("a"), new HVal.HString("b"), HVal.HInteger.of(7)},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 1, 0, 0),
+                    instr(Executor.COPY, 0, 2, 5, 0),
+                    instr(Executor.RECORD_SET, 0, 0, 1, 2),    // r.a = slot 5
+                    instr(Executor.LOAD_CONST, 0, 1, 1, 0),
+                    instr(Executor.LOAD_CONST, 0, 2, 2, 0),
+                    instr(Executor.RECORD_SET, 0, 0, 1, 2),    // r.b = 7
+                    instr(Executor.LOAD_CONST, 0, 3, 0, 0),
+                    instr(Executor.RECORD_GET, 0, 4, 0, 3),    // r.a
+                });
+        assertEquals(5, InstructionFuser.fuse(pkt));
+        assertEquals(Executor.LOAD_CONST_RECORD_SET, fusedOpcode(pkt, 0));
+        assertEquals(2, fusedLength(pkt, 0));
+        assertEquals(Executor.LOAD_CONST_RECORD_SET, fusedOpcode(pkt, 3));
+        assertEquals(Executor.LOAD_CONST_RECORD_GET, fusedOpcode(pkt, 6));
+
+        HVal[] slots = new HVal[6];
+        long[] tags = new long[6];
+        slots[0] = new HVal.HRecord();
+        slots[5] = new HVal.HString("x");
+        tags[5] = 4;
+        Executor ex = assertSameAsUnfused(pkt, slots, tags);
+        assertEquals("{a: \"x\", b: 7}", ex.getSlot(0).toString());
+        assertEquals(4, ex.getTag(0));
+        assertEquals(new HVal.HString("x"), ex.getSlot(4));
+    }
+
+    @Test void fusedRecordAccessFailsLikeTheUnfusedOne() {
+        Packet pkt = makePacket(3,
+                new HVal[]{new HVal.HString("a")},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 1, 0, 0),
+                    instr(Executor.RECORD_GET, 0, 2, 0, 1),
+                });
+        assertEquals(1, InstructionFuser.fuse(pkt));
+        Executor ex = new Executor(pkt);
+        ex.setMode(Executor.Mode.INTERPRETER);
+        ex.setSlot(0, HVal.HInteger.of(1));
+        HelunaException fused = assertThrows(HelunaException.class, ex::execute);
+        pkt.fusedCode = null;
+        HelunaException plain = assertThrows(HelunaException.class, ex::execute);
+        assertEquals(plain.getMessage(), fused.getMessage());
+        assertEquals(new HVal.HString("a"), ex.getSlot(1));
+    }
+
+    @Test void fieldWithDefaultIsFused() {
+        Packet pkt = makePacket(5,
+                new HVal[]{new HVal.HString("a"), new HVal.HString("b")},
+                new int[][]{
+                    instr(Executor.RECORD_GET_C, 0, 1, 0, 0),
+                    instr(Executor.COALESCE, 0, 2, 1, 4),
+                    instr(Executor.RECORD_GET_C, 0, 1, 0, 1),
+                    instr(Executor.COALESCE, 0, 3, 1, 4),
+                });
+        assertEquals(2, InstructionFuser.fuse(pkt));
+        assertEquals(Executor.RECORD_GET_C_COALESCE, fusedOpcode(pkt, 0));
+        assertEquals(Executor.RECORD_GET_C_COALESCE, fusedOpcode(pkt, 2));
+
+        HVal.HRecord rec = new HVal.HRecord();
+        rec.set("a", HVal.HInteger.of(1));
+        Executor ex = assertSameAsUnfused(pkt, new HVal[]{rec, null, null, null, new HVal.HString("none")},
+                new long[]{1, 0, 0, 0, 2});
+        assertEquals(HVal.HInteger.of(1), ex.getSlot(2));
+        assertEquals(1, ex.getTag(2));
+        assertEquals(new HVal.HString("none"), ex.getSlot(3));
+        assertEquals(2, ex.getTag(3));
+    }
+
+    @Test void recordBuiltFromConstantKeysIsFused() {
+        Packet pkt = makePacket(4,
+                new HVal[]{new HVal.HString("a"), new HVal.HString("b"), new HVal.HString("c")},
+                new int[][]{
+                    instr(Executor.RECORD_NEW, 0, 0, 0, 0),
+                    instr(Executor.RECORD_SET_C, 0, 0, 0, 1),
+                    instr(Executor.RECORD_SET_C, 0, 0, 1, 2),
+                    instr(Executor.RECORD_SET_C, 0, 0, 2, 3),
+                    instr(Executor.RECORD_SET_C, 0, 1, 0, 3),  // another record
+                });
+        assertEquals(3, InstructionFuser.fuse(pkt));
+        assertEquals(Executor.RECORD_NEW_SET_C_N, fusedOpcode(pkt, 0));
+        assertEquals(3, fusedLength(pkt, 0));
+        assertEquals(Executor.RECORD_SET_C, fusedOpcode(pkt, 4));
+
+        Executor ex = assertSameAsUnfused(pkt,
+                new HVal[]{null, new HVal.HRecord(), HVal.HInteger.of(2), HVal.HInteger.of(3)},
+                new long[]{0, 1, 2, 4});
+        assertEquals("{a: {a: 3}, b: 2, c: 3}", ex.getSlot(0).toString());
+        assertEquals(7, ex.getTag(0));
+    }
+
+    @Test void concatenationChainsAreFused() {
+        Packet pkt = makePacket(8,
+                new HVal[0],
+                new int[][]{
+                    instr(Executor.STR_CONCAT, 0, 4, 0, 1),
+                    instr(Executor.STR_CONCAT, 0, 4, 4, 2),   // overwrites the one before
+                    instr(Executor.STR_CONCAT, 0, 5, 4, 3),
+                    instr(Executor.STR_CONCAT, 0, 6, 5, 4),   // reads a stored result
+                    instr(Executor.STR_CONCAT, 0, 6, 6, 6),   // would read the one before: not fused
+                });
+        assertEquals(3, InstructionFuser.fuse(pkt));
+        assertEquals(Executor.STR_CONCAT_N, fusedOpcode(pkt, 0));
+        assertEquals(3, fusedLength(pkt, 0));
+        assertEquals(Executor.STR_CONCAT, fusedOpcode(pkt, 4));
+
+        Executor ex = assertSameAsUnfused(pkt,
+                new HVal[]{new HVal.HString("a"), HVal.HInteger.of(1), new HVal.HFloat(2.0), HVal.HBoolean.TRUE},
+                new long[]{1, 2, 4, 8});
+        assertEquals(new HVal.HString("a12.0"), ex.getSlot(4));
+        assertEquals(new HVal.HString("a12.0true"), ex.getSlot(5));
+        assertEquals(15, ex.getTag(6));
+    }
+
+    @Test void concatenationsWithOtherTagModesAreNotFused() {
+        Packet pkt = makePacket(4, new HVal[0],
+                new int[][]{
+                    instr(Executor.STR_CONCAT, 0, 2, 0, 1),
+                    instr(Executor.STR_CONCAT, 1 << 3, 3, 2, 1),  // tag mode CLEAR
+                });
+        assertEquals(0, InstructionFuser.fuse(pkt));
+        assertNull(pkt.fusedCode);
+    }
+
+    @Test void jumpsIntoASequenceSplitIt() {
+        Packet pkt = makePacket(4,
+                new HVal[]{HVal.HInteger.of(1), HVal.HBoolean.TRUE},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 3, 1, 0),
+                    instr(Executor.JUMP_IF, 0, 3, 3, 0),
+                    instr(Executor.LOAD_CONST, 0, 0, 0, 0),
+                    instr(Executor.ADD, 0, 1, 0, 0),           // jump target
+                    instr(Executor.LOAD_CONST, 0, 2, 0, 0),
+                    instr(Executor.ADD, 0, 2, 2, 1),
+                });
+        assertEquals(1, InstructionFuser.fuse(pkt));
+        assertEquals(Executor.LOAD_CONST, fusedOpcode(pkt, 2));
+        assertEquals(Executor.LOAD_CONST_ADD, fusedOpcode(pkt, 4));
+        Executor ex = assertSameAsUnfused(pkt, new HVal[]{HVal.HInteger.of(5), null, null, null}, new long[4]);
+        assertEquals(HVal.HInteger.of(11), ex.getSlot(2));
+    }
+
+    @Test void typedCodeIsFusedToo() {
+        Packet pkt = makePacket(3,
+                new HVal[]{HVal.HInteger.of(2)},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 1, 0, 0),
+                    instr(Executor.ADD, 0, 2, 0, 1),
+                });
+        pkt.inputFields.add(new Packet.FieldDef("a", HVal.TYPE_INTEGER, 0, 0));
+        assertEquals(1, TypeAnalyzer.specialize(pkt));
+        assertEquals(1, InstructionFuser.fuse(pkt));
+        assertEquals(Executor.LOAD_CONST_ADD, pkt.typedCode.code[0]);
+        assertEquals(Executor.ADD_II, pkt.typedCode.code[Packet.INSTRUCTION_WIDTH]);
+        assertEquals(HVal.HInteger.of(5), run(pkt, new HVal[]{HVal.HInteger.of(3)}, new long[1]).getSlot(2));
+    }
+
+    /** replace("a-b", "-", "+") with its arguments set out of order, the replacement through a copy. */
+    private static Packet replaceCall(int argsSlot, int[]... after) {
+        int[][] call = {
+            instr(Executor.RECORD_NEW, 0, argsSlot, 0, 0),
+            instr(Executor.LOAD_CONST, 0, 3, 0, 0),
+            instr(Executor.RECORD_SET, 0, argsSlot, 3, 2),      // value: slot 2
+            instr(Executor.LOAD_CONST, 0, 3, 4, 0),
+            instr(Executor.COPY, 0, 5, 6, 0),
+            instr(Executor.RECORD_SET, 0, argsSlot, 3, 5),      // replacement: slot 6
+            instr(Executor.LOAD_CONST, 0, 3, 2, 0),
+            instr(Executor.LOAD_CONST, 0, 4, 3, 0),
+            instr(Executor.RECORD_SET, 0, argsSlot, 3, 4),      // find: "-"
+            instr(Executor.STDLIB_CALL, 0, 7, 0x0007, argsSlot),
+        };
+        int[][] instructions = new int[call.length + after.length][];
+        System.arraycopy(call, 0, instructions, 0, call.length);
+        System.arraycopy(after, 0, instructions, call.length, after.length);
+        return makePacket(8,
+                new HVal[]{new HVal.HString("value"), new HVal.HString("a-b"), new HVal.HString("find"),
+                    new HVal.HString("-"), new HVal.HString("replacement")},
+                instructions);
+    }
+
+    private static Executor runCall(Packet pkt) {
+        Executor ex = new Executor(pkt);
+        ex.setStdLib(new StdLib());
+        ex.setMode(Executor.Mode.INTERPRETER);
+        ex.setSlot(2, new HVal.HString("a-b"), 4);
+        ex.setSlot(6, new HVal.HString("+"), 8);
+        ex.execute();
+        return ex;
+    }
+
+    @Test void stdlibCallsSkipTheArgumentRecord() {
+        Packet pkt = replaceCall(1);
+        assertEquals(9, InstructionFuser.fuse(pkt));
+        assertEquals(Executor.STDLIB_CALL_ARGS, fusedOpcode(pkt, 0));
+        assertEquals(9, fusedLength(pkt, 0));
+        Executor ex = runCall(pkt);
+        assertEquals(new HVal.HString("a+b"), ex.getSlot(7));
+        assertEquals(12, ex.getTag(7));
+        assertEquals(12, ex.getTag(1));
+        assertEquals(HVal.HNothing.INSTANCE, ex.getSlot(1)); // never built
+
+        pkt.fusedCode = null;
+        Executor plain = runCall(pkt);
+        for (int slot = 2; slot < pkt.scratchpadSize; slot++) {
+            assertEquals(String.valueOf(plain.getSlot(slot)), String.valueOf(ex.getSlot(slot)), "slot " + slot);
+            assertEquals(plain.getTag(slot), ex.getTag(slot), "tags of slot " + slot);
+        }
+    }
+
+    @Test void argumentRecordsReadElsewhereAreBuilt() {
+        Packet read = replaceCall(1, instr(Executor.COPY, 0, 6, 1, 0));
+        InstructionFuser.fuse(read);
+        assertEquals(Executor.RECORD_NEW, fusedOpcode(read, 0));
+        Executor ex = runCall(read);
+        assertEquals(new HVal.HString("a+b"), ex.getSlot(7));
+        assertEquals(new HVal.HString("-"), ((HVal.HRecord) ex.getSlot(6)).get("find"));
+
+        Packet output = replaceCall(0); // slot 0 is the output record
+        InstructionFuser.fuse(output);
+        assertEquals(Executor.RECORD_NEW, fusedOpcode(output, 0));
+        assertEquals(new HVal.HString("a+b"), runCall(output).getSlot(7));
+
+        Packet unknownKey = replaceCall(1);
+        unknownKey.constants.set(2, new HVal.HString("search"));
+        InstructionFuser.fuse(unknownKey);
+        assertEquals(Executor.RECORD_NEW, fusedOpcode(unknownKey, 0));
+    }
+
+    @Test void loadedPacketsAreFusedAndGiveTheSameOutput() throws IOException {
+        Packet pkt = TestPackets.comprehensive();
+        assertNotNull(pkt.fusedCode);
+        boolean positional = false;
+        for (int base = 0; base < pkt.fusedCode.code.length; base += Packet.INSTRUCTION_WIDTH) {
+            positional |= pkt.fusedCode.code[base] == Executor.STDLIB_CALL_ARGS;
+        }
+        assertTrue(positional);
+        String input = TestPackets.COMPREHENSIVE_INPUT;
+        String fused = HelunaVM.executeJson(pkt, input, "2024-01-15T10:30:00Z");
+        pkt.fusedCode = null;
+        TypeAnalyzer.specialize(pkt);
+        assertEquals(HelunaVM.executeJson(pkt, input, "2024-01-15T10:30:00Z"), fused);
+    }
+}
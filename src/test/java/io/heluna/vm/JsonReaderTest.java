@@ -0,0 +1,202 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+class JsonReaderTest {
+
+    private static HVal parse(String json) {
+        return JsonReader.parse(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String str(String json) {
+        return ((HVal.HString) parse(json)).value();
+    }
+
+    // --- Strings ---
+
+    @Test void asciiString() {
+        assertEquals("hello world", str("\"hello world\""));
+        assertEquals("", str("\"\""));
+    }
+
+    @Test void escapes() {
+        assertEquals("a\"b\\c/d\be\ff\ng\rh\ti", str("\"a\\\"b\\\\c\\/d\\be\\ff\\ng\\rh\\ti\""));
+        assertEquals("A\u00e9", str("\"\\u0041\\u00E9\""));
+    }
+
+    @Test void surrogatePairEscape() {
+        String s = str("\"x\\ud83d\\ude00y\"");
+        assertEquals("x\ud83d\ude00y", s);
+        assertEquals(0x1F600, s.codePointAt(1));
+    }
+
+    @Test void loneSurrogatesBecomeReplacementChar() {
+        assertEquals("\uFFFDa", str("\"\\ud83da\""));
+        assertEquals("\uFFFD", str("\"\\ude00\""));
+        assertEquals("\uFFFDA", str("\"\\ud83d\\u0041\""));
+    }
+
+    @Test void utf8Multibyte() {
+        String text = "caf\u00e9 \u20ac \ud83d\ude00 \u65e5\u672c";
+        assertEquals(text, str("\"" + text + "\""));
+        assertEquals(text + "\n", str("\"" + text + "\\n\""));
+    }
+
+    @Test void invalidUtf8BecomesReplacementChar() {
+        byte[] bytes = {'"', 'a', (byte) 0xC3, '"'};
+        assertEquals("a\uFFFD", ((HVal.HString) JsonReader.parse(bytes)).value());
+        byte[] overlong = {'"', (byte) 0xC0, (byte) 0x80, '"'};
+        assertEquals("\uFFFD", ((HVal.HString) JsonReader.parse(overlong)).value());
+    }
+
+    @Test void longStringWithEscapesGrowsScratch() {
+        StringBuilder json = new StringBuilder("\"");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            json.append("ab\\n\u00e9");
+            expected.append("ab\n\u00e9");
+        }
+        json.append('"');
+        assertEquals(expected.toString(), str(json.toString()));
+    }
+
+    // --- Numbers ---
+
+    @Test void integers() {
+        assertEquals(new HVal.HInteger(0), parse("0"));
+        assertEquals(new HVal.HInteger(42), parse("42"));
+        assertEquals(new HVal.HInteger(-7), parse("-7"));
+        assertEquals(new HVal.HInteger(999_999_999_999_999_999L), parse("999999999999999999"));
+    }
+
+    @Test void longBoundaries() {
+        assertEquals(new HVal.HInteger(Long.MAX_VALUE), parse(Long.toString(Long.MAX_VALUE)));
+        assertEquals(new HVal.HInteger(Long.MIN_VALUE), parse(Long.toString(Long.MIN_VALUE)));
+        assertThrows(HelunaException.class, () -> parse("9223372036854775808"));
+    }
+
+    @Test void floats() {
+        assertEquals(new HVal.HFloat(3.14), parse("3.14"));
+        assertEquals(new HVal.HFloat(-0.5), parse("-0.5"));
+        assertEquals(new HVal.HFloat(1500.0), parse("1.5e3"));
+        assertEquals(new HVal.HFloat(1.5e-3), parse("1.5E-3"));
+        assertEquals(new HVal.HFloat(2e10), parse("2e+10"));
+        assertEquals(new HVal.HFloat(0.1), parse("0.1"));
+    }
+
+    @Test void floatsOutsideFastPath() {
+        assertEquals(new HVal.HFloat(1.7976931348623157e308), parse("1.7976931348623157e308"));
+        assertEquals(new HVal.HFloat(4.9e-324), parse("4.9e-324"));
+        assertEquals(new HVal.HFloat(0.12345678901234568), parse("0.12345678901234567890"));
+        assertEquals(new HVal.HFloat(1e300), parse("1e300"));
+    }
+
+    @Test void negativeZero() {
+        HVal v = parse("-0.0");
+        assertEquals(Double.doubleToRawLongBits(-0.0),
+                Double.doubleToRawLongBits(((HVal.HFloat) v).value()));
+    }
+
+    @Test void fastPathMatchesDoubleParse() {
+        String[] samples = {"0.001", "123.456", "99.99", "1e22", "1e-22", "314159265358979e-14",
+                "2.5", "7.0e-5", "100.125", "0.3"};
+        for (String s : samples) {
+            assertEquals(Double.parseDouble(s), ((HVal.HFloat) parse(s)).value(), 0.0, s);
+        }
+    }
+
+    // --- Structures ---
+
+    @Test void literals() {
+        assertEquals(HVal.HBoolean.TRUE, parse("true"));
+        assertEquals(HVal.HBoolean.FALSE, parse("false"));
+        assertEquals(HVal.HNothing.INSTANCE, parse("null"));
+    }
+
+    @Test void nestedStructures() {
+        HVal v = parse(" { \"a\" : [1, 2.5, \"x\", {\"b\": null}], \"c\": {}, \"d\": [] } ");
+        HVal.HRecord rec = (HVal.HRecord) v;
+        HVal.HList a = (HVal.HList) rec.get("a");
+        assertEquals(4, a.size());
+        assertEquals(new HVal.HInteger(1), a.get(0));
+        assertEquals(new HVal.HFloat(2.5), a.get(1));
+        assertEquals(new HVal.HString("x"), a.get(2));
+        assertEquals(HVal.HNothing.INSTANCE, ((HVal.HRecord) a.get(3)).get("b"));
+        assertEquals(0, ((HVal.HRecord) rec.get("c")).fields().size());
+        assertEquals(0, ((HVal.HList) rec.get("d")).size());
+    }
+
+    @Test void preservesKeyOrder() {
+        HVal.HRecord rec = (HVal.HRecord) parse("{\"z\":1,\"a\":2,\"m\":3}");
+        assertEquals("[z, a, m]", rec.fields().keySet().toString());
+    }
+
+    @Test void escapedAndUnicodeKeys() {
+        HVal.HRecord rec = (HVal.HRecord) parse("{\"a\\\"b\":1,\"caf\u00e9\":2}");
+        assertEquals(new HVal.HInteger(1), rec.get("a\"b"));
+        assertEquals(new HVal.HInteger(2), rec.get("caf\u00e9"));
+    }
+
+    @Test void keyCacheSharesKeysAcrossRecords() {
+        HVal.HList list = (HVal.HList) parse("[{\"name\":\"a\"},{\"name\":\"b\"}]");
+        String k0 = ((HVal.HRecord) list.get(0)).fields().keySet().iterator().next();
+        String k1 = ((HVal.HRecord) list.get(1)).fields().keySet().iterator().next();
+        assertEquals("name", k0);
+        assertSame(k0, k1);
+    }
+
+    @Test void resetReusesReader() {
+        byte[] buf = "{\"n\":1}\n{\"n\":2}".getBytes(StandardCharsets.UTF_8);
+        JsonReader reader = new JsonReader(buf, 0, 7);
+        assertEquals(new HVal.HInteger(1), ((HVal.HRecord) reader.readDocument()).get("n"));
+        reader.reset(buf, 8, 7);
+        assertEquals(new HVal.HInteger(2), ((HVal.HRecord) reader.readDocument()).get("n"));
+    }
+
+    @Test void byteBuffers() {
+        byte[] bytes = "xx[1,2]".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer heap = ByteBuffer.wrap(bytes);
+        heap.position(2);
+        assertEquals(2, ((HVal.HList) JsonReader.parse(heap)).size());
+        assertEquals(2, heap.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(5);
+        direct.put("[1,2]".getBytes(StandardCharsets.UTF_8)).flip();
+        assertEquals(2, ((HVal.HList) JsonReader.parse(direct)).size());
+    }
+
+    // --- Errors ---
+
+    @Test void malformedInputThrows() {
+        String[] bad = {"", "   ", "{", "[1,", "{\"a\"}", "{\"a\":1,}", "[1 2]", "\"abc", "tru", "nul",
+                "-", "1.", "1e", "01x", "\"\\x\"", "\"\\u12\"", "{a:1}", "[1]]"};
+        for (String s : bad) {
+            assertThrows(HelunaException.class, () -> parse(s), s);
+        }
+    }
+
+    @Test void errorReportsOffset() {
+        HelunaException e = assertThrows(HelunaException.class, () -> parse("{\"a\":1 \"b\":2}"));
+        assertTrue(e.getMessage().contains("offset 7"), e.getMessage());
+    }
+
+    @Test void readValueStopsAfterValue() {
+        JsonReader reader = new JsonReader("42 rest".getBytes(StandardCharsets.UTF_8));
+        assertEquals(new HVal.HInteger(42), reader.readValue());
+        assertEquals(2, reader.position());
+    }
+
+    // --- Equivalence with the String parser ---
+
+    @Test void matchesLegacyParser() {
+        String json = "{\"id\":12345,\"name\":\"Widget \\\"Pro\\\"\",\"price\":19.99,\"tags\":[\"a\",\"b\\nc\"],"
+                + "\"nested\":{\"ok\":true,\"none\":null,\"neg\":-3,\"exp\":6.02e23},\"unicode\":\"\u00fcber \u20ac\"}";
+        HVal legacy = StdLib.parseJsonValue(json, new int[]{0});
+        assertEquals(legacy, parse(json));
+        assertEquals(StdLib.toJson(legacy), StdLib.toJson(parse(json)));
+    }
+}
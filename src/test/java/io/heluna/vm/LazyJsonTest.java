@@ -0,0 +1,89 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+class LazyJsonTest {
+
+    private static final String BIG = "{\"id\":12345,\"name\":\"padding padding padding\","
+            + "\"tags\":[\"alpha\",\"beta\",\"gamma\",\"delta\",\"epsilon\",\"zeta\",\"eta\",\"theta\"],"
+            + "\"ok\":true,\"none\":null,\"neg\":-7}";
+
+    private static HVal readLazy(String json) {
+        JsonReader r = new JsonReader(json.getBytes(StandardCharsets.UTF_8));
+        r.setLazy(true, false);
+        return r.readDocument();
+    }
+
+    @Test void largeRecordParsesOnFirstAccess() {
+        HVal.HRecord rec = (HVal.HRecord) readLazy(BIG);
+        assertNotNull(rec.pendingJson());
+        assertEquals(HVal.HInteger.of(12345), rec.get("id"));
+        assertNull(rec.pendingJson());
+        assertEquals(6, rec.size());
+        assertEquals(JsonReader.parse(BIG.getBytes(StandardCharsets.UTF_8)), rec);
+    }
+
+    @Test void smallValuesAreParsedDirectly() {
+        HVal.HRecord rec = (HVal.HRecord) readLazy("{\"a\":[1,2],\"b\":{\"c\":3}}");
+        assertNull(rec.pendingJson());
+        assertNull(((HVal.HList) rec.get("a")).pendingJson());
+    }
+
+    @Test void nestedValuesStayLazyUntilReached() {
+        HVal.HList list = (HVal.HList) readLazy("[" + BIG + "," + BIG + "]");
+        assertNotNull(list.pendingJson());
+        HVal.HRecord first = (HVal.HRecord) list.get(0);
+        assertNull(list.pendingJson());
+        assertNotNull(first.pendingJson());
+        assertEquals(8, ((HVal.HList) first.get("tags")).size());
+    }
+
+    @Test void untouchedCanonicalTextIsCopied() {
+        HVal v = readLazy(BIG);
+        assertTrue(((HVal.HRecord) v).pendingJson().canonical());
+        assertEquals(BIG, HValJsonWriter.toJson(v));
+        assertNotNull(((HVal.HRecord) v).pendingJson());
+    }
+
+    @Test void otherTextIsReserialized() {
+        String[] inputs = {
+            BIG.replace(",", ", "),
+            BIG.replace("padding", "pad\\u0064ing"),
+            BIG.replace("12345", "1.5e3"),
+            BIG.replace("-7", "-0"),
+            BIG.replace("\"neg\"", "\"id\""),
+            BIG.replace("12345", "1234567890123456789"),
+            BIG.replace("padding", "pädding"),
+        };
+        for (String input : inputs) {
+            HVal v = readLazy(input);
+            assertFalse(((HVal.HRecord) v).pendingJson().canonical(), input);
+            assertEquals(HValJsonWriter.toJson(JsonReader.parse(input.getBytes(StandardCharsets.UTF_8))),
+                    HValJsonWriter.toJson(v), input);
+        }
+    }
+
+    @Test void changesAreWritten() {
+        HVal.HRecord rec = (HVal.HRecord) readLazy(BIG);
+        rec.set("extra", HVal.HInteger.of(1));
+        assertEquals(BIG.substring(0, BIG.length() - 1) + ",\"extra\":1}", HValJsonWriter.toJson(rec));
+        HVal.HList list = (HVal.HList) readLazy("[" + BIG + "]");
+        list.add(HVal.HBoolean.FALSE);
+        assertEquals("[" + BIG + ",false]", HValJsonWriter.toJson(list));
+    }
+
+    @Test void copiedValuesOutliveTheBuffer() {
+        byte[] bytes = ("{\"v\":" + BIG + "}").getBytes(StandardCharsets.UTF_8);
+        JsonReader r = new JsonReader(bytes);
+        r.setLazy(true, true);
+        HVal.HRecord outer = (HVal.HRecord) r.readDocument();
+        HVal inner = outer.get("v");
+        Arrays.fill(bytes, (byte) ' ');
+        assertEquals(BIG, HValJsonWriter.toJson(inner));
+        assertEquals(HVal.HInteger.of(-7), ((HVal.HRecord) inner).get("neg"));
+    }
+}
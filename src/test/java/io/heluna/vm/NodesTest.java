@@ -0,0 +1,92 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static io.heluna.vm.TestPackets.instr;
+import static io.heluna.vm.TestPackets.makePacket;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+class NodesTest {
+
+    private static Executor runNodes(Packet pkt) {
+        Executor ex = new Executor(pkt);
+        ex.setMode(Executor.Mode.NODES);
+        ex.execute();
+        return ex;
+    }
+
+    @Test void loaderPredecodesInstructions() throws IOException {
+        Packet pkt = TestPackets.comprehensive();
+        assertNotNull(pkt.nodes);
+        assertEquals(pkt.instructions.length, pkt.nodes.length);
+        for (Nodes.Node node : pkt.nodes) {
+            assertFalse(node instanceof Nodes.InterpretNode, node.getClass().getSimpleName());
+        }
+    }
+
+    @Test void constantsAndKeysAreResolved() {
+        Packet pkt = makePacket(4, new HVal[]{new HVal.HString("name"), new HVal.HString("Ada")},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 1, 1, 0),
+                    instr(Executor.RECORD_NEW_SET_C, 0, 2, 0, 1),
+                    instr(Executor.RECORD_GET_C, 1 << 3, 3, 2, 0),
+                });
+        Nodes.Node[] nodes = Nodes.forPacket(pkt);
+        assertSame(pkt.constants.get(1), ((Nodes.LoadNode) nodes[0]).value);
+        assertEquals("name", ((Nodes.RecordGetConstNode) nodes[2]).key);
+        assertEquals(Executor.TAG_CLEAR, ((Nodes.RecordGetConstNode) nodes[2]).tagMode);
+        assertEquals(new HVal.HString("Ada"), runNodes(pkt).getSlot(3));
+    }
+
+    @Test void comprehensivePacketMatchesSwitchLoop() throws IOException {
+        Packet pkt = TestPackets.comprehensive();
+        String input = TestPackets.comprehensiveInput("square");
+        HVal.HRecord record = (HVal.HRecord) JsonReader.parse(input.getBytes(StandardCharsets.UTF_8));
+        String ts = "2024-01-15T10:30:00Z";
+
+        HelunaSession switchLoop = new HelunaSession(pkt);
+        switchLoop.setMode(Executor.Mode.INTERPRETER);
+        HelunaSession nodes = new HelunaSession(pkt);
+        nodes.setMode(Executor.Mode.NODES);
+        String expected = StdLib.toJson(switchLoop.execute(record, ts));
+        assertEquals(expected, StdLib.toJson(nodes.execute(record, ts)));
+        assertEquals(expected, StdLib.toJson(nodes.execute(record, ts)));
+    }
+
+    @Test void unresolvableOperandsFailLikeTheInterpreter() {
+        Packet pkt = makePacket(2, new HVal[]{new HVal.HInteger(7)},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 0, 0, 0),
+                    instr(Executor.RECORD_GET_C, 0, 1, 0, 0),   // key constant is not a string
+                });
+        Nodes.Node[] nodes = Nodes.forPacket(pkt);
+        assertTrue(nodes[1] instanceof Nodes.InterpretNode);
+        Executor interpreted = new Executor(pkt);
+        Exception expected = assertThrows(RuntimeException.class,
+                () -> interpreted.execute(pkt.instructions, 0, 2));
+        Exception actual = assertThrows(RuntimeException.class, () -> runNodes(pkt));
+        assertEquals(expected.getClass(), actual.getClass());
+        assertEquals(expected.getMessage(), actual.getMessage());
+    }
+
+    @Test void unknownOpcodeReportsPc() {
+        Packet pkt = makePacket(1, new HVal[]{},
+                new int[][]{ instr(Executor.LOAD_NOTHING, 0, 0, 0, 0), instr(0xEE, 0, 0, 0, 0) });
+        HelunaException e = assertThrows(HelunaException.class, () -> runNodes(pkt));
+        assertEquals("Unknown opcode 0xEE at pc=1", e.getMessage());
+    }
+
+    @Test void interpreterModeBypassesTiering() {
+        Packet pkt = makePacket(1, new HVal[]{new HVal.HInteger(1)},
+                new int[][]{ instr(Executor.LOAD_CONST, 0, 0, 0, 0) });
+        Executor ex = new Executor(pkt);
+        ex.setMode(Executor.Mode.INTERPRETER);
+        for (int i = 0; i < 5; i++) ex.execute();
+        assertEquals(0, pkt.profile.executions());
+        ex.setMode(Executor.Mode.TIERED);
+        ex.execute();
+        assertEquals(1, pkt.profile.executions());
+    }
+}
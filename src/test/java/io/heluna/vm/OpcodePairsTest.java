@@ -0,0 +1,56 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static io.heluna.vm.TestPackets.instr;
+import static io.heluna.vm.TestPackets.loopPacket;
+
+import java.io.IOException;
+import java.util.List;
+
+class OpcodePairsTest {
+
+    @Test void fallThroughPairsAreCountedPerRun() {
+        OpcodePairs pairs = new OpcodePairs(loopPacket());
+        pairs.execute(new HVal.HRecord(), "2024-01-15T10:30:00Z");
+        assertEquals(4, pairs.count(Executor.LOAD_CONST, Executor.LOAD_CONST));
+        assertEquals(1, pairs.count(Executor.LOAD_CONST, Executor.CMP_JUMP_LT));
+        assertEquals(10, pairs.count(Executor.CMP_JUMP_LT, Executor.ADD));
+        assertEquals(10, pairs.count(Executor.ADD, Executor.STDLIB_CALL_1));
+        assertEquals(10, pairs.count(Executor.STDLIB_CALL_1, Executor.ADD));
+        assertEquals(10, pairs.count(Executor.ADD, Executor.JUMP));
+        assertEquals(0, pairs.count(Executor.JUMP, Executor.CMP_JUMP_LT)); // a jump, not a fall-through
+        assertEquals(45, pairs.total());
+
+        pairs.execute(new HVal.HRecord(), "2024-01-15T10:30:00Z");
+        assertEquals(20, pairs.count(Executor.ADD, Executor.STDLIB_CALL_1));
+        assertEquals(90, pairs.total());
+    }
+
+    @Test void topPairsComeMostFrequentFirst() {
+        OpcodePairs pairs = new OpcodePairs(loopPacket());
+        pairs.execute(new HVal.HRecord(), "2024-01-15T10:30:00Z");
+        List<OpcodePairs.Pair> top = pairs.top(5);
+        assertEquals(5, top.size());
+        assertEquals(10, top.get(0).count());
+        assertEquals(10, top.get(3).count());
+        assertEquals(4, top.get(4).count());
+        assertEquals(Executor.LOAD_CONST, top.get(4).first());
+        assertEquals(Executor.LOAD_CONST, top.get(4).second());
+        assertEquals("LOAD_CONST > LOAD_CONST: 4", top.get(4).toString());
+        assertEquals(6, pairs.top(100).size());
+
+        String[] lines = pairs.report(2).split(System.lineSeparator());
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].matches("\\w+ +\\w+ +10 +22\\.22%"), lines[0]);
+    }
+
+    @Test void countedRunsGiveTheSameOutput() throws IOException {
+        Packet pkt = TestPackets.comprehensive();
+        HVal.HRecord record = TestPackets.comprehensiveRecord();
+        OpcodePairs pairs = new OpcodePairs(pkt);
+        assertEquals(HValJsonWriter.toJson(HelunaVM.execute(pkt, record, "2024-01-15T10:30:00Z")),
+                HValJsonWriter.toJson(pairs.execute(record, "2024-01-15T10:30:00Z")));
+        assertTrue(pairs.count(Executor.RECORD_SET, Executor.LOAD_CONST) > 0);
+    }
+}
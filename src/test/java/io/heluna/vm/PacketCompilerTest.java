@@ -0,0 +1,203 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static io.heluna.vm.TestPackets.instr;
+import static io.heluna.vm.TestPackets.makePacket;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class PacketCompilerTest {
+
+    private static Executor interpret(Packet pkt) {
+        Executor ex = new Executor(pkt);
+        ex.execute(pkt.instructions, 0, pkt.instructions.length);
+        return ex;
+    }
+
+    private static Executor compiled(Packet pkt) {
+        assertTrue(HelunaVM.compile(pkt), "packet should compile");
+        Executor ex = new Executor(pkt);
+        ex.execute();
+        return ex;
+    }
+
+    private static void assertSameSlots(Packet pkt) {
+        Executor expected = interpret(pkt);
+        Executor actual = compiled(pkt);
+        for (int i = 0; i < pkt.scratchpadSize; i++) {
+            assertEquals(expected.getSlot(i), actual.getSlot(i), "slot " + i);
+            assertEquals(expected.getTag(i), actual.getTag(i), "tag " + i);
+        }
+    }
+
+    // Builds list [1..5] in slot 0 using slot 5 as scratch
+    private static List<int[]> buildList() {
+        List<int[]> code = new ArrayList<>();
+        code.add(instr(Executor.LIST_NEW, 0, 0, 0));
+        for (int i = 0; i < 5; i++) {
+            code.add(instr(Executor.LOAD_CONST, 5, i, 0));
+            code.add(instr(Executor.LIST_APPEND, 0, 5, 0));
+        }
+        return code;
+    }
+
+    private static final HVal[] ONE_TO_FIVE = {
+        new HVal.HInteger(1), new HVal.HInteger(2), new HVal.HInteger(3),
+        new HVal.HInteger(4), new HVal.HInteger(5), new HVal.HInteger(2), new HVal.HInteger(0)
+    };
+
+    @Test void comprehensivePacketMatchesInterpreter() throws IOException {
+        Packet interpreted = TestPackets.comprehensive();
+        Packet compiled = TestPackets.comprehensive();
+        assertTrue(HelunaVM.compile(compiled));
+        String input = TestPackets.COMPREHENSIVE_INPUT;
+        String ts = "2024-01-15T10:30:00Z";
+        String expected = HelunaVM.executeJson(interpreted, input, ts);
+        assertEquals(expected, HelunaVM.executeJson(compiled, input, ts));
+        // A reused session resets the scratchpad between compiled runs
+        HelunaSession session = HelunaVM.newSession(compiled);
+        HVal.HRecord record = TestPackets.comprehensiveRecord();
+        String first = StdLib.toJson(session.execute(record, ts));
+        assertEquals(first, StdLib.toJson(session.execute(record, ts)));
+    }
+
+    @Test void nestedLoopsWithBranches() {
+        // For each x in [1..5]: inner fold sums [1..5] into slot 8, then keep x if x > 2
+        List<int[]> code = buildList();
+        code.add(instr(Executor.LOAD_CONST, 6, 5, 0));           // 11: slot6 = 2
+        code.add(instr(Executor.ITER_SETUP, 0x03, 1, 0, 7));     // 12: MAP_FILTER over slot0
+        code.add(instr(Executor.LOAD_CONST, 8, 6, 0));           // 13: acc = 0
+        code.add(instr(Executor.ITER_SETUP, 0x06, 9, 0, 1));     // 14: FOLD over slot0
+        code.add(instr(Executor.ADD, 8, 8, 9));                  // 15: acc += y
+        code.add(instr(Executor.ITER_COLLECT, 8, 8, 0));         // 16
+        code.add(instr(Executor.GT, 2, 1, 6));                   // 17: predicate x > 2
+        code.add(instr(Executor.CMP_JUMP_GT, 20, 1, 6));         // 18: skip the MUL unless x > 2
+        code.add(instr(Executor.MUL, 7, 1, 8));                  // 19: x * 15
+        code.add(instr(Executor.ITER_COLLECT, 3, 2, 7));         // 20
+        Packet pkt = makePacket(10, ONE_TO_FIVE, code.toArray(new int[0][]));
+        assertSameSlots(pkt);
+        HVal.HList result = (HVal.HList) compiled(pkt).getSlot(3);
+        assertEquals(Arrays.asList(new HVal.HInteger(45), new HVal.HInteger(60), new HVal.HInteger(75)),
+                result.elements());
+    }
+
+    @Test void emptyListSkipsBody() {
+        Packet pkt = makePacket(6, new HVal[]{},
+                new int[][]{
+                    instr(Executor.LIST_NEW, 0, 0, 0),
+                    instr(Executor.ITER_SETUP, 0x00, 1, 0, 1),
+                    instr(Executor.NEGATE, 2, 1, 0),             // would throw on nothing
+                    instr(Executor.ITER_COLLECT, 3, 2, 0),
+                });
+        Executor ex = compiled(pkt);
+        assertEquals(0, ((HVal.HList) ex.getSlot(3)).size());
+    }
+
+    @Test void jumpPastEndStopsProgram() {
+        Packet pkt = makePacket(3, new HVal[]{HVal.HBoolean.TRUE, new HVal.HInteger(1)},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 0, 0),
+                    instr(Executor.JUMP_IF, 100, 0, 0),
+                    instr(Executor.LOAD_CONST, 1, 1, 0),
+                });
+        assertTrue(compiled(pkt).getSlot(1).isNothing());
+    }
+
+    @Test void tagsMatchInterpreter() {
+        Packet pkt = makePacket(8, new HVal[]{new HVal.HInteger(5), new HVal.HInteger(0b11), new HVal.HString("k")},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 0, 0),
+                    instr(Executor.TAG_SET, 0, 1, 0),
+                    instr(Executor.ADD, 1, 0, 0),                         // propagate
+                    instr(Executor.ADD, 1 << 3, 2, 0, 0),                 // clear
+                    instr(Executor.TAG_CHECK, 3, 1, 1),
+                    instr(Executor.RECORD_NEW, 4, 0, 0),
+                    instr(Executor.RECORD_SET_C, 4, 2, 1),
+                    instr(Executor.COALESCE, 5, 7, 1),
+                });
+        assertSameSlots(pkt);
+        Executor ex = compiled(pkt);
+        assertEquals(0b11, ex.getTag(1));
+        assertEquals(0, ex.getTag(2));
+        assertEquals(0b11, ex.getTag(4));
+        assertEquals(HVal.HBoolean.TRUE, ex.getSlot(3));
+    }
+
+    @Test void largePacketIsSplitIntoChunks() throws Exception {
+        // Thousands of instructions with short forward jumps between blocks
+        List<int[]> code = new ArrayList<>();
+        code.add(instr(Executor.LOAD_CONST, 0, 0, 0));
+        code.add(instr(Executor.LOAD_CONST, 1, 1, 0));
+        code.add(instr(Executor.LOAD_CONST, 2, 2, 0));
+        for (int block = 0; block < 500; block++) {
+            int skip = code.size() + 4;
+            code.add(instr(Executor.CMP_JUMP_LT, skip, 0, 2));    // always below 1000: never jumps
+            code.add(instr(Executor.ADD, 0, 0, 1));
+            code.add(instr(Executor.ADD, 0, 0, 1));
+            code.add(instr(Executor.JUMP, skip + 1, 0, 0));
+            code.add(instr(Executor.NEGATE, 0, 0, 0));            // skipped
+            code.add(instr(Executor.SUB, 0, 0, 1));
+        }
+        Packet pkt = makePacket(3, new HVal[]{new HVal.HInteger(0), new HVal.HInteger(1), new HVal.HInteger(1000)},
+                code.toArray(new int[0][]));
+        CompiledPacket compiled = PacketCompiler.compile(pkt);
+        assertNotNull(compiled);
+        long chunks = Arrays.stream(compiled.getClass().getDeclaredMethods())
+                .map(Method::getName).filter(m -> m.startsWith("c")).count();
+        assertTrue(chunks > 1, "expected several chunk methods, got " + chunks);
+        assertSameSlots(pkt);
+        assertEquals(new HVal.HInteger(500), interpret(pkt).getSlot(0));
+    }
+
+    @Test void errorsMatchInterpreter() {
+        Packet divide = makePacket(3, new HVal[]{new HVal.HInteger(1), new HVal.HInteger(0)},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 0, 0),
+                    instr(Executor.LOAD_CONST, 1, 1, 0),
+                    instr(Executor.DIV, 2, 0, 1),
+                });
+        assertTrue(HelunaVM.compile(divide));
+        HelunaException e = assertThrows(HelunaException.class, () -> new Executor(divide).execute());
+        assertEquals("Division by zero", e.getMessage());
+
+        Packet unknown = makePacket(1, new HVal[]{}, new int[][]{ instr(0xFF, 0, 0, 0) });
+        assertTrue(HelunaVM.compile(unknown));
+        e = assertThrows(HelunaException.class, () -> new Executor(unknown).execute());
+        assertEquals("Unknown opcode 0xFF at pc=0", e.getMessage());
+    }
+
+    @Test void unsupportedControlFlowStaysInterpreted() {
+        // Jump from outside into a loop body
+        List<int[]> code = buildList();
+        code.add(instr(Executor.JUMP, code.size() + 2, 0, 0));
+        code.add(instr(Executor.ITER_SETUP, 0x00, 1, 0, 1));
+        code.add(instr(Executor.COPY, 2, 1, 0));
+        code.add(instr(Executor.ITER_COLLECT, 3, 2, 0));
+        Packet jumpIn = makePacket(10, ONE_TO_FIVE, code.toArray(new int[0][]));
+        assertNull(PacketCompiler.compile(jumpIn));
+        assertFalse(HelunaVM.compile(jumpIn));
+        assertFalse(HelunaVM.compile(jumpIn)); // failure is remembered
+
+        // ITER_SETUP whose body length does not land on ITER_COLLECT
+        Packet unmatched = makePacket(4, new HVal[]{},
+                new int[][]{ instr(Executor.LIST_NEW, 0, 0, 0), instr(Executor.ITER_SETUP, 0, 1, 0, 0),
+                             instr(Executor.COPY, 2, 1, 0) });
+        assertNull(PacketCompiler.compile(unmatched));
+    }
+
+    @Test void failedClassGenerationStaysInterpreted() {
+        // A null record key makes generation fail outside the analysis checks
+        Packet pkt = makePacket(3, new HVal[]{null},
+                new int[][]{ instr(Executor.RECORD_NEW_SET_C, 0, 0, 1) });
+        assertThrows(NullPointerException.class, () -> PacketCompiler.compile(pkt));
+        assertNull(PacketCompiler.attach(pkt));
+        assertTrue(pkt.compileFailed);
+        assertEquals(PacketProfile.Tier.NOT_COMPILABLE, pkt.profile.tier());
+        assertFalse(HelunaVM.compile(pkt)); // failure is remembered
+    }
+}
@@ -223,6 +223,25 @@ class PacketLoaderTest {
         assertEquals("greeting", ((HVal.HString) third).value());
     }
 
+    @Test void constantTablesResolved() {
+        Packet.ConstantTables tables = pkt.constantTables();
+        assertEquals(pkt.constants.size(), tables.values.length);
+        assertEquals(1L, tables.tagMasks[0]);
+        assertNull(tables.keys[0]);
+        assertEquals("hello", tables.keys[1]);
+        assertEquals(0L, tables.tagMasks[1]);
+        assertSame(pkt.constants.get(2), tables.values[2]);
+        assertSame(tables, pkt.constantTables());
+    }
+
+    @Test void constantTablesFollowAddedConstants() {
+        Packet p = new Packet();
+        p.constants.add(new HVal.HString("name"));
+        assertEquals("name", p.constantTables().keys[0]);
+        p.constants.add(new HVal.HInteger(6));
+        assertEquals(6L, p.constantTables().tagMasks[1]);
+    }
+
     // --- Stdlib deps ---
 
     @Test void stdlibDepsNotEmpty() {
@@ -237,6 +256,12 @@ class PacketLoaderTest {
         assertTrue(pkt.stdlibDeps.contains(0x0001), "Should include upper (0x0001)");
     }
 
+    @Test void stdlibDepsAreResolved() {
+        for (int id : pkt.stdlibDeps) {
+            assertSame(StdLib.function(id), pkt.functions[id], String.format("0x%04X", id));
+        }
+    }
+
     // --- Bytecode ---
 
     @Test void instructionCountPositive() {
@@ -251,6 +276,31 @@ class PacketLoaderTest {
         assertEquals(0x04, instr[0]); // COPY
     }
 
+    @Test void flatCodeMatchesInstructions() {
+        int[] code = pkt.code();
+        assertEquals(pkt.instructions.length * Packet.INSTRUCTION_WIDTH, code.length);
+        assertArrayEquals(new int[]{0x04, 0x02, 111, 2, 0}, java.util.Arrays.copyOf(code, 5));
+        assertArrayEquals(Packet.flatten(pkt.instructions), code);
+        assertSame(code, pkt.code());
+    }
+
+    @Test void flatCodeFollowsReplacedInstructions() {
+        Packet p = new Packet();
+        p.instructions = new int[][]{ {Executor.LOAD_NOTHING, 0, 0, 0, 0} };
+        assertArrayEquals(new int[]{Executor.LOAD_NOTHING, 0, 0, 0, 0}, p.code());
+        p.instructions = new int[][]{ {Executor.COPY, 0, 1, 0, 0}, {Executor.JUMP, 0, 2, 0, 0} };
+        assertArrayEquals(new int[]{Executor.COPY, 0, 1, 0, 0, Executor.JUMP, 0, 2, 0, 0}, p.code());
+    }
+
+    @Test void rejectInternalOpcodes() {
+        ByteBuffer buf = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put(0, (byte) Executor.LOAD_CONST);
+        buf.put(8, (byte) Executor.LOAD_CONST_ADD);
+        HelunaException e = assertThrows(HelunaException.class,
+                () -> PacketLoader.parseBytecode(buf, new int[]{0, 16}, new Packet()));
+        assertEquals("Opcode 0xE0 at pc=1 is internal to the VM", e.getMessage());
+    }
+
     // --- Hand-crafted header test ---
 
     @Test void parseMinimalHeader() {
@@ -0,0 +1,223 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static io.heluna.vm.TestPackets.instr;
+import static io.heluna.vm.TestPackets.makePacket;
+
+import java.io.IOException;
+
+class PacketOptimizerTest {
+
+    private static final String TIMESTAMP = "2024-01-15T10:30:00Z";
+
+    // A packet with one integer input "x" in slot 0 and its output record in slot 1
+    private static Packet inputPacket(int scratchpadSize, HVal[] constants, int[][] instructions) {
+        Packet pkt = makePacket(scratchpadSize, constants, instructions);
+        pkt.inputFieldCount = 1;
+        pkt.inputFields.add(new Packet.FieldDef("x", HVal.TYPE_INTEGER, 0, 0));
+        return pkt;
+    }
+
+    private static String run(Packet pkt, String input) {
+        try {
+            return HelunaVM.executeJson(pkt, input, TIMESTAMP);
+        } catch (HelunaException e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    // Optimize the packet and check every input gives the same output or error as before
+    private static PacketOptimizer.Report assertSameResults(Packet pkt, String... inputs) {
+        String[] expected = new String[inputs.length];
+        for (int i = 0; i < inputs.length; i++) expected[i] = run(pkt, inputs[i]);
+        PacketOptimizer.Report report = HelunaVM.optimize(pkt);
+        for (int i = 0; i < inputs.length; i++) {
+            assertEquals(expected[i], run(pkt, inputs[i]), inputs[i]);
+        }
+        return report;
+    }
+
+    private static int opcodeCount(Packet pkt, int opcode) {
+        int n = 0;
+        for (int[] in : pkt.instructions) {
+            if (in[0] == opcode) n++;
+        }
+        return n;
+    }
+
+    @Test void constantArithmeticIsFolded() {
+        Packet pkt = inputPacket(6,
+                new HVal[]{HVal.HInteger.of(6), HVal.HInteger.of(7), new HVal.HString("answer"),
+                           new HVal.HString("n")},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 2, 0, 0),
+                    instr(Executor.LOAD_CONST, 0, 3, 1, 0),
+                    instr(Executor.MUL, 0, 4, 2, 3),
+                    instr(Executor.RECORD_NEW, 0, 1, 0, 0),
+                    instr(Executor.RECORD_SET_C, 0, 1, 2, 4),
+                    instr(Executor.RECORD_SET_C, 0, 1, 3, 0),
+                });
+        PacketOptimizer.Report report = assertSameResults(pkt, "{\"x\":1}");
+        assertEquals(1, report.folded());
+        assertEquals(2, report.deadStores());
+        assertEquals(4, pkt.instructions.length);
+        assertArrayEquals(instr(Executor.LOAD_CONST, 0, 4, 4, 0), pkt.instructions[0]);
+        assertEquals(HVal.HInteger.of(42), pkt.constants.get(4));
+        assertEquals("{\"answer\":42,\"n\":1}", run(pkt, "{\"x\":1}"));
+    }
+
+    @Test void copiesArePropagatedAndDropped() {
+        Packet pkt = inputPacket(5,
+                new HVal[]{HVal.HInteger.of(1), new HVal.HString("y")},
+                new int[][]{
+                    instr(Executor.COPY, 0, 2, 0, 0),
+                    instr(Executor.COPY, 0, 3, 2, 0),
+                    instr(Executor.LOAD_CONST, 0, 4, 0, 0),
+                    instr(Executor.ADD, 0, 4, 3, 4),
+                    instr(Executor.RECORD_NEW_SET_C, 0, 1, 1, 4),
+                });
+        PacketOptimizer.Report report = assertSameResults(pkt, "{\"x\":41}", "{\"x\":\"s\"}");
+        assertEquals(2, report.propagated());
+        assertEquals(2, report.deadStores());
+        assertArrayEquals(instr(Executor.ADD, 0, 4, 0, 4), pkt.instructions[1]);
+        assertEquals("{\"y\":42}", run(pkt, "{\"x\":41}"));
+    }
+
+    @Test void copiesStopAtChangesToEitherSide() {
+        Packet pkt = inputPacket(5,
+                new HVal[]{new HVal.HString("k"), HVal.HInteger.of(2)},
+                new int[][]{
+                    instr(Executor.RECORD_NEW, 0, 1, 0, 0),
+                    instr(Executor.COPY, 0, 2, 0, 0),
+                    instr(Executor.LOAD_CONST, 0, 0, 1, 0),    // source changes
+                    instr(Executor.ADD, 0, 3, 2, 0),           // must still read the copy
+                    instr(Executor.RECORD_SET_C, 0, 1, 0, 3),
+                });
+        PacketOptimizer.Report report = assertSameResults(pkt, "{\"x\":5}");
+        assertEquals(0, report.propagated());
+        assertEquals("{\"k\":7}", run(pkt, "{\"x\":5}"));
+    }
+
+    @Test void instructionsThatCanFailAreKept() {
+        Packet pkt = inputPacket(5,
+                new HVal[]{HVal.HInteger.of(0)},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 2, 0, 0),
+                    instr(Executor.DIV, 0, 3, 0, 2),           // result unused, but fails
+                    instr(Executor.NOT, 0, 4, 0, 0),           // result unused, fails on non-booleans
+                    instr(Executor.RECORD_NEW, 0, 1, 0, 0),
+                });
+        PacketOptimizer.Report report = assertSameResults(pkt, "{\"x\":1}");
+        assertEquals(0, report.removed());
+        assertEquals(0, report.folded());
+        assertEquals("error: Division by zero", run(pkt, "{\"x\":1}"));
+    }
+
+    @Test void noOpsAreDroppedAndJumpsRelocated() {
+        Packet pkt = inputPacket(4,
+                new HVal[]{HVal.HInteger.of(3), new HVal.HString("x"), HVal.HInteger.of(1)},
+                new int[][]{
+                    instr(Executor.LOAD_FIELD, 0, 0, 0, 0),    // 0: field 0 is already in slot 0
+                    instr(Executor.LOAD_CONST, 0, 2, 0, 0),    // 1: limit
+                    instr(Executor.LOAD_CONST, 0, 3, 2, 0),    // 2: one
+                    instr(Executor.JUMP, 0, 4, 0, 0),          // 3: to the next instruction
+                    instr(Executor.CMP_JUMP_LT, 0, 7, 0, 2),   // 4: exit unless x < limit
+                    instr(Executor.ADD, 0, 0, 0, 3),           // 5
+                    instr(Executor.JUMP, 0, 4, 0, 0),          // 6: back to 4
+                    instr(Executor.RECORD_NEW_SET_C, 0, 1, 1, 0),
+                });
+        PacketOptimizer.Report report = assertSameResults(pkt, "{\"x\":0}", "{\"x\":7}", "{\"x\":\"a\"}");
+        assertEquals(2, report.noOps());
+        assertEquals(6, pkt.instructions.length);
+        assertArrayEquals(instr(Executor.CMP_JUMP_LT, 0, 5, 0, 2), pkt.instructions[2]);
+        assertArrayEquals(instr(Executor.JUMP, 0, 2, 0, 0), pkt.instructions[4]);
+        assertEquals("{\"x\":3}", run(pkt, "{\"x\":0}"));
+    }
+
+    @Test void constantBranchesAreFolded() {
+        Packet pkt = inputPacket(4,
+                new HVal[]{HVal.HBoolean.TRUE, HVal.HInteger.of(1), HVal.HInteger.of(2), new HVal.HString("v")},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 2, 0, 0),
+                    instr(Executor.JUMP_IF_NOT, 0, 4, 2, 0),   // never taken
+                    instr(Executor.LOAD_CONST, 0, 3, 1, 0),
+                    instr(Executor.JUMP, 0, 5, 0, 0),
+                    instr(Executor.LOAD_CONST, 0, 3, 2, 0),
+                    instr(Executor.RECORD_NEW_SET_C, 0, 1, 3, 3),
+                });
+        PacketOptimizer.Report report = assertSameResults(pkt, "{\"x\":0}");
+        assertEquals(1, report.folded());
+        assertEquals(0, opcodeCount(pkt, Executor.JUMP_IF_NOT));
+        assertEquals("{\"v\":1}", run(pkt, "{\"x\":0}"));
+    }
+
+    @Test void iterationBodiesAreRelocated() {
+        Packet pkt = inputPacket(7,
+                new HVal[]{HVal.HInteger.of(10), new HVal.HString("r")},
+                new int[][]{
+                    instr(Executor.LIST_NEW, 0, 2, 0, 0),
+                    instr(Executor.LIST_APPEND, 0, 2, 0, 0),
+                    instr(Executor.LIST_APPEND, 0, 2, 0, 0),
+                    instr(Executor.ITER_SETUP, 0, 3, 2, 3),    // MAP, body 3 long
+                    instr(Executor.LOAD_CONST, 0, 6, 0, 0),    // dead
+                    instr(Executor.COPY, 0, 5, 3, 0),
+                    instr(Executor.MUL, 0, 4, 5, 3),
+                    instr(Executor.ITER_COLLECT, 0, 6, 4, 0),
+                    instr(Executor.RECORD_NEW_SET_C, 0, 1, 1, 6),
+                });
+        PacketOptimizer.Report report = assertSameResults(pkt, "{\"x\":3}", "{\"x\":1.5}");
+        assertEquals(2, report.removed());
+        assertArrayEquals(instr(Executor.ITER_SETUP, 0, 3, 2, 1), pkt.instructions[3]);
+        assertEquals("{\"r\":[9,9]}", run(pkt, "{\"x\":3}"));
+    }
+
+    @Test void embeddedTestCasesStillPass() {
+        Packet pkt = inputPacket(3,
+                new HVal[]{HVal.HInteger.of(2), new HVal.HString("double")},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 2, 0, 0),
+                    instr(Executor.MUL, 0, 2, 0, 2),
+                    instr(Executor.RECORD_NEW_SET_C, 0, 1, 1, 2),
+                });
+        pkt.testCases.add(new Packet.TestCase("small", "{\"x\":2}", "{\"double\":4}"));
+        pkt.testCases.add(new Packet.TestCase("negative", "{\"x\":-5}", "{\"double\":-10}"));
+        HelunaVM.optimize(pkt);
+        for (Packet.TestCase tc : pkt.testCases) {
+            assertEquals(tc.outputJson, run(pkt, tc.inputJson), tc.name);
+        }
+    }
+
+    @Test void packetsWithoutControlFlowAreLeftAlone() {
+        Packet pkt = inputPacket(4,
+                new HVal[]{HVal.HInteger.of(1)},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 3, 0, 0),
+                    instr(Executor.ITER_SETUP, 0, 2, 0, 5),    // no ITER_COLLECT
+                });
+        PacketOptimizer.Report report = HelunaVM.optimize(pkt);
+        assertEquals(0, report.removed());
+        assertEquals(2, pkt.instructions.length);
+    }
+
+    @Test void comprehensivePacketGivesTheSameOutputInEveryTier() throws IOException {
+        String emptyLists = TestPackets.COMPREHENSIVE_INPUT
+                .replace("[3,1,4,1,5,9,2,6]", "[]")
+                .replace("[\"banana\",\"apple\",\"cherry\"]", "[]")
+                .replace("\"optional-text\":\"present\"", "\"optional-text\":null");
+        Packet pkt = TestPackets.comprehensive();
+        PacketOptimizer.Report report = assertSameResults(pkt, TestPackets.COMPREHENSIVE_INPUT, emptyLists);
+        assertTrue(report.removed() > 0, report.toString());
+        assertSame(report, pkt.optimization);
+
+        String expected = run(TestPackets.comprehensive(), TestPackets.COMPREHENSIVE_INPUT);
+        for (Executor.Mode mode : Executor.Mode.values()) {
+            HelunaSession session = HelunaVM.newSession(pkt);
+            session.setMode(mode);
+            HVal.HRecord input = (HVal.HRecord) StdLib.parseJsonValue(TestPackets.COMPREHENSIVE_INPUT, new int[]{0});
+            assertEquals(expected, HValJsonWriter.toJson(session.execute(input, TIMESTAMP)), mode.name());
+        }
+        assertTrue(HelunaVM.compile(pkt));
+        assertEquals(expected, run(pkt, TestPackets.COMPREHENSIVE_INPUT));
+    }
+}
@@ -0,0 +1,135 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static io.heluna.vm.TestPackets.instr;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+class PatternCacheTest {
+
+    @Test void patternsAreCompiledOnce() {
+        PatternCache cache = new PatternCache(8, 1000);
+        Pattern p = cache.get("\\d+", 0);
+        assertSame(p, cache.get("\\d+", 0));
+        assertNotSame(p, cache.get("\\d+", Pattern.DOTALL));
+        assertEquals(Pattern.DOTALL, cache.get("\\d+", Pattern.DOTALL).flags());
+        assertEquals(2, cache.size());
+        assertEquals(6, cache.weight());
+        assertEquals(2, cache.hits());
+        assertEquals(2, cache.misses());
+        assertEquals("2 patterns (6 chars), 2 hits, 2 misses, 0 evictions", cache.toString());
+    }
+
+    @Test void leastRecentlyUsedPatternsAreEvicted() {
+        PatternCache cache = new PatternCache(2, 1000);
+        Pattern a = cache.get("a", 0);
+        cache.get("b", 0);
+        assertSame(a, cache.get("a", 0));
+        cache.get("c", 0);                     // evicts b, the least recently used
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        assertSame(a, cache.get("a", 0));
+        long misses = cache.misses();
+        cache.get("b", 0);
+        assertEquals(misses + 1, cache.misses());
+    }
+
+    @Test void totalPatternLengthIsBounded() {
+        PatternCache cache = new PatternCache(100, 10);
+        cache.get("aaaa", 0);
+        cache.get("bbbb", 0);
+        cache.get("cccc", 0);                  // 12 chars: evicts aaaa
+        assertEquals(2, cache.size());
+        assertEquals(8, cache.weight());
+        cache.get("0123456789x", 0);           // longer than the bound on its own
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+        assertEquals(4, cache.evictions());
+        cache.clear();
+        assertEquals("0 patterns (0 chars), 0 hits, 0 misses, 0 evictions", cache.toString());
+    }
+
+    @Test void invalidPatternsAreNotCached() {
+        PatternCache cache = new PatternCache(8, 1000);
+        assertThrows(PatternSyntaxException.class, () -> cache.get("[invalid", 0));
+        assertThrows(PatternSyntaxException.class, () -> cache.get("[invalid", 0));
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test void concurrentLookupsAreCounted() throws InterruptedException {
+        PatternCache cache = new PatternCache(16, 1000);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    assertTrue(cache.get("p" + (i % 8), 0).matcher("p" + (i % 8)).matches());
+                }
+            }));
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        assertEquals(4000, cache.hits() + cache.misses());
+        assertEquals(8, cache.size());
+        assertEquals(0, cache.evictions());
+    }
+
+    @Test void constantPatternsArePrecompiled() {
+        Packet pkt = new Packet();
+        pkt.scratchpadSize = 8;
+        for (String c : new String[]{"value", "a1b22", "pattern", "\\d+", "replacement", "#", "[bad"}) {
+            pkt.constants.add(new HVal.HString(c));
+        }
+        pkt.instructions = new int[][]{
+            instr(Executor.RECORD_NEW, 0, 0, 0, 0),
+            instr(Executor.LOAD_CONST, 0, 1, 0, 0),
+            instr(Executor.LOAD_CONST, 0, 2, 1, 0),
+            instr(Executor.RECORD_SET, 0, 0, 1, 2),    // value: "a1b22"
+            instr(Executor.LOAD_CONST, 0, 1, 2, 0),
+            instr(Executor.LOAD_CONST, 0, 3, 3, 0),
+            instr(Executor.COPY, 0, 2, 3, 0),
+            instr(Executor.RECORD_SET, 0, 0, 1, 2),    // pattern: "\d+", through a copy
+            instr(Executor.RECORD_SET_C, 0, 0, 4, 3),  // replacement: "\d+" is not a pattern here
+            instr(Executor.LOAD_CONST, 0, 4, 6, 0),
+            instr(Executor.RECORD_NEW_SET_C, 0, 5, 2, 4),  // pattern: "[bad" does not compile
+            instr(Executor.STDLIB_CALL, 0, 6, StdLib.REGEX_REPLACE, 0),
+        };
+        assertEquals(1, PatternCache.precompile(pkt));
+        Pattern p = pkt.patterns.get(new PatternCache.Key("\\d+", StdLib.REPLACE_FLAGS));
+        assertNotNull(p);
+        assertNull(pkt.patterns.get(new PatternCache.Key("\\d+", StdLib.MATCH_FLAGS)));
+
+        long misses = PatternCache.shared().misses();
+        Executor ex = new Executor(pkt);
+        StdLib stdLib = new StdLib();
+        stdLib.setPatterns(pkt.patterns);
+        ex.setStdLib(stdLib);
+        ex.setMode(Executor.Mode.INTERPRETER);
+        ex.execute();
+        assertEquals(new HVal.HString("a\\d+b\\d+"), ex.getSlot(6));
+        assertEquals(misses, PatternCache.shared().misses());
+    }
+
+    @Test void packetsWithoutRegexCallsHaveNoPatterns() {
+        Packet pkt = new Packet();
+        pkt.scratchpadSize = 2;
+        pkt.constants.add(new HVal.HString("pattern"));
+        pkt.constants.add(new HVal.HString("x"));
+        pkt.instructions = new int[][]{
+            instr(Executor.LOAD_CONST, 0, 1, 1, 0),
+            instr(Executor.RECORD_NEW_SET_C, 0, 0, 0, 1),
+        };
+        assertEquals(0, PatternCache.precompile(pkt));
+        assertTrue(pkt.patterns.isEmpty());
+    }
+
+    @Test void loadedPacketsPrecompileTheirPatterns() throws IOException {
+        Packet pkt = TestPackets.comprehensive();
+        assertTrue(pkt.patterns.containsKey(new PatternCache.Key("[0-9]+", StdLib.REPLACE_FLAGS)));
+    }
+}
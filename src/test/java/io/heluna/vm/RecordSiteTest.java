@@ -0,0 +1,49 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordSiteTest {
+
+    private static HVal.HRecord record(String... keys) {
+        HVal.HRecord rec = new HVal.HRecord();
+        for (int i = 0; i < keys.length; i++) {
+            rec.set(keys[i], HVal.HInteger.of(i));
+        }
+        return rec;
+    }
+
+    @Test void getReadsAcrossShapes() {
+        RecordSite site = new RecordSite("b");
+        assertEquals(HVal.HInteger.of(1), site.get(record("a", "b")));
+        assertEquals(HVal.HInteger.of(1), site.get(record("a", "b")));
+        assertEquals(HVal.HInteger.of(0), site.get(record("b")));
+        assertEquals(HVal.HNothing.INSTANCE, site.get(record("a")));
+    }
+
+    @Test void setAddsAndOverwrites() {
+        RecordSite site = new RecordSite("c");
+        HVal.HRecord first = record("a");
+        HVal.HRecord second = record("a");
+        site.set(first, HVal.HInteger.of(5));
+        site.set(second, HVal.HInteger.of(6));
+        assertSame(first.shape(), second.shape());
+        assertEquals("{a: 0, c: 6}", second.toString());
+        site.set(second, HVal.HInteger.of(7));
+        assertEquals(HVal.HInteger.of(7), second.get("c"));
+        assertEquals(2, second.size());
+    }
+
+    @Test void dictionaryModeRecordsBypassTheCache() {
+        String[] keys = new String[Shape.MAX_FIELDS + 1];
+        for (int i = 0; i < keys.length; i++) keys[i] = "f" + i;
+        HVal.HRecord big = record(keys);
+        assertNull(big.shape());
+        RecordSite site = new RecordSite("f3");
+        assertEquals(HVal.HInteger.of(3), site.get(big));
+        site.set(big, HVal.HInteger.of(30));
+        assertEquals(HVal.HInteger.of(30), big.get("f3"));
+        new RecordSite("extra").set(big, HVal.HBoolean.TRUE);
+        assertEquals(HVal.HBoolean.TRUE, big.get("extra"));
+    }
+}
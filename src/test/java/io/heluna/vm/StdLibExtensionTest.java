@@ -0,0 +1,170 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static io.heluna.vm.TestPackets.instr;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import org.junit.jupiter.api.io.TempDir;
+
+public class StdLibExtensionTest {
+
+    static final int LUHN = 0x0100, WORDS = 0x0101, BROKEN = 0x0102;
+
+    /** Registered through META-INF/services in the test resources. */
+    public static final class Checksums implements StdLibExtension {
+        @Override
+        public void register(Registry registry) {
+            registry.byPosition(LUHN, "luhn", (a, b, c) -> HVal.HBoolean.of(luhn(a.toString())), "value");
+            registry.byName(WORDS, "words", args -> {
+                HVal.HList words = new HVal.HList();
+                for (String w : args.get("text").toString().trim().split("\\s+")) {
+                    words.add(new HVal.HString(w));
+                }
+                return words;
+            });
+            registry.byName(BROKEN, "broken", args -> {
+                throw new IllegalStateException("no lookup table");
+            });
+        }
+
+        private static boolean luhn(String digits) {
+            int sum = 0;
+            for (int i = 0; i < digits.length(); i++) {
+                int d = digits.charAt(digits.length() - 1 - i) - '0';
+                if (i % 2 == 1) d = d * 2 > 9 ? d * 2 - 9 : d * 2;
+                sum += d;
+            }
+            return sum % 10 == 0;
+        }
+    }
+
+    /** Registers an id the Checksums provider already has. */
+    public static final class Duplicate implements StdLibExtension {
+        @Override
+        public void register(Registry registry) {
+            registry.byName(LUHN, "luhn", args -> args);
+        }
+    }
+
+    // Extensions found through a class loader that adds a services file listing the providers
+    private static StdLib.Extensions load(Path dir, String... providers) throws IOException {
+        Path services = dir.resolve("META-INF/services");
+        Files.createDirectories(services);
+        Files.write(services.resolve(StdLibExtension.class.getName()), Arrays.asList(providers));
+        ClassLoader loader = new URLClassLoader(new URL[]{dir.toUri().toURL()}, StdLibExtensionTest.class.getClassLoader());
+        return StdLib.Extensions.load(ServiceLoader.load(StdLibExtension.class, loader));
+    }
+
+    private static StdLibExtension.Metrics metrics(int id) {
+        for (StdLibExtension.Metrics m : StdLib.extensionMetrics()) {
+            if (m.id() == id) return m;
+        }
+        throw new AssertionError("no metrics for " + id);
+    }
+
+    @Test void extensionsAreCalledLikeBuiltIns() {
+        Packet pkt = new Packet();
+        pkt.scratchpadSize = 5;
+        pkt.constants.add(new HVal.HString("text"));
+        pkt.stdlibDeps.add(LUHN);
+        pkt.stdlibDeps.add(WORDS);
+        pkt.instructions = new int[][]{
+            instr(Executor.STDLIB_CALL_1, 0, 1, LUHN, 0),
+            instr(Executor.RECORD_NEW, 0, 2, 0, 0),
+            instr(Executor.LOAD_CONST, 0, 3, 0, 0),
+            instr(Executor.RECORD_SET, 0, 2, 3, 0),
+            instr(Executor.STDLIB_CALL, 0, 4, WORDS, 2),
+        };
+        pkt.functions = StdLib.resolve(pkt);
+        assertArrayEquals(new String[]{"value"}, pkt.functions[LUHN].parameters);
+        long calls = metrics(LUHN).calls();
+
+        Executor ex = new Executor(pkt);
+        ex.setStdLib(new StdLib());
+        ex.setMode(Executor.Mode.INTERPRETER);
+        ex.setSlot(0, new HVal.HString("79927398713"), 2);
+        ex.execute();
+        assertEquals(HVal.HBoolean.TRUE, ex.getSlot(1));
+        assertEquals(2, ex.getTag(1));
+        assertEquals("[\"79927398713\"]", HValJsonWriter.toJson(ex.getSlot(4)));
+        assertEquals(2, ex.getTag(4));
+        assertEquals(calls + 1, metrics(LUHN).calls());
+        assertTrue(metrics(WORDS).calls() > 0);
+    }
+
+    @Test void extensionsTakeTheirArgumentsByNameOrPosition() {
+        StdLib stdLib = new StdLib();
+        HVal.HRecord args = new HVal.HRecord();
+        args.set("value", new HVal.HString("79927398710"));
+        assertEquals(HVal.HBoolean.FALSE, stdLib.call(LUHN, args));
+        HVal n = HVal.HNothing.INSTANCE;
+        assertEquals(HVal.HBoolean.TRUE, stdLib.call(LUHN, new HVal.HString("4539578763621486"), n, n));
+        assertArrayEquals(new String[]{"value"}, StdLib.parameters(LUHN));
+        assertNull(StdLib.parameters(WORDS));
+    }
+
+    @Test void failuresAreCountedAndReported() {
+        StdLibExtension.Metrics m = metrics(BROKEN);
+        long failures = m.failures();
+        HelunaException e = assertThrows(HelunaException.class,
+                () -> new StdLib().call(BROKEN, new HVal.HRecord()));
+        assertEquals("Stdlib function broken (0x0102) failed: java.lang.IllegalStateException: no lookup table",
+                e.getMessage());
+        assertEquals(failures + 1, m.failures());
+        assertTrue(m.toString().startsWith("broken (0x0102): "), m.toString());
+    }
+
+    @Test void unregisteredExtensionsFailToResolve() {
+        Packet pkt = new Packet();
+        pkt.stdlibDeps.add(0x0103);
+        pkt.instructions = new int[0][];
+        HelunaException e = assertThrows(HelunaException.class, () -> StdLib.resolve(pkt));
+        assertEquals("Packet depends on unknown stdlib function 0x0103", e.getMessage());
+    }
+
+    @Test void registrationsAreChecked() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> new StdLib.Extensions(
+                Collections.singletonList(r -> r.byName(0x0001, "upper", args -> args))));
+        assertEquals("Stdlib function id 0x0001 is outside the extension range 0x0100-0xFFFF", e.getMessage());
+
+        e = assertThrows(IllegalArgumentException.class, () -> new StdLib.Extensions(
+                Collections.singletonList(r -> {
+                    r.byName(0x0200, "a", args -> args);
+                    r.byName(0x0200, "b", args -> args);
+                })));
+        assertEquals("Stdlib function 0x0200 is registered twice", e.getMessage());
+
+        e = assertThrows(IllegalArgumentException.class, () -> new StdLib.Extensions(
+                Collections.singletonList(r -> r.byPosition(0x0200, "four", (a, b, c) -> a, "a", "b", "c", "d"))));
+        assertEquals("Stdlib function 0x0200 takes 1 to 3 parameters by position, not 4", e.getMessage());
+    }
+
+    @Test void failedRegistrationsAreReportedWhenExtensionsAreResolved(@TempDir Path dir) throws IOException {
+        Packet pkt = new Packet();
+        pkt.stdlibDeps.add(0x0001);
+        pkt.instructions = new int[0][];
+        StdLib.Extensions duplicate = load(dir.resolve("duplicate"), Duplicate.class.getName());
+        assertNotNull(StdLib.resolve(pkt, duplicate)[0x0001]);     // built-ins still resolve
+
+        pkt.stdlibDeps.add(LUHN);
+        HelunaException e = assertThrows(HelunaException.class, () -> StdLib.resolve(pkt, duplicate));
+        assertEquals("Stdlib extensions failed to register: "
+                + "java.lang.IllegalArgumentException: Stdlib function 0x0100 is registered twice", e.getMessage());
+        assertThrows(HelunaException.class, () -> StdLib.resolve(pkt, duplicate));   // and every time after
+
+        StdLib.Extensions missing = load(dir.resolve("missing"), "io.heluna.vm.NoSuchExtension");
+        e = assertThrows(HelunaException.class, () -> StdLib.resolve(pkt, missing));
+        assertTrue(e.getCause() instanceof ServiceConfigurationError, e.toString());
+        assertTrue(e.getMessage().startsWith("Stdlib extensions failed to register: "), e.getMessage());
+    }
+}
@@ -4,6 +4,10 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
 class StdLibTest {
 
     private StdLib stdlib;
@@ -225,6 +229,103 @@ class StdLibTest {
                 rec("value", "hello", "pattern", "\\d+", "replacement", "X")));
     }
 
+    @Test void regexMatchSpansLines() {
+        assertEquals(HVal.HBoolean.TRUE, stdlib.call(0x0010, rec("value", "a\nb", "pattern", "a.b")));
+        assertEquals(s("X"), stdlib.call(0x0011, rec("value", "a\nb", "pattern", "a.b|a\nb", "replacement", "X")));
+    }
+
+    @Test void repeatedPatternsSkipTheSharedCache() {
+        String regex = "^repeat-" + System.nanoTime() + "$";
+        Pattern first = stdlib.pattern(regex, StdLib.MATCH_FLAGS);
+        long hits = PatternCache.shared().hits();
+        for (int i = 0; i < 10; i++) assertSame(first, stdlib.pattern(regex, StdLib.MATCH_FLAGS));
+        assertEquals(hits, PatternCache.shared().hits());
+        Pattern replace = stdlib.pattern(regex, StdLib.REPLACE_FLAGS);
+        assertEquals(StdLib.REPLACE_FLAGS, replace.flags());
+        assertNotSame(first, replace);
+    }
+
+    @Test void regexUsesThePacketsPatternsFirst() {
+        Map<PatternCache.Key, Pattern> patterns = new HashMap<>();
+        patterns.put(new PatternCache.Key("x", StdLib.REPLACE_FLAGS), Pattern.compile("y"));
+        stdlib.setPatterns(patterns);
+        assertEquals(s("xX"), stdlib.call(0x0011, rec("value", "xy", "pattern", "x", "replacement", "X")));
+        assertEquals(HVal.HBoolean.TRUE, stdlib.call(0x0010, rec("value", "x", "pattern", "x")));
+    }
+
+    // ========== Positional Calls ==========
+
+    @Test void positionalCallsMatchRecordCalls() {
+        HVal n = HVal.HNothing.INSTANCE;
+        assertEquals(s("HELLO"), stdlib.call(0x0001, s("hello"), n, n));
+        assertEquals(stdlib.call(0x0006, rec("value", "hello", "start", 1, "end", 3)),
+                stdlib.call(0x0006, s("hello"), i(1), i(3)));
+        assertEquals(stdlib.call(0x0006, rec("value", "hello", "start", 1)),
+                stdlib.call(0x0006, s("hello"), i(1), n));
+        assertEquals(stdlib.call(0x0007, rec("value", "a-b-c", "find", "-", "replacement", "+")),
+                stdlib.call(0x0007, s("a-b-c"), s("-"), s("+")));
+        assertEquals(stdlib.call(0x000C, rec("value", "hello", "substring", "ell")),
+                stdlib.call(0x000C, s("hello"), s("ell"), n));
+        assertEquals(stdlib.call(0x000E, rec("value", "7", "width", 3, "fill", "0")),
+                stdlib.call(0x000E, s("7"), i(3), s("0")));
+        assertEquals(stdlib.call(0x0011, rec("value", "a1b22", "pattern", "[0-9]+", "replacement", "#")),
+                stdlib.call(0x0011, s("a1b22"), s("[0-9]+"), s("#")));
+        assertEquals(i(3), stdlib.call(0x0024, i(3), i(8), n));
+        assertEquals(i(10), stdlib.call(0x0026, i(12), i(0), i(10)));
+        assertEquals(stdlib.call(0x0071, rec("value", "msg", "key", "k")),
+                stdlib.call(0x0071, s("msg"), s("k"), n));
+    }
+
+    @Test void parametersAreListedInArgumentOrder() {
+        assertArrayEquals(new String[]{"value"}, StdLib.parameters(0x0001));
+        assertArrayEquals(new String[]{"value", "start", "end"}, StdLib.parameters(0x0006));
+        assertArrayEquals(new String[]{"list", "delimiter"}, StdLib.parameters(0x0009));
+        assertArrayEquals(new String[]{"value", "low", "high"}, StdLib.parameters(0x0026));
+        assertNull(StdLib.parameters(0x0000));
+        assertNull(StdLib.parameters(0x0030));
+        assertNull(StdLib.parameters(0x7FFF));
+    }
+
+    @Test void recordOnlyFunctionsRejectPositionalCalls() {
+        HVal n = HVal.HNothing.INSTANCE;
+        HelunaException e = assertThrows(HelunaException.class,
+                () -> stdlib.call(0x0030, listOf(i(1)), n, n));
+        assertEquals("Stdlib function 0x0030 takes its arguments as a record", e.getMessage());
+    }
+
+    @Test void packetsResolveTheFunctionsTheyCall() {
+        Packet pkt = new Packet();
+        pkt.stdlibDeps.add(0x0001);
+        pkt.instructions = new int[][]{
+            {Executor.STDLIB_CALL, 0, 1, 0x0007, 0},    // not listed as a dependency
+            {Executor.STDLIB_CALL_1, 0, 2, 0x0000, 0},  // the passthrough
+        };
+        StdLib.Function[] functions = StdLib.resolve(pkt);
+        assertEquals(8, functions.length);
+        assertSame(StdLib.function(0x0001), functions[0x0001]);
+        assertSame(StdLib.function(0x0007), functions[0x0007]);
+        assertNull(functions[0x0000]);
+        assertEquals(s("HELLO"), functions[0x0001].call(stdlib, rec("value", "hello")));
+    }
+
+    @Test void unknownFunctionsFailToResolve() {
+        Packet dependency = new Packet();
+        dependency.stdlibDeps.add(0x0099);
+        dependency.instructions = new int[0][];
+        HelunaException e = assertThrows(HelunaException.class, () -> StdLib.resolve(dependency));
+        assertEquals("Packet depends on unknown stdlib function 0x0099", e.getMessage());
+
+        Packet call = new Packet();
+        call.instructions = new int[][]{
+            {Executor.LOAD_NOTHING, 0, 0, 0, 0},
+            {Executor.STDLIB_CALL_1, 0, 1, 0x0055, 0},
+        };
+        e = assertThrows(HelunaException.class, () -> StdLib.resolve(call));
+        assertEquals("Unknown stdlib function 0x0055 at pc=1", e.getMessage());
+        e = assertThrows(HelunaException.class, () -> stdlib.call(0x0055, rec()));
+        assertEquals("Unknown stdlib function 0x0055", e.getMessage());
+    }
+
     // ========== Numeric Functions ==========
 
     @Test void absPositive() {
@@ -580,6 +681,61 @@ class StdLibTest {
         assertEquals(s("2024-01-03T10:00:00Z"), result);
     }
 
+    @Test void dateDiffTruncatesPartialUnits() {
+        assertEquals(i(0), stdlib.call(0x0052,
+                rec("from", "2024-01-01T10:00:00Z", "to", "2024-01-02T09:59:59Z", "unit", "days")));
+        assertEquals(i(-23), stdlib.call(0x0052,
+                rec("from", "2024-01-02T09:00:00", "to", "2024-01-01T09:30:00", "unit", "hours")));
+        assertEquals(i(527040), stdlib.call(0x0052,
+                rec("from", "2024-01-01", "to", "2025-01-01", "unit", "minutes")));
+    }
+
+    @Test void dateDiffFractionalSecondsAndUnknownUnits() {
+        assertEquals(i(1), stdlib.call(0x0052,
+                rec("from", "2024-01-01T00:00:00.250Z", "to", "2024-01-01T00:00:01.500Z", "unit", "seconds")));
+        HelunaException e = assertThrows(HelunaException.class, () -> stdlib.call(0x0052,
+                rec("from", "2024-01-01", "to", "2024-01-02", "unit", "weeks")));
+        assertEquals("dateDiff: unknown unit weeks", e.getMessage());
+    }
+
+    @Test void dateAddMonthsKeepsTheDayOrTheLastDay() {
+        assertEquals(s("2024-02-29"), stdlib.call(0x0053,
+                rec("date", "2024-01-31", "amount", 1, "unit", "months")));
+        assertEquals(s("2025-02-28T08:00:00Z"), stdlib.call(0x0053,
+                rec("date", "2024-02-29T08:00:00Z", "amount", 1, "unit", "years")));
+        assertEquals(s("2023-12-31T23:59:59Z"), stdlib.call(0x0053,
+                rec("date", "2024-01-01T00:00:00", "amount", -1, "unit", "seconds")));
+    }
+
+    @Test void dateAddOutsideFourDigitYears() {
+        assertEquals(s("+10000-01-01"), stdlib.call(0x0053,
+                rec("date", "9999-12-31", "amount", 1, "unit", "days")));
+        HelunaException e = assertThrows(HelunaException.class, () -> stdlib.call(0x0053,
+                rec("date", "2024-01-01", "amount", 1, "unit", "weeks")));
+        assertEquals("dateAdd: unknown unit weeks", e.getMessage());
+    }
+
+    @Test void parseDateOtherFormats() {
+        HVal.HRecord result = (HVal.HRecord) stdlib.call(0x0050,
+                rec("value", "15/03/2024 10:30:05", "format", "%d/%m/%Y %H:%M:%S"));
+        assertEquals(i(2024), result.get("year"));
+        assertEquals(i(5), result.get("second"));
+        assertThrows(java.time.format.DateTimeParseException.class, () -> stdlib.call(0x0050,
+                rec("value", "12024-03-15 10:30:00", "format", "%Y-%m-%d %H:%M:%S")));
+        result = (HVal.HRecord) stdlib.call(0x0050,
+                rec("value", "2024-02-30 10:30:00", "format", "%Y-%m-%d %H:%M:%S"));
+        assertEquals(i(29), result.get("day"));     // resolved to the last day of the month
+    }
+
+    @Test void formatDateValidatesFieldsBeforeTheFormat() {
+        HVal.HRecord date = rec("year", 2024, "month", 13, "day", 1, "hour", 0, "minute", 0, "second", 0);
+        assertThrows(java.time.DateTimeException.class,
+                () -> stdlib.call(0x0051, rec("date", date, "format", "%Q")));
+        date.set("month", i(12));
+        assertEquals(s("01.12.2024 00:00"),
+                stdlib.call(0x0051, rec("date", date, "format", "%d.%m.%Y %H:%M")));
+    }
+
     @Test void nowDate() {
         assertEquals(s("2024-06-15T12:30:00Z"), stdlib.call(0x0054, rec()));
     }
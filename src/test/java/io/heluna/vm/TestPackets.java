@@ -0,0 +1,108 @@
+package io.heluna.vm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/** Packets and inputs shared by the tests. */
+final class TestPackets {
+
+    /** JSON input for the comprehensive packet, with a circle as the shape. */
+    static final String COMPREHENSIVE_INPUT = comprehensiveInput("circle");
+
+    private TestPackets() {}
+
+    // Helper: build a minimal Packet with given constants and instructions
+    static Packet makePacket(int scratchpadSize, HVal[] constants, int[][] instructions) {
+        Packet pkt = new Packet();
+        pkt.scratchpadSize = scratchpadSize;
+        pkt.constants.addAll(Arrays.asList(constants));
+        pkt.instructions = instructions;
+        return pkt;
+    }
+
+    static int[] instr(int opcode, int flags, int dest, int op1, int op2) {
+        return new int[]{opcode, flags, dest, op1, op2};
+    }
+
+    static int[] instr(int opcode, int dest, int op1, int op2) {
+        return instr(opcode, 0, dest, op1, op2);
+    }
+
+    /** Sums 0..9 in a loop, upper-casing a string on every iteration. */
+    static Packet loopPacket() {
+        Packet pkt = new Packet();
+        pkt.scratchpadSize = 6;
+        pkt.constants.add(HVal.HInteger.of(0));
+        pkt.constants.add(HVal.HInteger.of(1));
+        pkt.constants.add(HVal.HInteger.of(10));
+        pkt.constants.add(new HVal.HString("abc"));
+        pkt.instructions = new int[][]{
+            instr(Executor.LOAD_CONST, 0, 0, 0, 0),       // i = 0
+            instr(Executor.LOAD_CONST, 0, 1, 1, 0),       // one
+            instr(Executor.LOAD_CONST, 0, 2, 2, 0),       // n
+            instr(Executor.LOAD_CONST, 0, 3, 0, 0),       // sum = 0
+            instr(Executor.LOAD_CONST, 0, 5, 3, 0),
+            instr(Executor.CMP_JUMP_LT, 0, 10, 0, 2),     // exit unless i < n
+            instr(Executor.ADD, 0, 3, 3, 0),
+            instr(Executor.STDLIB_CALL_1, 0, 4, 0x0001, 5),
+            instr(Executor.ADD, 0, 0, 0, 1),
+            instr(Executor.JUMP, 0, 5, 0, 0),
+        };
+        return pkt;
+    }
+
+    /** The vm-comprehensive packet from the test resources, freshly loaded. */
+    static Packet comprehensive() throws IOException {
+        try (InputStream is = TestPackets.class.getResourceAsStream("/vm-comprehensive.hlna")) {
+            if (is == null) throw new IOException("vm-comprehensive.hlna not found on classpath");
+            return HelunaVM.load(is.readAllBytes());
+        }
+    }
+
+    /** JSON input for the comprehensive packet with the given shape-kind: circle, rectangle or square. */
+    static String comprehensiveInput(String shapeKind) {
+        return "{\"text\":\"  Hello World  \",\"word\":\"hello\",\"number\":17,"
+                + "\"decimal\":3.14,\"flag\":true,\"optional-text\":\"present\","
+                + "\"optional-number\":42,\"items\":[3,1,4,1,5,9,2,6],"
+                + "\"names\":[\"banana\",\"apple\",\"cherry\"],"
+                + "\"nested-numbers\":[[1,2],[3,4],[5]],"
+                + "\"person\":{\"name\":\"Alice\",\"age\":30},"
+                + "\"people\":[{\"name\":\"Charlie\",\"age\":25},"
+                + "{\"name\":\"Alice\",\"age\":30},{\"name\":\"Bob\",\"age\":20}],"
+                + "\"encode-text\":\"Hello World!\",\"secret-value\":\"secret123\","
+                + "\"personal-name\":\"John Doe\",\"negative\":-7,\"zero\":0,"
+                + "\"shape-kind\":\"" + shapeKind + "\",\"dimension-a\":5.0,\"dimension-b\":3.0}";
+    }
+
+    /** {@link #COMPREHENSIVE_INPUT} parsed to a record. */
+    static HVal.HRecord comprehensiveRecord() {
+        return (HVal.HRecord) JsonReader.parse(COMPREHENSIVE_INPUT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // 100 / n, wrapped as {result: ...}; fails with division by zero for n = 0
+    static Packet divPacket() {
+        Packet p = new Packet();
+        p.scratchpadSize = 5;
+        p.inputFieldCount = 1;
+        p.outputFieldCount = 1;
+        p.inputFields.add(new Packet.FieldDef("n", HVal.TYPE_INTEGER, 0, 0));
+        p.outputFields.add(new Packet.FieldDef("result", HVal.TYPE_INTEGER, 0, 1));
+        p.constants.add(new HVal.HInteger(100)); // constant 0
+        p.constants.add(new HVal.HString("result")); // constant 1
+        p.instructions = new int[][]{
+                {0x01, 0, 3, 0, 0},     // LOAD_CONST slot3 = 100
+                {0x13, 0, 4, 3, 0},     // DIV slot4 = 100 / n
+                {0xC3, 0, 2, 1, 4},     // RECORD_NEW_SET_C slot2 = {result: slot4}
+        };
+        return p;
+    }
+
+    /** Input {n: n} for {@link #divPacket()}. */
+    static HVal.HRecord divInput(long n) {
+        HVal.HRecord r = new HVal.HRecord();
+        r.set("n", new HVal.HInteger(n));
+        return r;
+    }
+}
@@ -0,0 +1,132 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static io.heluna.vm.TestPackets.instr;
+
+import java.util.concurrent.TimeUnit;
+
+class TieredCompilerTest {
+
+    private long savedExecutions;
+    private long savedBackedges;
+
+    @BeforeEach
+    void saveThresholds() {
+        savedExecutions = TieredCompiler.executionThreshold();
+        savedBackedges = TieredCompiler.backedgeThreshold();
+    }
+
+    @AfterEach
+    void restoreThresholds() {
+        TieredCompiler.setThresholds(savedExecutions, savedBackedges);
+    }
+
+    // slot2 = const0 + const1
+    private static Packet addPacket() {
+        Packet pkt = new Packet();
+        pkt.scratchpadSize = 3;
+        pkt.constants.add(new HVal.HInteger(40));
+        pkt.constants.add(new HVal.HInteger(2));
+        pkt.instructions = new int[][]{
+            instr(Executor.LOAD_CONST, 0, 0, 0, 0),
+            instr(Executor.LOAD_CONST, 0, 1, 1, 0),
+            instr(Executor.ADD, 0, 2, 0, 1),
+        };
+        return pkt;
+    }
+
+    private static void run(Packet pkt, int times) {
+        Executor ex = new Executor(pkt);
+        for (int i = 0; i < times; i++) {
+            ex.reset();
+            ex.execute();
+            assertEquals(new HVal.HInteger(42), ex.getSlot(2));
+        }
+    }
+
+    @Test void hotPacketIsPromoted() throws InterruptedException {
+        TieredCompiler.setThresholds(10, 0);
+        Packet pkt = addPacket();
+        run(pkt, 9);
+        assertEquals(PacketProfile.Tier.INTERPRETED, pkt.profile.tier());
+        assertEquals(9, pkt.profile.executions());
+
+        run(pkt, 1);
+        assertTrue(TieredCompiler.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(PacketProfile.Tier.COMPILED, pkt.profile.tier());
+        assertNotNull(pkt.compiled);
+        assertTrue(pkt.profile.compileNanos() > 0);
+
+        // Compiled runs no longer go through the interpreter's profile
+        run(pkt, 5);
+        assertEquals(10, pkt.profile.executions());
+    }
+
+    @Test void loopHeavyPacketIsPromotedByBackedges() throws InterruptedException {
+        TieredCompiler.setThresholds(0, 50);
+        Packet pkt = new Packet();
+        pkt.scratchpadSize = 6;
+        pkt.constants.add(new HVal.HInteger(1));
+        int[][] code = new int[2 + 20 * 2 + 3][];
+        int n = 0;
+        code[n++] = instr(Executor.LIST_NEW, 0, 0, 0, 0);
+        code[n++] = instr(Executor.LOAD_CONST, 0, 1, 0, 0);
+        for (int i = 0; i < 20; i++) {
+            code[n++] = instr(Executor.LIST_APPEND, 0, 0, 1, 0);
+            code[n++] = instr(Executor.COPY, 0, 5, 1, 0);
+        }
+        code[n++] = instr(Executor.ITER_SETUP, 0, 2, 0, 1);
+        code[n++] = instr(Executor.ADD, 0, 3, 2, 1);
+        code[n++] = instr(Executor.ITER_COLLECT, 0, 4, 3, 0);
+        pkt.instructions = code;
+
+        Executor ex = new Executor(pkt);
+        for (int i = 0; i < 3; i++) {
+            ex.reset();
+            ex.execute();
+        }
+        assertEquals(57, pkt.profile.backedges()); // 19 repeats per run
+        assertTrue(TieredCompiler.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(PacketProfile.Tier.COMPILED, pkt.profile.tier());
+        ex.reset();
+        ex.execute();
+        assertEquals(20, ((HVal.HList) ex.getSlot(4)).size());
+    }
+
+    @Test void uncompilablePacketStaysInterpreted() throws InterruptedException {
+        TieredCompiler.setThresholds(2, 0);
+        Packet pkt = addPacket();
+        // A negative jump target is never reached at runtime but rejected by the compiler
+        pkt.instructions = new int[][]{ pkt.instructions[0], pkt.instructions[1],
+                instr(Executor.JUMP, 0, 4, 0, 0), instr(Executor.JUMP, 0, -1, 0, 0),
+                instr(Executor.ADD, 0, 2, 0, 1) };
+        run(pkt, 3);
+        assertTrue(TieredCompiler.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(PacketProfile.Tier.NOT_COMPILABLE, pkt.profile.tier());
+        assertNull(pkt.compiled);
+        // Counting stopped when the packet was queued for compilation
+        assertEquals(2, pkt.profile.executions());
+        run(pkt, 3);
+        assertEquals(2, pkt.profile.executions());
+    }
+
+    @Test void zeroThresholdsDisableTiering() throws InterruptedException {
+        TieredCompiler.setThresholds(0, 0);
+        Packet pkt = addPacket();
+        run(pkt, 2000);
+        assertTrue(TieredCompiler.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals(PacketProfile.Tier.INTERPRETED, pkt.profile.tier());
+        assertEquals(-1, pkt.profile.compileNanos());
+        assertEquals(0, pkt.profile.executions());
+    }
+
+    @Test void explicitCompileUpdatesProfile() {
+        Packet pkt = addPacket();
+        assertTrue(HelunaVM.compile(pkt));
+        assertEquals(PacketProfile.Tier.COMPILED, pkt.profile.tier());
+        assertTrue(pkt.profile.toString().startsWith("COMPILED after 0 executions"), pkt.profile.toString());
+    }
+}
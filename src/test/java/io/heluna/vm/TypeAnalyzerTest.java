@@ -0,0 +1,181 @@
+package io.heluna.vm;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static io.heluna.vm.TestPackets.instr;
+import static io.heluna.vm.TestPackets.makePacket;
+
+import java.io.IOException;
+
+class TypeAnalyzerTest {
+
+    private static int typedOpcode(Packet pkt, int pc) {
+        return pkt.typedCode.code[pc * Packet.INSTRUCTION_WIDTH];
+    }
+
+    private static Executor run(Packet pkt, HVal... inputs) {
+        Executor ex = new Executor(pkt);
+        ex.setMode(Executor.Mode.INTERPRETER);
+        for (int i = 0; i < inputs.length; i++) ex.setSlot(pkt.inputFields.get(i).scratchpadOffset, inputs[i]);
+        ex.execute();
+        return ex;
+    }
+
+    @Test void provenArithmeticIsSpecialized() {
+        Packet pkt = makePacket(6,
+                new HVal[]{HVal.HInteger.of(3), HVal.HInteger.of(4), new HVal.HFloat(0.5)},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 0, 0, 0),
+                    instr(Executor.LOAD_CONST, 0, 1, 1, 0),
+                    instr(Executor.LOAD_CONST, 0, 2, 2, 0),
+                    instr(Executor.MUL, 0, 3, 0, 1),      // int * int
+                    instr(Executor.ADD, 0, 4, 2, 2),      // float + float
+                    instr(Executor.SUB, 0, 5, 3, 2),      // int - float: stays generic
+                });
+        assertEquals(2, TypeAnalyzer.specialize(pkt));
+        assertEquals(Executor.MUL_II, typedOpcode(pkt, 3));
+        assertEquals(Executor.ADD_FF, typedOpcode(pkt, 4));
+        assertEquals(Executor.SUB, typedOpcode(pkt, 5));
+        assertEquals(Executor.MUL, pkt.instructions[3][0]); // the generic code is left alone
+
+        Executor ex = run(pkt);
+        assertEquals(HVal.HInteger.of(12), ex.getSlot(3));
+        assertEquals(new HVal.HFloat(1.0), ex.getSlot(4));
+        assertEquals(new HVal.HFloat(11.5), ex.getSlot(5));
+    }
+
+    @Test void typesMergeAtJoins() {
+        Packet pkt = makePacket(4,
+                new HVal[]{HVal.HInteger.of(1), new HVal.HFloat(1.5), HVal.HBoolean.TRUE},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 3, 2, 0),
+                    instr(Executor.LOAD_CONST, 0, 0, 0, 0),
+                    instr(Executor.JUMP_IF, 0, 4, 3, 0),
+                    instr(Executor.LOAD_CONST, 0, 0, 1, 0),  // slot 0 is int or float here
+                    instr(Executor.ADD, 0, 1, 0, 0),
+                    instr(Executor.LOAD_CONST, 0, 2, 0, 0),
+                    instr(Executor.ADD, 0, 2, 2, 2),         // int on every path
+                });
+        assertEquals(1, TypeAnalyzer.specialize(pkt));
+        assertEquals(Executor.ADD, typedOpcode(pkt, 4));
+        assertEquals(Executor.ADD_II, typedOpcode(pkt, 6));
+    }
+
+    @Test void loopCarriedTypesAreProven() {
+        Packet pkt = makePacket(4,
+                new HVal[]{HVal.HInteger.of(0), HVal.HInteger.of(1), HVal.HInteger.of(100)},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 0, 0, 0),       // i = 0
+                    instr(Executor.LOAD_CONST, 0, 1, 1, 0),       // one
+                    instr(Executor.LOAD_CONST, 0, 2, 2, 0),       // n
+                    instr(Executor.LOAD_CONST, 0, 3, 0, 0),       // sum = 0
+                    instr(Executor.CMP_JUMP_LT, 0, 8, 0, 2),   // exit unless i < n
+                    instr(Executor.ADD, 0, 3, 3, 0),
+                    instr(Executor.ADD, 0, 0, 0, 1),
+                    instr(Executor.JUMP, 0, 4, 0, 0),
+                });
+        assertEquals(2, TypeAnalyzer.specialize(pkt));
+        assertEquals(HVal.HInteger.of(4950), run(pkt).getSlot(3));
+    }
+
+    @Test void inputsAreTrustedOnlyWhenTheyMatchTheContract() {
+        Packet pkt = makePacket(3, new HVal[0],
+                new int[][]{
+                    instr(Executor.ADD, 0, 2, 0, 1),
+                });
+        pkt.inputFields.add(new Packet.FieldDef("a", HVal.TYPE_INTEGER, 0, 0));
+        pkt.inputFields.add(new Packet.FieldDef("b", HVal.TYPE_INTEGER, 0, 1));
+        assertEquals(1, TypeAnalyzer.specialize(pkt));
+        assertEquals(Executor.ADD_II, typedOpcode(pkt, 0));
+
+        HVal[] slots = {HVal.HInteger.of(2), HVal.HInteger.of(3), HVal.HNothing.INSTANCE};
+        assertSame(pkt.typedCode, pkt.interpretedCode(slots));
+        assertEquals(HVal.HInteger.of(5), run(pkt, slots[0], slots[1]).getSlot(2));
+
+        slots[1] = new HVal.HFloat(0.5);
+        assertNotSame(pkt.typedCode, pkt.interpretedCode(slots));
+        assertEquals(new HVal.HFloat(2.5), run(pkt, slots[0], slots[1]).getSlot(2));
+
+        Executor ex = new Executor(pkt);
+        ex.setMode(Executor.Mode.INTERPRETER);
+        ex.setSlot(0, HVal.HInteger.of(2));
+        ex.setSlot(1, new HVal.HString("x"));
+        assertEquals("Arithmetic requires numeric operands, got integer + string",
+                assertThrows(HelunaException.class, ex::execute).getMessage());
+    }
+
+    @Test void maybeInputsStayGeneric() {
+        Packet pkt = makePacket(2, new HVal[0],
+                new int[][]{
+                    instr(Executor.ADD, 0, 1, 0, 0),
+                });
+        pkt.inputFields.add(new Packet.FieldDef("a", HVal.TYPE_MAYBE, 0, 0));
+        assertEquals(0, TypeAnalyzer.specialize(pkt));
+        assertNull(pkt.typedCode);
+    }
+
+    @Test void recordAccessSkipsChecksOnKnownRecords() {
+        Packet pkt = makePacket(6,
+                new HVal[]{new HVal.HString("k"), HVal.HInteger.of(7)},
+                new int[][]{
+                    instr(Executor.RECORD_NEW, 0, 0, 0, 0),
+                    instr(Executor.LOAD_CONST, 0, 1, 0, 0),
+                    instr(Executor.LOAD_CONST, 0, 2, 1, 0),
+                    instr(Executor.RECORD_SET, 0, 0, 1, 2),
+                    instr(Executor.RECORD_GET, 0, 3, 0, 1),
+                    instr(Executor.RECORD_GET_C, 0, 5, 4, 0),  // slot 4 is not known to be a record
+                    instr(Executor.RECORD_SET_C, 0, 4, 0, 3),  // but it is after the get succeeded
+                });
+        pkt.inputFields.add(new Packet.FieldDef("r", HVal.TYPE_MAYBE, 0, 4));
+        assertEquals(3, TypeAnalyzer.specialize(pkt));
+        assertEquals(Executor.RECORD_SET_UNCHECKED, typedOpcode(pkt, 3));
+        assertEquals(Executor.RECORD_GET_UNCHECKED, typedOpcode(pkt, 4));
+        assertEquals(Executor.RECORD_GET_C, typedOpcode(pkt, 5));
+        assertEquals(Executor.RECORD_SET_C_UNCHECKED, typedOpcode(pkt, 6));
+
+        HVal.HRecord input = new HVal.HRecord();
+        Executor ex = run(pkt, input);
+        assertEquals(HVal.HInteger.of(7), ex.getSlot(3));
+        assertEquals("{k: 7}", input.toString());
+    }
+
+    @Test void jumpsOutOfIterationsLeaveCodeGeneric() {
+        Packet pkt = makePacket(5,
+                new HVal[]{HVal.HInteger.of(1)},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 3, 0, 0),
+                    instr(Executor.ADD, 0, 4, 3, 3),
+                    instr(Executor.LIST_NEW, 0, 0, 0, 0),
+                    instr(Executor.ITER_SETUP, 0, 1, 0, 1),
+                    instr(Executor.JUMP, 0, 6, 0, 0),           // leaves the body
+                    instr(Executor.ITER_COLLECT, 0, 2, 1, 0),
+                });
+        assertEquals(0, TypeAnalyzer.specialize(pkt));
+        assertNull(pkt.typedCode);
+    }
+
+    @Test void replacedInstructionsDropTheTypedCode() {
+        Packet pkt = makePacket(2, new HVal[]{HVal.HInteger.of(2)},
+                new int[][]{
+                    instr(Executor.LOAD_CONST, 0, 0, 0, 0),
+                    instr(Executor.ADD, 0, 1, 0, 0),
+                });
+        assertEquals(1, TypeAnalyzer.specialize(pkt));
+        pkt.instructions = new int[][]{
+            instr(Executor.LOAD_CONST, 0, 0, 0, 0),
+            instr(Executor.MUL, 0, 1, 0, 0),
+        };
+        HVal[] slots = {HVal.HNothing.INSTANCE, HVal.HNothing.INSTANCE};
+        assertNotSame(pkt.typedCode, pkt.interpretedCode(slots));
+        assertEquals(HVal.HInteger.of(4), run(pkt).getSlot(1));
+    }
+
+    @Test void comprehensivePacketGivesTheSameOutput() throws IOException {
+        Packet pkt = TestPackets.comprehensive();
+        assertNotNull(pkt.typedCode);
+        String input = TestPackets.COMPREHENSIVE_INPUT;
+        String typed = HelunaVM.executeJson(pkt, input, "2024-01-15T10:30:00Z");
+        pkt.typedCode = null;
+        assertEquals(HelunaVM.executeJson(pkt, input, "2024-01-15T10:30:00Z"), typed);
+    }
+}